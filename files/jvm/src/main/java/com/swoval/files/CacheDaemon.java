@@ -0,0 +1,817 @@
+package com.swoval.files;
+
+import static com.swoval.functional.Filters.AllPass;
+
+import com.swoval.concurrent.ThreadFactory;
+import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeViews.Observable;
+import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.files.PathWatchers.Event.Kind;
+import com.swoval.files.Publishers.Subscriber;
+import com.swoval.files.Publishers.Subscription;
+import com.swoval.functional.Either;
+import com.swoval.functional.Filter;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shares a single file tree cache among the processes on a machine. The daemon owns the cache and
+ * the client processes, e.g. an ide, a build server and a test runner working on the same
+ * checkout, connect to it to register directories, list their contents and receive the events for
+ * them. Each client gets its own view of the cache, see {@link
+ * FileTreeRepositories#getShared(Converter, boolean)}, so a directory that is registered by
+ * several clients is only scanned and watched once and only held in memory once.
+ *
+ * <p>The daemon listens on a port of the loopback interface. Unix domain sockets would restrict
+ * access to the owner of the socket file, but they require java 16, so any local process can open a
+ * connection to the daemon. The daemon therefore writes a random token to a file named token in its
+ * directory that only the owner of the daemon can read, i.e. with the 0600 permissions on a posix
+ * file system, and a client has to send the token before any request. The daemon closes every
+ * connection that doesn't send the token within a few seconds. On file systems that don't support
+ * posix permissions, the directory should be one that is private to the user, e.g. in the home
+ * directory. Requests, responses and events use a compact binary encoding in which a path is a
+ * modified utf-8 string followed by a byte for its type. The paths in the requests must be
+ * absolute. The events for a client that
+ * reads them slowly are buffered and conflated by path, see {@link Publishers}. If the buffer
+ * overflows, the client receives an {@link Kind#Overflow} event for each of its registered
+ * directories and should list them again.
+ */
+public final class CacheDaemon implements AutoCloseable {
+  private static final byte REGISTER = 0;
+  private static final byte UNREGISTER = 1;
+  private static final byte LIST = 2;
+  private static final byte RESPONSE = 0;
+  private static final byte EVENT = 1;
+  private static final byte SUCCESS = 0;
+  private static final byte FAILURE = 1;
+  private static final Kind[] KINDS = {Kind.Create, Kind.Delete, Kind.Modify, Kind.Overflow};
+  private static final String TOKEN = "token";
+  private static final int TOKEN_LENGTH = 32;
+  private static final int AUTHENTICATION_TIMEOUT_MILLIS = 5000;
+  // The cached values are not sent to the clients. All of the connections use the same converter
+  // so that they share the same repository.
+  private static final Converter<Path> CONVERTER =
+      new Converter<Path>() {
+        @Override
+        public Path apply(final TypedPath typedPath) {
+          return typedPath.getPath();
+        }
+      };
+
+  private final ServerSocket serverSocket;
+  private final Path tokenFile;
+  private final byte[] token;
+  private final boolean followLinks;
+  private final Logger logger;
+  private final Set<Connection> connections = new HashSet<>();
+  private final ThreadFactory threadFactory = new ThreadFactory("com.swoval.files.CacheDaemon");
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+
+  private CacheDaemon(
+      final ServerSocket serverSocket,
+      final Path tokenFile,
+      final byte[] token,
+      final boolean followLinks,
+      final Logger logger) {
+    this.serverSocket = serverSocket;
+    this.tokenFile = tokenFile;
+    this.token = token;
+    this.followLinks = followLinks;
+    this.logger = logger;
+  }
+
+  /**
+   * Starts a daemon that follows symbolic links.
+   *
+   * @param directory the directory in which the daemon writes its token. It is created if it
+   *     doesn't exist. There should be only one daemon for each directory.
+   * @param port the port to listen on. If it is zero, an unused port is chosen. See {@link
+   *     CacheDaemon#getPort()}.
+   * @return the daemon.
+   * @throws IOException if the token can't be written or the port can't be bound.
+   */
+  public static CacheDaemon start(final Path directory, final int port) throws IOException {
+    return start(directory, port, true, Loggers.getLogger());
+  }
+
+  /**
+   * Starts a daemon.
+   *
+   * @param directory the directory in which the daemon writes its token. It is created if it
+   *     doesn't exist. There should be only one daemon for each directory.
+   * @param port the port to listen on. If it is zero, an unused port is chosen. See {@link
+   *     CacheDaemon#getPort()}.
+   * @param followLinks toggles whether or not to follow symbolic links. See {@link
+   *     FileTreeRepositories#get(Converter, boolean)}.
+   * @param logger the logger for the daemon and its cache
+   * @return the daemon.
+   * @throws IOException if the token can't be written or the port can't be bound.
+   */
+  public static CacheDaemon start(
+      final Path directory, final int port, final boolean followLinks, final Logger logger)
+      throws IOException {
+    final byte[] token = new byte[TOKEN_LENGTH];
+    new SecureRandom().nextBytes(token);
+    final Path tokenFile = writeToken(directory, token);
+    final ServerSocket serverSocket = new ServerSocket();
+    try {
+      serverSocket.bind(new InetSocketAddress(InetAddress.getByName(null), port));
+    } catch (final IOException e) {
+      serverSocket.close();
+      Files.deleteIfExists(tokenFile);
+      throw e;
+    }
+    final CacheDaemon daemon = new CacheDaemon(serverSocket, tokenFile, token, followLinks, logger);
+    daemon.threadFactory
+        .newThread(
+            new Runnable() {
+              @Override
+              public void run() {
+                daemon.accept();
+              }
+            })
+        .start();
+    return daemon;
+  }
+
+  /**
+   * Connects to a daemon running on this machine.
+   *
+   * @param directory the directory of the daemon, from which the token is read
+   * @param port the port that the daemon listens on
+   * @return the client.
+   * @throws IOException if the token can't be read, the daemon can't be reached or the daemon
+   *     rejects the token.
+   */
+  public static Client connect(final Path directory, final int port) throws IOException {
+    final byte[] token = Files.readAllBytes(directory.resolve(TOKEN));
+    if (token.length != TOKEN_LENGTH) {
+      throw new IOException("Invalid token file " + directory.resolve(TOKEN));
+    }
+    final Socket socket = new Socket(InetAddress.getByName(null), port);
+    try {
+      socket.setTcpNoDelay(true);
+      socket.setSoTimeout(AUTHENTICATION_TIMEOUT_MILLIS);
+      final OutputStream out = socket.getOutputStream();
+      out.write(token);
+      out.flush();
+      if (socket.getInputStream().read() != SUCCESS) {
+        throw new IOException("The daemon on port " + port + " rejected the token");
+      }
+      socket.setSoTimeout(0);
+      return new Client(socket);
+    } catch (final IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the port that the daemon listens on.
+   *
+   * @return the port.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /** Disconnects all of the clients, stops the daemon and deletes its token. */
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      try {
+        serverSocket.close();
+      } catch (final IOException e) {
+        // The daemon is closing anyway.
+      }
+      try {
+        Files.deleteIfExists(tokenFile);
+      } catch (final IOException e) {
+        logger.error("CacheDaemon failed to delete " + tokenFile + ": " + e);
+      }
+      final List<Connection> toClose;
+      synchronized (connections) {
+        toClose = new ArrayList<>(connections);
+      }
+      final Iterator<Connection> it = toClose.iterator();
+      while (it.hasNext()) it.next().close();
+    }
+  }
+
+  /*
+   * Each connection is authenticated on its own thread so that a client that never sends the token
+   * doesn't block the other clients until it times out.
+   */
+  private void accept() {
+    while (!closed.get()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (final IOException e) {
+        if (!closed.get()) logger.error("CacheDaemon stopped accepting connections: " + e);
+        return;
+      }
+      threadFactory
+          .newThread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  open(socket);
+                }
+              })
+          .start();
+    }
+  }
+
+  private void open(final Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      if (!authenticate(socket)) {
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug("CacheDaemon rejected connection " + socket);
+        socket.close();
+        return;
+      }
+      final Connection connection =
+            new Connection(
+                socket,
+              FileTreeRepositories.getShared(CONVERTER, null, followLinks, false, logger));
+      synchronized (connections) {
+        connections.add(connection);
+      }
+      if (closed.get()) {
+        connection.close();
+      } else {
+        connection.run();
+      }
+    } catch (final IOException | InterruptedException e) {
+      logger.error("CacheDaemon failed to accept connection " + socket + ": " + e);
+      try {
+        socket.close();
+      } catch (final IOException ex) {
+        // The socket was never used.
+      }
+    }
+  }
+
+  /*
+   * Reads the token from the client, without buffering so that the requests that follow are left
+   * in the stream, and acknowledges it if it matches the token of the daemon.
+   */
+  private boolean authenticate(final Socket socket) throws IOException {
+    socket.setSoTimeout(AUTHENTICATION_TIMEOUT_MILLIS);
+    final byte[] bytes = new byte[TOKEN_LENGTH];
+    final InputStream in = socket.getInputStream();
+    int offset = 0;
+    try {
+      while (offset < bytes.length) {
+        final int read = in.read(bytes, offset, bytes.length - offset);
+        if (read < 0) return false;
+        offset += read;
+      }
+    } catch (final IOException e) {
+      return false;
+    }
+    if (!MessageDigest.isEqual(bytes, token)) return false;
+    socket.setSoTimeout(0);
+    socket.getOutputStream().write(SUCCESS);
+    return true;
+  }
+
+  /*
+   * Writes the token to a temporary file that only the owner can read and then moves it into
+   * place so that the token is never readable by anyone else, even briefly.
+   */
+  private static Path writeToken(final Path directory, final byte[] token) throws IOException {
+    final boolean posix =
+        directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+    if (!Files.isDirectory(directory)) {
+      if (posix) Files.createDirectories(directory, permissions("rwx------"));
+      else Files.createDirectories(directory);
+    }
+    final FileAttribute<?>[] attributes =
+        posix ? new FileAttribute<?>[] {permissions("rw-------")} : new FileAttribute<?>[0];
+    final Path tmp = Files.createTempFile(directory, TOKEN, ".tmp", attributes);
+    try {
+      Files.write(tmp, token);
+      final Path result = directory.resolve(TOKEN);
+      Files.move(tmp, result, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      return result;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  private static FileAttribute<?> permissions(final String permissions) {
+    return PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions));
+  }
+
+  /*
+   * Reads the requests of a client and handles them one at a time on its own thread. Everything
+   * that is sent to the client, i.e. the responses and the events, is written by the writer so
+   * that the messages do not interleave and so that a client that reads slowly only blocks its
+   * own writer.
+   */
+  private final class Connection implements Runnable {
+    private final Socket socket;
+    private final FileTreeRepository<Path> repository;
+    private final Executor writer = Executor.make("com.swoval.files.CacheDaemon-writer");
+    private final Set<Path> registered = new HashSet<>();
+    private final AtomicBoolean connectionClosed = new AtomicBoolean(false);
+    private DataOutputStream out;
+    private Subscription subscription;
+
+    Connection(final Socket socket, final FileTreeRepository<Path> repository) {
+      this.socket = socket;
+      this.repository = repository;
+    }
+
+    @Override
+    public void run() {
+      try {
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        subscribe();
+        while (!connectionClosed.get()) {
+          final int id = in.readInt();
+          final byte op = in.readByte();
+          final String path = in.readUTF();
+          final int maxDepth = op == UNREGISTER ? 0 : in.readInt();
+          send(handle(id, op, path, maxDepth));
+        }
+      } catch (final IOException e) {
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug("CacheDaemon connection " + socket + " closed: " + e);
+      } finally {
+        close();
+      }
+    }
+
+    private byte[] handle(final int id, final byte op, final String name, final int maxDepth)
+        throws IOException {
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      final DataOutputStream response = new DataOutputStream(bytes);
+      response.writeByte(RESPONSE);
+      response.writeInt(id);
+      try {
+        final Path path = toPath(name);
+        if (op == REGISTER) {
+          final Either<IOException, Boolean> result = repository.register(path, maxDepth);
+          if (result.isLeft()) throw Either.leftProjection(result).getValue();
+          synchronized (registered) {
+            registered.add(path);
+          }
+          response.writeByte(SUCCESS);
+          response.writeBoolean(result.get());
+        } else if (op == UNREGISTER) {
+          repository.unregister(path);
+          synchronized (registered) {
+            registered.remove(path);
+          }
+          response.writeByte(SUCCESS);
+        } else if (op == LIST) {
+          final List<TypedPath> typedPaths = repository.list(path, maxDepth, AllPass);
+          response.writeByte(SUCCESS);
+          response.writeInt(typedPaths.size());
+          final Iterator<TypedPath> it = typedPaths.iterator();
+          while (it.hasNext()) writeTypedPath(response, it.next());
+        } else {
+          throw new IOException("Unknown request " + op);
+        }
+      } catch (final IOException e) {
+        bytes.reset();
+        response.writeByte(RESPONSE);
+        response.writeInt(id);
+        response.writeByte(FAILURE);
+        response.writeUTF(String.valueOf(e));
+      }
+      response.flush();
+      return bytes.toByteArray();
+    }
+
+    /*
+     * The subscription requests one event at a time so that at most one event is queued in the
+     * writer. The rest are buffered by the subscription. It fails if its buffer overflows, in
+     * which case the client is told to rescan its directories and a new subscription is made.
+     */
+    private void subscribe() {
+      Publishers.events(events(repository), Publishers.DEFAULT_BUFFER_SIZE, true)
+          .subscribe(
+              new Subscriber<Event>() {
+                @Override
+                public void onSubscribe(final Subscription s) {
+                  synchronized (Connection.this) {
+                    subscription = s;
+                  }
+                  if (connectionClosed.get()) s.cancel();
+                  else s.request(1);
+                }
+
+                @Override
+                public void onNext(final Event event) {
+                  post(
+                      new Runnable() {
+                        @Override
+                        public void run() {
+                          send(encode(event));
+                          final Subscription s;
+                          synchronized (Connection.this) {
+                            s = subscription;
+                          }
+                          s.request(1);
+                        }
+                      });
+                }
+
+                @Override
+                public void onError(final Throwable throwable) {
+                  final List<Path> paths;
+                  synchronized (registered) {
+                    paths = new ArrayList<>(registered);
+                  }
+                  post(
+                      new Runnable() {
+                        @Override
+                        public void run() {
+                          final Iterator<Path> it = paths.iterator();
+                          while (it.hasNext()) {
+                            send(encode(new Event(TypedPaths.get(it.next()), Kind.Overflow)));
+                          }
+                        }
+                      });
+                  if (!connectionClosed.get()) subscribe();
+                }
+
+                @Override
+                public void onComplete() {}
+              });
+    }
+
+    /*
+     * Closing the socket makes the reader thread close the connection. The writer can not close
+     * itself because it waits for its thread to terminate.
+     */
+    private void send(final byte[] bytes) {
+      post(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                out.write(bytes);
+                out.flush();
+              } catch (final IOException e) {
+                closeSocket();
+              }
+            }
+          });
+    }
+
+    private synchronized void post(final Runnable runnable) {
+      if (!connectionClosed.get()) writer.run(runnable);
+    }
+
+    private void closeSocket() {
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // The connection is closing anyway.
+      }
+    }
+
+    void close() {
+      final Subscription s;
+      synchronized (this) {
+        if (!connectionClosed.compareAndSet(false, true)) return;
+        s = subscription;
+      }
+      synchronized (connections) {
+        connections.remove(this);
+      }
+      if (s != null) s.cancel();
+      repository.close();
+      closeSocket();
+      writer.close();
+    }
+  }
+
+  /*
+   * Adapts the cache callbacks to events. The errors that the cache reports are not tied to a
+   * particular path so they are not forwarded to the client.
+   */
+  private static Observable<Event> events(final FileTreeRepository<Path> repository) {
+    return new Observable<Event>() {
+      @Override
+      public int addObserver(final Observer<? super Event> observer) {
+        return repository.addCacheObserver(
+            new CacheObserver<Path>() {
+              @Override
+              public void onCreate(final Entry<Path> newEntry) {
+                observer.onNext(new Event(newEntry.getTypedPath(), Kind.Create));
+              }
+
+              @Override
+              public void onDelete(final Entry<Path> oldEntry) {
+                observer.onNext(new Event(oldEntry.getTypedPath(), Kind.Delete));
+              }
+
+              @Override
+              public void onUpdate(final Entry<Path> oldEntry, final Entry<Path> newEntry) {
+                observer.onNext(new Event(newEntry.getTypedPath(), Kind.Modify));
+              }
+
+              @Override
+              public void onError(final IOException exception) {}
+            });
+      }
+
+      @Override
+      public void removeObserver(final int handle) {
+        repository.removeObserver(handle);
+      }
+    };
+  }
+
+  private static byte[] encode(final Event event) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(EVENT);
+      writeTypedPath(out, event.getTypedPath());
+      int kind = 0;
+      while (!KINDS[kind].equals(event.getKind())) kind += 1;
+      out.writeByte(kind);
+      out.flush();
+    } catch (final IOException e) {
+      // Writing to a byte array can not fail.
+    }
+    return bytes.toByteArray();
+  }
+
+  private static void writeTypedPath(final DataOutputStream out, final TypedPath typedPath)
+      throws IOException {
+    out.writeUTF(typedPath.getPath().toString());
+    out.writeByte(
+        (typedPath.exists() ? 0 : Entries.NONEXISTENT)
+            | (typedPath.isFile() ? Entries.FILE : 0)
+            | (typedPath.isDirectory() ? Entries.DIRECTORY : 0)
+            | (typedPath.isSymbolicLink() ? Entries.LINK : 0));
+  }
+
+  private static TypedPath readTypedPath(final DataInputStream in) throws IOException {
+    final Path path = toPath(in.readUTF());
+    return TypedPaths.get(path, in.readByte());
+  }
+
+  /*
+   * Parses a path that was read from a connection. The paths are sent by another process, so a
+   * path that isn't valid on this platform or that isn't absolute is reported as an IOException,
+   * which fails the request on the daemon and closes the connection on the client, rather than as
+   * a runtime exception, which would kill the thread that reads from the connection.
+   */
+  private static Path toPath(final String name) throws IOException {
+    final Path path;
+    try {
+      path = Paths.get(name);
+    } catch (final InvalidPathException e) {
+      throw new IOException("Invalid path " + name + ": " + e.getReason());
+    }
+    if (!path.isAbsolute()) throw new IOException("The path " + name + " is not absolute");
+    return path;
+  }
+
+  /**
+   * A connection to a {@link CacheDaemon}. It registers directories with its own view of the
+   * daemon's cache and its observers receive the events for the registered directories. The
+   * events are delivered on a thread that reads them from the connection, so the observers should
+   * not block. If the connection is lost, the observers receive an error and every later request
+   * fails.
+   */
+  public static final class Client implements PathWatcher<Event>, FileTreeView {
+    private final Socket socket;
+    private final DataOutputStream out;
+    private final Observers<Event> observers = new Observers<>();
+    private final Map<Integer, Response> pending = new HashMap<>();
+    private int nextId = 0;
+    private IOException failure = null;
+
+    private Client(final Socket socket) throws IOException {
+      this.socket = socket;
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      final DataInputStream in =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      new ThreadFactory("com.swoval.files.CacheDaemon.Client")
+          .newThread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  read(in);
+                }
+              })
+          .start();
+    }
+
+    /**
+     * Registers a directory with the daemon, which scans it unless another client has already
+     * registered it.
+     *
+     * @param path the directory to register
+     * @param maxDepth the maximum depth of subdirectories to cache and monitor
+     * @return the result of the registration on the daemon or the failure to reach the daemon.
+     */
+    @Override
+    public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
+      try {
+        return Either.right((Boolean) request(REGISTER, path, maxDepth));
+      } catch (final IOException e) {
+        return Either.left(e);
+      }
+    }
+
+    /**
+     * Unregisters a directory that was registered by this client.
+     *
+     * @param path the directory to unregister
+     */
+    @Override
+    public void unregister(final Path path) {
+      try {
+        request(UNREGISTER, path, 0);
+      } catch (final IOException e) {
+        // The connection is lost so the path is no longer registered anyway.
+      }
+    }
+
+    /**
+     * Lists the contents of a registered directory from the daemon's cache.
+     *
+     * @param path the path to list
+     * @param maxDepth the maximum depth of subdirectories to list
+     * @param filter include only paths accepted by this filter, which is applied by the client
+     * @return the paths.
+     * @throws IOException if the daemon can't list the path or can't be reached.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<TypedPath> list(
+        final Path path, final int maxDepth, final Filter<? super TypedPath> filter)
+        throws IOException {
+      final List<TypedPath> result = new ArrayList<>();
+      final Iterator<TypedPath> it =
+          ((List<TypedPath>) request(LIST, path, maxDepth)).iterator();
+      while (it.hasNext()) {
+        final TypedPath typedPath = it.next();
+        if (filter.accept(typedPath)) result.add(typedPath);
+      }
+      return result;
+    }
+
+    @Override
+    public int addObserver(final Observer<? super Event> observer) {
+      return observers.addObserver(observer);
+    }
+
+    @Override
+    public void removeObserver(final int handle) {
+      observers.removeObserver(handle);
+    }
+
+    /** Closes the connection. The directories that it registered are released by the daemon. */
+    @Override
+    public void close() {
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        // The connection is closing anyway.
+      }
+    }
+
+    private Object request(final byte op, final Path path, final int maxDepth)
+        throws IOException {
+      final Response response = new Response(op);
+      final int id;
+      synchronized (pending) {
+        if (failure != null) throw failure;
+        id = nextId++;
+        pending.put(id, response);
+      }
+      synchronized (out) {
+        try {
+          out.writeInt(id);
+          out.writeByte(op);
+          out.writeUTF(path.toAbsolutePath().toString());
+          if (op != UNREGISTER) out.writeInt(maxDepth);
+          out.flush();
+        } catch (final IOException e) {
+          synchronized (pending) {
+            pending.remove(id);
+          }
+          throw e;
+        }
+      }
+      try {
+        response.latch.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for the daemon to respond");
+      }
+      if (response.failure != null) throw response.failure;
+      return response.value;
+    }
+
+    private void read(final DataInputStream in) {
+      IOException exception;
+      try {
+        while (true) {
+          final byte frame = in.readByte();
+          if (frame == EVENT) {
+            final TypedPath typedPath = readTypedPath(in);
+            final byte kind = in.readByte();
+            if (kind < 0 || kind >= KINDS.length) throw new IOException("Unknown event " + kind);
+            observers.onNext(new Event(typedPath, KINDS[kind]));
+          } else {
+            final int id = in.readInt();
+            final Response response;
+            synchronized (pending) {
+              response = pending.remove(id);
+            }
+            if (response == null) throw new IOException("Unexpected response " + id);
+            if (in.readByte() == FAILURE) {
+              response.failure = new IOException(in.readUTF());
+            } else if (response.op == REGISTER) {
+              response.value = in.readBoolean();
+            } else if (response.op == LIST) {
+              final int size = in.readInt();
+              final List<TypedPath> typedPaths = new ArrayList<>(size);
+              for (int i = 0; i < size; ++i) typedPaths.add(readTypedPath(in));
+              response.value = typedPaths;
+            }
+            response.latch.countDown();
+          }
+        }
+      } catch (final IOException e) {
+        exception = e;
+      }
+      final List<Response> failed;
+      synchronized (pending) {
+        failure = new IOException("The connection to the daemon was closed", exception);
+        failed = new ArrayList<>(pending.values());
+        pending.clear();
+      }
+      final Iterator<Response> it = failed.iterator();
+      while (it.hasNext()) {
+        final Response response = it.next();
+        response.failure = failure;
+        response.latch.countDown();
+      }
+      close();
+      observers.onError(failure);
+    }
+
+    private static final class Response {
+      private final byte op;
+      private final CountDownLatch latch = new CountDownLatch(1);
+      private volatile Object value;
+      private volatile IOException failure;
+
+      Response(final byte op) {
+        this.op = op;
+      }
+    }
+  }
+}
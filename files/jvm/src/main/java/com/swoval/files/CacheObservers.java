@@ -2,16 +2,19 @@ package com.swoval.files;
 
 import com.swoval.files.FileTreeDataViews.CacheObserver;
 import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.MoveObserver;
+import com.swoval.files.FileTreeDataViews.SubtreeObserver;
 import com.swoval.files.FileTreeViews.Observer;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
-class CacheObservers<T> implements CacheObserver<T>, AutoCloseable {
+class CacheObservers<T> implements MoveObserver<T>, AutoCloseable {
   private final AtomicInteger counter = new AtomicInteger(0);
   private final Map<Integer, CacheObserver<T>> observers = new LinkedHashMap<>();
 
@@ -63,6 +66,77 @@ class CacheObservers<T> implements CacheObserver<T>, AutoCloseable {
     }
   }
 
+  @Override
+  @SuppressWarnings("unchecked")
+  public void onMove(final Entry<T> oldEntry, final Entry<T> newEntry) {
+    final List<CacheObserver<T>> cbs;
+    synchronized (observers) {
+      cbs = new ArrayList<>(observers.values());
+    }
+    final Iterator<CacheObserver<T>> it = cbs.iterator();
+    while (it.hasNext()) {
+      try {
+        final CacheObserver<T> observer = it.next();
+        if (observer instanceof MoveObserver<?>) {
+          ((MoveObserver<T>) observer).onMove(oldEntry, newEntry);
+        } else {
+          observer.onDelete(Entries.setExists(oldEntry, false));
+          observer.onCreate(newEntry);
+        }
+      } catch (final Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Notifies instances of {@link SubtreeObserver} that a directory was deleted along with all of
+   * its children. The other observers receive a deletion for the directory and each of its
+   * children in path order.
+   *
+   * @param oldEntry the entry for the deleted directory
+   * @param oldEntries provides a new lazy iterator over the deleted children for each observer
+   */
+  @SuppressWarnings("unchecked")
+  void onSubtreeDelete(final Entry<T> oldEntry, final Iterable<Entry<T>> oldEntries) {
+    final List<CacheObserver<T>> cbs;
+    synchronized (observers) {
+      cbs = new ArrayList<>(observers.values());
+    }
+    List<Entry<T>> entries = null;
+    final Iterator<CacheObserver<T>> it = cbs.iterator();
+    while (it.hasNext()) {
+      try {
+        final CacheObserver<T> observer = it.next();
+        if (observer instanceof SubtreeObserver<?>) {
+          ((SubtreeObserver<T>) observer).onSubtreeDelete(oldEntry, oldEntries.iterator());
+        } else {
+          if (entries == null) {
+            entries = new ArrayList<>();
+            entries.add(oldEntry);
+            final Iterator<Entry<T>> entryIterator = oldEntries.iterator();
+            while (entryIterator.hasNext()) entries.add(entryIterator.next());
+            Collections.sort(entries);
+          }
+          final Iterator<Entry<T>> entryIterator = entries.iterator();
+          while (entryIterator.hasNext()) observer.onDelete(entryIterator.next());
+        }
+      } catch (final Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  boolean hasSubtreeObservers() {
+    synchronized (observers) {
+      final Iterator<CacheObserver<T>> it = observers.values().iterator();
+      while (it.hasNext()) {
+        if (it.next() instanceof SubtreeObserver<?>) return true;
+      }
+      return false;
+    }
+  }
+
   @Override
   public void onError(IOException exception) {
     final List<CacheObserver<T>> cbs;
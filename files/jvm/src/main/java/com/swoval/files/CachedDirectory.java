@@ -1,8 +1,10 @@
 package com.swoval.files;
 
 import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeViews.Updates;
 import com.swoval.functional.Filter;
 import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
 
 interface CachedDirectory<T>
@@ -69,6 +71,46 @@ interface CachedDirectory<T>
    */
   Entry<T> getEntry();
 
+  /**
+   * Returns the key that uniquely identifies the directory on the file system, as reported by
+   * {@link java.nio.file.attribute.BasicFileAttributes#fileKey()}. File keys are only recorded when
+   * the cache is tracking moves.
+   *
+   * @return the file key or null if it is not available.
+   */
+  Object getFileKey();
+
+  /**
+   * Removes a subdirectory from the cache without listing any of its children. The removed
+   * subdirectory may later be reinserted at a different path with {@link CachedDirectory#attach}.
+   *
+   * @param path the path of the subdirectory to remove
+   * @return the removed subdirectory or null if there was no cached subdirectory for the path.
+   */
+  CachedDirectory<T> detach(final Path path);
+
+  /**
+   * Inserts a subdirectory that was previously removed with {@link CachedDirectory#detach} at a new
+   * path. The cached entries of the subdirectory are moved to the new path without accessing the
+   * file system or re-evaluating their values.
+   *
+   * @param typedPath the new path of the subdirectory
+   * @param directory the subdirectory to insert
+   * @return the moves for the subdirectory and all of its children or null if the subdirectory
+   *     could not be inserted at the new path.
+   */
+  Updates<T> attach(final TypedPath typedPath, final CachedDirectory<T> directory);
+
+  /**
+   * Returns a lazy iterator over the entries for all of the children of a directory that has been
+   * removed with {@link CachedDirectory#detach}. The entries are marked as nonexistent. The
+   * iterator does not lock the directory so it must not be used for a directory that is still in
+   * the cache.
+   *
+   * @return the iterator.
+   */
+  Iterator<Entry<T>> removedEntries();
+
   /** Catch any exceptions in close. */
   @Override
   void close();
@@ -12,13 +12,17 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -47,24 +51,108 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
   private final Filter<? super TypedPath> pathFilter;
   private final LockableMap<Path, CachedDirectoryImpl<T>> subdirectories = new LockableMap<>();
   private final Map<Path, Entry<T>> files = new HashMap<>();
+  private final boolean trackFileKeys;
+  private final RealPaths realPaths;
+  private final LinkTargets<T> linkTargets;
+  private final CachedDirectoryImpl<T> canonical;
+  private volatile Object fileKey;
 
   private interface ListTransformer<T, R> {
     R apply(final Entry<T> entry);
   }
 
-  CachedDirectoryImpl(
-      final TypedPath typedPath,
+  private CachedDirectoryImpl(
+      final Entry<T> entry,
       final Converter<T> converter,
       final int depth,
       final Filter<? super TypedPath> filter,
       final boolean followLinks,
-      final FileTreeView fileTreeView) {
+      final FileTreeView fileTreeView,
+      final boolean trackFileKeys,
+      final RealPaths realPaths,
+      final LinkTargets<T> linkTargets,
+      final CachedDirectoryImpl<T> canonical) {
     this.converter = converter;
     this.depth = depth;
-    this._cacheEntry = new AtomicReference<>(Entries.get(typedPath, converter, typedPath));
+    this._cacheEntry = new AtomicReference<>(entry);
     this.pathFilter = filter;
     this.fileTreeView = fileTreeView;
     this.followLinks = followLinks;
+    this.trackFileKeys = trackFileKeys;
+    this.realPaths = realPaths;
+    this.linkTargets = linkTargets;
+    this.canonical = canonical;
+  }
+
+  /*
+   * The real paths of links are resolved through the cache if it isn't null. The cache is shared
+   * by all of the subdirectories. If the link targets are not null, a subdirectory that is a link
+   * to a directory is a view of the canonical subtree of its target, which is shared by all of the
+   * links to the same target.
+   */
+  CachedDirectoryImpl(
+      final TypedPath typedPath,
+      final Converter<T> converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final boolean followLinks,
+      final FileTreeView fileTreeView,
+      final boolean trackFileKeys,
+      final RealPaths realPaths,
+      final LinkTargets<T> linkTargets) {
+    this(
+        Entries.get(typedPath, converter, typedPath),
+        converter,
+        depth,
+        filter,
+        followLinks,
+        fileTreeView,
+        trackFileKeys,
+        realPaths,
+        linkTargets,
+        null);
+  }
+
+  CachedDirectoryImpl(
+      final TypedPath typedPath,
+      final Converter<T> converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final boolean followLinks,
+      final FileTreeView fileTreeView,
+      final boolean trackFileKeys,
+      final RealPaths realPaths) {
+    this(
+        typedPath,
+        converter,
+        depth,
+        filter,
+        followLinks,
+        fileTreeView,
+        trackFileKeys,
+        realPaths,
+        null);
+  }
+
+  CachedDirectoryImpl(
+      final TypedPath typedPath,
+      final Converter<T> converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final boolean followLinks,
+      final FileTreeView fileTreeView,
+      final boolean trackFileKeys) {
+    this(typedPath, converter, depth, filter, followLinks, fileTreeView, trackFileKeys, null);
+  }
+
+  CachedDirectoryImpl(
+      final TypedPath typedPath,
+      final Converter<T> converter,
+      final int depth,
+      final Filter<? super TypedPath> filter,
+      final boolean followLinks,
+      final FileTreeView fileTreeView) {
+    this(typedPath, converter, depth, filter, followLinks, fileTreeView, false);
   }
 
   CachedDirectoryImpl(
@@ -271,6 +359,239 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     }
   }
 
+  @Override
+  public Object getFileKey() {
+    return fileKey;
+  }
+
+  @Override
+  public CachedDirectory<T> detach(final Path path) {
+    if (path.isAbsolute()
+        && path.startsWith(this.getPath())
+        && !path.equals(this.getPath())
+        && this.subdirectories.lock()) {
+      try {
+        final Iterator<Path> it = parts(this.getPath().relativize(path)).iterator();
+        CachedDirectoryImpl<T> currentDir = this;
+        while (it.hasNext() && currentDir != null) {
+          final Path p = it.next();
+          if (!it.hasNext()) {
+            return currentDir.subdirectories.remove(p);
+          } else {
+            currentDir = currentDir.subdirectories.get(p);
+          }
+        }
+      } finally {
+        this.subdirectories.unlock();
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public Updates<T> attach(final TypedPath typedPath, final CachedDirectory<T> directory) {
+    final Path path = typedPath.getPath();
+    if (directory instanceof CachedDirectoryImpl<?>
+        && path.isAbsolute()
+        && path.startsWith(this.getPath())
+        && !path.equals(this.getPath())
+        && pathFilter.accept(typedPath)
+        && this.subdirectories.lock()) {
+      try {
+        final CachedDirectoryImpl<T> dir = (CachedDirectoryImpl<T>) directory;
+        final Iterator<Path> it = parts(this.getPath().relativize(path)).iterator();
+        CachedDirectoryImpl<T> currentDir = this;
+        while (it.hasNext() && currentDir != null) {
+          final Path p = it.next();
+          if (!it.hasNext()) {
+            /*
+             * The subtree can only be reused if it would have been cached with the same depth at
+             * the new path. Otherwise the new path needs to be scanned. The file key of a deleted
+             * directory may be reused by an unrelated directory, so the directory at the new path
+             * is listed again and the subtree is only reused if it still contains each of the
+             * cached children. The children that are not in the subtree are added to it.
+             */
+            final List<TypedPath> newChildren =
+                currentDir.depth > 0
+                        && currentDir.subdirectoryDepth() == dir.depth
+                        && !currentDir.files.containsKey(p)
+                        && currentDir.subdirectories.get(p) == null
+                    ? dir.newChildren(path)
+                    : null;
+            if (newChildren != null) {
+              final Updates<T> result = new Updates<>();
+              final CachedDirectoryImpl<T> relocated = dir.relocate(typedPath, result);
+              currentDir.subdirectories.put(p, relocated);
+              final Iterator<TypedPath> children = newChildren.iterator();
+              while (children.hasNext()) {
+                try {
+                  relocated.update(children.next()).observe(result);
+                } catch (final IOException e) {
+                  // The child was removed after the directory was listed.
+                }
+              }
+              return result;
+            }
+          } else {
+            currentDir = currentDir.subdirectories.get(p);
+          }
+        }
+      } finally {
+        this.subdirectories.unlock();
+      }
+    }
+    return null;
+  }
+
+  /*
+   * Lists the directory at the path and returns the children that are not cached in this
+   * directory. Returns null if one of the cached children is not in the directory at the path, in
+   * which case the cached subtree can't be reused there.
+   */
+  private List<TypedPath> newChildren(final Path path) {
+    if (depth < 0 || canonical != null) return Collections.emptyList();
+    final List<TypedPath> result = new ArrayList<>();
+    final Set<Path> names = new HashSet<>();
+    try {
+      final Iterator<TypedPath> it = fileTreeView.list(path, 0, pathFilter).iterator();
+      while (it.hasNext()) {
+        final TypedPath child = it.next();
+        final Path name = child.getPath().getFileName();
+        names.add(name);
+        if (!files.containsKey(name) && subdirectories.get(name) == null) result.add(child);
+      }
+    } catch (final IOException e) {
+      return null;
+    }
+    return names.containsAll(files.keySet()) && names.containsAll(subdirectories.keys())
+        ? result
+        : null;
+  }
+
+  @Override
+  public Iterator<Entry<T>> removedEntries() {
+    return new RemovedEntryIterator<>(this);
+  }
+
+  /*
+   * Traverses a subtree that has been detached from the cache. Each directory is only listed once
+   * the iterator reaches it, so the cost of a deletion is proportional to the number of entries
+   * that the consumer actually reads.
+   */
+  private static final class RemovedEntryIterator<T> implements Iterator<Entry<T>> {
+    private final ArrayDeque<CachedDirectoryImpl<T>> directories = new ArrayDeque<>();
+    private CachedDirectoryImpl<T> current = null;
+    private Iterator<Entry<T>> files = Collections.emptyIterator();
+    private Iterator<CachedDirectoryImpl<T>> subdirectories = Collections.emptyIterator();
+
+    RemovedEntryIterator(final CachedDirectoryImpl<T> root) {
+      directories.add(root);
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (!files.hasNext() && !subdirectories.hasNext() && !directories.isEmpty()) {
+        current = directories.poll();
+        if (current.canonical != null) {
+          files = current.listEntries(Integer.MAX_VALUE, AllPass).iterator();
+          subdirectories = Collections.emptyIterator();
+        } else {
+          files = current.files.values().iterator();
+          subdirectories = current.subdirectories.values().iterator();
+        }
+      }
+      return files.hasNext() || subdirectories.hasNext();
+    }
+
+    @Override
+    public Entry<T> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      if (files.hasNext()) {
+        return Entries.setExists(Entries.resolve(current.getPath(), files.next()), false);
+      } else {
+        final CachedDirectoryImpl<T> dir = subdirectories.next();
+        directories.add(dir);
+        return Entries.setExists(dir.getEntry(), false);
+      }
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+  }
+
+  /*
+   * Makes a copy of this directory at a new path. The file entries are stored relative to their
+   * parent directory so they can be shared with the copy. Any entries that are not accepted by the
+   * path filter at the new path are reported as deletions.
+   */
+  private CachedDirectoryImpl<T> relocate(final TypedPath typedPath, final Updates<T> updates) {
+    final Path oldPath = this.getPath();
+    final Path newPath = typedPath.getPath();
+    final Entry<T> entry = Entries.setPath(getEntry(), newPath);
+    final CachedDirectoryImpl<T> result =
+        new CachedDirectoryImpl<>(
+            entry,
+            converter,
+            depth,
+            pathFilter,
+            followLinks,
+            FileTreeViews.getDefault(followLinks),
+            trackFileKeys,
+            realPaths,
+            linkTargets,
+            canonical);
+    result.fileKey = fileKey;
+    updates.onMove(getEntry(), entry);
+    if (canonical != null) {
+      // The entries of a view are stored in the canonical subtree, which doesn't move.
+      if (linkTargets != null) linkTargets.link(newPath, canonical);
+      final Iterator<Entry<T>> it = listEntries(Integer.MAX_VALUE, AllPass).iterator();
+      while (it.hasNext()) {
+        final Entry<T> oldEntry = it.next();
+        updates.onMove(oldEntry, LinkTargets.rebase(oldEntry, oldPath, newPath));
+      }
+    } else if (subdirectories.lock()) {
+      try {
+        final Iterator<Map.Entry<Path, Entry<T>>> fileIterator = files.entrySet().iterator();
+        while (fileIterator.hasNext()) {
+          final Map.Entry<Path, Entry<T>> file = fileIterator.next();
+          // Entries that were added by an update are stored with their absolute path.
+          final Entry<T> oldEntry = Entries.resolve(oldPath, file.getValue());
+          final Path name = oldEntry.getTypedPath().getPath().getFileName();
+          final Entry<T> newEntry = Entries.setPath(oldEntry, newPath.resolve(name));
+          if (pathFilter.accept(newEntry.getTypedPath())) {
+            final boolean relative = !file.getValue().getTypedPath().getPath().isAbsolute();
+            result.files.put(name, relative ? file.getValue() : newEntry);
+            updates.onMove(oldEntry, newEntry);
+          } else {
+            updates.onDelete(oldEntry);
+          }
+        }
+        final Iterator<Map.Entry<Path, CachedDirectoryImpl<T>>> subdirIterator =
+            subdirectories.iterator();
+        while (subdirIterator.hasNext()) {
+          final Map.Entry<Path, CachedDirectoryImpl<T>> subdir = subdirIterator.next();
+          final CachedDirectoryImpl<T> dir = subdir.getValue();
+          final TypedPath subdirTypedPath =
+              TypedPaths.getDelegate(newPath.resolve(subdir.getKey()), dir.getTypedPath());
+          if (pathFilter.accept(subdirTypedPath)) {
+            result.subdirectories.put(subdir.getKey(), dir.relocate(subdirTypedPath, updates));
+          } else {
+            final Iterator<Entry<T>> removeIterator =
+                dir.listEntries(Integer.MAX_VALUE, AllPass).iterator();
+            while (removeIterator.hasNext()) updates.onDelete(removeIterator.next());
+            updates.onDelete(dir.getEntry());
+          }
+        }
+      } finally {
+        subdirectories.unlock();
+      }
+    }
+    return result;
+  }
+
   @Override
   public String toString() {
     return "CachedDirectory(" + getPath() + ", maxDepth = " + depth + ")";
@@ -280,15 +601,98 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     return depth == Integer.MAX_VALUE ? depth : depth > 0 ? depth - 1 : 0;
   }
 
+  private CachedDirectoryImpl<T> newSubdirectory(final TypedPath typedPath, final int depth) {
+    if (linkTargets != null
+        && followLinks
+        && depth >= 0
+        && typedPath.isSymbolicLink()
+        && typedPath.isDirectory()) {
+      final CachedDirectoryImpl<T> target =
+          linkTargets.acquire(typedPath.getPath(), expanded(typedPath), depth);
+      if (target != null) {
+        return newView(Entries.get(typedPath, converter, typedPath), target);
+      }
+    }
+    return new CachedDirectoryImpl<>(
+        typedPath,
+        converter,
+        depth,
+        pathFilter,
+        followLinks,
+        FileTreeViews.getDefault(followLinks),
+        trackFileKeys,
+        realPaths,
+        linkTargets);
+  }
+
+  /*
+   * Returns a directory at the path of the entry whose contents are those of the target directory,
+   * with the target path replaced by the path of the entry.
+   */
+  private CachedDirectoryImpl<T> newView(
+      final Entry<T> entry, final CachedDirectoryImpl<T> target) {
+    return new CachedDirectoryImpl<>(
+        entry,
+        converter,
+        target.depth,
+        pathFilter,
+        followLinks,
+        fileTreeView,
+        trackFileKeys,
+        realPaths,
+        linkTargets,
+        target);
+  }
+
+  /*
+   * Returns the canonical subtree of the view at the path or null if there is no view at the path.
+   */
+  CachedDirectoryImpl<T> canonicalAt(final Path path) {
+    if (path.startsWith(getPath()) && !path.equals(getPath()) && subdirectories.lock()) {
+      try {
+        final Iterator<Path> it = parts(getPath().relativize(path)).iterator();
+        CachedDirectoryImpl<T> currentDir = this;
+        while (it.hasNext() && currentDir != null) {
+          if (currentDir.canonical != null) return null;
+          currentDir = currentDir.subdirectories.get(it.next());
+        }
+        return currentDir == null ? null : currentDir.canonical;
+      } finally {
+        subdirectories.unlock();
+      }
+    }
+    return null;
+  }
+
+  private static Path resolve(final Path path, final List<Path> parts) {
+    Path result = path;
+    final Iterator<Path> it = parts.iterator();
+    while (it.hasNext()) result = result.resolve(it.next());
+    return result;
+  }
+
+  /*
+   * Updates a path below this view in the canonical subtree and reports the changes at the paths
+   * below this view.
+   */
+  private void updateView(
+      final List<Path> parts,
+      final TypedPath typedPath,
+      final boolean rescanOnDirectoryUpdate,
+      final Updates<T> updates)
+      throws IOException {
+    final TypedPath target = TypedPaths.getDelegate(resolve(canonical.getPath(), parts), typedPath);
+    final Updates<T> canonicalUpdates = canonical.update(target, rescanOnDirectoryUpdate);
+    LinkTargets.rebase(canonicalUpdates, canonical.getPath(), getPath()).observe(updates);
+  }
+
   @SuppressWarnings("EmptyCatchBlock")
   private void addDirectory(
       final CachedDirectoryImpl<T> currentDir,
       final TypedPath typedPath,
       final Updates<T> updates) {
     final Path path = typedPath.getPath();
-    final CachedDirectoryImpl<T> dir =
-        new CachedDirectoryImpl<>(
-            typedPath, converter, currentDir.subdirectoryDepth(), pathFilter, followLinks);
+    final CachedDirectoryImpl<T> dir = newSubdirectory(typedPath, currentDir.subdirectoryDepth());
     boolean exists = true;
     try {
       final TypedPath tp = dir.getEntry().getTypedPath();
@@ -331,6 +735,10 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     }
   }
 
+  private Path expanded(final TypedPath typedPath) {
+    return realPaths == null ? TypedPaths.expanded(typedPath) : realPaths.expanded(typedPath);
+  }
+
   private boolean isLoop(final Path path, final Path realPath) {
     return path.startsWith(realPath) && !path.equals(realPath);
   }
@@ -353,6 +761,13 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
           while (it.hasNext() && currentDir != null && currentDir.depth >= 0) {
             final Path p = it.next();
             if (p.toString().isEmpty()) return result;
+            if (currentDir.canonical != null) {
+              final List<Path> rest = new ArrayList<>();
+              rest.add(p);
+              while (it.hasNext()) rest.add(it.next());
+              currentDir.updateView(rest, typedPath, rescanOnDirectoryUpdate, result);
+              return result;
+            }
             final Path resolved = currentDir.getPath().resolve(p);
             if (!it.hasNext()) {
               // We will always return from this block
@@ -360,7 +775,7 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
                   typedPath.isDirectory() && (followLinks || !typedPath.isSymbolicLink());
               if (!isDirectory
                   || currentDir.depth <= 0
-                  || isLoop(resolved, TypedPaths.expanded(typedPath))) {
+                  || isLoop(resolved, expanded(typedPath))) {
                 final CachedDirectoryImpl<T> previousCachedDirectoryImpl =
                     isDirectory ? currentDir.subdirectories.get(p) : null;
                 final Entry<T> fileEntry = currentDir.files.remove(p);
@@ -374,18 +789,13 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
                     Entries.get(
                         TypedPaths.getDelegate(resolved, typedPath),
                         converter,
-                        TypedPaths.getDelegate(resolved, typedPath));
+                        TypedPaths.getDelegate(resolved, typedPath),
+                        oldEntry);
                 if (isDirectory) {
                   final CachedDirectoryImpl<T> previous = currentDir.subdirectories.get(p);
                   if (previous == null || rescanOnDirectoryUpdate) {
                     currentDir.subdirectories.put(
-                        p,
-                        new CachedDirectoryImpl<>(
-                            TypedPaths.getDelegate(resolved, typedPath),
-                            converter,
-                            -1,
-                            pathFilter,
-                            followLinks));
+                        p, newSubdirectory(TypedPaths.getDelegate(resolved, typedPath), -1));
                   } else {
                     updateDirectory(previous, result, newEntry);
                   }
@@ -406,7 +816,10 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
                 if (previous == null || rescanOnDirectoryUpdate) {
                   addDirectory(currentDir, typedPath, result);
                 } else {
-                  updateDirectory(previous, result, Entries.get(typedPath, converter, typedPath));
+                  updateDirectory(
+                      previous,
+                      result,
+                      Entries.get(typedPath, converter, typedPath, previous.getEntry()));
                 }
                 return result;
               }
@@ -426,8 +839,8 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
         } else {
           final Entry<T> oldEntry = getEntry();
           final TypedPath tp =
-              TypedPaths.getDelegate(TypedPaths.expanded(getTypedPath()), typedPath);
-          final Entry<T> newEntry = Entries.get(typedPath, converter, tp);
+              TypedPaths.getDelegate(expanded(getTypedPath()), typedPath);
+          final Entry<T> newEntry = Entries.get(typedPath, converter, tp, oldEntry);
           _cacheEntry.set(newEntry);
           result.onUpdate(oldEntry, getEntry());
         }
@@ -439,12 +852,14 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
   }
 
   private Either<Entry<T>, CachedDirectoryImpl<T>> findImpl(final List<Path> parts) {
-    final Iterator<Path> it = parts.iterator();
     CachedDirectoryImpl<T> currentDir = this;
     Either<Entry<T>, CachedDirectoryImpl<T>> result = null;
-    while (it.hasNext() && currentDir != null && result == null) {
-      final Path p = it.next();
-      if (!it.hasNext()) {
+    for (int i = 0; i < parts.size() && currentDir != null && result == null; ++i) {
+      if (currentDir.canonical != null) {
+        return currentDir.findInView(parts.subList(i, parts.size()));
+      }
+      final Path p = parts.get(i);
+      if (i == parts.size() - 1) {
         final CachedDirectoryImpl<T> subdir = currentDir.subdirectories.get(p);
         if (subdir != null) {
           result = Either.right(subdir);
@@ -459,6 +874,23 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     return result;
   }
 
+  /*
+   * Finds a path below this view in the canonical subtree. A directory is returned as a view at the
+   * path that was looked up.
+   */
+  private Either<Entry<T>, CachedDirectoryImpl<T>> findInView(final List<Path> parts) {
+    final Either<Entry<T>, CachedDirectoryImpl<T>> result = canonical.findImpl(parts);
+    final Path path = resolve(getPath(), parts);
+    if (result == null) {
+      return null;
+    } else if (result.isRight()) {
+      final CachedDirectoryImpl<T> dir = result.get();
+      return Either.right(newView(Entries.alias(dir.getEntry(), path), dir));
+    } else {
+      return Either.left(Entries.alias(leftProjection(result).getValue(), path));
+    }
+  }
+
   private Either<Entry<T>, CachedDirectoryImpl<T>> find(final Path path) {
     if (!getEntry().getTypedPath().exists()) {
       return null;
@@ -480,6 +912,19 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
       final ListTransformer<T, R> function) {
     if (this.depth < 0 || maxDepth < 0) {
       result.add(function.apply(this.getEntry()));
+    } else if (canonical != null) {
+      final Path from = canonical.getPath();
+      final Path to = getPath();
+      canonical.listImpl(
+          maxDepth,
+          filter,
+          result,
+          new ListTransformer<T, R>() {
+            @Override
+            public R apply(final Entry<T> entry) {
+              return function.apply(LinkTargets.rebase(entry, from, to));
+            }
+          });
     } else {
       if (subdirectories.lock()) {
         try {
@@ -511,7 +956,12 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     final List<Entry<T>> result = new ArrayList<>();
     if (this.subdirectories.lock()) {
       try {
-        if (parts.isEmpty()) {
+        if (parts.isEmpty() && canonical != null) {
+          // The canonical subtree is shared with the other links to the target.
+          final Iterator<Entry<T>> it = listEntries(Integer.MAX_VALUE, AllPass).iterator();
+          while (it.hasNext()) result.add(Entries.setExists(it.next(), false));
+          _cacheEntry.set(Entries.setExists(getEntry(), false));
+        } else if (parts.isEmpty()) {
           final Iterator<CachedDirectoryImpl<T>> dirIt = this.subdirectories.values().iterator();
           while (dirIt.hasNext()) {
             final CachedDirectoryImpl<T> dir = dirIt.next();
@@ -527,7 +977,18 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
           CachedDirectoryImpl<T> currentDir = this;
           while (it.hasNext() && currentDir != null) {
             final Path p = it.next();
-            if (!it.hasNext()) {
+            if (currentDir.canonical != null) {
+              final List<Path> rest = new ArrayList<>();
+              rest.add(p);
+              while (it.hasNext()) rest.add(it.next());
+              final CachedDirectoryImpl<T> target = currentDir.canonical;
+              final Iterator<Entry<T>> removed =
+                  target.remove(resolve(target.getPath(), rest)).iterator();
+              while (removed.hasNext()) {
+                result.add(
+                    LinkTargets.rebase(removed.next(), target.getPath(), currentDir.getPath()));
+              }
+            } else if (!it.hasNext()) {
               final Entry<T> entry = currentDir.files.remove(p);
               if (entry != null) {
                 result.add(Entries.setExists(Entries.resolve(currentDir.getPath(), entry), false));
@@ -553,15 +1014,117 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
     return result;
   }
 
+  /*
+   * Returns an uninitialized subdirectory if the child should be traversed and the file entry for
+   * the child otherwise.
+   */
+  private Either<Entry<T>, CachedDirectoryImpl<T>> newChild(final Path key, final TypedPath file) {
+    if (file.isDirectory() && depth > 0) {
+      final boolean loop =
+          file.isSymbolicLink() && isLoop(file.getPath(), expanded(file));
+      return Either.right(newSubdirectory(file, loop ? -1 : subdirectoryDepth()));
+    } else {
+      return Either.left(Entries.get(TypedPaths.getDelegate(key, file), converter, file));
+    }
+  }
+
+  /*
+   * Lists the children of this directory without traversing its subdirectories. This makes it
+   * possible to fill in a large directory tree one directory at a time. No lock is held while the
+   * directory is listed and the converter is applied to its children. The result must be added to
+   * the directory with install.
+   */
+  Chunk<T> scan() throws IOException {
+    final Chunk<T> chunk = new Chunk<>();
+    if (trackFileKeys) fileKey = Entries.getFileKey(this.getPath());
+    if (depth >= 0 && canonical == null) {
+      final Iterator<TypedPath> it = fileTreeView.list(this.getPath(), 0, pathFilter).iterator();
+      while (it.hasNext()) {
+        final TypedPath file = it.next();
+        chunk.add(file.getPath().getFileName(), newChild(file.getPath().getFileName(), file));
+      }
+    }
+    return chunk;
+  }
+
+  /*
+   * Adds the children found by scan to this directory. The children whose names are in touched
+   * may have changed after the directory was listed so they are read again. The empty path
+   * indicates that this directory itself changed. Returns the new subdirectories, which have not
+   * been scanned yet.
+   */
+  List<CachedDirectoryImpl<T>> install(final Chunk<T> chunk, final Set<Path> touched) {
+    final List<CachedDirectoryImpl<T>> result = new ArrayList<>();
+    if (subdirectories.lock()) {
+      try {
+        final Iterator<Path> touchedIterator = touched.iterator();
+        while (touchedIterator.hasNext()) {
+          final Path key = touchedIterator.next();
+          if (key.toString().isEmpty()) {
+            final TypedPath typedPath = TypedPaths.get(getPath());
+            if (typedPath.exists()) _cacheEntry.set(Entries.get(typedPath, converter, typedPath));
+          } else {
+            chunk.files.remove(key);
+            chunk.subdirectories.remove(key);
+            files.remove(key);
+            final CachedDirectoryImpl<T> previous = subdirectories.remove(key);
+            if (previous != null) previous.close();
+            final TypedPath typedPath = TypedPaths.get(getPath().resolve(key));
+            final TypedPath file =
+                followLinks || !typedPath.isSymbolicLink()
+                    ? typedPath
+                    : TypedPaths.get(typedPath.getPath(), Entries.LINK);
+            if (file.exists() && pathFilter.accept(file)) chunk.add(key, newChild(key, file));
+          }
+        }
+        files.putAll(chunk.files);
+        final Iterator<Map.Entry<Path, CachedDirectoryImpl<T>>> it =
+            chunk.subdirectories.entrySet().iterator();
+        while (it.hasNext()) {
+          final Map.Entry<Path, CachedDirectoryImpl<T>> entry = it.next();
+          final CachedDirectoryImpl<T> previous =
+              subdirectories.put(entry.getKey(), entry.getValue());
+          if (previous != null) previous.close();
+          if (entry.getValue().depth >= 0 && entry.getValue().canonical == null) {
+            result.add(entry.getValue());
+          }
+        }
+      } finally {
+        subdirectories.unlock();
+      }
+    }
+    return result;
+  }
+
+  /*
+   * The children of a single directory found by {@link CachedDirectoryImpl#scan}.
+   */
+  static final class Chunk<T> {
+    private final Map<Path, Entry<T>> files = new HashMap<>();
+    private final Map<Path, CachedDirectoryImpl<T>> subdirectories = new HashMap<>();
+
+    private void add(final Path key, final Either<Entry<T>, CachedDirectoryImpl<T>> child) {
+      if (child.isRight()) {
+        subdirectories.put(key, child.get());
+      } else {
+        files.put(key, leftProjection(child).getValue());
+      }
+    }
+  }
+
   CachedDirectoryImpl<T> init() throws IOException {
     return init(getTypedPath().getPath());
   }
 
   private CachedDirectoryImpl<T> init(final Path realPath) throws IOException {
-    if (subdirectories.lock()) {
+    if (canonical != null) {
+      // The canonical subtree was initialized when it was created.
+      if (trackFileKeys) fileKey = Entries.getFileKey(this.getPath());
+    } else if (subdirectories.lock()) {
       try {
         subdirectories.clear();
         files.clear();
+        if (trackFileKeys) fileKey = Entries.getFileKey(this.getPath());
         if (depth >= 0
             && (!this.getPath().startsWith(realPath) || this.getPath().equals(realPath))) {
           final Iterator<TypedPath> it =
@@ -570,29 +1133,23 @@ class CachedDirectoryImpl<T> implements CachedDirectory<T> {
             final TypedPath file = it.next();
             final Path path = file.getPath();
             final Path key = this.getTypedPath().getPath().relativize(path).getFileName();
-            if (file.isDirectory()) {
-              if (depth > 0) {
-                if (!file.isSymbolicLink() || !isLoop(path, TypedPaths.expanded(file))) {
-                  final CachedDirectoryImpl<T> dir =
-                      new CachedDirectoryImpl<>(
-                          file, converter, subdirectoryDepth(), pathFilter, followLinks);
-                  try {
-                    dir.init();
+            final Either<Entry<T>, CachedDirectoryImpl<T>> child = newChild(key, file);
+            if (child.isRight()) {
+              final CachedDirectoryImpl<T> dir = child.get();
+              if (dir.depth >= 0) {
+                try {
+                  dir.init();
+                  subdirectories.put(key, dir);
+                } catch (final IOException e) {
+                  if (Files.exists(dir.getPath())) {
                     subdirectories.put(key, dir);
-                  } catch (final IOException e) {
-                    if (Files.exists(dir.getPath())) {
-                      subdirectories.put(key, dir);
-                    }
                   }
-                } else {
-                  subdirectories.put(
-                      key, new CachedDirectoryImpl<>(file, converter, -1, pathFilter, followLinks));
                 }
               } else {
-                files.put(key, Entries.get(TypedPaths.getDelegate(key, file), converter, file));
+                subdirectories.put(key, dir);
               }
             } else {
-              files.put(key, Entries.get(TypedPaths.getDelegate(key, file), converter, file));
+              files.put(key, leftProjection(child).getValue());
             }
           }
         }
@@ -0,0 +1,287 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.Changes;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.functional.Filter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A bounded journal of the changes that have been applied to a file tree cache. Every change is
+ * assigned the next sequence number and the sequence number of the latest change is the token
+ * that identifies the current state of the cache. The journal retains the most recent changes in
+ * a ring buffer that grows on demand up to its capacity, so the net changes since any token that
+ * is still covered by the buffer can be computed in time proportional to the number of changes.
+ *
+ * Registering or unregistering a directory changes the contents of the cache without a change
+ * record for each path, so it invalidates all of the existing tokens. It does so by skipping a
+ * sequence number, which ensures that a token obtained before the invalidation is never mistaken
+ * for one obtained after it.
+ *
+ * The capacity is set by the swoval.change.journal.size system property. The journal is disabled
+ * if it is not positive, in which case every query for a token that is not current requires a
+ * resync.
+ */
+final class ChangeJournal<T> {
+  static final int DEFAULT_CAPACITY = intProperty("swoval.change.journal.size", 65536);
+  private static final int INITIAL_SIZE = 64;
+  private static final int CREATE = 0;
+  private static final int MODIFY = 1;
+  private static final int DELETE = 2;
+
+  private final int capacity;
+  private Record<T>[] ring;
+  private int start = 0;
+  private int size = 0;
+  private long sequence = 0;
+  private long validFrom = 0;
+
+  private static final class Record<T> {
+    private final int kind;
+    private final Path path;
+    private final Entry<T> entry;
+
+    Record(final int kind, final Path path, final Entry<T> entry) {
+      this.kind = kind;
+      this.path = path;
+      this.entry = entry;
+    }
+  }
+
+  ChangeJournal(final int capacity) {
+    this.capacity = capacity;
+    this.ring = newRing(capacity <= 0 ? 0 : Math.min(capacity, INITIAL_SIZE));
+  }
+
+  ChangeJournal() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  synchronized long token() {
+    return sequence;
+  }
+
+  void created(final Entry<T> entry) {
+    add(CREATE, entry);
+  }
+
+  void modified(final Entry<T> entry) {
+    add(MODIFY, entry);
+  }
+
+  void deleted(final Entry<T> entry) {
+    add(DELETE, entry);
+  }
+
+  synchronized void invalidate() {
+    sequence += 1;
+    validFrom = sequence;
+    for (int i = 0; i < size; ++i) ring[(start + i) % ring.length] = null;
+    start = 0;
+    size = 0;
+  }
+
+  synchronized Changes<T> changesSince(final long token) {
+    if (token < validFrom || token > sequence || sequence - token > size) {
+      return new ChangesImpl<>(true, sequence);
+    }
+    final Map<Path, State<T>> states = new LinkedHashMap<>();
+    final Map<Path, Long> deletedDirectories = new HashMap<>();
+    for (long seq = token + 1; seq <= sequence; ++seq) {
+      final Record<T> record = ring[(int) ((start + size - (sequence - seq) - 1) % ring.length)];
+      State<T> state = states.get(record.path);
+      if (state == null) {
+        state = new State<>(record.kind != CREATE);
+        states.put(record.path, state);
+      }
+      if (record.kind == DELETE && record.entry.getTypedPath().isDirectory()) {
+        state.replaced = true;
+        deletedDirectories.put(record.path, seq);
+      }
+      state.last = record;
+      state.lastSequence = seq;
+    }
+    final ChangesImpl<T> result = new ChangesImpl<>(false, sequence);
+    final Iterator<Map.Entry<Path, State<T>>> it = states.entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Path, State<T>> entry = it.next();
+      final State<T> state = entry.getValue();
+      if (isDeletedByParent(entry.getKey(), state.lastSequence, deletedDirectories)) continue;
+      if (state.last.kind == DELETE) {
+        if (state.existed) result.deleted.add(state.last.entry);
+      } else if (state.replaced) {
+        result.rescanned.add(entry.getKey());
+      } else if (state.existed) {
+        result.updated.add(state.last.entry);
+      } else {
+        result.created.add(state.last.entry);
+      }
+    }
+    return result;
+  }
+
+  /*
+   * The deletion of a directory implies the deletion of its subtree, so any earlier change to a
+   * path in the subtree is superseded by it. The path either existed when the token was obtained,
+   * in which case it is covered by the deleted directory, or it did not, in which case there is
+   * nothing to report.
+   */
+  private static boolean isDeletedByParent(
+      final Path path, final long sequence, final Map<Path, Long> deletedDirectories) {
+    if (deletedDirectories.isEmpty()) return false;
+    Path parent = path.getParent();
+    while (parent != null) {
+      final Long deleted = deletedDirectories.get(parent);
+      if (deleted != null && deleted > sequence) return true;
+      parent = parent.getParent();
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return "ChangeJournal(capacity = " + capacity + ")";
+  }
+
+  static <T> Changes<T> resync(final long token) {
+    return new ChangesImpl<>(true, token);
+  }
+
+  /*
+   * Returns a copy of the changes with a different token that only contains the paths that are
+   * accepted by the filter.
+   */
+  static <T> Changes<T> filter(
+      final Changes<T> changes, final long token, final Filter<Path> filter) {
+    if (changes.isResyncRequired()) return resync(token);
+    final ChangesImpl<T> result = new ChangesImpl<>(false, token);
+    filter(changes.getCreated(), result.created, filter);
+    filter(changes.getUpdated(), result.updated, filter);
+    filter(changes.getDeleted(), result.deleted, filter);
+    final Iterator<Path> it = changes.getRescanned().iterator();
+    while (it.hasNext()) {
+      final Path path = it.next();
+      if (filter.accept(path)) result.rescanned.add(path);
+    }
+    return result;
+  }
+
+  private static <T> void filter(
+      final List<Entry<T>> entries, final List<Entry<T>> result, final Filter<Path> filter) {
+    final Iterator<Entry<T>> it = entries.iterator();
+    while (it.hasNext()) {
+      final Entry<T> entry = it.next();
+      if (filter.accept(entry.getTypedPath().getPath())) result.add(entry);
+    }
+  }
+
+  private synchronized void add(final int kind, final Entry<T> entry) {
+    sequence += 1;
+    if (capacity <= 0) return;
+    if (size == ring.length) {
+      if (ring.length < capacity) {
+        final Record<T>[] newRing = newRing((int) Math.min((long) ring.length * 2, capacity));
+        for (int i = 0; i < size; ++i) newRing[i] = ring[(start + i) % ring.length];
+        ring = newRing;
+        start = 0;
+      } else {
+        ring[start] = null;
+        start = (start + 1) % ring.length;
+        size -= 1;
+      }
+    }
+    ring[(start + size) % ring.length] = new Record<>(kind, entry.getTypedPath().getPath(), entry);
+    size += 1;
+  }
+
+  private static final class State<T> {
+    private final boolean existed;
+    private boolean replaced = false;
+    private Record<T> last;
+    private long lastSequence;
+
+    State(final boolean existed) {
+      this.existed = existed;
+    }
+  }
+
+  private static final class ChangesImpl<T> implements Changes<T> {
+    private final boolean resyncRequired;
+    private final long token;
+    private final List<Entry<T>> created = new ArrayList<>();
+    private final List<Entry<T>> updated = new ArrayList<>();
+    private final List<Entry<T>> deleted = new ArrayList<>();
+    private final List<Path> rescanned = new ArrayList<>();
+
+    ChangesImpl(final boolean resyncRequired, final long token) {
+      this.resyncRequired = resyncRequired;
+      this.token = token;
+    }
+
+    @Override
+    public boolean isResyncRequired() {
+      return resyncRequired;
+    }
+
+    @Override
+    public long getToken() {
+      return token;
+    }
+
+    @Override
+    public List<Entry<T>> getCreated() {
+      return Collections.unmodifiableList(created);
+    }
+
+    @Override
+    public List<Entry<T>> getUpdated() {
+      return Collections.unmodifiableList(updated);
+    }
+
+    @Override
+    public List<Entry<T>> getDeleted() {
+      return Collections.unmodifiableList(deleted);
+    }
+
+    @Override
+    public List<Path> getRescanned() {
+      return Collections.unmodifiableList(rescanned);
+    }
+
+    @Override
+    public String toString() {
+      return resyncRequired
+          ? "Changes(token = " + token + ", resync required)"
+          : "Changes(token = "
+              + token
+              + ", created = "
+              + created.size()
+              + ", updated = "
+              + updated.size()
+              + ", deleted = "
+              + deleted.size()
+              + ", rescanned = "
+              + rescanned.size()
+              + ")";
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Record<T>[] newRing(final int length) {
+    return (Record<T>[]) new Record<?>[length];
+  }
+
+  private static int intProperty(final String name, final int defaultValue) {
+    try {
+      return Integer.parseInt(System.getProperty(name, Integer.toString(defaultValue)));
+    } catch (final NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+}
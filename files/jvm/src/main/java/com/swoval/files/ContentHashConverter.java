@@ -0,0 +1,331 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.ContentHash;
+import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.runtime.Platform;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Computes a {@link ContentHash} for regular files. Files that are at least {@code mapThreshold}
+ * bytes long are read through {@link FileChannel#map} in windows of at most 64MB. Smaller files are
+ * read in chunks into a direct buffer that is reused by each thread. A mapped buffer holds the file
+ * open until it is garbage collected, which prevents the file from being deleted or renamed on
+ * windows, so by default files are never mapped on windows. The converter remembers the last hash
+ * that it computed for up to {@code maxEntries} paths and will return it without reading the file
+ * if neither the size nor the last modified time of the file have changed. The least recently used
+ * hash is dropped when there are more paths, so the hashes of deleted files are eventually dropped
+ * even if the converter never sees them again.
+ *
+ * <p>The library targets java 7, which has no CRC32C implementation (java.util.zip.CRC32C was added
+ * in java 9), so the checksum converter uses {@link CRC32}. JMH is not part of the build, so the
+ * converters are compared with a converter that uses Files.readAllBytes by ContentHashBenchmark, a
+ * main class in the jvm test sources.
+ */
+final class ContentHashConverter implements Converter<ContentHash> {
+  static final String XXHASH64 = "xxHash64";
+  static final String CRC_32 = "CRC32";
+  static final String SHA_256 = "SHA-256";
+  static final int DEFAULT_MAX_ENTRIES = 1 << 16;
+  static final long DEFAULT_MAP_THRESHOLD = Platform.isWin() ? Long.MAX_VALUE : 256 * 1024;
+
+  private static final long MAP_WINDOW = 64 * 1024 * 1024;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final byte[] EMPTY = new byte[0];
+  private static final ThreadLocal<ByteBuffer> buffers =
+      new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+          return ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+      };
+
+  private final String algorithm;
+  private final int maxEntries;
+  private final long mapThreshold;
+  private final Map<Path, ContentHash> previous;
+
+  ContentHashConverter(final String algorithm, final int maxEntries) {
+    this(algorithm, maxEntries, DEFAULT_MAP_THRESHOLD);
+  }
+
+  ContentHashConverter(final String algorithm, final int maxEntries, final long mapThreshold) {
+    this.algorithm = algorithm;
+    this.maxEntries = maxEntries;
+    this.mapThreshold = mapThreshold;
+    this.previous =
+        new LinkedHashMap<Path, ContentHash>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<Path, ContentHash> eldest) {
+            return size() > ContentHashConverter.this.maxEntries;
+          }
+        };
+    newHasher(algorithm);
+  }
+
+  @Override
+  public ContentHash apply(final TypedPath typedPath) throws IOException {
+    final Path path = typedPath.getPath();
+    if (typedPath.isDirectory()) {
+      remove(path);
+      return new ContentHash(algorithm, EMPTY, 0, 0);
+    }
+    final BasicFileAttributes attrs;
+    try {
+      attrs = NioWrappers.readAttributes(path);
+    } catch (final NoSuchFileException e) {
+      remove(path);
+      throw e;
+    }
+    final long size = attrs.size();
+    final long lastModified = attrs.lastModifiedTime().toMillis();
+    final ContentHash last;
+    synchronized (previous) {
+      last = previous.get(path);
+    }
+    if (last != null && last.getSize() == size && last.getLastModified() == lastModified) {
+      return last;
+    }
+    final ContentHash result = new ContentHash(algorithm, hash(path, size), size, lastModified);
+    synchronized (previous) {
+      previous.put(path, result);
+    }
+    return result;
+  }
+
+  int size() {
+    synchronized (previous) {
+      return previous.size();
+    }
+  }
+
+  private void remove(final Path path) {
+    synchronized (previous) {
+      previous.remove(path);
+    }
+  }
+
+  private byte[] hash(final Path path, final long size) throws IOException {
+    final Hasher hasher = newHasher(algorithm);
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (size >= mapThreshold && size > 0) {
+        // The file may be truncated after its size was read so the channel size is used.
+        final long length = channel.size();
+        long position = 0;
+        while (position < length) {
+          final long window = Math.min(MAP_WINDOW, length - position);
+          hasher.update(channel.map(FileChannel.MapMode.READ_ONLY, position, window));
+          position += window;
+        }
+        return hasher.digest();
+      }
+      final ByteBuffer buffer = buffers.get();
+      buffer.clear();
+      while (channel.read(buffer) >= 0) {
+        if (!buffer.hasRemaining()) {
+          buffer.flip();
+          hasher.update(buffer);
+          buffer.clear();
+        }
+      }
+      buffer.flip();
+      hasher.update(buffer);
+      buffer.clear();
+    }
+    return hasher.digest();
+  }
+
+  @Override
+  public String toString() {
+    return "ContentHashConverter("
+        + algorithm
+        + ", maxEntries = "
+        + maxEntries
+        + ", mapThreshold = "
+        + mapThreshold
+        + ")";
+  }
+
+  private static Hasher newHasher(final String algorithm) {
+    switch (algorithm) {
+      case XXHASH64:
+        return new XxHash64Hasher();
+      case CRC_32:
+        return new Crc32Hasher();
+      case SHA_256:
+        try {
+          return new MessageDigestHasher(MessageDigest.getInstance(SHA_256));
+        } catch (final NoSuchAlgorithmException e) {
+          throw new IllegalArgumentException(e);
+        }
+      default:
+        throw new IllegalArgumentException("Unknown hash algorithm " + algorithm);
+    }
+  }
+
+  private abstract static class Hasher {
+    /**
+     * Consume all of the remaining bytes in the buffer.
+     *
+     * @param buffer the bytes to add to the hash
+     */
+    abstract void update(final ByteBuffer buffer);
+
+    abstract byte[] digest();
+  }
+
+  private static final class MessageDigestHasher extends Hasher {
+    private final MessageDigest messageDigest;
+
+    MessageDigestHasher(final MessageDigest messageDigest) {
+      this.messageDigest = messageDigest;
+    }
+
+    @Override
+    void update(final ByteBuffer buffer) {
+      messageDigest.update(buffer);
+    }
+
+    @Override
+    byte[] digest() {
+      return messageDigest.digest();
+    }
+  }
+
+  /*
+   * java.util.zip.CRC32 can only consume byte arrays prior to java 8 so the bytes are copied
+   * through a small scratch array.
+   */
+  private static final class Crc32Hasher extends Hasher {
+    private final CRC32 crc32 = new CRC32();
+    private final byte[] scratch = new byte[8192];
+
+    @Override
+    void update(final ByteBuffer buffer) {
+      while (buffer.hasRemaining()) {
+        final int length = Math.min(scratch.length, buffer.remaining());
+        buffer.get(scratch, 0, length);
+        crc32.update(scratch, 0, length);
+      }
+    }
+
+    @Override
+    byte[] digest() {
+      return longBytes(crc32.getValue());
+    }
+  }
+
+  /** A streaming implementation of the 64 bit xxHash algorithm with a seed of zero. */
+  static final class XxHash64Hasher extends Hasher {
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long P4 = 0x85EBCA77C2B2AE63L;
+    private static final long P5 = 0x27D4EB2F165667C5L;
+
+    private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+    private long v1 = P1 + P2;
+    private long v2 = P2;
+    private long v3 = 0;
+    private long v4 = -P1;
+    private long total = 0;
+
+    @Override
+    void update(final ByteBuffer buffer) {
+      final ByteOrder order = buffer.order();
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        total += buffer.remaining();
+        if (pending.position() > 0) {
+          while (pending.hasRemaining() && buffer.hasRemaining()) pending.put(buffer.get());
+          if (pending.hasRemaining()) return;
+          pending.flip();
+          stripe(pending);
+          pending.clear();
+        }
+        while (buffer.remaining() >= 32) stripe(buffer);
+        while (buffer.hasRemaining()) pending.put(buffer.get());
+      } finally {
+        buffer.order(order);
+      }
+    }
+
+    private void stripe(final ByteBuffer buffer) {
+      v1 = round(v1, buffer.getLong());
+      v2 = round(v2, buffer.getLong());
+      v3 = round(v3, buffer.getLong());
+      v4 = round(v4, buffer.getLong());
+    }
+
+    private static long round(final long acc, final long input) {
+      return Long.rotateLeft(acc + input * P2, 31) * P1;
+    }
+
+    private static long merge(final long acc, final long value) {
+      return (acc ^ round(0, value)) * P1 + P4;
+    }
+
+    long value() {
+      long h;
+      if (total >= 32) {
+        h =
+            Long.rotateLeft(v1, 1)
+                + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12)
+                + Long.rotateLeft(v4, 18);
+        h = merge(h, v1);
+        h = merge(h, v2);
+        h = merge(h, v3);
+        h = merge(h, v4);
+      } else {
+        h = P5;
+      }
+      h += total;
+      final ByteBuffer tail = pending.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      tail.flip();
+      while (tail.remaining() >= 8) {
+        h ^= round(0, tail.getLong());
+        h = Long.rotateLeft(h, 27) * P1 + P4;
+      }
+      if (tail.remaining() >= 4) {
+        h ^= (tail.getInt() & 0xFFFFFFFFL) * P1;
+        h = Long.rotateLeft(h, 23) * P2 + P3;
+      }
+      while (tail.hasRemaining()) {
+        h ^= (tail.get() & 0xFF) * P5;
+        h = Long.rotateLeft(h, 11) * P1;
+      }
+      h ^= h >>> 33;
+      h *= P2;
+      h ^= h >>> 29;
+      h *= P3;
+      h ^= h >>> 32;
+      return h;
+    }
+
+    @Override
+    byte[] digest() {
+      return longBytes(value());
+    }
+  }
+
+  private static byte[] longBytes(final long value) {
+    final byte[] result = new byte[8];
+    for (int i = 0; i < 8; ++i) {
+      result[i] = (byte) (value >>> (56 - 8 * i));
+    }
+    return result;
+  }
+}
@@ -7,7 +7,6 @@ import com.swoval.files.FileTreeDataViews.Converter;
 import com.swoval.files.FileTreeDataViews.Entry;
 import com.swoval.functional.Either;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 
@@ -23,6 +22,10 @@ final class Entries {
 
   static <T> Entry<T> get(
       final TypedPath typedPath, final Converter<T> converter, final TypedPath converterPath) {
+    if (converter instanceof LazyConverter<?>) {
+      final Converter<T> delegate = ((LazyConverter<T>) converter).delegate;
+      return new LazyEntry<>(typedPath, new Lazy<>(delegate, converterPath));
+    }
     try {
       return new ValidEntry<>(typedPath, converter.apply(converterPath));
     } catch (final IOException e) {
@@ -30,6 +33,30 @@ final class Entries {
     }
   }
 
+  /*
+   * Returns the entry for an updated path. A lazy value is only computed right away if the value
+   * of the previous entry for the path was computed, since a value that nobody has asked for can't
+   * have been used to detect a change.
+   */
+  static <T> Entry<T> get(
+      final TypedPath typedPath,
+      final Converter<T> converter,
+      final TypedPath converterPath,
+      final Entry<T> previous) {
+    final Entry<T> result = get(typedPath, converter, converterPath);
+    if (result instanceof LazyEntry<?> && previous != null && isMaterialized(previous)) {
+      result.getValue();
+    }
+    return result;
+  }
+
+  /*
+   * Returns true unless the entry has a lazy value that has not been computed yet.
+   */
+  static boolean isMaterialized(final Entry<?> entry) {
+    return !(entry instanceof LazyEntry<?>) || ((LazyEntry<?>) entry).lazy.isMaterialized();
+  }
+
   static <T> Entry<T> setExists(final Entry<T> entry, final boolean exists) {
     final TypedPath typedPath = entry.getTypedPath();
     final int kind =
@@ -38,17 +65,42 @@ final class Entries {
             | (typedPath.isDirectory() ? DIRECTORY : 0)
             | (typedPath.isSymbolicLink() ? LINK : 0);
     final TypedPath nonExistent = TypedPaths.get(typedPath.getPath(), kind);
-    if (entry.getValue().isLeft()) {
+    if (entry instanceof LazyEntry<?>) {
+      return new LazyEntry<>(nonExistent, ((LazyEntry<T>) entry).lazy);
+    } else if (entry.getValue().isLeft()) {
       return new InvalidEntry<>(nonExistent, Either.leftProjection(entry.getValue()).getValue());
     } else {
       return new ValidEntry<>(nonExistent, entry.getValue().get());
     }
   }
 
-  static <T> Entry<T> resolve(final Path path, final Entry<T> entry) {
+  static <T> Entry<T> setPath(final Entry<T> entry, final Path path) {
+    final TypedPath typedPath = TypedPaths.get(path, getKind(entry));
+    if (entry instanceof LazyEntry<?>) {
+      return new LazyEntry<>(typedPath, ((LazyEntry<T>) entry).lazy.moveTo(typedPath));
+    }
     final Either<IOException, T> value = entry.getValue();
+    return value.isRight()
+        ? new ValidEntry<>(typedPath, value.get())
+        : new InvalidEntry<T>(typedPath, leftProjection(value).getValue());
+  }
+
+  static <T> Entry<T> resolve(final Path path, final Entry<T> entry) {
+    return alias(entry, path.resolve(entry.getTypedPath().getPath()));
+  }
+
+  /*
+   * Returns the entry at a different path for the same file, e.g. a path through a symbolic link.
+   * Unlike setPath, a lazy value that has not been computed yet is shared with the original entry
+   * so that it is computed at most once.
+   */
+  static <T> Entry<T> alias(final Entry<T> entry, final Path path) {
     final int kind = getKind(entry);
-    final TypedPath typedPath = TypedPaths.get(path.resolve(entry.getTypedPath().getPath()), kind);
+    final TypedPath typedPath = TypedPaths.get(path, kind);
+    if (entry instanceof LazyEntry<?>) {
+      return new LazyEntry<>(typedPath, ((LazyEntry<T>) entry).lazy);
+    }
+    final Either<IOException, T> value = entry.getValue();
     return value.isRight()
         ? new ValidEntry<>(typedPath, value.get())
         : new InvalidEntry<T>(typedPath, leftProjection(value).getValue());
@@ -56,9 +108,17 @@ final class Entries {
 
   private static int getKindFromAttrs(final Path path, final BasicFileAttributes attrs) {
     return attrs.isSymbolicLink()
-        ? LINK | (Files.isDirectory(path) ? DIRECTORY : FILE)
+        ? LINK | (isDirectory(path) ? DIRECTORY : FILE)
         : attrs.isDirectory() ? DIRECTORY : FILE;
   }
+
+  private static boolean isDirectory(final Path path) {
+    try {
+      return NioWrappers.readAttributes(path).isDirectory();
+    } catch (final IOException e) {
+      return false;
+    }
+  }
   /**
    * Compute the underlying file type for the path.
    *
@@ -71,6 +131,20 @@ final class Entries {
     return getKindFromAttrs(path, attrs);
   }
 
+  /**
+   * Returns the file key for the path without following symbolic links.
+   *
+   * @param path the path whose file key is to be determined
+   * @return the file key or null if it is unavailable.
+   */
+  static Object getFileKey(final Path path) {
+    try {
+      return NioWrappers.readAttributes(path, NOFOLLOW_LINKS).fileKey();
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
   private static int getKind(final Entry<?> entry) {
     final TypedPath typedPath = entry.getTypedPath();
     return (typedPath.isSymbolicLink() ? LINK : 0)
@@ -133,6 +207,105 @@ final class Entries {
     }
   }
 
+  /*
+   * An entry whose value is computed by the converter the first time that it is requested. The
+   * copies of an entry that are made when it is resolved against its directory, or marked as
+   * deleted, share the same lazy value so that it is computed at most once.
+   */
+  private static final class LazyEntry<T> extends EntryImpl<T> {
+    private final Lazy<T> lazy;
+
+    LazyEntry(final TypedPath typedPath, final Lazy<T> lazy) {
+      super(typedPath);
+      this.lazy = lazy;
+    }
+
+    @Override
+    public Either<IOException, T> getValue() {
+      return lazy.get();
+    }
+
+    @Override
+    public String toString() {
+      return "LazyEntry("
+          + getTypedPath().getPath()
+          + ", "
+          + (lazy.isMaterialized() ? lazy.get() : "<not computed>")
+          + ")";
+    }
+  }
+
+  private static final class Lazy<T> {
+    private Converter<T> converter;
+    private TypedPath converterPath;
+    private volatile Either<IOException, T> value;
+
+    Lazy(final Converter<T> converter, final TypedPath converterPath) {
+      this.converter = converter;
+      this.converterPath = converterPath;
+    }
+
+    boolean isMaterialized() {
+      return value != null;
+    }
+
+    /*
+     * Returns a lazy value for the new location of a moved path. A value that has not been
+     * computed yet has to be computed from the new path since the old one no longer exists.
+     */
+    synchronized Lazy<T> moveTo(final TypedPath typedPath) {
+      return value == null ? new Lazy<>(converter, typedPath) : this;
+    }
+
+    Either<IOException, T> get() {
+      Either<IOException, T> result = value;
+      if (result == null) {
+        synchronized (this) {
+          result = value;
+          if (result == null) {
+            try {
+              result = Either.right(converter.apply(converterPath));
+            } catch (final IOException e) {
+              result = Either.left(e);
+            }
+            value = result;
+            converter = null;
+            converterPath = null;
+          }
+        }
+      }
+      return result;
+    }
+  }
+
+  /*
+   * Marks a converter whose values should be computed lazily. See {@link
+   * FileTreeDataViews#lazily(Converter)}.
+   */
+  static final class LazyConverter<T> implements Converter<T> {
+    private final Converter<T> delegate;
+
+    LazyConverter(final Converter<T> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public T apply(final TypedPath typedPath) throws IOException {
+      return delegate.apply(typedPath);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof LazyConverter<?>
+          && ((LazyConverter<?>) other).delegate.equals(delegate);
+    }
+
+    @Override
+    public int hashCode() {
+      return delegate.hashCode() * 31 + 1;
+    }
+  }
+
   private static class InvalidEntry<T> extends EntryImpl<T> {
     private final IOException exception;
 
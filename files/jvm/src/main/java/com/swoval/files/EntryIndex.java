@@ -0,0 +1,175 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.Entry;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/*
+ * Secondary indexes of the entries in a cache by file name, by extension and, optionally, by last
+ * modified time. The cache does not store the last modified time of its entries, so it is read
+ * when an entry is added to the index. That costs an extra stat for every change, so the last
+ * modified index is only maintained once it has been enabled.
+ *
+ * The entries are also kept in a map sorted by path so that the index entries for all of the
+ * descendants of a deleted directory can be removed without scanning the whole index: the paths
+ * with the prefix "dir/" form a contiguous range of the sorted keys. All access must be
+ * synchronized by the caller.
+ */
+final class EntryIndex<T> {
+  private final TreeMap<String, Indexed<T>> entries = new TreeMap<>();
+  private final Map<String, Map<String, Entry<T>>> byName = new HashMap<>();
+  private final Map<String, Map<String, Entry<T>>> byExtension = new HashMap<>();
+  private TreeMap<Long, Map<String, Entry<T>>> byLastModified;
+
+  EntryIndex(final boolean indexLastModified) {
+    byLastModified = indexLastModified ? new TreeMap<Long, Map<String, Entry<T>>>() : null;
+  }
+
+  void put(final Entry<T> entry) {
+    final Path path = entry.getTypedPath().getPath();
+    final String key = path.toString();
+    removeEntry(key);
+    final Path fileName = path.getFileName();
+    final String name = fileName == null ? null : fileName.toString();
+    final int dot = name == null ? -1 : name.lastIndexOf('.');
+    final Indexed<T> indexed =
+        new Indexed<>(
+            entry,
+            name,
+            dot < 0 ? null : name.substring(dot + 1),
+            byLastModified == null ? null : lastModified(path));
+    entries.put(key, indexed);
+    add(byName, indexed.name, key, entry);
+    add(byExtension, indexed.extension, key, entry);
+    if (byLastModified != null) add(byLastModified, indexed.lastModified, key, entry);
+  }
+
+  /*
+   * Removes the entry for the path along with the entries for all of its descendants.
+   */
+  void remove(final Path path) {
+    final String key = path.toString();
+    removeEntry(key);
+    final String prefix = key.endsWith(separator(path)) ? key : key + separator(path);
+    final Iterator<String> it = entries.tailMap(prefix, true).keySet().iterator();
+    final List<String> descendants = new ArrayList<>();
+    while (it.hasNext()) {
+      final String descendant = it.next();
+      if (!descendant.startsWith(prefix)) break;
+      descendants.add(descendant);
+    }
+    final Iterator<String> descendantIterator = descendants.iterator();
+    while (descendantIterator.hasNext()) removeEntry(descendantIterator.next());
+  }
+
+  List<Entry<T>> named(final String name) {
+    return values(byName.get(name));
+  }
+
+  List<Entry<T>> withExtension(final String extension) {
+    return values(byExtension.get(extension));
+  }
+
+  /*
+   * Returns the entries whose last modified time is at least lastModified, in order of their last
+   * modified times. The index is enabled by the first call.
+   */
+  List<Entry<T>> modifiedSince(final long lastModified) {
+    if (byLastModified == null) {
+      byLastModified = new TreeMap<>();
+      final Iterator<Map.Entry<String, Indexed<T>>> it = entries.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<String, Indexed<T>> entry = it.next();
+        final Indexed<T> indexed = entry.getValue();
+        indexed.lastModified = lastModified(indexed.entry.getTypedPath().getPath());
+        add(byLastModified, indexed.lastModified, entry.getKey(), indexed.entry);
+      }
+    }
+    final List<Entry<T>> result = new ArrayList<>();
+    final NavigableMap<Long, Map<String, Entry<T>>> matches =
+        byLastModified.tailMap(lastModified, true);
+    final Iterator<Map<String, Entry<T>>> it = matches.values().iterator();
+    while (it.hasNext()) result.addAll(it.next().values());
+    return result;
+  }
+
+  boolean isLastModifiedIndexed() {
+    return byLastModified != null;
+  }
+
+  private void removeEntry(final String key) {
+    final Indexed<T> indexed = entries.remove(key);
+    if (indexed != null) {
+      remove(byName, indexed.name, key);
+      remove(byExtension, indexed.extension, key);
+      if (byLastModified != null) remove(byLastModified, indexed.lastModified, key);
+    }
+  }
+
+  private static <K, T> void add(
+      final Map<K, Map<String, Entry<T>>> index,
+      final K indexKey,
+      final String key,
+      final Entry<T> entry) {
+    if (indexKey != null) {
+      Map<String, Entry<T>> entries = index.get(indexKey);
+      if (entries == null) {
+        entries = new LinkedHashMap<>();
+        index.put(indexKey, entries);
+      }
+      entries.put(key, entry);
+    }
+  }
+
+  private static <K, T> void remove(
+      final Map<K, Map<String, Entry<T>>> index, final K indexKey, final String key) {
+    if (indexKey != null) {
+      final Map<String, Entry<T>> entries = index.get(indexKey);
+      if (entries != null) {
+        entries.remove(key);
+        if (entries.isEmpty()) index.remove(indexKey);
+      }
+    }
+  }
+
+  private static <T> List<Entry<T>> values(final Map<String, Entry<T>> entries) {
+    return entries == null
+        ? new ArrayList<Entry<T>>()
+        : new ArrayList<Entry<T>>(entries.values());
+  }
+
+  private static String separator(final Path path) {
+    return path.getFileSystem().getSeparator();
+  }
+
+  private static Long lastModified(final Path path) {
+    try {
+      return NioWrappers.readAttributes(path).lastModifiedTime().toMillis();
+    } catch (final IOException e) {
+      return null;
+    }
+  }
+
+  private static final class Indexed<T> {
+    private final Entry<T> entry;
+    private final String name;
+    private final String extension;
+    private Long lastModified;
+
+    Indexed(
+        final Entry<T> entry, final String name, final String extension, final Long lastModified) {
+      this.entry = entry;
+      this.name = name;
+      this.extension = extension;
+      this.lastModified = lastModified;
+    }
+  }
+}
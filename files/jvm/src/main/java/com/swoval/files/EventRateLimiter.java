@@ -0,0 +1,229 @@
+package com.swoval.files;
+
+import com.swoval.functional.Consumer;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A circuit breaker for the events of a path watcher. It counts the events for each directory in
+ * one second windows. When the count for a directory exceeds the limit, the directory is
+ * throttled: the events for the directory and all of its subdirectories are dropped, before the
+ * path watcher has done any io for them, until no event has been received for the subtree for the
+ * quiet period. At that point, the subtree is rescanned once, which reports the net effect of all
+ * of the dropped events. The throttle and rescan callbacks are run on the thread of the caller of
+ * accept and on a timer thread respectively.
+ *
+ * The limiter is disabled by default. It is enabled by setting the swoval.event.rate.limit system
+ * property to a positive number of events per second per directory before the path watcher is
+ * created, or by passing a positive limit to the constructor. The quiet period is set by the
+ * swoval.event.rate.quiet.period property, in milliseconds.
+ */
+final class EventRateLimiter implements AutoCloseable {
+  static final int DEFAULT_LIMIT = 0;
+  static final long DEFAULT_QUIET_PERIOD_MILLIS =
+      intProperty("swoval.event.rate.quiet.period", 250);
+  private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int MAX_TRACKED_DIRECTORIES = 4096;
+  private static final AtomicInteger threadID = new AtomicInteger(0);
+  static final AtomicLong totalTrips = new AtomicLong(0);
+  static final AtomicLong totalDroppedEvents = new AtomicLong(0);
+  static final AtomicLong totalRescans = new AtomicLong(0);
+  static final AtomicInteger throttledDirectories = new AtomicInteger(0);
+
+  private final int limit;
+  private final long quietPeriodNanos;
+  private final Consumer<Path> onThrottle;
+  private final Consumer<Path> onRescan;
+  private final Logger logger;
+  private final Map<Path, Window> windows = new HashMap<>();
+  private final Map<Path, Throttled> throttled = new HashMap<>();
+  private ScheduledThreadPoolExecutor timer;
+  private boolean closed = false;
+
+  private static final class Window {
+    private long start;
+    private int count;
+
+    Window(final long start) {
+      this.start = start;
+    }
+  }
+
+  private static final class Throttled {
+    private long lastEvent;
+
+    Throttled(final long lastEvent) {
+      this.lastEvent = lastEvent;
+    }
+  }
+
+  EventRateLimiter(
+      final int limit,
+      final long quietPeriodMillis,
+      final Consumer<Path> onThrottle,
+      final Consumer<Path> onRescan,
+      final Logger logger) {
+    this.limit = limit;
+    this.quietPeriodNanos = TimeUnit.MILLISECONDS.toNanos(quietPeriodMillis);
+    this.onThrottle = onThrottle;
+    this.onRescan = onRescan;
+    this.logger = logger;
+  }
+
+  EventRateLimiter(
+      final Consumer<Path> onThrottle, final Consumer<Path> onRescan, final Logger logger) {
+    this(
+        intProperty("swoval.event.rate.limit", DEFAULT_LIMIT),
+        DEFAULT_QUIET_PERIOD_MILLIS,
+        onThrottle,
+        onRescan,
+        logger);
+  }
+
+  /*
+   * Returns true if the event for the path should be handled and false if it should be dropped
+   * because the path is in a throttled subtree.
+   */
+  boolean accept(final Path path) {
+    if (limit <= 0) return true;
+    final Path directory = path.getParent();
+    if (directory == null) return true;
+    final long now = System.nanoTime();
+    synchronized (this) {
+      if (closed) return true;
+      if (!throttled.isEmpty()) {
+        for (Path p = directory; p != null; p = p.getParent()) {
+          final Throttled throttledDirectory = throttled.get(p);
+          if (throttledDirectory != null) {
+            throttledDirectory.lastEvent = now;
+            totalDroppedEvents.incrementAndGet();
+            return false;
+          }
+        }
+      }
+      Window window = windows.get(directory);
+      if (window == null) {
+        if (windows.size() >= MAX_TRACKED_DIRECTORIES) evictExpiredWindows(now);
+        window = new Window(now);
+        windows.put(directory, window);
+      } else if (now - window.start > WINDOW_NANOS) {
+        window.start = now;
+        window.count = 0;
+      }
+      window.count += 1;
+      if (window.count <= limit) return true;
+      windows.remove(directory);
+      throttled.put(directory, new Throttled(now));
+      totalTrips.incrementAndGet();
+      totalDroppedEvents.incrementAndGet();
+      throttledDirectories.incrementAndGet();
+      schedule(directory);
+    }
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " throttling events for " + directory);
+    onThrottle.accept(directory);
+    return false;
+  }
+
+  @Override
+  public void close() {
+    final ScheduledThreadPoolExecutor executor;
+    synchronized (this) {
+      closed = true;
+      throttledDirectories.addAndGet(-throttled.size());
+      throttled.clear();
+      windows.clear();
+      executor = timer;
+      timer = null;
+    }
+    if (executor != null) executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "EventRateLimiter(limit = " + limit + ")";
+  }
+
+  /*
+   * Must be called while holding the lock on this limiter.
+   */
+  private void schedule(final Path directory) {
+    if (timer == null) {
+      timer =
+          new ScheduledThreadPoolExecutor(
+              1,
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                  final Thread thread =
+                      new Thread(
+                          runnable,
+                          "com.swoval.files.EventRateLimiter-timer-"
+                              + threadID.getAndIncrement());
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+    }
+    timer.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            check(directory);
+          }
+        },
+        quietPeriodNanos,
+        TimeUnit.NANOSECONDS);
+  }
+
+  private void check(final Path directory) {
+    synchronized (this) {
+      final Throttled throttledDirectory = throttled.get(directory);
+      if (closed || throttledDirectory == null) return;
+      final long remaining = throttledDirectory.lastEvent + quietPeriodNanos - System.nanoTime();
+      if (remaining > 0) {
+        timer.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                check(directory);
+              }
+            },
+            remaining,
+            TimeUnit.NANOSECONDS);
+        return;
+      }
+      throttled.remove(directory);
+      throttledDirectories.decrementAndGet();
+      totalRescans.incrementAndGet();
+    }
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " rescanning " + directory + " after throttling its events");
+    onRescan.accept(directory);
+  }
+
+  private void evictExpiredWindows(final long now) {
+    final Iterator<Window> it = windows.values().iterator();
+    while (it.hasNext()) {
+      if (now - it.next().start > WINDOW_NANOS) it.remove();
+    }
+  }
+
+  private static int intProperty(final String name, final int defaultValue) {
+    try {
+      return Integer.parseInt(System.getProperty(name, Integer.toString(defaultValue)));
+    } catch (final NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+}
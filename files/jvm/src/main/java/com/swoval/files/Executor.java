@@ -26,9 +26,11 @@ abstract class Executor implements AutoCloseable {
   }
 
   /**
-   * Runs the task with a given priority.
+   * Runs the task with a given priority. Tasks with a lower priority value run first and tasks with
+   * the same priority run in the order in which they were submitted.
    *
    * @param runnable task to run
+   * @param priority the priority of the task
    */
   abstract void run(final java.lang.Runnable runnable, final int priority);
 
@@ -42,6 +44,7 @@ abstract class Executor implements AutoCloseable {
     final ThreadFactory factory;
     final ExecutorService service;
     final LinkedBlockingQueue<PriorityRunnable> consumers = new LinkedBlockingQueue<>();
+    private long sequence = 0;
 
     ExecutorImpl(final ThreadFactory factory, final ExecutorService service) {
       this.factory = factory;
@@ -100,7 +103,7 @@ abstract class Executor implements AutoCloseable {
         new Exception("Tried to submit to closed executor").printStackTrace(System.err);
       } else {
         synchronized (consumers) {
-          if (!consumers.offer(new PriorityRunnable(runnable, priority))) {
+          if (!consumers.offer(new PriorityRunnable(runnable, priority, sequence++))) {
             throw new IllegalStateException(
                 "Couldn't run task due to full queue (" + consumers.size() + ")");
           }
@@ -145,15 +148,18 @@ abstract class Executor implements AutoCloseable {
   private static final class PriorityRunnable implements Runnable, Comparable<PriorityRunnable> {
     private final Runnable runnable;
     private final int priority;
+    private final long sequence;
 
-    PriorityRunnable(final Runnable runnable, final int priority) {
+    PriorityRunnable(final Runnable runnable, final int priority, final long sequence) {
       this.runnable = runnable;
-      this.priority = priority < 0 ? priority : 0;
+      this.priority = priority;
+      this.sequence = sequence;
     }
 
     @Override
     public int compareTo(final PriorityRunnable that) {
-      return Integer.compare(this.priority, that.priority);
+      final int result = Integer.compare(this.priority, that.priority);
+      return result != 0 ? result : Long.compare(this.sequence, that.sequence);
     }
 
     @Override
@@ -168,5 +174,6 @@ abstract class Executor implements AutoCloseable {
             @Override
             public void run() {}
           },
-          -1);
+          -1,
+          0);
 }
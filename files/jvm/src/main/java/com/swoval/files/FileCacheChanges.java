@@ -0,0 +1,127 @@
+package com.swoval.files;
+
+import static com.swoval.functional.Filters.AllPass;
+
+import com.swoval.files.FileTreeDataViews.Changes;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.Snapshot;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/*
+ * Records the changes to the directories of a FileCacheDirectoryTree. Every change is journaled.
+ * The snapshot tree, the index and the summary tree are only maintained once they have been
+ * queried, so that caches that never query them do not pay for them. They are built from the
+ * cached directories the first time that they are needed, and again after they are invalidated.
+ * Apart from token, since and flush, all of the methods must be called while holding the
+ * directories lock.
+ */
+class FileCacheChanges<T> {
+  private final ChangeJournal<T> journal;
+  private final FileCacheDirectories<T> directories;
+  private Snapshots.Tree<T> snapshotTree;
+  private EntryIndex<T> entryIndex;
+  private volatile SummaryTree summaryTree;
+  private boolean indexLastModified = false;
+
+  FileCacheChanges(final ChangeJournal<T> journal, final FileCacheDirectories<T> directories) {
+    this.journal = journal;
+    this.directories = directories;
+  }
+
+  void created(final Entry<T> entry) {
+    journal.created(entry);
+    if (snapshotTree != null) snapshotTree.put(entry);
+    if (entryIndex != null) entryIndex.put(entry);
+    if (summaryTree != null) summaryTree.put(entry.getTypedPath());
+  }
+
+  void modified(final Entry<T> entry) {
+    journal.modified(entry);
+    if (snapshotTree != null) snapshotTree.put(entry);
+    if (entryIndex != null) entryIndex.put(entry);
+    if (summaryTree != null) summaryTree.put(entry.getTypedPath());
+  }
+
+  void deleted(final Entry<T> entry) {
+    journal.deleted(entry);
+    if (snapshotTree != null) snapshotTree.remove(entry.getTypedPath().getPath());
+    if (entryIndex != null) entryIndex.remove(entry.getTypedPath().getPath());
+    if (summaryTree != null) summaryTree.remove(entry.getTypedPath().getPath());
+  }
+
+  /*
+   * Registering or unregistering a directory changes the cache without recording the change for
+   * each path, so the journal tokens are invalidated and the snapshot tree, the index and the
+   * summary tree are discarded.
+   */
+  void invalidate() {
+    journal.invalidate();
+    snapshotTree = null;
+    if (entryIndex != null) indexLastModified = entryIndex.isLastModifiedIndexed();
+    entryIndex = null;
+    summaryTree = null;
+  }
+
+  long token() {
+    return journal.token();
+  }
+
+  Changes<T> since(final long token) {
+    return journal.changesSince(token);
+  }
+
+  Snapshot<T> snapshot() {
+    if (snapshotTree == null) {
+      final Snapshots.Tree<T> tree = new Snapshots.Tree<>();
+      final Iterator<Entry<T>> it = cachedEntries().iterator();
+      while (it.hasNext()) tree.put(it.next());
+      snapshotTree = tree;
+    }
+    return snapshotTree.snapshot();
+  }
+
+  EntryIndex<T> index() {
+    if (entryIndex == null) {
+      final EntryIndex<T> index = new EntryIndex<>(indexLastModified);
+      final Iterator<Entry<T>> it = cachedEntries().iterator();
+      while (it.hasNext()) index.put(it.next());
+      entryIndex = index;
+    }
+    return entryIndex;
+  }
+
+  SummaryTree summaries() {
+    if (summaryTree == null) {
+      final SummaryTree summaries = new SummaryTree();
+      final Iterator<Entry<T>> it = cachedEntries().iterator();
+      while (it.hasNext()) summaries.put(it.next().getTypedPath());
+      summaryTree = summaries;
+    }
+    return summaryTree;
+  }
+
+  /*
+   * Applies the pending updates to the summary tree. See SummaryTree. Must be called without
+   * holding the directories lock.
+   */
+  void flush() {
+    final SummaryTree summaries = summaryTree;
+    if (summaries != null) summaries.flush();
+  }
+
+  /*
+   * Returns the entries for all of the registered directories and their contents.
+   */
+  private List<Entry<T>> cachedEntries() {
+    final List<Entry<T>> result = new ArrayList<>();
+    final Iterator<CachedDirectory<T>> it = directories.values().iterator();
+    while (it.hasNext()) {
+      final CachedDirectory<T> dir = it.next();
+      result.add(dir.getEntry());
+      if (dir.getMaxDepth() >= 0) result.addAll(dir.listEntries(Integer.MAX_VALUE, AllPass));
+    }
+    return result;
+  }
+}
@@ -5,16 +5,25 @@ import static com.swoval.files.PathWatchers.Event.Kind.Delete;
 import static com.swoval.files.PathWatchers.Event.Kind.Error;
 import static com.swoval.files.PathWatchers.Event.Kind.Modify;
 import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
+import static com.swoval.files.PathWatchers.Event.Kind.Throttle;
 import static com.swoval.functional.Filters.AllPass;
 
 import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Changes;
 import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.DirectorySummary;
 import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.MoveObserver;
+import com.swoval.files.FileTreeDataViews.Snapshot;
 import com.swoval.files.FileTreeDataViews.ObservableCache;
+import com.swoval.files.FileTreeRepository.Priority;
 import com.swoval.files.FileTreeRepositoryImpl.Callback;
 import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.files.FileTreeViews.Updates;
 import com.swoval.files.PathWatchers.Event;
 import com.swoval.files.PathWatchers.Event.Kind;
+import com.swoval.concurrent.ThreadFactory;
+import com.swoval.functional.Consumer;
 import com.swoval.functional.Either;
 import com.swoval.functional.Filter;
 import com.swoval.logging.Logger;
@@ -27,6 +36,7 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -36,6 +46,14 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -100,8 +118,14 @@ class FileCachePendingFiles extends Lockable {
 }
 
 class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<T> {
+  /*
+   * The kind of the callbacks for the entries of a subtree that was moved within the cache. The
+   * path watchers never report it. They report a move as a deletion and a creation.
+   */
+  private static final Kind Move = new Kind("Move");
   private final DirectoryRegistry directoryRegistry = new DirectoryRegistryImpl();
   private final Filter<TypedPath> filter;
+  private final GitIgnoreFilter ignoreFilter;
   private final Converter<T> converter;
   private final CacheObservers<T> observers = new CacheObservers<>();
   private final Executor callbackExecutor;
@@ -109,6 +133,10 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
   private final boolean rescanOnDirectoryUpdate;
   private final AtomicBoolean closed = new AtomicBoolean(false);
   private final Logger logger;
+  private final Map<Path, Priority> priorities = new HashMap<>();
+  private volatile PriorityEventScheduler scheduler;
+  private final QuiescenceTracker quiescence = new QuiescenceTracker();
+  private final FileCacheChanges<T> changes;
   final SymlinkWatcher symlinkWatcher;
 
   FileCacheDirectoryTree(
@@ -131,7 +159,7 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
         symlinkWatcher,
         rescanOnDirectoryUpdate,
         Loggers.getLogger(),
-        null);
+        new Options<T>());
   }
 
   FileCacheDirectoryTree(
@@ -141,6 +169,24 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
       final boolean rescanOnDirectoryUpdate,
       final Logger logger,
       final Filter<TypedPath> filter) {
+    this(
+        converter,
+        callbackExecutor,
+        symlinkWatcher,
+        rescanOnDirectoryUpdate,
+        logger,
+        new Options<T>().filter(filter));
+  }
+
+  FileCacheDirectoryTree(
+      final Converter<T> converter,
+      final Executor callbackExecutor,
+      final SymlinkWatcher symlinkWatcher,
+      final boolean rescanOnDirectoryUpdate,
+      final Logger logger,
+      final Options<T> options) {
+    final Filter<TypedPath> filter = options.filter;
+    final long moveWindowMillis = options.moveWindowMillis;
     this.converter = converter;
     this.callbackExecutor = callbackExecutor;
     this.symlinkWatcher = symlinkWatcher;
@@ -148,6 +194,7 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     this.rescanOnDirectoryUpdate = rescanOnDirectoryUpdate;
     this.logger = logger;
     this.filter = DirectoryRegistries.toTypedPathFilter(directoryRegistry, filter);
+    this.ignoreFilter = filter instanceof GitIgnoreFilter ? (GitIgnoreFilter) filter : null;
     if (symlinkWatcher != null) {
       final boolean log = System.getProperty("swoval.symlink.debug", "false").equals("true");
       symlinkWatcher.addObserver(
@@ -159,17 +206,88 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
 
             @Override
             public void onNext(final Event event) {
-              handleEvent(event);
+              if (linkTargets != null) {
+                onTargetEvent(event);
+              } else {
+                onEvent(event);
+              }
             }
           });
     }
     final ReentrantLock reentrantLock = new ReentrantLock();
     pendingFiles = new FileCachePendingFiles(reentrantLock);
+    pendingScans = new FileCachePendingScans<>(reentrantLock);
+    registrationExecutor =
+        Executors.newSingleThreadExecutor(new ThreadFactory("FileTreeRepository-registration"));
     directories = new FileCacheDirectories<>(reentrantLock);
+    changes = new FileCacheChanges<>(options.journal, directories);
+    this.moveWindowMillis = moveWindowMillis;
+    if (options.shareLinkTargets && symlinkWatcher != null) {
+      final Filter<? super TypedPath> targetFilter;
+      if (filter == null) {
+        targetFilter = AllPass;
+      } else {
+        targetFilter = filter;
+      }
+      linkTargets = new LinkTargets<>(converter, targetFilter, moveWindowMillis > 0, realPaths);
+      symlinkWatcher.setFanOut(false);
+    } else {
+      linkTargets = null;
+    }
+    if (moveWindowMillis > 0) {
+      pendingMoves = new FileCachePendingMoves<>(reentrantLock);
+      moveExecutor =
+          Executors.newSingleThreadScheduledExecutor(
+              new ThreadFactory("FileTreeRepository-move-detector"));
+    } else {
+      pendingMoves = null;
+      moveExecutor = null;
+    }
+  }
+
+  /*
+   * The optional settings of a tree. The move window is the time in milliseconds for which a
+   * deleted subtree is held in case it reappears at a new path. Moves are not detected if it is
+   * not positive. The journal may be shared by several trees, e.g. the shards of a repository. If
+   * shareLinkTargets is set, the links to the same directory are cached as views of a single
+   * subtree for the target directory. See LinkTargets.
+   */
+  static final class Options<T> {
+    private Filter<TypedPath> filter = null;
+    private long moveWindowMillis = 0;
+    private ChangeJournal<T> journal = new ChangeJournal<>();
+    private boolean shareLinkTargets = false;
+
+    Options<T> filter(final Filter<TypedPath> filter) {
+      this.filter = filter;
+      return this;
+    }
+
+    Options<T> moveWindowMillis(final long moveWindowMillis) {
+      this.moveWindowMillis = moveWindowMillis;
+      return this;
+    }
+
+    Options<T> journal(final ChangeJournal<T> journal) {
+      this.journal = journal;
+      return this;
+    }
+
+    Options<T> shareLinkTargets(final boolean shareLinkTargets) {
+      this.shareLinkTargets = shareLinkTargets;
+      return this;
+    }
   }
 
   private final FileCacheDirectories<T> directories;
   private final FileCachePendingFiles pendingFiles;
+  private final FileCachePendingScans<T> pendingScans;
+  private final ExecutorService registrationExecutor;
+  private final FileCachePendingMoves<T> pendingMoves;
+  private final ScheduledExecutorService moveExecutor;
+  private final long moveWindowMillis;
+  private final RealPaths realPaths = new RealPaths();
+  private final LinkTargets<T> linkTargets;
 
   private final DirectoryRegistry READ_ONLY_DIRECTORY_REGISTRY =
       new DirectoryRegistry() {
@@ -211,6 +329,9 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
 
   void unregister(final Path path) {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    synchronized (priorities) {
+      priorities.remove(absolutePath);
+    }
     if (directories.lock()) {
       try {
         directoryRegistry.removeDirectory(absolutePath);
@@ -223,7 +344,10 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
               dir.remove(absolutePath);
             }
           }
+          pendingScans.cancel(absolutePath);
         }
+        if (linkTargets != null) linkTargets.retain(linkRoots());
+        changes.invalidate();
       } finally {
         directories.unlock();
       }
@@ -260,40 +384,226 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     return foundDir;
   }
 
+  /*
+   * Sets the priority of the events for the path and the paths inside of it. Until a priority
+   * other than Normal is set, the events are handled on the thread that produced them, exactly as
+   * they were before priorities were added. After that, they are handed to a scheduler that
+   * handles them in priority order on its own thread. Returns the previous priority of the path.
+   */
+  Priority setPriority(final Path path, final Priority priority) {
+    synchronized (priorities) {
+      final Priority previous =
+          priority == null ? priorities.remove(path) : priorities.put(path, priority);
+      if (scheduler == null && priority != null && priority != Priority.Normal && !closed.get()) {
+        scheduler =
+            new PriorityEventScheduler(
+                new Consumer<Event>() {
+                  @Override
+                  public void accept(final Event event) {
+                    try {
+                      handleEvent(event);
+                    } finally {
+                      quiescence.end();
+                    }
+                  }
+                },
+                logger);
+      }
+      return previous;
+    }
+  }
+
+  /*
+   * Returns the priority of the most specific directory containing the path that has a priority.
+   */
+  Priority priorityFor(final Path path) {
+    synchronized (priorities) {
+      if (!priorities.isEmpty()) {
+        for (Path p = path; p != null; p = p.getParent()) {
+          final Priority priority = priorities.get(p);
+          if (priority != null) return priority;
+        }
+      }
+    }
+    return Priority.Normal;
+  }
+
+  void onEvent(final Event event) {
+    final Path path = event.getTypedPath().getPath();
+    quiescence.begin(path);
+    final PriorityEventScheduler eventScheduler = scheduler;
+    if (eventScheduler == null) {
+      try {
+        handleEvent(event);
+      } finally {
+        quiescence.end();
+      }
+    } else {
+      eventScheduler.offer(event, priorityFor(path));
+    }
+  }
+
+  /*
+   * Handles an event for a path in the target of a link when the link targets are shared. The
+   * event is applied to the canonical subtrees that contain the path and the changes are reported,
+   * and journaled, for every link to them. If there is no canonical subtree for the path, e.g.
+   * because the link is part of a cycle, an event for each of the link paths is handled exactly
+   * like an event from the path watcher, including the move detection and the event priorities.
+   */
+  private void onTargetEvent(final Event event) {
+    final TypedPath typedPath = event.getTypedPath();
+    final Path path = typedPath.getPath();
+    quiescence.begin(path);
+    StatCache.begin();
+    try {
+      if (!prepare(event)) return;
+      final List<TypedPath> symlinks = new ArrayList<>();
+      final List<Callback> callbacks = new ArrayList<>();
+      boolean handled = true;
+      if (!closed.get() && directories.lock()) {
+        try {
+          final boolean rescan = rescanOnDirectoryUpdate || event.getKind().equals(Overflow);
+          handled =
+              linkTargets.update(
+                  typedPath, rescan, directories.values(), callbackObserver(callbacks, symlinks));
+        } finally {
+          directories.unlock();
+        }
+        complete(path, callbacks, symlinks);
+      }
+      if (!handled) {
+        final Iterator<Path> it = symlinkWatcher.linkPaths(path).iterator();
+        while (it.hasNext()) onEvent(new Event(TypedPaths.get(it.next()), event.getKind()));
+      }
+    } finally {
+      StatCache.end();
+      quiescence.end();
+    }
+  }
+
+  /*
+   * The steps that every event from the watchers takes before it is applied to the cache, whether
+   * it is for a registered path or for the target of a link. Returns false if the event must not be
+   * applied, i.e. if it reports that a directory is throttled. The throttled directory will be
+   * rescanned when it receives an overflow event.
+   */
+  private boolean prepare(final Event event) {
+    if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " received event " + event);
+    final TypedPath typedPath = event.getTypedPath();
+    if (event.getKind().equals(Throttle)) {
+      quiescence.throttle(typedPath.getPath());
+      return false;
+    } else if (event.getKind().equals(Overflow) || !typedPath.exists()) {
+      quiescence.rescanned(typedPath.getPath());
+    }
+    realPaths.invalidate(event);
+    return true;
+  }
+
+  /*
+   * Watches the links that were added to the cache while an event was applied, applies the pending
+   * summary updates and runs the callbacks for the event. Must be called after the directories
+   * lock is released.
+   */
+  private void complete(
+      final Path path, final List<Callback> callbacks, final List<TypedPath> symlinks) {
+    updateSymlinks(symlinks);
+    changes.flush();
+    runCallbacks(callbacks, scheduler == null ? Priority.Normal : priorityFor(path));
+  }
+
+  /*
+   * Blocks until the events for the root have been applied to the cache, their callbacks have run,
+   * no directory that overlaps the root is waiting to be scanned, rescanned after throttling or
+   * matched with a move, and no event for the root has been received for the quiet period.
+   */
+  boolean awaitQuiescence(final Path root, final long quietPeriodNanos, final long timeoutNanos)
+      throws InterruptedException {
+    return quiescence.await(
+        root,
+        quietPeriodNanos,
+        timeoutNanos,
+        new Filter<Path>() {
+          @Override
+          public boolean accept(final Path path) {
+            return pendingScans.overlaps(path)
+                || (pendingMoves != null && pendingMoves.overlaps(path));
+          }
+        },
+        new Filter<Path>() {
+          @Override
+          public boolean accept(final Path path) {
+            return closed.get();
+          }
+        });
+  }
+
   private void runCallbacks(final List<Callback> callbacks) {
+    runCallbacks(callbacks, Priority.Normal);
+  }
+
+  private void runCallbacks(final List<Callback> callbacks, final Priority priority) {
     if (!callbacks.isEmpty() && !closed.get()) {
+      quiescence.begin(null);
       callbackExecutor.run(
           new Runnable() {
             @Override
             public void run() {
-              Collections.sort(callbacks);
-              final Iterator<Callback> it = callbacks.iterator();
-              while (it.hasNext()) {
-                final Callback callback = it.next();
-                if (Loggers.shouldLog(logger, Level.DEBUG))
-                  logger.debug(this + " running callback " + callback);
-                try {
-                  callback.run();
-                } catch (final Exception e) {
+              try {
+                Collections.sort(callbacks);
+                final Iterator<Callback> it = callbacks.iterator();
+                while (it.hasNext()) {
+                  final Callback callback = it.next();
+                  if (Loggers.shouldLog(logger, Level.DEBUG))
+                    logger.debug(this + " running callback " + callback);
+                  try {
+                    callback.run();
+                  } catch (final Exception e) {
+                  }
                 }
+              } finally {
+                quiescence.end();
               }
             }
-          });
+          },
+          priority.getValue());
     }
   }
 
-  @SuppressWarnings("EmptyCatchBlock")
+  /*
+   * The event may be handled on the thread of the path watcher, on the thread of the priority
+   * scheduler or on the thread of the symlink watcher, so each event starts its own generation of
+   * the stat cache. It is nested in the generation of the path watcher if there is one.
+   */
   void handleEvent(final Event event) {
-    if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " received event " + event);
+    StatCache.begin();
+    try {
+      applyEvent(event);
+    } finally {
+      StatCache.end();
+    }
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  private void applyEvent(final Event event) {
+    if (!prepare(event)) return;
     final TypedPath typedPath = event.getTypedPath();
     final List<TypedPath> symlinks = new ArrayList<>();
     final List<Callback> callbacks = new ArrayList<>();
     if (!closed.get() && directories.lock()) {
       try {
         final Path path = typedPath.getPath();
+        final Path pendingScan = pendingScans.isEmpty() ? null : pendingScans.touch(path);
         if (typedPath.exists()) {
           final CachedDirectory<T> dir = find(typedPath.getPath());
-          if (dir != null) {
+          if (dir != null && pendingScan != null && pendingScan.startsWith(dir.getPath())) {
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " deferring event for " + path + " to scan of " + pendingScan);
+          } else if (dir != null
+              && handleMove(dir, typedPath, event.getKind(), callbacks, symlinks)) {
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " ignoring event for moved path " + path);
+          } else if (dir != null) {
             try {
               final TypedPath updatePath =
                   (followLinks || !typedPath.isSymbolicLink())
@@ -346,31 +656,236 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
         } else {
           if (Loggers.shouldLog(logger, Level.DEBUG))
             logger.debug(this + " deleting directory for " + path);
+          if (pendingMoves != null || observers.hasSubtreeObservers()) {
+            detach(removedRoot(path), callbacks, symlinks);
+          }
           handleDelete(path, callbacks, symlinks);
+          pendingScans.cancel(path);
+        }
+        if (ignoreFilter != null && ignoreFilter.isIgnoreFile(path)) {
+          handleIgnoreFile(path, callbacks, symlinks);
         }
       } finally {
         directories.unlock();
       }
-      final Iterator<TypedPath> it = symlinks.iterator();
-      while (it.hasNext()) {
-        final TypedPath tp = it.next();
-        final Path path = tp.getPath();
-        if (symlinkWatcher != null) {
-          if (tp.exists()) {
-            try {
-              symlinkWatcher.addSymlink(path, directoryRegistry.maxDepthFor(path));
-            } catch (final IOException e) {
-              observers.onError(e);
-            }
+      complete(typedPath.getPath(), callbacks, symlinks);
+    }
+  }
+
+  /*
+   * Reloads the ignore rules and rescans the directory that contains the ignore file so that the
+   * newly ignored paths are removed from the cache and the paths that are no longer ignored are
+   * added to it. Must be called while holding the directories lock.
+   */
+  @SuppressWarnings("EmptyCatchBlock")
+  private void handleIgnoreFile(
+      final Path path, final List<Callback> callbacks, final List<TypedPath> symlinks) {
+    ignoreFilter.reload();
+    final Path parent = path.getParent();
+    final CachedDirectory<T> dir = find(parent);
+    if (dir != null) {
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(this + " rescanning " + parent + " after change to " + path);
+      try {
+        dir.update(TypedPaths.get(parent), true).observe(callbackObserver(callbacks, symlinks));
+      } catch (final IOException e) {
+      }
+    }
+  }
+
+  private void updateSymlinks(final List<TypedPath> symlinks) {
+    if (linkTargets != null && !symlinks.isEmpty() && directories.lock()) {
+      try {
+        linkTargets.retain(linkRoots());
+      } finally {
+        directories.unlock();
+      }
+    }
+    final Iterator<TypedPath> it = symlinks.iterator();
+    while (it.hasNext()) {
+      final TypedPath tp = it.next();
+      final Path path = tp.getPath();
+      if (symlinkWatcher != null) {
+        if (tp.exists()) {
+          try {
+            symlinkWatcher.addSymlink(path, directoryRegistry.maxDepthFor(path));
+          } catch (final IOException e) {
+            observers.onError(e);
+          }
+        } else {
+          symlinkWatcher.remove(path);
+        }
+      }
+    }
+  }
+
+  /*
+   * Returns the directories from which the views of the link targets are reached. A subtree that
+   * was detached by a deletion that may turn out to be a move still counts, so the canonical
+   * subtrees of its views are kept until the move window expires. Must be called while holding the
+   * directories lock.
+   */
+  private List<CachedDirectory<T>> linkRoots() {
+    if (pendingMoves == null) return directories.values();
+    final List<CachedDirectory<T>> result = new ArrayList<>(directories.values());
+    result.addAll(pendingMoves.values());
+    return result;
+  }
+
+  /*
+   * When move detection is enabled, a subdirectory that is deleted is held for a short window in
+   * case it reappears with the same file key at a different path. The path watcher reports the new
+   * directory and each of its children as creations, possibly children first, so we look for the
+   * top most directory above the event path that is not yet in the cache. If its file key matches
+   * a detached subdirectory, the subdirectory is moved to the new path. Returns true if the event
+   * is a creation event for a path that was already moved into the cache, in which case there is
+   * nothing left to do.
+   */
+  private boolean handleMove(
+      final CachedDirectory<T> dir,
+      final TypedPath typedPath,
+      final Kind kind,
+      final List<Callback> callbacks,
+      final List<TypedPath> symlinks) {
+    if (pendingMoves == null) return false;
+    final Path path = typedPath.getPath();
+    if (!pendingMoves.isEmpty() && !path.equals(dir.getPath())) {
+      final Iterator<Path> it = dir.getPath().relativize(path).iterator();
+      Path candidate = dir.getPath();
+      boolean cached = true;
+      while (cached && it.hasNext()) {
+        candidate = candidate.resolve(it.next());
+        cached = !dir.listEntries(candidate, -1, AllPass).isEmpty();
+      }
+      if (!cached) {
+        final TypedPath candidateTypedPath =
+            candidate.equals(path) ? typedPath : TypedPaths.get(candidate);
+        final Object fileKey =
+            candidateTypedPath.isDirectory() ? Entries.getFileKey(candidate) : null;
+        final CachedDirectory<T> detached = fileKey == null ? null : pendingMoves.remove(fileKey);
+        if (detached != null) {
+          final Updates<T> updates = dir.attach(candidateTypedPath, detached);
+          if (updates != null) {
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " moved " + detached.getPath() + " to " + candidate);
+            updates.observe(callbackObserver(callbacks, symlinks, true));
+            pendingMoves.addMoved(
+                candidate, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(moveWindowMillis));
           } else {
-            symlinkWatcher.remove(path);
+            addDeleteCallbacks(detached, callbacks, symlinks);
+          }
+        }
+      }
+    }
+    if (kind.equals(Create) && pendingMoves.isMoved(path, System.nanoTime())) {
+      final List<Entry<T>> entries = dir.listEntries(path, -1, AllPass);
+      return !entries.isEmpty()
+          && entries.get(0).getTypedPath().isDirectory() == typedPath.isDirectory();
+    }
+    return false;
+  }
+
+  /*
+   * Returns the top most directory above a deleted path that no longer exists, without leaving the
+   * cached directory that contains the path. The path watchers may report the deletion of the
+   * subdirectories of a directory that was moved or deleted before they report the deletion of the
+   * directory itself. Detaching the top most missing directory right away keeps the subtree in one
+   * piece, so that a move is matched on the root of the subtree and a subtree observer is notified
+   * once for the entire subtree. The deletion events for the rest of the subtree then find nothing
+   * left to remove. Must be called while holding the directories lock.
+   */
+  private Path removedRoot(final Path path) {
+    final CachedDirectory<T> dir = find(path);
+    Path result = path;
+    if (dir != null) {
+      Path parent = path.getParent();
+      while (parent != null
+          && parent.startsWith(dir.getPath())
+          && !parent.equals(dir.getPath())
+          && !TypedPaths.get(parent).exists()) {
+        result = parent;
+        parent = parent.getParent();
+      }
+    }
+    return result;
+  }
+
+  private void detach(
+      final Path path, final List<Callback> callbacks, final List<TypedPath> symlinks) {
+    final CachedDirectory<T> dir = find(path);
+    if (dir != null && !dir.getPath().equals(path)) {
+      final CachedDirectory<T> detached = dir.detach(path);
+      if (detached != null) {
+        // The subtree leaves the cache now, even though the callbacks for it may be deferred
+        // until it either turns up at a new path or the move window expires.
+        changes.deleted(Entries.setExists(detached.getEntry(), false));
+        final Object fileKey = pendingMoves == null ? null : detached.getFileKey();
+        if (fileKey == null) {
+          addDeleteCallbacks(detached, callbacks, symlinks);
+        } else {
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " detached " + path + " with file key " + fileKey);
+          final CachedDirectory<T> previous = pendingMoves.put(fileKey, detached);
+          if (previous != null) addDeleteCallbacks(previous, callbacks, symlinks);
+          try {
+            moveExecutor.schedule(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    expire(fileKey, detached);
+                  }
+                },
+                moveWindowMillis,
+                TimeUnit.MILLISECONDS);
+          } catch (final RejectedExecutionException e) {
+            pendingMoves.remove(fileKey, detached);
           }
         }
       }
+    }
+  }
+
+  private void expire(final Object fileKey, final CachedDirectory<T> detached) {
+    final List<TypedPath> symlinks = new ArrayList<>();
+    final List<Callback> callbacks = new ArrayList<>();
+    if (!closed.get() && directories.lock()) {
+      try {
+        if (pendingMoves.remove(fileKey, detached)) {
+          if (Loggers.shouldLog(logger, Level.DEBUG))
+            logger.debug(this + " no move detected for " + detached.getPath());
+          addDeleteCallbacks(detached, callbacks, symlinks);
+        }
+      } finally {
+        directories.unlock();
+      }
+      updateSymlinks(symlinks);
+      changes.flush();
       runCallbacks(callbacks);
     }
   }
 
+  private void addDeleteCallbacks(
+      final CachedDirectory<T> dir,
+      final List<Callback> callbacks,
+      final List<TypedPath> symlinks) {
+    if (observers.hasSubtreeObservers()) {
+      addSubtreeDeleteCallback(dir, callbacks);
+      return;
+    }
+    final List<Entry<T>> entries =
+        dir.getMaxDepth() < 0
+            ? new ArrayList<Entry<T>>()
+            : dir.listEntries(Integer.MAX_VALUE, AllPass);
+    entries.add(dir.getEntry());
+    final Iterator<Entry<T>> it = entries.iterator();
+    while (it.hasNext()) {
+      final Entry<T> entry = Entries.setExists(it.next(), false);
+      if (symlinkWatcher != null && entry.getTypedPath().isSymbolicLink())
+        symlinkWatcher.remove(entry.getTypedPath().getPath());
+      addCallback(callbacks, symlinks, entry, entry, null, Delete, null, true);
+    }
+  }
+
   private void handleDelete(
       final Path path, final List<Callback> callbacks, final List<TypedPath> symlinks) {
     final List<Iterator<FileTreeDataViews.Entry<T>>> removeIterators = new ArrayList<>();
@@ -414,7 +929,21 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     if (closed.compareAndSet(false, true) && directories.lock()) {
       try {
         callbackExecutor.close();
+        synchronized (priorities) {
+          if (scheduler != null) scheduler.close();
+          priorities.clear();
+        }
+        quiescence.close();
+        final Iterator<Runnable> it = registrationExecutor.shutdownNow().iterator();
+        while (it.hasNext()) {
+          final Runnable runnable = it.next();
+          if (runnable instanceof Future<?>) ((Future<?>) runnable).cancel(false);
+        }
+        pendingScans.clear();
+        if (moveExecutor != null) moveExecutor.shutdownNow();
+        if (pendingMoves != null) pendingMoves.clear();
         if (symlinkWatcher != null) symlinkWatcher.close();
+        if (linkTargets != null) linkTargets.clear();
         directories.clear();
         observers.close();
         directoryRegistry.close();
@@ -430,62 +959,206 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
       final Path path, final int maxDepth, final PathWatcher<PathWatchers.Event> watcher)
       throws IOException {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    quiescence.activity(absolutePath);
     if (directoryRegistry.addDirectory(absolutePath, maxDepth) && directories.lock()) {
       try {
-        final Either<IOException, Boolean> res = watcher.register(absolutePath, maxDepth);
-        if (res.isLeft()) {
-          if (Loggers.shouldLog(logger, Level.WARN)) {
-            logger.warn(this + " failed to register " + absolutePath + " for monitoring");
-          }
-          throw Either.leftProjection(res).getValue();
-        }
-        final List<CachedDirectory<T>> dirs = new ArrayList<>(directories.values());
-        Collections.sort(
-            dirs,
-            new Comparator<CachedDirectory<T>>() {
+        registerWatcher(absolutePath, maxDepth, watcher);
+        final CachedDirectory<T> dir = addRegisteredDirectory(absolutePath, maxDepth);
+        changes.invalidate();
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " registered " + path + " with max depth " + maxDepth);
+        return dir;
+      } finally {
+        directories.unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  /*
+   * Registers a path without holding the lock for the entire traversal of the directory. The
+   * directory is added to the cache immediately and is then filled in one subdirectory at a time,
+   * releasing the lock after each subdirectory is added. Events for paths in subdirectories that
+   * have not been scanned yet are deferred to the scan of that subdirectory. Registration of
+   * regular files, missing paths and paths that are already covered by a registered directory is
+   * cheap so it is not split up. The returned future completes with true once the entire subtree
+   * has been cached, or with false if the path had already been registered.
+   */
+  Future<Boolean> registerAsync(
+      final Path path, final int maxDepth, final PathWatcher<PathWatchers.Event> watcher) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    quiescence.begin(absolutePath);
+    final FutureTask<Boolean> task =
+        new FutureTask<>(
+            new Callable<Boolean>() {
               @Override
-              public int compare(final CachedDirectory<T> left, final CachedDirectory<T> right) {
-                return left.getPath().compareTo(right.getPath());
+              public Boolean call() throws IOException {
+                try {
+                  return directoryRegistry.addDirectory(absolutePath, maxDepth)
+                      && registerIncrementally(absolutePath, maxDepth, watcher);
+                } finally {
+                  changes.invalidate();
+                  quiescence.end();
+                }
               }
             });
-        final Iterator<CachedDirectory<T>> it = dirs.iterator();
-        CachedDirectory<T> existing = null;
-        while (it.hasNext() && existing == null) {
-          final CachedDirectory<T> dir = it.next();
-          if (absolutePath.startsWith(dir.getPath())) {
-            final int depth = dir.getPath().relativize(absolutePath).getNameCount() - 1;
-            if (dir.getMaxDepth() == Integer.MAX_VALUE || dir.getMaxDepth() - depth > maxDepth) {
-              existing = dir;
-            }
-          }
+    try {
+      registrationExecutor.execute(task);
+    } catch (final RejectedExecutionException e) {
+      quiescence.end();
+      task.cancel(false);
+    }
+    return task;
+  }
+
+  private boolean registerIncrementally(
+      final Path path, final int maxDepth, final PathWatcher<PathWatchers.Event> watcher)
+      throws IOException {
+    registerWatcher(path, maxDepth, watcher);
+    final TypedPath typedPath = TypedPaths.get(path);
+    final List<TypedPath> symlinks = new ArrayList<>();
+    CachedDirectoryImpl<T> root = null;
+    if (directories.lock()) {
+      try {
+        if (findExisting(path, maxDepth) != null || !typedPath.isDirectory()) {
+          final CachedDirectory<T> dir = addRegisteredDirectory(path, maxDepth);
+          addSymlinks(dir, dir.listEntries(dir.getMaxDepth(), AllPass), symlinks);
+        } else {
+          root =
+              new CachedDirectoryImpl<>(
+                  typedPath,
+                  converter,
+                  maxDepth,
+                  filter,
+                  followLinks,
+                  FileTreeViews.getDefault(followLinks),
+                  pendingMoves != null,
+                  realPaths,
+                  linkTargets);
+          final CachedDirectory<T> previous = directories.put(path, root);
+          if (previous != null) previous.close();
+          pendingScans.add(root);
+          addSymlinks(root, Collections.<Entry<T>>emptyList(), symlinks);
+        }
+      } finally {
+        directories.unlock();
+      }
+    }
+    updateSymlinks(symlinks);
+    if (root != null) {
+      final ArrayDeque<CachedDirectoryImpl<T>> queue = new ArrayDeque<>();
+      queue.add(root);
+      while (!queue.isEmpty() && !closed.get()) {
+        final CachedDirectoryImpl<T> dir = queue.poll();
+        CachedDirectoryImpl.Chunk<T> chunk;
+        try {
+          chunk = dir.scan();
+        } catch (final IOException e) {
+          chunk = new CachedDirectoryImpl.Chunk<>();
         }
-        CachedDirectory<T> dir;
-        if (existing == null) {
+        symlinks.clear();
+        if (directories.lock()) {
           try {
-            try {
-              dir = newCachedDirectory(absolutePath, maxDepth);
-            } catch (final NotDirectoryException e) {
-              dir = newCachedDirectory(absolutePath, -1);
+            final Set<Path> touched = pendingScans.remove(dir);
+            if (touched != null) {
+              final Iterator<CachedDirectoryImpl<T>> it = dir.install(chunk, touched).iterator();
+              while (it.hasNext()) {
+                final CachedDirectoryImpl<T> subdir = it.next();
+                pendingScans.add(subdir);
+                queue.add(subdir);
+              }
+              addSymlinks(dir, dir.listEntries(0, AllPass), symlinks);
             }
-            directories.put(absolutePath, dir);
-          } catch (final NoSuchFileException e) {
-            pendingFiles.add(absolutePath);
-            dir = newCachedDirectory(absolutePath, -1);
+          } finally {
+            directories.unlock();
           }
-        } else {
-          existing.update(TypedPaths.get(absolutePath));
-          dir = existing;
         }
-        cleanupDirectories(absolutePath, maxDepth);
-        if (Loggers.shouldLog(logger, Level.DEBUG))
-          logger.debug(this + " registered " + path + " with max depth " + maxDepth);
-        return dir;
-      } finally {
-        directories.unlock();
+        updateSymlinks(symlinks);
+      }
+      if (directories.lock()) {
+        try {
+          if (directories.get(path) == root) cleanupDirectories(path, maxDepth);
+        } finally {
+          directories.unlock();
+        }
+      }
+    }
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " registered " + path + " with max depth " + maxDepth);
+    return true;
+  }
+
+  private void addSymlinks(
+      final CachedDirectory<T> dir, final List<Entry<T>> entries, final List<TypedPath> symlinks) {
+    if (symlinkWatcher != null) {
+      if (dir.getTypedPath().isSymbolicLink()) symlinks.add(dir.getTypedPath());
+      final Iterator<Entry<T>> it = entries.iterator();
+      while (it.hasNext()) {
+        final TypedPath typedPath = it.next().getTypedPath();
+        if (typedPath.isSymbolicLink()) symlinks.add(typedPath);
+      }
+    }
+  }
+
+  private void registerWatcher(
+      final Path path, final int maxDepth, final PathWatcher<PathWatchers.Event> watcher)
+      throws IOException {
+    final Either<IOException, Boolean> res = watcher.register(path, maxDepth);
+    if (res.isLeft()) {
+      if (Loggers.shouldLog(logger, Level.WARN)) {
+        logger.warn(this + " failed to register " + path + " for monitoring");
+      }
+      throw Either.leftProjection(res).getValue();
+    }
+  }
+
+  private CachedDirectory<T> findExisting(final Path path, final int maxDepth) {
+    final List<CachedDirectory<T>> dirs = new ArrayList<>(directories.values());
+    Collections.sort(
+        dirs,
+        new Comparator<CachedDirectory<T>>() {
+          @Override
+          public int compare(final CachedDirectory<T> left, final CachedDirectory<T> right) {
+            return left.getPath().compareTo(right.getPath());
+          }
+        });
+    final Iterator<CachedDirectory<T>> it = dirs.iterator();
+    CachedDirectory<T> existing = null;
+    while (it.hasNext() && existing == null) {
+      final CachedDirectory<T> dir = it.next();
+      if (path.startsWith(dir.getPath())) {
+        final int depth = dir.getPath().relativize(path).getNameCount() - 1;
+        if (dir.getMaxDepth() == Integer.MAX_VALUE || dir.getMaxDepth() - depth > maxDepth) {
+          existing = dir;
+        }
+      }
+    }
+    return existing;
+  }
+
+  private CachedDirectory<T> addRegisteredDirectory(final Path path, final int maxDepth)
+      throws IOException {
+    final CachedDirectory<T> existing = findExisting(path, maxDepth);
+    CachedDirectory<T> dir;
+    if (existing == null) {
+      try {
+        try {
+          dir = newCachedDirectory(path, maxDepth);
+        } catch (final NotDirectoryException e) {
+          dir = newCachedDirectory(path, -1);
+        }
+        directories.put(path, dir);
+      } catch (final NoSuchFileException e) {
+        pendingFiles.add(path);
+        dir = newCachedDirectory(path, -1);
       }
     } else {
-      return null;
+      existing.update(TypedPaths.get(path));
+      dir = existing;
     }
+    cleanupDirectories(path, maxDepth);
+    return dir;
   }
 
   private void cleanupDirectories(final Path path, final int maxDepth) {
@@ -510,7 +1183,45 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     }
   }
 
-  @SuppressWarnings("EmptyCatchBlock")
+  /*
+   * Adds a single callback for the deletion of a detached directory and all of its children. The
+   * entries for the children are only evaluated if an observer iterates over them. We still need to
+   * find any symbolic links in the subtree so that the symlink watcher can stop monitoring them.
+   */
+  private void addSubtreeDeleteCallback(
+      final CachedDirectory<T> dir, final List<Callback> callbacks) {
+    if (symlinkWatcher != null) {
+      final Iterator<Entry<T>> it = dir.removedEntries();
+      while (it.hasNext()) {
+        final TypedPath typedPath = it.next().getTypedPath();
+        if (typedPath.isSymbolicLink()) symlinkWatcher.remove(typedPath.getPath());
+      }
+      if (dir.getTypedPath().isSymbolicLink()) symlinkWatcher.remove(dir.getPath());
+    }
+    final Entry<T> oldEntry = Entries.setExists(dir.getEntry(), false);
+    final Iterable<Entry<T>> oldEntries =
+        new Iterable<Entry<T>>() {
+          @Override
+          public Iterator<Entry<T>> iterator() {
+            return dir.removedEntries();
+          }
+        };
+    callbacks.add(
+        new Callback(dir.getPath()) {
+          @Override
+          public void run() {
+            try {
+              observers.onSubtreeDelete(oldEntry, oldEntries);
+            } catch (final Exception e) {
+              if (Loggers.shouldLog(logger, Level.ERROR))
+                logger.error(
+                    FileCacheDirectoryTree.this
+                        + (" failed to report the deletion of " + dir.getPath() + ": " + e));
+            }
+          }
+        });
+  }
+
   private void addCallback(
       final List<Callback> callbacks,
       final List<TypedPath> symlinks,
@@ -519,10 +1230,33 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
       final FileTreeDataViews.Entry<T> newEntry,
       final Kind kind,
       final IOException ioException) {
+    addCallback(callbacks, symlinks, entry, oldEntry, newEntry, kind, ioException, false);
+  }
+
+  /*
+   * The detached flag is set for the changes to a subtree that was detached by a deletion that may
+   * have been part of a move. The deletion of the subtree was journaled when it was detached, so
+   * only the entries that it adds at its new path are journaled.
+   */
+  @SuppressWarnings("EmptyCatchBlock")
+  private void addCallback(
+      final List<Callback> callbacks,
+      final List<TypedPath> symlinks,
+      final FileTreeDataViews.Entry<T> entry,
+      final FileTreeDataViews.Entry<T> oldEntry,
+      final FileTreeDataViews.Entry<T> newEntry,
+      final Kind kind,
+      final IOException ioException,
+      final boolean detached) {
     final TypedPath typedPath = entry == null ? null : entry.getTypedPath();
     if (typedPath != null && typedPath.isSymbolicLink() && followLinks) {
       symlinks.add(typedPath);
     }
+    if (detached) {
+      if (kind.equals(Create) || kind.equals(Move)) changes.created(newEntry);
+    } else {
+      record(kind, oldEntry, newEntry);
+    }
     callbacks.add(
         new Callback(typedPath == null ? Paths.get("") : typedPath.getPath()) {
           @Override
@@ -536,6 +1270,8 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
                 observers.onDelete(Entries.setExists(oldEntry, false));
               } else if (kind.equals(Modify)) {
                 observers.onUpdate(oldEntry, newEntry);
+              } else if (kind.equals(Move)) {
+                observers.onMove(oldEntry, newEntry);
               }
             } catch (final Exception e) {
               e.printStackTrace();
@@ -544,6 +1280,90 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
         });
   }
 
+  /*
+   * Records a change to the cache. Must be called while holding the directories lock.
+   */
+  private void record(final Kind kind, final Entry<T> oldEntry, final Entry<T> newEntry) {
+    if (kind.equals(Create)) {
+      changes.created(newEntry);
+    } else if (kind.equals(Delete)) {
+      changes.deleted(Entries.setExists(oldEntry, false));
+    } else if (kind.equals(Modify)) {
+      changes.modified(newEntry);
+    } else if (kind.equals(Move)) {
+      changes.deleted(Entries.setExists(oldEntry, false));
+      changes.created(newEntry);
+    }
+  }
+
+  long getChangeToken() {
+    return changes.token();
+  }
+
+  Changes<T> changesSince(final long token) {
+    return changes.since(token);
+  }
+
+  Snapshot<T> snapshot() {
+    if (!closed.get() && directories.lock()) {
+      try {
+        return changes.snapshot();
+      } finally {
+        directories.unlock();
+      }
+    } else {
+      return new Snapshots.Tree<T>().snapshot();
+    }
+  }
+
+  List<Entry<T>> listEntriesNamed(final String fileName) {
+    if (!closed.get() && directories.lock()) {
+      try {
+        return changes.index().named(fileName);
+      } finally {
+        directories.unlock();
+      }
+    } else {
+      return Collections.emptyList();
+    }
+  }
+
+  List<Entry<T>> listEntriesWithExtension(final String extension) {
+    if (!closed.get() && directories.lock()) {
+      try {
+        return changes.index().withExtension(extension);
+      } finally {
+        directories.unlock();
+      }
+    } else {
+      return Collections.emptyList();
+    }
+  }
+
+  List<Entry<T>> listEntriesModifiedSince(final long lastModified) {
+    if (!closed.get() && directories.lock()) {
+      try {
+        return changes.index().modifiedSince(lastModified);
+      } finally {
+        directories.unlock();
+      }
+    } else {
+      return Collections.emptyList();
+    }
+  }
+
+  DirectorySummary summarize(final Path path) {
+    SummaryTree summaries = null;
+    if (!closed.get() && directories.lock()) {
+      try {
+        summaries = changes.summaries();
+      } finally {
+        directories.unlock();
+      }
+    }
+    return summaries == null ? null : summaries.summarize(path);
+  }
+
   @Override
   public int addObserver(final Observer<? super Entry<T>> observer) {
     return observers.addObserver(observer);
@@ -585,28 +1405,42 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     }
   }
 
-  private CacheObserver<T> callbackObserver(
+  private MoveObserver<T> callbackObserver(
       final List<Callback> callbacks, final List<TypedPath> symlinks) {
-    return new CacheObserver<T>() {
+    return callbackObserver(callbacks, symlinks, false);
+  }
+
+  private MoveObserver<T> callbackObserver(
+      final List<Callback> callbacks, final List<TypedPath> symlinks, final boolean detached) {
+    return new MoveObserver<T>() {
       @Override
       public void onCreate(final FileTreeDataViews.Entry<T> newEntry) {
-        addCallback(callbacks, symlinks, newEntry, null, newEntry, Create, null);
+        addCallback(callbacks, symlinks, newEntry, null, newEntry, Create, null, detached);
       }
 
       @Override
       public void onDelete(final FileTreeDataViews.Entry<T> oldEntry) {
-        addCallback(callbacks, symlinks, oldEntry, oldEntry, null, Delete, null);
+        addCallback(callbacks, symlinks, oldEntry, oldEntry, null, Delete, null, detached);
       }
 
       @Override
       public void onUpdate(
           final FileTreeDataViews.Entry<T> oldEntry, final FileTreeDataViews.Entry<T> newEntry) {
-        addCallback(callbacks, symlinks, oldEntry, oldEntry, newEntry, Modify, null);
+        addCallback(callbacks, symlinks, oldEntry, oldEntry, newEntry, Modify, null, detached);
+      }
+
+      @Override
+      public void onMove(
+          final FileTreeDataViews.Entry<T> oldEntry, final FileTreeDataViews.Entry<T> newEntry) {
+        if (followLinks && oldEntry.getTypedPath().isSymbolicLink()) {
+          symlinks.add(Entries.setExists(oldEntry, false).getTypedPath());
+        }
+        addCallback(callbacks, symlinks, newEntry, oldEntry, newEntry, Move, null, detached);
       }
 
       @Override
       public void onError(final IOException exception) {
-        addCallback(callbacks, symlinks, null, null, null, Error, exception);
+        addCallback(callbacks, symlinks, null, null, null, Error, exception, detached);
       }
     };
   }
@@ -643,7 +1477,16 @@ class FileCacheDirectoryTree<T> implements ObservableCache<T>, FileTreeDataView<
     do {
       try {
         result =
-            new CachedDirectoryImpl<>(TypedPaths.get(path), converter, depth, filter, followLinks)
+            new CachedDirectoryImpl<>(
+                    TypedPaths.get(path),
+                    converter,
+                    depth,
+                    filter,
+                    followLinks,
+                    FileTreeViews.getDefault(followLinks),
+                    pendingMoves != null,
+                    realPaths,
+                    linkTargets)
                 .init();
       } catch (final NoSuchFileException | NotDirectoryException e) {
         throw e;
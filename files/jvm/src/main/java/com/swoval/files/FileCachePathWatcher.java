@@ -6,6 +6,7 @@ import com.swoval.files.FileTreeDataViews.Entry;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.concurrent.Future;
 
 class FileCachePathWatcher<T> implements AutoCloseable {
   private final SymlinkWatcher symlinkWatcher;
@@ -40,6 +41,11 @@ class FileCachePathWatcher<T> implements AutoCloseable {
     return dir != null;
   }
 
+  Future<Boolean> registerAsync(final Path path, final int maxDepth) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    return tree.registerAsync(absolutePath, maxDepth, pathWatcher);
+  }
+
   void unregister(final Path path) {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
     tree.unregister(absolutePath);
@@ -0,0 +1,150 @@
+package com.swoval.files;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Holds the subtrees that were detached from the cache by a deletion that may turn out to be part
+ * of a move, indexed by the file key of their root directory, and the paths to which subtrees were
+ * recently moved. It shares the lock of the directories of the cache.
+ */
+class FileCachePendingMoves<T> extends Lockable {
+  private final Map<Object, CachedDirectory<T>> detached = new HashMap<>();
+  private final Map<Path, Long> moved = new HashMap<>();
+
+  FileCachePendingMoves(final ReentrantLock reentrantLock) {
+    super(reentrantLock);
+  }
+
+  void clear() {
+    if (lock()) {
+      try {
+        detached.clear();
+        moved.clear();
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    if (lock()) {
+      try {
+        return detached.isEmpty();
+      } finally {
+        unlock();
+      }
+    } else {
+      return true;
+    }
+  }
+
+  List<CachedDirectory<T>> values() {
+    if (lock()) {
+      try {
+        return new ArrayList<>(detached.values());
+      } finally {
+        unlock();
+      }
+    } else {
+      return new ArrayList<>();
+    }
+  }
+
+  /*
+   * Returns true if a detached directory that may still turn out to have been moved is inside of
+   * the path or contains it.
+   */
+  boolean overlaps(final Path path) {
+    if (lock()) {
+      try {
+        final Iterator<CachedDirectory<T>> it = detached.values().iterator();
+        while (it.hasNext()) {
+          final Path detachedPath = it.next().getPath();
+          if (detachedPath.startsWith(path) || path.startsWith(detachedPath)) return true;
+        }
+      } finally {
+        unlock();
+      }
+    }
+    return false;
+  }
+
+  CachedDirectory<T> put(final Object fileKey, final CachedDirectory<T> directory) {
+    if (lock()) {
+      try {
+        return detached.put(fileKey, directory);
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  CachedDirectory<T> remove(final Object fileKey) {
+    if (lock()) {
+      try {
+        return detached.remove(fileKey);
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  boolean remove(final Object fileKey, final CachedDirectory<T> directory) {
+    if (lock()) {
+      try {
+        if (detached.get(fileKey) == directory) {
+          detached.remove(fileKey);
+          return true;
+        }
+      } finally {
+        unlock();
+      }
+    }
+    return false;
+  }
+
+  void addMoved(final Path path, final long deadline) {
+    if (lock()) {
+      try {
+        moved.put(path, deadline);
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  /*
+   * Returns true if the path is in a subtree that was moved before the deadline for that subtree.
+   */
+  boolean isMoved(final Path path, final long now) {
+    if (lock()) {
+      try {
+        boolean result = false;
+        final Iterator<Map.Entry<Path, Long>> it = moved.entrySet().iterator();
+        while (it.hasNext()) {
+          final Map.Entry<Path, Long> entry = it.next();
+          if (entry.getValue() - now < 0) {
+            it.remove();
+          } else if (path.startsWith(entry.getKey())) {
+            result = true;
+          }
+        }
+        return result;
+      } finally {
+        unlock();
+      }
+    } else {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.swoval.files;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Tracks the directories that have been added to the cache by an incremental registration but
+ * that have not been scanned yet. Events for paths in these directories are not applied to the
+ * cache. Instead, the names of the children of the top most pending directory that contain the
+ * event path are recorded so that they can be read again when the directory is scanned.
+ */
+class FileCachePendingScans<T> extends Lockable {
+  private static final Path SELF = Paths.get("");
+  private final Map<Path, CachedDirectoryImpl<T>> directories = new HashMap<>();
+  private final Map<Path, Set<Path>> touched = new HashMap<>();
+
+  FileCachePendingScans(final ReentrantLock reentrantLock) {
+    super(reentrantLock);
+  }
+
+  void clear() {
+    if (lock()) {
+      try {
+        directories.clear();
+        touched.clear();
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  boolean isEmpty() {
+    if (lock()) {
+      try {
+        return directories.isEmpty();
+      } finally {
+        unlock();
+      }
+    } else {
+      return true;
+    }
+  }
+
+  /*
+   * Returns true if a directory that has not been scanned yet is inside of the path or contains it.
+   */
+  boolean overlaps(final Path path) {
+    if (lock()) {
+      try {
+        final Iterator<Path> it = directories.keySet().iterator();
+        while (it.hasNext()) {
+          final Path pending = it.next();
+          if (pending.startsWith(path) || path.startsWith(pending)) return true;
+        }
+      } finally {
+        unlock();
+      }
+    }
+    return false;
+  }
+
+  void add(final CachedDirectoryImpl<T> directory) {
+    if (lock()) {
+      try {
+        directories.put(directory.getPath(), directory);
+        touched.put(directory.getPath(), new HashSet<Path>());
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  /*
+   * Returns the top most pending directory that contains the path, or the path itself if it is a
+   * pending directory, after recording that the path changed. Returns null if the path is not in a
+   * pending directory.
+   */
+  Path touch(final Path path) {
+    if (lock()) {
+      try {
+        Path pending = null;
+        Path current = path;
+        while (current != null) {
+          if (touched.containsKey(current)) pending = current;
+          current = current.getParent();
+        }
+        if (pending != null) {
+          final Path name = pending.equals(path) ? SELF : pending.relativize(path).getName(0);
+          touched.get(pending).add(name);
+        }
+        return pending;
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  /*
+   * Stops tracking the directory and returns the names of its children that changed while it was
+   * pending. Returns null if the directory was removed from the cache before it could be scanned.
+   */
+  Set<Path> remove(final CachedDirectoryImpl<T> directory) {
+    if (lock()) {
+      try {
+        if (directories.get(directory.getPath()) == directory) {
+          directories.remove(directory.getPath());
+          return touched.remove(directory.getPath());
+        }
+      } finally {
+        unlock();
+      }
+    }
+    return null;
+  }
+
+  void cancel(final Path path) {
+    if (lock()) {
+      try {
+        final Iterator<Path> it = directories.keySet().iterator();
+        while (it.hasNext()) {
+          final Path pending = it.next();
+          if (pending.startsWith(path)) {
+            it.remove();
+            touched.remove(pending);
+          }
+        }
+      } finally {
+        unlock();
+      }
+    }
+  }
+}
@@ -2,9 +2,13 @@ package com.swoval.files;
 
 import com.swoval.files.FileTreeViews.Observable;
 import com.swoval.functional.Either;
+import com.swoval.functional.Filter;
 import com.swoval.functional.Filters;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 /**
  * Provides functional interfaces for processing and managing instances of {@link FileTreeDataView}.
@@ -34,6 +38,181 @@ public class FileTreeDataViews {
         .init();
   }
 
+  /**
+   * Returns a {@link Converter} whose values are computed the first time that {@link
+   * Entry#getValue()} is called for an entry rather than when the entry is added to the cache. This
+   * avoids the cost of converting every path during the initial scan of a directory with an
+   * expensive converter, e.g. one that hashes the contents of each file, when only a few of the
+   * values are ever requested. A value is computed at most once, even if it is requested by several
+   * threads at the same time. When a path is updated, the value of the new entry is only computed
+   * right away if the value of the old entry had been computed. Since the value is computed on
+   * demand, it reflects the state of the file when it was requested, which may be after the file
+   * was modified or deleted.
+   *
+   * @param converter computes the value for each path
+   * @param <T> the type of the values
+   * @return the lazy converter.
+   */
+  public static <T> Converter<T> lazily(final Converter<T> converter) {
+    return converter instanceof Entries.LazyConverter<?>
+        ? converter
+        : new Entries.LazyConverter<>(converter);
+  }
+
+  /**
+   * Returns a {@link Converter} that computes the 64 bit xxHash of the contents of each regular
+   * file. Files that are at least 256KB are read through a memory mapped buffer, except on windows
+   * where a mapped file can not be deleted or renamed until the buffer is garbage collected. Other
+   * files are read in chunks into a reusable direct buffer. The file is not read again if its size
+   * and last modified time have not changed since the last time the converter saw it. The converter
+   * remembers the hashes of the 65536 most recently converted files.
+   *
+   * @return the content hash converter.
+   */
+  public static Converter<ContentHash> xxHash64() {
+    return xxHash64(ContentHashConverter.DEFAULT_MAP_THRESHOLD);
+  }
+
+  /**
+   * Returns a {@link Converter} that computes the 64 bit xxHash of the contents of each regular
+   * file. See {@link FileTreeDataViews#xxHash64()} for details about how the file is read.
+   *
+   * @param mapThreshold files at least this many bytes long are read through a memory mapped
+   *     buffer. Files are never mapped if it is {@link Long#MAX_VALUE}.
+   * @return the content hash converter.
+   */
+  public static Converter<ContentHash> xxHash64(final long mapThreshold) {
+    return new ContentHashConverter(
+        ContentHashConverter.XXHASH64, ContentHashConverter.DEFAULT_MAX_ENTRIES, mapThreshold);
+  }
+
+  /**
+   * Returns a {@link Converter} that computes the CRC32 checksum of the contents of each regular
+   * file. See {@link FileTreeDataViews#xxHash64()} for details about how the file is read.
+   *
+   * @return the content hash converter.
+   */
+  public static Converter<ContentHash> crc32() {
+    return crc32(ContentHashConverter.DEFAULT_MAP_THRESHOLD);
+  }
+
+  /**
+   * Returns a {@link Converter} that computes the CRC32 checksum of the contents of each regular
+   * file. See {@link FileTreeDataViews#xxHash64()} for details about how the file is read.
+   *
+   * @param mapThreshold files at least this many bytes long are read through a memory mapped
+   *     buffer. Files are never mapped if it is {@link Long#MAX_VALUE}.
+   * @return the content hash converter.
+   */
+  public static Converter<ContentHash> crc32(final long mapThreshold) {
+    return new ContentHashConverter(
+        ContentHashConverter.CRC_32, ContentHashConverter.DEFAULT_MAX_ENTRIES, mapThreshold);
+  }
+
+  /**
+   * Returns a {@link Converter} that computes the SHA-256 digest of the contents of each regular
+   * file. See {@link FileTreeDataViews#xxHash64()} for details about how the file is read.
+   *
+   * @return the content hash converter.
+   */
+  public static Converter<ContentHash> sha256() {
+    return sha256(ContentHashConverter.DEFAULT_MAP_THRESHOLD);
+  }
+
+  /**
+   * Returns a {@link Converter} that computes the SHA-256 digest of the contents of each regular
+   * file. See {@link FileTreeDataViews#xxHash64()} for details about how the file is read.
+   *
+   * @param mapThreshold files at least this many bytes long are read through a memory mapped
+   *     buffer. Files are never mapped if it is {@link Long#MAX_VALUE}.
+   * @return the content hash converter.
+   */
+  public static Converter<ContentHash> sha256(final long mapThreshold) {
+    return new ContentHashConverter(
+        ContentHashConverter.SHA_256, ContentHashConverter.DEFAULT_MAX_ENTRIES, mapThreshold);
+  }
+
+  /**
+   * The hash of the contents of a file computed by one of the converters returned by {@link
+   * FileTreeDataViews#xxHash64()}, {@link FileTreeDataViews#crc32()} or {@link
+   * FileTreeDataViews#sha256()}. Two hashes are equal if they were computed with the same algorithm
+   * and have the same digest. The size and last modified time of the file are not considered so
+   * that touching a file does not change its hash. Directories are assigned an empty digest.
+   */
+  public static final class ContentHash {
+    private final String algorithm;
+    private final byte[] digest;
+    private final long size;
+    private final long lastModified;
+
+    ContentHash(
+        final String algorithm, final byte[] digest, final long size, final long lastModified) {
+      this.algorithm = algorithm;
+      this.digest = digest;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the name of the algorithm used to compute the hash.
+     *
+     * @return the name of the algorithm.
+     */
+    public String getAlgorithm() {
+      return algorithm;
+    }
+
+    /**
+     * Returns a copy of the digest bytes.
+     *
+     * @return the digest bytes.
+     */
+    public byte[] getDigest() {
+      return digest.clone();
+    }
+
+    /**
+     * Returns the size of the file when the hash was computed.
+     *
+     * @return the size of the file in bytes.
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Returns the last modified time of the file, in milliseconds since the epoch, when the hash
+     * was computed.
+     *
+     * @return the last modified time of the file.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof ContentHash
+          && ((ContentHash) other).algorithm.equals(algorithm)
+          && Arrays.equals(((ContentHash) other).digest, digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return algorithm.hashCode() ^ Arrays.hashCode(digest);
+    }
+
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      for (final byte b : digest) {
+        builder.append(Character.forDigit((b >> 4) & 0xF, 16));
+        builder.append(Character.forDigit(b & 0xF, 16));
+      }
+      return algorithm + ":" + builder;
+    }
+  }
+
   /**
    * Container class for {@link CachedDirectoryImpl} entries. Contains both the path to which the
    * path corresponds along with a data value.
@@ -110,6 +289,201 @@ public class FileTreeDataViews {
     void onError(final IOException exception);
   }
 
+  /**
+   * A {@link CacheObserver} that is notified when a path is moved within the cache. When a cache
+   * detects that a directory was renamed, it fires {@link MoveObserver#onMove} for the directory
+   * and for each of its cached children. Observers that do not implement this interface instead
+   * receive {@link CacheObserver#onDelete} for the old path followed by {@link
+   * CacheObserver#onCreate} for the new path.
+   *
+   * @param <T> the type for the {@link Entry} data
+   */
+  public interface MoveObserver<T> extends CacheObserver<T> {
+
+    /**
+     * Callback to fire when a path is moved.
+     *
+     * @param oldEntry the {@link Entry} for the path before it was moved
+     * @param newEntry the {@link Entry} for the path after it was moved. The value is the same as
+     *     that of the oldEntry.
+     */
+    void onMove(final Entry<T> oldEntry, final Entry<T> newEntry);
+  }
+
+  /**
+   * A {@link CacheObserver} that is notified once when a directory is deleted along with all of
+   * its children, rather than once for every deleted entry. The deleted children are provided by a
+   * lazy iterator so observers that only care about the deleted directory do no work that is
+   * proportional to the size of the subtree. Observers that do not implement this interface
+   * receive {@link CacheObserver#onDelete} for the directory and each of its children.
+   *
+   * @param <T> the type for the {@link Entry} data
+   */
+  public interface SubtreeObserver<T> extends CacheObserver<T> {
+
+    /**
+     * Callback to fire when a directory and all of its children are deleted.
+     *
+     * @param oldEntry the {@link Entry} for the deleted directory
+     * @param oldEntries a lazy iterator over the {@link Entry} instances for the deleted children
+     *     of the directory. It does not include the oldEntry.
+     */
+    void onSubtreeDelete(final Entry<T> oldEntry, final Iterator<Entry<T>> oldEntries);
+  }
+
+  /**
+   * The net changes to a cache between the time at which a change token was obtained and the time
+   * at which the changes were requested. See {@link FileTreeRepository#changesSince(long)}. Each
+   * path appears in at most one of the lists. A path that was created and then deleted in between
+   * does not appear at all.
+   *
+   * @param <T> the type for the {@link Entry} data
+   */
+  public interface Changes<T> {
+
+    /**
+     * Returns true if the changes could not be computed because the token is too old, i.e. more
+     * changes have been made since the token was obtained than the cache retains, or because
+     * directories were registered or unregistered since then. The caller must list the cache
+     * again. All of the lists are empty when a resync is required.
+     *
+     * @return true if the caller must list the cache again.
+     */
+    boolean isResyncRequired();
+
+    /**
+     * Returns the token to pass to the next call to {@link FileTreeRepository#changesSince(long)}.
+     *
+     * @return the token for the state of the cache that includes these changes.
+     */
+    long getToken();
+
+    /**
+     * Returns the entries for the paths that did not exist when the token was obtained.
+     *
+     * @return the created entries.
+     */
+    List<Entry<T>> getCreated();
+
+    /**
+     * Returns the latest entries for the paths that existed when the token was obtained and that
+     * were modified since then.
+     *
+     * @return the updated entries.
+     */
+    List<Entry<T>> getUpdated();
+
+    /**
+     * Returns the last known entries for the paths that existed when the token was obtained and
+     * that have since been deleted. A deleted directory implies that all of its children were
+     * deleted too, even if they are not listed individually.
+     *
+     * @return the deleted entries.
+     */
+    List<Entry<T>> getDeleted();
+
+    /**
+     * Returns the paths of the directories whose entire subtree was replaced, e.g. because the
+     * directory was deleted and then created again or another directory was moved in its place.
+     * The caller should discard everything that it knows about these subtrees and list them again.
+     *
+     * @return the directories to list again.
+     */
+    List<Path> getRescanned();
+  }
+
+  /**
+   * An immutable view of the contents of a cache at a point in time. See {@link
+   * FileTreeRepository#snapshot()}. Snapshots of the same cache share the parts of the tree that
+   * did not change in between, so two snapshots can be compared efficiently with {@link
+   * Snapshots#diff(Snapshot, Snapshot, CacheObserver)}.
+   *
+   * @param <T> the type for the {@link Entry} data
+   */
+  public interface Snapshot<T> {
+
+    /**
+     * List the entries in the snapshot for the path that are accepted by the filter.
+     *
+     * @param path the path to list. If this is a file, returns a list containing the Entry for the
+     *     file.
+     * @param maxDepth the maximum depth of subdirectories to return. If it is <code>-1</code>, the
+     *     result only contains the entry for the path itself.
+     * @param filter include only entries accepted by this
+     * @return the entries. The list is empty if the path is not in the snapshot.
+     */
+    List<Entry<T>> listEntries(
+        final Path path, final int maxDepth, final Filter<? super Entry<T>> filter);
+  }
+
+  /**
+   * Aggregate statistics for the contents of a cached directory. See {@link
+   * FileTreeRepository#summarize(Path)}. The directory itself is not included.
+   */
+  public static final class DirectorySummary {
+    private final int entryCount;
+    private final int fileCount;
+    private final long totalSize;
+    private final long lastModified;
+
+    DirectorySummary(
+        final int entryCount, final int fileCount, final long totalSize, final long lastModified) {
+      this.entryCount = entryCount;
+      this.fileCount = fileCount;
+      this.totalSize = totalSize;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the number of files and subdirectories in the directory, at any depth.
+     *
+     * @return the number of entries.
+     */
+    public int getEntryCount() {
+      return entryCount;
+    }
+
+    /**
+     * Returns the number of regular files in the directory, at any depth.
+     *
+     * @return the number of files.
+     */
+    public int getFileCount() {
+      return fileCount;
+    }
+
+    /**
+     * Returns the sum of the sizes of the files in the directory, at any depth.
+     *
+     * @return the total size in bytes.
+     */
+    public long getTotalSize() {
+      return totalSize;
+    }
+
+    /**
+     * Returns the newest last modified time of the files in the directory, at any depth.
+     *
+     * @return the time in milliseconds since the epoch, or zero if there are no files.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public String toString() {
+      return "DirectorySummary(entries = "
+          + entryCount
+          + ", files = "
+          + fileCount
+          + ", size = "
+          + totalSize
+          + ", lastModified = "
+          + lastModified
+          + ")";
+    }
+  }
+
   /**
    * A file tree cache that can be monitored for events.
    *
@@ -7,6 +7,9 @@ import com.swoval.functional.Filter;
 import com.swoval.logging.Logger;
 import com.swoval.logging.Loggers;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
 /** Provides factory methods for generating instances of {@link FileTreeRepository}. */
 public class FileTreeRepositories {
@@ -111,6 +114,277 @@ public class FileTreeRepositories {
       final boolean rescanOnDirectoryUpdates,
       final Logger logger)
       throws InterruptedException, IOException {
+    return get(converter, filter, followLinks, rescanOnDirectoryUpdates, 0, logger);
+  }
+  /**
+   * Create a file tree repository that detects when a subdirectory of a registered directory is
+   * moved. When a directory is renamed, the path watcher reports a deletion of the old path and a
+   * creation of the new path. If a directory with the same file key (see {@link
+   * java.nio.file.attribute.BasicFileAttributes#fileKey()}) is created within {@code
+   * moveDetectionWindowMillis} milliseconds of the deletion, the cached entries are moved to the
+   * new path without listing the new directory or re-evaluating the converter. The move is
+   * reported to instances of {@link FileTreeDataViews.MoveObserver} with {@link
+   * FileTreeDataViews.MoveObserver#onMove}. Other observers see a deletion of each old path and a
+   * creation of each new path. The deletion of a directory is not reported until the window has
+   * elapsed without a matching creation. File keys are not available on every platform, e.g.
+   * windows, in which case moves are reported as deletions and creations.
+   *
+   * @param converter converts a path to the cached value type T
+   * @param filter only cache paths accepted by this filter
+   * @param followLinks toggles whether or not to follow symbolic links. When true, any symbolic
+   *     links that point to a regular file will trigger an event when the target file is modified.
+   *     For any symbolic links that point to a directory, the children of the target directory will
+   *     be included (up to the max depth parameter specified by {@link
+   *     FileTreeRepository#register}) and will trigger an event when any of the included children
+   *     are modified. When false, symbolic links are not followed and only events for the symbolic
+   *     link itself are reported.
+   * @param rescanOnDirectoryUpdates toggles whether or not we rescan a directory's subtree when an
+   *     update is detected for that directory. This can be very expensive since it will perform
+   *     iops proportional to the number of files in the subtree. It generally should not be
+   *     necessary since we are also watching the subtree for events.
+   * @param moveDetectionWindowMillis the maximum time between the deletion of a directory and the
+   *     creation of its new path for the pair to be treated as a move. Move detection is disabled
+   *     when this is not positive.
+   * @param logger logs debug events
+   * @param <T> the value type of the cache entries
+   * @return a file tree repository.
+   * @throws InterruptedException if the path watcher can't be started.
+   * @throws IOException if an instance of {@link java.nio.file.WatchService} cannot be created.
+   */
+  public static <T> FileTreeRepository<T> get(
+      final Converter<T> converter,
+      final Filter<TypedPath> filter,
+      final boolean followLinks,
+      final boolean rescanOnDirectoryUpdates,
+      final long moveDetectionWindowMillis,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    return get(
+        converter,
+        filter,
+        followLinks,
+        rescanOnDirectoryUpdates,
+        moveDetectionWindowMillis,
+        1,
+        logger);
+  }
+  /**
+   * Create a file tree repository that splits the registered directories across a number of
+   * independent shards. Each shard has its own lock, path watcher and callback executor so that
+   * events for directories in different shards can be processed in parallel. Directories that
+   * contain each other are always placed in the same shard so the contents of the repository and
+   * the events that it reports are the same as for an unsharded repository. The only difference is
+   * that observers may be invoked concurrently for paths in different shards.
+   *
+   * @param converter converts a path to the cached value type T
+   * @param filter only cache paths accepted by this filter
+   * @param followLinks toggles whether or not to follow symbolic links. When true, any symbolic
+   *     links that point to a regular file will trigger an event when the target file is modified.
+   *     For any symbolic links that point to a directory, the children of the target directory will
+   *     be included (up to the max depth parameter specified by {@link
+   *     FileTreeRepository#register}) and will trigger an event when any of the included children
+   *     are modified. When false, symbolic links are not followed and only events for the symbolic
+   *     link itself are reported.
+   * @param rescanOnDirectoryUpdates toggles whether or not we rescan a directory's subtree when an
+   *     update is detected for that directory. This can be very expensive since it will perform
+   *     iops proportional to the number of files in the subtree. It generally should not be
+   *     necessary since we are also watching the subtree for events.
+   * @param moveDetectionWindowMillis the maximum time between the deletion of a directory and the
+   *     creation of its new path for the pair to be treated as a move. Move detection is disabled
+   *     when this is not positive.
+   * @param shards the number of shards. The repository is not sharded if this is less than two.
+   * @param logger logs debug events
+   * @param <T> the value type of the cache entries
+   * @return a file tree repository.
+   * @throws InterruptedException if the path watcher can't be started.
+   * @throws IOException if an instance of {@link java.nio.file.WatchService} cannot be created.
+   */
+  public static <T> FileTreeRepository<T> get(
+      final Converter<T> converter,
+      final Filter<TypedPath> filter,
+      final boolean followLinks,
+      final boolean rescanOnDirectoryUpdates,
+      final long moveDetectionWindowMillis,
+      final int shards,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    if (shards < 2) {
+      return FileTreeRepositories.<T>newRepository(
+          converter,
+          filter,
+          followLinks,
+          rescanOnDirectoryUpdates,
+          moveDetectionWindowMillis,
+          new ChangeJournal<T>(),
+          false,
+          logger);
+    } else {
+      final List<FileTreeRepository<T>> repositories = new ArrayList<>();
+      final ChangeJournal<T> journal = new ChangeJournal<>();
+      try {
+        for (int i = 0; i < shards; ++i) {
+          repositories.add(
+              FileTreeRepositories.<T>newRepository(
+                  converter,
+                  filter,
+                  followLinks,
+                  rescanOnDirectoryUpdates,
+                  moveDetectionWindowMillis,
+                  journal,
+                  false,
+                  logger));
+        }
+      } catch (final InterruptedException | IOException e) {
+        final Iterator<FileTreeRepository<T>> it = repositories.iterator();
+        while (it.hasNext()) it.next().close();
+        throw e;
+      }
+      return new ShardedFileTreeRepository<>(repositories, logger);
+    }
+  }
+
+  /**
+   * Create a file tree repository that follows symbolic links and caches the contents of each
+   * directory that is the target of a link only once, no matter how many links point to it. The
+   * entries below a link to a directory are views of the entries of its target: they are listed
+   * and reported with the path through the link, but each file in the target is only stored once
+   * and the converter is only evaluated once for it, with the path of the file in the target. A
+   * change to a file in the target is reported once for each link to it. This saves memory and
+   * converter evaluations when many links point into the same directories, at the cost that the
+   * values can't depend on the link through which a file is reached. For the same reason, the
+   * filter is applied to the paths in the target directories.
+   *
+   * @param converter converts a path to the cached value type T
+   * @param filter only cache paths accepted by this filter
+   * @param rescanOnDirectoryUpdates toggles whether or not we rescan a directory's subtree when an
+   *     update is detected for that directory.
+   * @param logger logs debug events
+   * @param <T> the value type of the cache entries
+   * @return a file tree repository.
+   * @throws InterruptedException if the path watcher can't be started.
+   * @throws IOException if an instance of {@link java.nio.file.WatchService} cannot be created.
+   */
+  public static <T> FileTreeRepository<T> getWithSharedLinkTargets(
+      final Converter<T> converter,
+      final Filter<TypedPath> filter,
+      final boolean rescanOnDirectoryUpdates,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    return FileTreeRepositories.<T>newRepository(
+        converter, filter, true, rescanOnDirectoryUpdates, 0, new ChangeJournal<T>(), true, logger);
+  }
+
+  /**
+   * Returns a file tree repository that shares its cache and path watcher with every other
+   * repository returned by this method for an equal converter and the same options. Each
+   * repository only lists, and notifies its observers about, the paths inside of the directories
+   * that it has registered itself, even though the shared cache contains the union of the
+   * directories registered by all of them. A directory is only scanned and watched once no matter
+   * how many of the repositories register it. The shared cache is closed when the last of the
+   * repositories that use it is closed.
+   *
+   * @param converter converts a path to the cached value type T. Repositories are only shared if
+   *     their converters are equal.
+   * @param followLinks toggles whether or not to follow symbolic links. See {@link
+   *     FileTreeRepositories#get(Converter, boolean)}.
+   * @param <T> the value type of the cache entries
+   * @return a file tree repository.
+   * @throws InterruptedException if the path watcher can't be started.
+   * @throws IOException if an instance of {@link java.nio.file.WatchService} cannot be created.
+   */
+  public static <T> FileTreeRepository<T> getShared(
+      final Converter<T> converter, final boolean followLinks)
+      throws InterruptedException, IOException {
+    return getShared(converter, null, followLinks, false, Loggers.getLogger());
+  }
+  /**
+   * Returns a file tree repository that shares its cache and path watcher with every other
+   * repository returned by this method for an equal converter and filter and the same options.
+   * See {@link FileTreeRepositories#getShared(Converter, boolean)}.
+   *
+   * @param converter converts a path to the cached value type T. Repositories are only shared if
+   *     their converters are equal.
+   * @param filter only cache paths accepted by this filter. Repositories are only shared if their
+   *     filters are equal.
+   * @param followLinks toggles whether or not to follow symbolic links. See {@link
+   *     FileTreeRepositories#get(Converter, boolean)}.
+   * @param rescanOnDirectoryUpdates toggles whether or not we rescan a directory's subtree when an
+   *     update is detected for that directory.
+   * @param logger logs debug events. Only the logger of the first repository is used by the
+   *     shared cache.
+   * @param <T> the value type of the cache entries
+   * @return a file tree repository.
+   * @throws InterruptedException if the path watcher can't be started.
+   * @throws IOException if an instance of {@link java.nio.file.WatchService} cannot be created.
+   */
+  public static <T> FileTreeRepository<T> getShared(
+      final Converter<T> converter,
+      final Filter<TypedPath> filter,
+      final boolean followLinks,
+      final boolean rescanOnDirectoryUpdates,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    return FileTreeRepositoryPool.get(
+        converter, filter, followLinks, rescanOnDirectoryUpdates, logger);
+  }
+
+  /**
+   * Returns a snapshot of the process wide counters for the attribute reads that are made while
+   * the file system events are handled by the repositories. The attributes of a path are only read
+   * once per event, no matter how many times the path watcher and the cache need them, so the
+   * saved count is the number of reads that were avoided.
+   *
+   * @return the attribute read statistics.
+   */
+  public static StatCacheStatistics statCacheStatistics() {
+    return new StatCacheStatistics(StatCache.getPerformed(), StatCache.getSaved());
+  }
+
+  /** The counters for the attribute reads. See {@link #statCacheStatistics()}. */
+  public static final class StatCacheStatistics {
+    private final long performed;
+    private final long saved;
+
+    StatCacheStatistics(final long performed, final long saved) {
+      this.performed = performed;
+      this.saved = saved;
+    }
+
+    /**
+     * Returns the number of attribute reads that were made while handling events.
+     *
+     * @return the number of attribute reads that were made.
+     */
+    public long getPerformed() {
+      return performed;
+    }
+
+    /**
+     * Returns the number of attribute reads that were avoided by reusing the attributes that were
+     * read earlier for the same event.
+     *
+     * @return the number of saved attribute reads.
+     */
+    public long getSaved() {
+      return saved;
+    }
+
+    @Override
+    public String toString() {
+      return "StatCacheStatistics(performed = " + performed + ", saved = " + saved + ")";
+    }
+  }
+
+  private static <T> FileTreeRepository<T> newRepository(
+      final Converter<T> converter,
+      final Filter<TypedPath> filter,
+      final boolean followLinks,
+      final boolean rescanOnDirectoryUpdates,
+      final long moveDetectionWindowMillis,
+      final ChangeJournal<T> journal,
+      final boolean shareLinkTargets,
+      final Logger logger)
+      throws InterruptedException, IOException {
     final SymlinkWatcher symlinkWatcher =
         followLinks
             ? new SymlinkWatcher(
@@ -119,9 +393,20 @@ public class FileTreeRepositories {
     final Executor callbackExecutor = Executor.make("FileTreeRepository-callback-executor");
     final FileCacheDirectoryTree<T> tree =
         new FileCacheDirectoryTree<>(
-            converter, callbackExecutor, symlinkWatcher, rescanOnDirectoryUpdates, logger, filter);
+            converter,
+            callbackExecutor,
+            symlinkWatcher,
+            rescanOnDirectoryUpdates,
+            logger,
+            new FileCacheDirectoryTree.Options<T>()
+                .filter(filter)
+                .moveWindowMillis(moveDetectionWindowMillis)
+                .journal(journal)
+                .shareLinkTargets(shareLinkTargets));
     final PathWatcher<PathWatchers.Event> pathWatcher =
-        PathWatchers.get(false, tree.readOnlyDirectoryRegistry(), logger);
+        filter == null
+            ? PathWatchers.get(false, tree.readOnlyDirectoryRegistry(), logger)
+            : PathWatchers.get(false, tree.readOnlyDirectoryRegistry(), filter, logger);
     pathWatcher.addObserver(
         new Observer<Event>() {
           @Override
@@ -129,7 +414,7 @@ public class FileTreeRepositories {
 
           @Override
           public void onNext(final Event event) {
-            tree.handleEvent(event);
+            tree.onEvent(event);
           }
         });
     final FileCachePathWatcher<T> watcher = new FileCachePathWatcher<>(tree, pathWatcher);
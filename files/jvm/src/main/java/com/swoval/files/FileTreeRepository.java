@@ -1,11 +1,17 @@
 package com.swoval.files;
 
+import com.swoval.files.FileTreeDataViews.Changes;
 import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.DirectorySummary;
 import com.swoval.files.FileTreeDataViews.Entry;
 import com.swoval.files.FileTreeDataViews.ObservableCache;
+import com.swoval.files.FileTreeDataViews.Snapshot;
 import com.swoval.functional.Either;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Provides an in memory cache of portions of the file system. Directories are added to the cache
@@ -53,6 +59,45 @@ public interface FileTreeRepository<T>
    *     thrown attempting to register the path.
    */
   Either<IOException, Boolean> register(final Path path, final int maxDepth);
+
+  /**
+   * Register a path with the cache and set the priority with which the events for the path, and
+   * the paths inside of it, are processed. The priority of a path is the priority of the most
+   * specific registered directory that contains it for which a priority was set. Registering a
+   * path that was already registered updates its priority. Paths for which no priority was set
+   * have the priority {@link Priority#Normal}. When there are pending events for paths with
+   * different priorities, the cache updates and the callbacks for the higher priority paths are
+   * run first. The pending events for paths with {@link Priority#Bulk} priority are coalesced so
+   * that only the latest event for each path is processed.
+   *
+   * @param path the directory to watch for file events and to add to the cache
+   * @param maxDepth the maximum maxDepth of subdirectories to watch
+   * @param priority the priority of the events for the directory
+   * @return an {@link com.swoval.functional.Either} that will return a right value when no
+   *     exception is thrown. The right value will be true if the path has not been previously
+   *     registered. The {@link com.swoval.functional.Either} will be a left if any IOException is
+   *     thrown attempting to register the path.
+   */
+  Either<IOException, Boolean> register(
+      final Path path, final int maxDepth, final Priority priority);
+
+  /**
+   * Register a path with the cache without blocking the calling thread. Unlike {@link
+   * FileTreeRepository#register}, the cache is filled in one directory at a time so that other
+   * threads may list the cache and events for other registered paths may be processed while a
+   * large directory tree is being added. Changes to the directory tree that occur while it is being
+   * added are reflected in the cache once the returned future completes.
+   *
+   * @param path the directory to watch for file events and to add to the cache
+   * @param maxDepth the maximum maxDepth of subdirectories to watch
+   * @return a {@link java.util.concurrent.Future} that completes when all of the entries for the
+   *     path have been added to the cache. Its value will be true if the path has not been
+   *     previously registered. If an IOException is thrown attempting to register the path, {@link
+   *     java.util.concurrent.Future#get} throws an {@link
+   *     java.util.concurrent.ExecutionException} whose cause is the IOException.
+   */
+  Future<Boolean> registerAsync(final Path path, final int maxDepth);
+
   /**
    * Unregister a path from the cache. This removes the path from monitoring and from the cache so
    * long as the path isn't covered by another registered path. For example, if the path /foo was
@@ -65,4 +110,154 @@ public interface FileTreeRepository<T>
    * @param path the path to unregister
    */
   void unregister(final Path path);
+
+  /**
+   * Returns a token that identifies the current state of the cache. It can later be passed to
+   * {@link FileTreeRepository#changesSince(long)} to retrieve the changes that were applied to the
+   * cache in between. To bootstrap a consumer, obtain the token before listing the cache so that
+   * no change can be missed. Changes that were already included in the listing may then be
+   * reported again, so consumers should apply the changes idempotently.
+   *
+   * @return the token for the current state of the cache.
+   */
+  long getChangeToken();
+
+  /**
+   * Returns the net changes that were applied to the cache since the token was obtained. This
+   * allows a consumer that restarts or falls behind to catch up in time proportional to the number
+   * of changes rather than to the size of the cache. The cache retains a bounded number of recent
+   * changes, so {@link Changes#isResyncRequired()} is true if the token is too old or if a
+   * directory was registered or unregistered since it was obtained. The token returned by {@link
+   * Changes#getToken()} should be used for the next call.
+   *
+   * @param token a token returned by {@link FileTreeRepository#getChangeToken()} or by a previous
+   *     call to this method.
+   * @return the net changes since the token was obtained.
+   */
+  Changes<T> changesSince(final long token);
+
+  /**
+   * Returns an immutable snapshot of the current contents of the cache. Taking a snapshot takes
+   * constant time because the snapshot shares its structure with the cache, which only copies the
+   * directories that change after the snapshot was taken. Two snapshots can be compared with
+   * {@link Snapshots#diff(Snapshot, Snapshot, FileTreeDataViews.CacheObserver)} in time
+   * proportional to the number of changes in between. The first snapshot, and the first one after
+   * a directory is registered or unregistered, has to copy the whole cache.
+   *
+   * @return the snapshot.
+   */
+  Snapshot<T> snapshot();
+
+  /**
+   * Returns the cached entries with the given file name, e.g. every entry named "BUILD", in no
+   * particular order. The entries are looked up in an index of the cache, so this takes time
+   * proportional to the number of matching entries rather than to the size of the cache. The
+   * index is built when it is first queried, and again after a directory is registered or
+   * unregistered, and is kept in sync with the cache in between.
+   *
+   * @param fileName the file name of the entries
+   * @return the matching entries.
+   */
+  List<Entry<T>> listEntriesNamed(final String fileName);
+
+  /**
+   * Returns the cached entries whose file names have the given extension, e.g. every entry whose
+   * file name ends with ".proto" for the extension "proto", in no particular order. The extension
+   * is the part of the file name after its last dot. The entries are looked up in the same index
+   * as {@link FileTreeRepository#listEntriesNamed(String)}.
+   *
+   * @param extension the extension of the entries, without the leading dot
+   * @return the matching entries.
+   */
+  List<Entry<T>> listEntriesWithExtension(final String extension);
+
+  /**
+   * Returns the cached entries that were last modified at or after the given time, in no
+   * particular order. The cache does not otherwise track modification times, so the first call
+   * reads the last modified time of every cached entry and, from then on, the last modified time
+   * of every entry that is added or updated is read when the cache is updated. The time for an
+   * entry may be out of date until the cache has processed the event for its latest change.
+   *
+   * @param lastModified the time in milliseconds since the epoch
+   * @return the matching entries.
+   */
+  List<Entry<T>> listEntriesModifiedSince(final long lastModified);
+
+  /**
+   * Returns aggregate statistics for the contents of a cached directory: the number of entries,
+   * the number of files, the total size of the files and their newest last modified time. The
+   * statistics are maintained incrementally for every directory in the cache, so this takes time
+   * proportional to the depth of the path rather than to the size of the directory. The cache does
+   * not otherwise track sizes or modification times, so the first call reads the attributes of
+   * every cached entry and, from then on, the attributes of every entry that is added or updated
+   * are read when the cache is updated. The statistics are rebuilt after a directory is registered
+   * or unregistered.
+   *
+   * @param path the path of the directory
+   * @return the statistics or null if the path is not a cached directory.
+   */
+  DirectorySummary summarize(final Path path);
+
+  /**
+   * Blocks until the file system activity for a path has settled. This is useful for tools that
+   * want to act on a consistent view of the cache after a burst of changes, e.g. a build tool that
+   * waits for a branch checkout to complete before starting a build. The path is considered quiet
+   * once all of the events that the cache has received for the path and its subdirectories have
+   * been applied to the cache, the callbacks for those events have been run, no directory in or
+   * above the path is still being scanned, rescanned after its events were throttled or waiting
+   * to be matched with a move, and no new event for the path has been received for the quiet
+   * period. Callbacks for other paths that are queued also delay the return. Events that the file
+   * system has not delivered yet can not be observed, so the quiet period should be longer than
+   * the latency of the path watcher.
+   *
+   * @param path the path to wait for
+   * @param quietPeriod the duration for which no events may be received for the path
+   * @param timeout the maximum duration to wait
+   * @param timeUnit the unit of the quiet period and the timeout
+   * @return true if the path is quiet, false if the timeout elapsed first or the repository was
+   *     closed.
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  boolean awaitQuiescence(
+      final Path path, final long quietPeriod, final long timeout, final TimeUnit timeUnit)
+      throws InterruptedException;
+
+  /**
+   * The priority with which the events for a registered directory are processed. See {@link
+   * FileTreeRepository#register(Path, int, Priority)}. It isn't an actual enum because the scala.js
+   * codegen has problems with enum types.
+   */
+  final class Priority implements Comparable<Priority> {
+    /** For paths that a user is actively editing and that need low latency under load. */
+    public static final Priority Interactive = new Priority("Interactive", 0);
+    /** The default priority. */
+    public static final Priority Normal = new Priority("Normal", 1);
+    /**
+     * For paths that produce many events that are not time sensitive, e.g. build output
+     * directories. Their events are only processed when no other events are pending.
+     */
+    public static final Priority Bulk = new Priority("Bulk", 2);
+
+    private final String name;
+    private final int value;
+
+    private Priority(final String name, final int value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    int getValue() {
+      return value;
+    }
+
+    @Override
+    public int compareTo(final Priority that) {
+      return Integer.compare(this.value, that.value);
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
 }
@@ -1,7 +1,10 @@
 package com.swoval.files;
 
 import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Changes;
+import com.swoval.files.FileTreeDataViews.DirectorySummary;
 import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.Snapshot;
 import com.swoval.files.FileTreeViews.Observer;
 import com.swoval.functional.Either;
 import com.swoval.functional.Filter;
@@ -12,6 +15,8 @@ import com.swoval.runtime.ShutdownHooks;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 class FileTreeRepositoryImpl<T> implements FileTreeRepository<T> {
@@ -112,6 +117,71 @@ class FileTreeRepositoryImpl<T> implements FileTreeRepository<T> {
     }
   }
 
+  @Override
+  public Either<IOException, Boolean> register(
+      final Path path, final int maxDepth, final Priority priority) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    final Priority previous = directoryTree.setPriority(absolutePath, priority);
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " set priority of " + path + " to " + priority);
+    final Either<IOException, Boolean> res = register(absolutePath, maxDepth);
+    if (res.isLeft()) directoryTree.setPriority(absolutePath, previous);
+    return res;
+  }
+
+  @Override
+  public Future<Boolean> registerAsync(final Path path, final int maxDepth) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " registering " + path + " with max depth " + maxDepth);
+    return watcher.registerAsync(absolutePath, maxDepth);
+  }
+
+  @Override
+  public long getChangeToken() {
+    return directoryTree.getChangeToken();
+  }
+
+  @Override
+  public Changes<T> changesSince(final long token) {
+    return directoryTree.changesSince(token);
+  }
+
+  @Override
+  public Snapshot<T> snapshot() {
+    return directoryTree.snapshot();
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesNamed(final String fileName) {
+    return directoryTree.listEntriesNamed(fileName);
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesWithExtension(final String extension) {
+    return directoryTree.listEntriesWithExtension(extension);
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesModifiedSince(final long lastModified) {
+    return directoryTree.listEntriesModifiedSince(lastModified);
+  }
+
+  @Override
+  public DirectorySummary summarize(final Path path) {
+    return directoryTree.summarize(path);
+  }
+
+  @Override
+  public boolean awaitQuiescence(
+      final Path path, final long quietPeriod, final long timeout, final TimeUnit timeUnit)
+      throws InterruptedException {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    return !closed.get()
+        && directoryTree.awaitQuiescence(
+            absolutePath, timeUnit.toNanos(quietPeriod), timeUnit.toNanos(timeout));
+  }
+
   @Override
   @SuppressWarnings("EmptyCatchBlock")
   public void unregister(final Path path) {
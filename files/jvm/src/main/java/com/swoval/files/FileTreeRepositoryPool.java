@@ -0,0 +1,531 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Changes;
+import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.DirectorySummary;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.MoveObserver;
+import com.swoval.files.FileTreeDataViews.Snapshot;
+import com.swoval.files.FileTreeDataViews.SubtreeObserver;
+import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.functional.Either;
+import com.swoval.functional.Filter;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Shares a single underlying FileTreeRepository among all of the repositories that were created
+ * with the same converter, filter and options. The underlying repository caches and monitors the
+ * union of the directories registered by each of the views. It is closed when the last view is
+ * closed.
+ */
+class FileTreeRepositoryPool {
+  private static final Map<Key, SharedRepository<?>> repositories = new HashMap<>();
+
+  private FileTreeRepositoryPool() {}
+
+  private static final class Key {
+    private final Converter<?> converter;
+    private final Filter<TypedPath> filter;
+    private final boolean followLinks;
+    private final boolean rescanOnDirectoryUpdates;
+
+    Key(
+        final Converter<?> converter,
+        final Filter<TypedPath> filter,
+        final boolean followLinks,
+        final boolean rescanOnDirectoryUpdates) {
+      this.converter = converter;
+      this.filter = filter;
+      this.followLinks = followLinks;
+      this.rescanOnDirectoryUpdates = rescanOnDirectoryUpdates;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (other instanceof Key) {
+        final Key that = (Key) other;
+        return this.converter.equals(that.converter)
+            && (this.filter == null ? that.filter == null : this.filter.equals(that.filter))
+            && this.followLinks == that.followLinks
+            && this.rescanOnDirectoryUpdates == that.rescanOnDirectoryUpdates;
+      } else {
+        return false;
+      }
+    }
+
+    @Override
+    public int hashCode() {
+      return converter.hashCode()
+          ^ (filter == null ? 0 : filter.hashCode())
+          ^ (followLinks ? 1 : 0)
+          ^ (rescanOnDirectoryUpdates ? 2 : 0);
+    }
+  }
+
+  static final class SharedRepository<T> {
+    private final Key key;
+    private final FileTreeRepository<T> repository;
+    private final List<FileTreeRepositoryView<T>> views = new ArrayList<>();
+
+    SharedRepository(final Key key, final FileTreeRepository<T> repository) {
+      this.key = key;
+      this.repository = repository;
+    }
+
+    FileTreeRepository<T> getRepository() {
+      return repository;
+    }
+
+    /*
+     * Unregisters a path that was removed from the registry of a view unless another view has
+     * registered the same path. Unregistering a directory drops the cached subtree, including any
+     * nested directories registered by other views, so they are registered again afterwards. They
+     * have to be unregistered first because the repository still considers them to be registered.
+     */
+    void unregister(final Path path, final FileTreeRepositoryView<T> view) {
+      final Map<Path, Integer> nested = new TreeMap<>();
+      synchronized (repositories) {
+        final Iterator<FileTreeRepositoryView<T>> it = views.iterator();
+        while (it.hasNext()) {
+          final FileTreeRepositoryView<T> other = it.next();
+          if (other != view) {
+            final Iterator<Map.Entry<Path, Integer>> registered =
+                other.registry().registered().entrySet().iterator();
+            while (registered.hasNext()) {
+              final Map.Entry<Path, Integer> entry = registered.next();
+              final Path registeredPath = entry.getKey();
+              if (registeredPath.equals(path)) return;
+              if (registeredPath.startsWith(path)) {
+                final Integer depth = nested.get(registeredPath);
+                if (depth == null || depth < entry.getValue()) {
+                  nested.put(registeredPath, entry.getValue());
+                }
+              }
+            }
+          }
+        }
+      }
+      repository.unregister(path);
+      final Iterator<Map.Entry<Path, Integer>> it = nested.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<Path, Integer> entry = it.next();
+        repository.unregister(entry.getKey());
+        repository.register(entry.getKey(), entry.getValue());
+      }
+    }
+
+    void release(final FileTreeRepositoryView<T> view) {
+      boolean close = false;
+      synchronized (repositories) {
+        if (views.remove(view) && views.isEmpty()) {
+          repositories.remove(key);
+          close = true;
+        }
+      }
+      if (close) repository.close();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> FileTreeRepository<T> get(
+      final Converter<T> converter,
+      final Filter<TypedPath> filter,
+      final boolean followLinks,
+      final boolean rescanOnDirectoryUpdates,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    final Key key = new Key(converter, filter, followLinks, rescanOnDirectoryUpdates);
+    synchronized (repositories) {
+      SharedRepository<T> shared = (SharedRepository<T>) repositories.get(key);
+      if (shared == null) {
+        shared =
+            new SharedRepository<>(
+                key,
+                FileTreeRepositories.get(
+                    converter, filter, followLinks, rescanOnDirectoryUpdates, logger));
+        repositories.put(key, shared);
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug("Created shared repository " + shared.repository);
+      }
+      final FileTreeRepositoryView<T> view = new FileTreeRepositoryView<>(shared, logger);
+      shared.views.add(view);
+      return view;
+    }
+  }
+}
+
+/*
+ * A FileTreeRepository backed by a shared repository. It only lists the entries and reports the
+ * events for the paths that it has registered itself, even if the shared repository also caches
+ * paths registered by other views.
+ */
+class FileTreeRepositoryView<T> implements FileTreeRepository<T> {
+  private final FileTreeRepositoryPool.SharedRepository<T> shared;
+  private final FileTreeRepository<T> repository;
+  private final DirectoryRegistry registry = new DirectoryRegistryImpl();
+  private final LockableMap<Integer, Integer> handles = new LockableMap<>();
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final Logger logger;
+  private final Filter<Path> registryFilter =
+      new Filter<Path>() {
+        @Override
+        public boolean accept(final Path path) {
+          return registry.accept(path) || registry.acceptPrefix(path);
+        }
+      };
+  // The tokens of the view are offset from the tokens of the shared repository by the number of
+  // times that the registry of the view has changed. See invalidateChanges.
+  private long tokenOffset = 0;
+  private long validFrom = 0;
+  // A copy of the registry that is replaced whenever the registry changes. Snapshots are filtered
+  // with it so that consecutive snapshots with the same registrations can be compared efficiently.
+  private Filter<Path> snapshotFilter = copyRegistry();
+
+  FileTreeRepositoryView(
+      final FileTreeRepositoryPool.SharedRepository<T> shared, final Logger logger) {
+    this.shared = shared;
+    this.repository = shared.getRepository();
+    this.logger = logger;
+  }
+
+  DirectoryRegistry registry() {
+    return registry;
+  }
+
+  @Override
+  public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
+    return register(path, maxDepth, null);
+  }
+
+  /*
+   * The priority is set on the shared repository so the priority of a path that is registered by
+   * several views is the one that was set last. A null priority leaves the priority unchanged.
+   */
+  @Override
+  public Either<IOException, Boolean> register(
+      final Path path, final int maxDepth, final Priority priority) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    // The path is added to the registry before it is registered with the shared repository so
+    // that a concurrent unregister by another view does not remove it from the shared repository.
+    final boolean added = registry.addDirectory(absolutePath, maxDepth);
+    invalidateChanges();
+    final Either<IOException, Boolean> result =
+        priority == null
+            ? repository.register(absolutePath, maxDepth)
+            : repository.register(absolutePath, maxDepth, priority);
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(this + " registered " + absolutePath + " with max depth " + maxDepth);
+    if (result.isLeft()) return result;
+    return Either.right(added);
+  }
+
+  @Override
+  public Future<Boolean> registerAsync(final Path path, final int maxDepth) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    registry.addDirectory(absolutePath, maxDepth);
+    return repository.registerAsync(absolutePath, maxDepth);
+  }
+
+  @Override
+  public void unregister(final Path path) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    registry.removeDirectory(absolutePath);
+    invalidateChanges();
+    shared.unregister(absolutePath, this);
+  }
+
+  @Override
+  public long getChangeToken() {
+    synchronized (this) {
+      return repository.getChangeToken() + tokenOffset;
+    }
+  }
+
+  @Override
+  public Changes<T> changesSince(final long token) {
+    final long offset;
+    final long from;
+    synchronized (this) {
+      offset = tokenOffset;
+      from = validFrom;
+    }
+    if (token < from) return ChangeJournal.resync(repository.getChangeToken() + offset);
+    final Changes<T> changes = repository.changesSince(token - offset);
+    return ChangeJournal.filter(changes, changes.getToken() + offset, registryFilter);
+  }
+
+  @Override
+  public boolean awaitQuiescence(
+      final Path path, final long quietPeriod, final long timeout, final TimeUnit timeUnit)
+      throws InterruptedException {
+    return !closed.get() && repository.awaitQuiescence(path, quietPeriod, timeout, timeUnit);
+  }
+
+  /*
+   * The paths that are visible through the view change when its registry changes, even if the
+   * shared repository does not, e.g. because another view had already registered the same path.
+   * Incrementing the offset ensures that every token obtained before the change is less than
+   * every token obtained after it, so the earlier tokens can be rejected.
+   */
+  private void invalidateChanges() {
+    synchronized (this) {
+      tokenOffset += 1;
+      validFrom = repository.getChangeToken() + tokenOffset;
+      snapshotFilter = copyRegistry();
+    }
+  }
+
+  @Override
+  public Snapshot<T> snapshot() {
+    final Filter<Path> filter;
+    synchronized (this) {
+      filter = snapshotFilter;
+    }
+    return Snapshots.filter(repository.snapshot(), filter);
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesNamed(final String fileName) {
+    return registered(repository.listEntriesNamed(fileName));
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesWithExtension(final String extension) {
+    return registered(repository.listEntriesWithExtension(extension));
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesModifiedSince(final long lastModified) {
+    return registered(repository.listEntriesModifiedSince(lastModified));
+  }
+
+  /*
+   * The statistics can not be restricted to the directories registered with this view without a
+   * traversal, so they describe the shared cache, which may contain deeper subdirectories that were
+   * registered by another view.
+   */
+  @Override
+  public DirectorySummary summarize(final Path path) {
+    return registry.accept(path) ? repository.summarize(path) : null;
+  }
+
+  /*
+   * The shared repository may cache directories that other views registered, so the index results
+   * are restricted to the directories registered with this view.
+   */
+  private List<Entry<T>> registered(final List<Entry<T>> entries) {
+    final List<Entry<T>> result = new ArrayList<>();
+    final Iterator<Entry<T>> it = entries.iterator();
+    while (it.hasNext()) {
+      final Entry<T> entry = it.next();
+      if (registry.accept(entry.getTypedPath().getPath())) result.add(entry);
+    }
+    return result;
+  }
+
+  private Filter<Path> copyRegistry() {
+    final DirectoryRegistry copy = new DirectoryRegistryImpl();
+    final Iterator<Map.Entry<Path, Integer>> it = registry.registered().entrySet().iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Path, Integer> entry = it.next();
+      copy.addDirectory(entry.getKey(), entry.getValue());
+    }
+    return new Filter<Path>() {
+      @Override
+      public boolean accept(final Path path) {
+        return copy.accept(path);
+      }
+    };
+  }
+
+  @Override
+  public List<Entry<T>> listEntries(
+      final Path path, final int maxDepth, final Filter<? super Entry<T>> filter)
+      throws IOException {
+    return repository.listEntries(
+        path,
+        maxDepth,
+        new Filter<Entry<T>>() {
+          @Override
+          public boolean accept(final Entry<T> entry) {
+            return registry.accept(entry.getTypedPath().getPath()) && filter.accept(entry);
+          }
+        });
+  }
+
+  @Override
+  public List<TypedPath> list(
+      final Path path, final int maxDepth, final Filter<? super TypedPath> filter)
+      throws IOException {
+    return repository.list(
+        path,
+        maxDepth,
+        new Filter<TypedPath>() {
+          @Override
+          public boolean accept(final TypedPath typedPath) {
+            return registry.accept(typedPath.getPath()) && filter.accept(typedPath);
+          }
+        });
+  }
+
+  @Override
+  public int addObserver(final Observer<? super Entry<T>> observer) {
+    return addCacheObserver(CacheObservers.<T>fromObserver(observer));
+  }
+
+  @Override
+  public int addCacheObserver(final CacheObserver<T> observer) {
+    final CacheObserver<T> viewObserver =
+        observer instanceof SubtreeObserver<?>
+            ? new ViewSubtreeObserver<>(registry, observer)
+            : new ViewCacheObserver<>(registry, observer);
+    final int handle = repository.addCacheObserver(viewObserver);
+    handles.put(handle, handle);
+    return handle;
+  }
+
+  @Override
+  public void removeObserver(final int handle) {
+    if (handles.remove(handle) != null) repository.removeObserver(handle);
+  }
+
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      final Iterator<Integer> handleIterator = handles.keys().iterator();
+      while (handleIterator.hasNext()) repository.removeObserver(handleIterator.next());
+      handles.clear();
+      final Iterator<Path> it = registry.registered().keySet().iterator();
+      while (it.hasNext()) {
+        final Path path = it.next();
+        registry.removeDirectory(path);
+        shared.unregister(path, this);
+      }
+      shared.release(this);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FileTreeRepositoryView(" + repository + ")";
+  }
+}
+
+/*
+ * Forwards the events for the paths accepted by a registry to a delegate observer.
+ */
+class ViewCacheObserver<T> implements MoveObserver<T> {
+  final DirectoryRegistry registry;
+  final CacheObserver<T> delegate;
+
+  ViewCacheObserver(final DirectoryRegistry registry, final CacheObserver<T> delegate) {
+    this.registry = registry;
+    this.delegate = delegate;
+  }
+
+  boolean accept(final Entry<T> entry) {
+    return registry.accept(entry.getTypedPath().getPath());
+  }
+
+  @Override
+  public void onCreate(final Entry<T> newEntry) {
+    if (accept(newEntry)) delegate.onCreate(newEntry);
+  }
+
+  @Override
+  public void onDelete(final Entry<T> oldEntry) {
+    if (accept(oldEntry)) delegate.onDelete(oldEntry);
+  }
+
+  @Override
+  public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+    if (accept(newEntry)) delegate.onUpdate(oldEntry, newEntry);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void onMove(final Entry<T> oldEntry, final Entry<T> newEntry) {
+    final boolean acceptOld = accept(oldEntry);
+    final boolean acceptNew = accept(newEntry);
+    if (acceptOld && acceptNew && delegate instanceof MoveObserver<?>) {
+      ((MoveObserver<T>) delegate).onMove(oldEntry, newEntry);
+    } else {
+      if (acceptOld) delegate.onDelete(Entries.setExists(oldEntry, false));
+      if (acceptNew) delegate.onCreate(newEntry);
+    }
+  }
+
+  @Override
+  public void onError(final IOException exception) {
+    delegate.onError(exception);
+  }
+}
+
+class ViewSubtreeObserver<T> extends ViewCacheObserver<T> implements SubtreeObserver<T> {
+  ViewSubtreeObserver(final DirectoryRegistry registry, final CacheObserver<T> delegate) {
+    super(registry, delegate);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void onSubtreeDelete(final Entry<T> oldEntry, final Iterator<Entry<T>> oldEntries) {
+    if (accept(oldEntry)) {
+      ((SubtreeObserver<T>) delegate).onSubtreeDelete(oldEntry, new AcceptedEntries(oldEntries));
+    } else {
+      // The view only registered directories inside of the deleted directory.
+      final List<Entry<T>> entries = new ArrayList<>();
+      final Iterator<Entry<T>> it = new AcceptedEntries(oldEntries);
+      while (it.hasNext()) entries.add(it.next());
+      Collections.sort(entries);
+      final Iterator<Entry<T>> entryIterator = entries.iterator();
+      while (entryIterator.hasNext()) delegate.onDelete(entryIterator.next());
+    }
+  }
+
+  private final class AcceptedEntries implements Iterator<Entry<T>> {
+    private final Iterator<Entry<T>> entries;
+    private Entry<T> next;
+
+    AcceptedEntries(final Iterator<Entry<T>> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && entries.hasNext()) {
+        final Entry<T> entry = entries.next();
+        if (accept(entry)) next = entry;
+      }
+      return next != null;
+    }
+
+    @Override
+    public Entry<T> next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      final Entry<T> result = next;
+      next = null;
+      return result;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+  }
+}
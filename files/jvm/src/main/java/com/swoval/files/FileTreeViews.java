@@ -3,6 +3,7 @@ package com.swoval.files;
 import com.swoval.files.FileTreeDataViews.CacheObserver;
 import com.swoval.files.FileTreeDataViews.Converter;
 import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.MoveObserver;
 import com.swoval.functional.Filter;
 import com.swoval.functional.Filters;
 import com.swoval.runtime.Platform;
@@ -180,12 +181,14 @@ public class FileTreeViews {
     void removeObserver(final int handle);
   }
 
-  static class Updates<T> implements CacheObserver<T> {
+  static class Updates<T> implements MoveObserver<T> {
 
     private final List<Entry<T>> creations = new ArrayList<>();
     private final List<Entry<T>> deletions = new ArrayList<>();
     private final List<Entry<T>[]> updates = new ArrayList<>();
+    private final List<List<Entry<T>>> moves = new ArrayList<>();
 
+    @SuppressWarnings("unchecked")
     void observe(final CacheObserver<T> cacheObserver) {
       final Iterator<Entry<T>> creationIterator = creations.iterator();
       while (creationIterator.hasNext()) {
@@ -196,6 +199,16 @@ public class FileTreeViews {
         final Entry<T>[] entries = updateIterator.next();
         cacheObserver.onUpdate(entries[0], entries[1]);
       }
+      final Iterator<List<Entry<T>>> moveIterator = moves.iterator();
+      while (moveIterator.hasNext()) {
+        final List<Entry<T>> entries = moveIterator.next();
+        if (cacheObserver instanceof MoveObserver<?>) {
+          ((MoveObserver<T>) cacheObserver).onMove(entries.get(0), entries.get(1));
+        } else {
+          cacheObserver.onDelete(Entries.setExists(entries.get(0), false));
+          cacheObserver.onCreate(entries.get(1));
+        }
+      }
       final Iterator<Entry<T>> deletionIterator = deletions.iterator();
       while (deletionIterator.hasNext()) {
         cacheObserver.onDelete(Entries.setExists(deletionIterator.next(), false));
@@ -218,6 +231,11 @@ public class FileTreeViews {
       updates.add(new Entry[] {oldEntry, newEntry});
     }
 
+    @Override
+    public void onMove(final Entry<T> oldEntry, final Entry<T> newEntry) {
+      moves.add(Arrays.asList(oldEntry, newEntry));
+    }
+
     @Override
     public void onError(final IOException exception) {}
 
@@ -229,7 +247,8 @@ public class FileTreeViews {
       return "Updates("
           + ("creations: " + creations)
           + (", deletions: " + deletions)
-          + (", updates: " + updateList + ")");
+          + (", updates: " + updateList)
+          + (", moves: " + moves + ")");
     }
   }
 }
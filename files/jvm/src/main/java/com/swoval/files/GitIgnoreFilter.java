@@ -0,0 +1,178 @@
+package com.swoval.files;
+
+import com.swoval.functional.Filter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Rejects the paths inside of a base directory that are ignored by the .gitignore or .ignore files
+ * in that directory or in any of its subdirectories. The ignore files of a directory are only read
+ * the first time that one of its children is evaluated and they are never read for a directory
+ * that is itself ignored, so the rules are parsed incrementally as a file tree view or cache
+ * descends into the tree. A directory that is ignored is rejected along with all of its children,
+ * which allows the caches and path watchers to skip the entire subtree.
+ *
+ * The rules follow the gitignore format: blank lines and lines starting with '#' are skipped, a
+ * leading '!' re-includes a path, a trailing '/' only matches directories, a rule without any
+ * other '/' matches at any depth below the directory that contains the ignore file and the last
+ * matching rule wins with rules in deeper directories taking precedence. As in git, a path can not
+ * be re-included if one of its parents is ignored. The .git directory is always rejected. Global
+ * excludes and .git/info/exclude are not read.
+ */
+final class GitIgnoreFilter implements Filter<TypedPath> {
+  private static final String[] IGNORE_FILES = {".gitignore", ".ignore"};
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final Path base;
+  private volatile ConcurrentHashMap<Path, Directory> directories = new ConcurrentHashMap<>();
+
+  GitIgnoreFilter(final Path base) {
+    this.base = base.isAbsolute() ? base : base.toAbsolutePath();
+  }
+
+  /*
+   * The parsed rules of a single ignore file. The rules are compiled to a glob filter with one
+   * include pattern per rule so that the index of the last matching pattern is the index of the
+   * last matching rule.
+   */
+  private static final class Rules {
+    private final GlobFilter globs;
+    private final boolean[] negated;
+
+    Rules(final GlobFilter globs, final boolean[] negated) {
+      this.globs = globs;
+      this.negated = negated;
+    }
+  }
+
+  /*
+   * The state of a directory that has been visited. The rules of its ancestors are reached through
+   * the parent link. An ignored directory has no rules since its ignore files are never read.
+   */
+  private static final class Directory {
+    private final Directory parent;
+    private final List<Rules> rules;
+    private final boolean ignored;
+
+    Directory(final Directory parent, final List<Rules> rules, final boolean ignored) {
+      this.parent = parent;
+      this.rules = rules;
+      this.ignored = ignored;
+    }
+  }
+
+  @Override
+  public boolean accept(final TypedPath typedPath) {
+    final Path path = typedPath.getPath();
+    if (!path.startsWith(base) || path.equals(base)) return true;
+    final ConcurrentHashMap<Path, Directory> map = directories;
+    final Directory parent = directory(map, path.getParent());
+    return !parent.ignored && !isIgnored(parent, path, typedPath.isDirectory());
+  }
+
+  /*
+   * Returns true if the file name of the path is one of the ignore files that are read by this
+   * filter. Changes to these files must be followed by a call to reload.
+   */
+  boolean isIgnoreFile(final Path path) {
+    final Path fileName = path.getFileName();
+    if (fileName == null || !path.startsWith(base)) return false;
+    final String name = fileName.toString();
+    for (final String ignoreFile : IGNORE_FILES) {
+      if (ignoreFile.equals(name)) return true;
+    }
+    return false;
+  }
+
+  /*
+   * Discards the parsed rules so that the ignore files are read again. Since a change to one file
+   * may include or ignore an arbitrary number of subdirectories, all of the cached directories are
+   * discarded, not just the directory that contains the ignore file.
+   */
+  void reload() {
+    directories = new ConcurrentHashMap<>();
+  }
+
+  @Override
+  public String toString() {
+    return "GitIgnoreFilter(" + base + ")";
+  }
+
+  private Directory directory(final ConcurrentHashMap<Path, Directory> map, final Path path) {
+    final Directory existing = map.get(path);
+    if (existing != null) return existing;
+    final Directory result;
+    if (path.equals(base)) {
+      result = new Directory(null, load(path), false);
+    } else {
+      final Directory parent = directory(map, path.getParent());
+      final boolean ignored = parent.ignored || isIgnored(parent, path, true);
+      result =
+          new Directory(parent, ignored ? Collections.<Rules>emptyList() : load(path), ignored);
+    }
+    final Directory previous = map.putIfAbsent(path, result);
+    return previous == null ? result : previous;
+  }
+
+  private static boolean isIgnored(
+      final Directory parent, final Path path, final boolean isDirectory) {
+    if (isDirectory && path.getFileName().toString().equals(".git")) return true;
+    for (Directory directory = parent; directory != null; directory = directory.parent) {
+      for (int i = directory.rules.size() - 1; i >= 0; --i) {
+        final Rules rules = directory.rules.get(i);
+        final int match = rules.globs.lastMatch(path, isDirectory);
+        if (match >= 0) return !rules.negated[match];
+      }
+    }
+    return false;
+  }
+
+  private static List<Rules> load(final Path directory) {
+    final List<Rules> result = new ArrayList<>();
+    for (final String ignoreFile : IGNORE_FILES) {
+      final Path path = directory.resolve(ignoreFile);
+      if (Files.isRegularFile(path)) {
+        try {
+          result.add(parse(directory, new String(Files.readAllBytes(path), UTF_8)));
+        } catch (final IOException e) {
+          // The file was deleted or can't be read so treat it as empty.
+        }
+      }
+    }
+    return result;
+  }
+
+  private static Rules parse(final Path directory, final String content) {
+    final List<String> patterns = new ArrayList<>();
+    final List<Boolean> negatedList = new ArrayList<>();
+    for (final String rawLine : content.split("\r?\n")) {
+      String line = trimTrailingSpaces(rawLine);
+      if (line.isEmpty() || line.startsWith("#")) continue;
+      final boolean negate = line.startsWith("!");
+      if (negate) line = line.substring(1);
+      // Braces are not special in ignore files.
+      line = line.replace("{", "\\{").replace("}", "\\}");
+      final String trimmed = line.endsWith("/") ? line.substring(0, line.length() - 1) : line;
+      if (trimmed.isEmpty()) continue;
+      patterns.add(trimmed.indexOf('/') == -1 ? "**/" + line : line);
+      negatedList.add(negate);
+    }
+    final boolean[] negated = new boolean[negatedList.size()];
+    for (int i = 0; i < negated.length; ++i) negated[i] = negatedList.get(i);
+    return new Rules(
+        new GlobFilter(directory, patterns, Collections.<String>emptyList()), negated);
+  }
+
+  private static String trimTrailingSpaces(final String line) {
+    int end = line.length();
+    while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\')) {
+      end -= 1;
+    }
+    return line.substring(0, end);
+  }
+}
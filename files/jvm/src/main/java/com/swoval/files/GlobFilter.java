@@ -0,0 +1,702 @@
+package com.swoval.files;
+
+import com.swoval.functional.Filter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Matches paths relative to a base directory against a set of include and exclude globs. The
+ * globs are split into segments and compiled into a single non-deterministic automaton over path
+ * segments. The deterministic states are built lazily, the first time that a set of automaton
+ * positions is reached, and cache their transitions so that after warm up, evaluating a path is a
+ * walk over the characters of its (cached) string representation with one table lookup per
+ * segment. No objects are allocated for paths whose transitions are already cached.
+ *
+ * A transition for a segment that is equal to one of the literal segments of the patterns that
+ * are active in a state is found in a hash table that is keyed by the region of the path string
+ * so that the segment is never copied. Any other segment can only be matched by the wildcard
+ * segments of the state, so the transition is keyed by the bit mask of the wildcard segments
+ * that match it.
+ */
+final class GlobFilter implements Filter<TypedPath> {
+  private static final int LITERAL = 0;
+  private static final int GLOB = 1;
+  private static final int DOUBLE_STAR = 2;
+
+  private final String base;
+  private final int baseLength;
+  private final char separator;
+  private final boolean hasIncludes;
+  private final CompiledPattern[] patterns;
+  private final Map<Positions, State> states = new HashMap<>();
+  private final State start;
+
+  GlobFilter(final Path base, final Iterable<String> includes, final Iterable<String> excludes) {
+    final String baseString = base.toString();
+    this.separator = base.getFileSystem().getSeparator().charAt(0);
+    this.base = baseString;
+    this.baseLength =
+        baseString.isEmpty() || baseString.charAt(baseString.length() - 1) == separator
+            ? baseString.length()
+            : baseString.length() + 1;
+    final List<CompiledPattern> compiled = new ArrayList<>();
+    boolean foundInclude = false;
+    int source = 0;
+    final Iterator<String> includeIterator = includes.iterator();
+    while (includeIterator.hasNext()) {
+      final Iterator<String> it = expandBraces(includeIterator.next()).iterator();
+      while (it.hasNext()) {
+        final CompiledPattern pattern = CompiledPattern.compile(it.next(), false, source);
+        if (pattern != null) {
+          compiled.add(pattern);
+          foundInclude = true;
+        }
+      }
+      source += 1;
+    }
+    final Iterator<String> excludeIterator = excludes.iterator();
+    while (excludeIterator.hasNext()) {
+      final Iterator<String> it = expandBraces(excludeIterator.next()).iterator();
+      while (it.hasNext()) {
+        final CompiledPattern pattern = CompiledPattern.compile(it.next(), true, -1);
+        if (pattern != null) compiled.add(pattern);
+      }
+    }
+    this.hasIncludes = foundInclude;
+    this.patterns = compiled.toArray(new CompiledPattern[0]);
+    final int[] initial = new int[patterns.length];
+    for (int i = 0; i < initial.length; ++i) initial[i] = position(i, 0);
+    synchronized (states) {
+      this.start = state(initial);
+    }
+  }
+
+  /*
+   * Accepts the base directory and each of its descendants that is not inside of, or equal to, a
+   * path that matches an exclude pattern. If there are include patterns, a regular file must also
+   * match one of them and a directory must either match one of them or contain a path that could
+   * match one of them. Rejecting a directory therefore prunes its entire subtree. Paths that are
+   * not inside of the base directory are rejected.
+   */
+  @Override
+  public boolean accept(final TypedPath typedPath) {
+    final String path = typedPath.getPath().toString();
+    final int length = path.length();
+    if (!path.startsWith(base)) return false;
+    if (length == base.length()) return true;
+    if (length < baseLength || path.charAt(baseLength - 1) != separator) return false;
+    State state = start;
+    int segmentStart = baseLength;
+    while (segmentStart < length) {
+      int segmentEnd = path.indexOf(separator, segmentStart);
+      if (segmentEnd == -1) segmentEnd = length;
+      if (segmentEnd > segmentStart) {
+        state = state.next(path, segmentStart, segmentEnd);
+        if (segmentEnd < length && (state.exclude || state.excludeDirectory)) return false;
+        // None of the remaining segments can match a pattern once the automaton is dead.
+        if (state.positions.length == 0) break;
+      }
+      segmentStart = segmentEnd + 1;
+    }
+    final boolean isDirectory = typedPath.isDirectory();
+    if (state.exclude || (isDirectory && state.excludeDirectory)) return false;
+    if (!hasIncludes || state.include || (isDirectory && state.includeDirectory)) return true;
+    return isDirectory && state.includeAlive;
+  }
+
+  /*
+   * Returns the position, in the list of include globs that was provided to the constructor, of
+   * the last include glob that matches the entire path or -1 if none match. Exclude globs are not
+   * considered and neither are the parents of the path. Used to implement rule lists where the
+   * last matching rule wins, e.g. ignore files.
+   */
+  int lastMatch(final Path rawPath, final boolean isDirectory) {
+    final String path = rawPath.toString();
+    final int length = path.length();
+    if (!path.startsWith(base) || length < baseLength || path.charAt(baseLength - 1) != separator)
+      return -1;
+    State state = start;
+    int segmentStart = baseLength;
+    while (segmentStart < length && state.positions.length > 0) {
+      int segmentEnd = path.indexOf(separator, segmentStart);
+      if (segmentEnd == -1) segmentEnd = length;
+      if (segmentEnd > segmentStart) state = state.next(path, segmentStart, segmentEnd);
+      segmentStart = segmentEnd + 1;
+    }
+    return isDirectory
+        ? Math.max(state.lastInclude, state.lastIncludeDirectory)
+        : state.lastInclude;
+  }
+
+  @Override
+  public String toString() {
+    return "GlobFilter(" + base + ", " + Arrays.toString(patterns) + ")";
+  }
+
+  private static int position(final int pattern, final int segment) {
+    return (pattern << 16) | segment;
+  }
+
+  private static int patternIndex(final int position) {
+    return position >>> 16;
+  }
+
+  private static int segmentIndex(final int position) {
+    return position & 0xFFFF;
+  }
+
+  /*
+   * Returns the unique state for the closure of the positions. Must be called while holding the
+   * states lock.
+   */
+  private State state(final int[] rawPositions) {
+    final int[] buffer = new int[rawPositions.length * 2];
+    int size = 0;
+    for (final int position : rawPositions) {
+      int current = position;
+      buffer[size++] = current;
+      // A double star may match zero segments unless it ends the pattern, e.g. "foo/**" matches
+      // the children of foo but not foo itself.
+      while (true) {
+        final CompiledPattern pattern = patterns[patternIndex(current)];
+        final int segment = segmentIndex(current);
+        if (segment < pattern.kinds.length
+            && pattern.kinds[segment] == DOUBLE_STAR
+            && (segment == 0 || segment < pattern.kinds.length - 1)) {
+          current = current + 1;
+          if (size == buffer.length) break;
+          buffer[size++] = current;
+        } else {
+          break;
+        }
+      }
+    }
+    final int[] sorted = Arrays.copyOf(buffer, size);
+    Arrays.sort(sorted);
+    int unique = 0;
+    for (int i = 0; i < sorted.length; ++i) {
+      if (i == 0 || sorted[i] != sorted[i - 1]) sorted[unique++] = sorted[i];
+    }
+    final Positions key = new Positions(Arrays.copyOf(sorted, unique));
+    State result = states.get(key);
+    if (result == null) {
+      result = new State(key.positions);
+      states.put(key, result);
+    }
+    return result;
+  }
+
+  private final class State {
+    private final int[] positions;
+    private final boolean include;
+    private final boolean includeDirectory;
+    private final boolean includeAlive;
+    private final boolean exclude;
+    private final boolean excludeDirectory;
+    private final int lastInclude;
+    private final int lastIncludeDirectory;
+    private final String[] literals;
+    private final int[] literalTable;
+    private final State[] literalTransitions;
+    private final Glob[] globs;
+    private volatile MaskTransitions maskTransitions = MaskTransitions.EMPTY;
+
+    State(final int[] positions) {
+      this.positions = positions;
+      boolean include = false;
+      boolean includeDirectory = false;
+      boolean includeAlive = false;
+      boolean exclude = false;
+      boolean excludeDirectory = false;
+      int lastInclude = -1;
+      int lastIncludeDirectory = -1;
+      final List<String> literalList = new ArrayList<>();
+      final List<Glob> globList = new ArrayList<>();
+      for (final int position : positions) {
+        final CompiledPattern pattern = patterns[patternIndex(position)];
+        final int segment = segmentIndex(position);
+        if (segment == pattern.kinds.length) {
+          if (pattern.exclude) {
+            if (pattern.directoryOnly) excludeDirectory = true;
+            else exclude = true;
+          } else if (pattern.directoryOnly) {
+            includeDirectory = true;
+            lastIncludeDirectory = Math.max(lastIncludeDirectory, pattern.source);
+          } else {
+            include = true;
+            lastInclude = Math.max(lastInclude, pattern.source);
+          }
+        } else {
+          if (!pattern.exclude) includeAlive = true;
+          if (pattern.kinds[segment] == LITERAL) {
+            if (!literalList.contains(pattern.literals[segment])) {
+              literalList.add(pattern.literals[segment]);
+            }
+          } else if (pattern.kinds[segment] == GLOB) {
+            if (!globList.contains(pattern.globs[segment])) globList.add(pattern.globs[segment]);
+          }
+        }
+      }
+      this.include = include;
+      this.includeDirectory = includeDirectory;
+      this.includeAlive = includeAlive;
+      this.exclude = exclude;
+      this.excludeDirectory = excludeDirectory;
+      this.lastInclude = lastInclude;
+      this.lastIncludeDirectory = lastIncludeDirectory;
+      this.literals = literalList.toArray(new String[0]);
+      this.literalTransitions = new State[literals.length];
+      this.globs = globList.toArray(new Glob[0]);
+      this.literalTable = new int[Math.max(2, Integer.highestOneBit(literals.length * 2) * 2)];
+      Arrays.fill(literalTable, -1);
+      for (int i = 0; i < literals.length; ++i) {
+        int slot = hash(literals[i], 0, literals[i].length()) & (literalTable.length - 1);
+        while (literalTable[slot] != -1) slot = (slot + 1) & (literalTable.length - 1);
+        literalTable[slot] = i;
+      }
+    }
+
+    State next(final String path, final int start, final int end) {
+      if (positions.length == 0) return this;
+      final int literal = literalIndex(path, start, end);
+      if (literal >= 0) {
+        final State cached = literalTransitions[literal];
+        if (cached != null) return cached;
+        synchronized (states) {
+          if (literalTransitions[literal] == null) {
+            literalTransitions[literal] =
+                globs.length > 64
+                    ? transition(literal, path, start, end)
+                    : transition(literal, mask(path, start, end));
+          }
+          return literalTransitions[literal];
+        }
+      } else if (globs.length > 64) {
+        synchronized (states) {
+          return transition(-1, path, start, end);
+        }
+      } else {
+        final long mask = mask(path, start, end);
+        final State cached = maskTransitions.get(mask);
+        if (cached != null) return cached;
+        synchronized (states) {
+          State result = maskTransitions.get(mask);
+          if (result == null) {
+            result = transition(-1, mask);
+            maskTransitions = maskTransitions.with(mask, result);
+          }
+          return result;
+        }
+      }
+    }
+
+    private long mask(final String path, final int start, final int end) {
+      long result = 0;
+      for (int i = 0; i < globs.length && i < 64; ++i) {
+        if (globs[i].matches(path, start, end)) result |= 1L << i;
+      }
+      return result;
+    }
+
+    private State transition(final int literal, final long mask) {
+      final int[] next = new int[positions.length * 2];
+      int size = 0;
+      for (final int position : positions) {
+        final CompiledPattern pattern = patterns[patternIndex(position)];
+        final int segment = segmentIndex(position);
+        if (segment < pattern.kinds.length) {
+          switch (pattern.kinds[segment]) {
+            case DOUBLE_STAR:
+              next[size++] = position;
+              if (segment == pattern.kinds.length - 1) next[size++] = position + 1;
+              break;
+            case LITERAL:
+              if (literal >= 0 && literals[literal].equals(pattern.literals[segment])) {
+                next[size++] = position + 1;
+              }
+              break;
+            default:
+              final int glob = Arrays.asList(globs).indexOf(pattern.globs[segment]);
+              if ((mask & (1L << glob)) != 0) next[size++] = position + 1;
+          }
+        }
+      }
+      return state(Arrays.copyOf(next, size));
+    }
+
+    private State transition(
+        final int literal, final String path, final int start, final int end) {
+      final int[] next = new int[positions.length * 2];
+      int size = 0;
+      for (final int position : positions) {
+        final CompiledPattern pattern = patterns[patternIndex(position)];
+        final int segment = segmentIndex(position);
+        if (segment < pattern.kinds.length) {
+          switch (pattern.kinds[segment]) {
+            case DOUBLE_STAR:
+              next[size++] = position;
+              if (segment == pattern.kinds.length - 1) next[size++] = position + 1;
+              break;
+            case LITERAL:
+              if (literal >= 0 && literals[literal].equals(pattern.literals[segment])) {
+                next[size++] = position + 1;
+              }
+              break;
+            default:
+              if (pattern.globs[segment].matches(path, start, end)) next[size++] = position + 1;
+          }
+        }
+      }
+      return state(Arrays.copyOf(next, size));
+    }
+
+    private int literalIndex(final String path, final int start, final int end) {
+      if (literals.length == 0) return -1;
+      final int length = end - start;
+      int slot = hash(path, start, end) & (literalTable.length - 1);
+      while (literalTable[slot] != -1) {
+        final String literal = literals[literalTable[slot]];
+        if (literal.length() == length && path.regionMatches(start, literal, 0, length)) {
+          return literalTable[slot];
+        }
+        slot = (slot + 1) & (literalTable.length - 1);
+      }
+      return -1;
+    }
+  }
+
+  private static int hash(final String string, final int start, final int end) {
+    int result = 0;
+    for (int i = start; i < end; ++i) result = 31 * result + string.charAt(i);
+    return result ^ (result >>> 16);
+  }
+
+  /*
+   * An immutable map from the wildcard match mask to the next state. It is replaced with a copy
+   * whenever a new mask is seen, which only happens a bounded number of times per state.
+   */
+  private static final class MaskTransitions {
+    static final MaskTransitions EMPTY = new MaskTransitions(new long[0], new Object[0]);
+    private final long[] masks;
+    private final Object[] states;
+
+    MaskTransitions(final long[] masks, final Object[] states) {
+      this.masks = masks;
+      this.states = states;
+    }
+
+    @SuppressWarnings("unchecked")
+    <S> S get(final long mask) {
+      for (int i = 0; i < masks.length; ++i) {
+        if (masks[i] == mask) return (S) states[i];
+      }
+      return null;
+    }
+
+    MaskTransitions with(final long mask, final Object state) {
+      final long[] newMasks = Arrays.copyOf(masks, masks.length + 1);
+      final Object[] newStates = Arrays.copyOf(states, states.length + 1);
+      newMasks[masks.length] = mask;
+      newStates[states.length] = state;
+      return new MaskTransitions(newMasks, newStates);
+    }
+  }
+
+  private static final class Positions {
+    private final int[] positions;
+    private final int hashCode;
+
+    Positions(final int[] positions) {
+      this.positions = positions;
+      this.hashCode = Arrays.hashCode(positions);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Positions && Arrays.equals(((Positions) other).positions, positions);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static final class CompiledPattern {
+    private final String pattern;
+    private final boolean exclude;
+    private final boolean directoryOnly;
+    private final int source;
+    private final int[] kinds;
+    private final String[] literals;
+    private final Glob[] globs;
+
+    private CompiledPattern(
+        final String pattern,
+        final boolean exclude,
+        final boolean directoryOnly,
+        final int source,
+        final int[] kinds,
+        final String[] literals,
+        final Glob[] globs) {
+      this.pattern = pattern;
+      this.exclude = exclude;
+      this.directoryOnly = directoryOnly;
+      this.source = source;
+      this.kinds = kinds;
+      this.literals = literals;
+      this.globs = globs;
+    }
+
+    /*
+     * Splits the pattern into segments. A leading slash is ignored since patterns are always
+     * relative to the base directory and a trailing slash restricts the pattern to directories.
+     * Returns null for a pattern with no segments.
+     */
+    static CompiledPattern compile(final String pattern, final boolean exclude, final int source) {
+      String trimmed = pattern;
+      while (trimmed.startsWith("/")) trimmed = trimmed.substring(1);
+      final boolean directoryOnly = trimmed.endsWith("/");
+      final List<String> segments = new ArrayList<>();
+      final Iterator<String> it = Arrays.asList(trimmed.split("/")).iterator();
+      while (it.hasNext()) {
+        final String segment = it.next();
+        if (segment.isEmpty() || segment.equals(".")) continue;
+        if (segment.equals("**")
+            && !segments.isEmpty()
+            && segments.get(segments.size() - 1).equals("**")) continue;
+        segments.add(segment);
+      }
+      if (segments.isEmpty()) return null;
+      final int size = segments.size();
+      final int[] kinds = new int[size];
+      final String[] literals = new String[size];
+      final Glob[] globs = new Glob[size];
+      for (int i = 0; i < size; ++i) {
+        final String segment = segments.get(i);
+        if (segment.equals("**")) {
+          kinds[i] = DOUBLE_STAR;
+        } else if (Glob.isLiteral(segment)) {
+          kinds[i] = LITERAL;
+          literals[i] = Glob.unescape(segment);
+        } else {
+          kinds[i] = GLOB;
+          globs[i] = new Glob(segment);
+        }
+      }
+      return new CompiledPattern(
+          pattern, exclude, directoryOnly, source, kinds, literals, globs);
+    }
+
+    @Override
+    public String toString() {
+      return (exclude ? "!" : "") + pattern;
+    }
+  }
+
+  /*
+   * A glob for a single path segment. Supports '*', '?', character classes, e.g. "[a-z]" or
+   * "[!0-9]", and backslash escapes.
+   */
+  private static final class Glob {
+    private static final int CHAR = 0;
+    private static final int ANY = 1;
+    private static final int STAR = 2;
+    private static final int CLASS = 3;
+    private final String glob;
+    private final int[] tokens;
+    private final char[] chars;
+    private final char[][] classes;
+    private final boolean[] negated;
+
+    Glob(final String glob) {
+      this.glob = glob;
+      final List<Integer> tokenList = new ArrayList<>();
+      final StringBuilder charList = new StringBuilder();
+      final List<char[]> classList = new ArrayList<>();
+      final List<Boolean> negatedList = new ArrayList<>();
+      int i = 0;
+      while (i < glob.length()) {
+        final char c = glob.charAt(i);
+        if (c == '\\' && i + 1 < glob.length()) {
+          tokenList.add(CHAR);
+          charList.append(glob.charAt(i + 1));
+          i += 2;
+        } else if (c == '*') {
+          if (tokenList.isEmpty() || tokenList.get(tokenList.size() - 1) != STAR) {
+            tokenList.add(STAR);
+            charList.append(c);
+          }
+          i += 1;
+        } else if (c == '?') {
+          tokenList.add(ANY);
+          charList.append(c);
+          i += 1;
+        } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+          int j = i + 1;
+          final boolean negate = glob.charAt(j) == '!' || glob.charAt(j) == '^';
+          if (negate) j += 1;
+          final StringBuilder ranges = new StringBuilder();
+          boolean first = true;
+          while (j < glob.length() && (first || glob.charAt(j) != ']')) {
+            final char low = glob.charAt(j);
+            if (j + 2 < glob.length() && glob.charAt(j + 1) == '-' && glob.charAt(j + 2) != ']') {
+              ranges.append(low).append(glob.charAt(j + 2));
+              j += 3;
+            } else {
+              ranges.append(low).append(low);
+              j += 1;
+            }
+            first = false;
+          }
+          tokenList.add(CLASS);
+          charList.append((char) classList.size());
+          classList.add(ranges.toString().toCharArray());
+          negatedList.add(negate);
+          i = j + 1;
+        } else {
+          tokenList.add(CHAR);
+          charList.append(c);
+          i += 1;
+        }
+      }
+      this.tokens = new int[tokenList.size()];
+      for (int k = 0; k < tokens.length; ++k) tokens[k] = tokenList.get(k);
+      this.chars = charList.toString().toCharArray();
+      this.classes = classList.toArray(new char[0][]);
+      this.negated = new boolean[negatedList.size()];
+      for (int k = 0; k < negated.length; ++k) negated[k] = negatedList.get(k);
+    }
+
+    static boolean isLiteral(final String segment) {
+      for (int i = 0; i < segment.length(); ++i) {
+        final char c = segment.charAt(i);
+        if (c == '*' || c == '?' || c == '[') return false;
+      }
+      return true;
+    }
+
+    static String unescape(final String segment) {
+      if (segment.indexOf('\\') == -1) return segment;
+      final StringBuilder builder = new StringBuilder();
+      for (int i = 0; i < segment.length(); ++i) {
+        final char c = segment.charAt(i);
+        if (c == '\\' && i + 1 < segment.length()) {
+          builder.append(segment.charAt(i + 1));
+          i += 1;
+        } else {
+          builder.append(c);
+        }
+      }
+      return builder.toString();
+    }
+
+    private boolean matchesOne(final int token, final char c) {
+      switch (tokens[token]) {
+        case ANY:
+          return true;
+        case CHAR:
+          return chars[token] == c;
+        default:
+          final char[] ranges = classes[chars[token]];
+          boolean found = false;
+          for (int i = 0; i < ranges.length && !found; i += 2) {
+            found = c >= ranges[i] && c <= ranges[i + 1];
+          }
+          return found != negated[chars[token]];
+      }
+    }
+
+    /*
+     * Matches the region of the string using the standard backtracking algorithm for globs with a
+     * single wildcard type, which only needs to remember the position of the last star.
+     */
+    boolean matches(final String string, final int start, final int end) {
+      int token = 0;
+      int index = start;
+      int starToken = -1;
+      int starIndex = -1;
+      while (index < end) {
+        if (token < tokens.length && tokens[token] == STAR) {
+          starToken = token++;
+          starIndex = index;
+        } else if (token < tokens.length && matchesOne(token, string.charAt(index))) {
+          token += 1;
+          index += 1;
+        } else if (starToken >= 0) {
+          token = starToken + 1;
+          index = ++starIndex;
+        } else {
+          return false;
+        }
+      }
+      while (token < tokens.length && tokens[token] == STAR) token += 1;
+      return token == tokens.length;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Glob && ((Glob) other).glob.equals(glob);
+    }
+
+    @Override
+    public int hashCode() {
+      return glob.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return glob;
+    }
+  }
+
+  /*
+   * Expands the brace alternatives in a pattern, e.g. "src/{main,test}/**" expands to
+   * "src/main/**" and "src/test/**".
+   */
+  static List<String> expandBraces(final String pattern) {
+    final List<String> result = new ArrayList<>();
+    int open = -1;
+    for (int i = 0; i < pattern.length() && open == -1; ++i) {
+      final char c = pattern.charAt(i);
+      if (c == '\\') i += 1;
+      else if (c == '{') open = i;
+    }
+    int close = -1;
+    final List<String> alternatives = new ArrayList<>();
+    if (open >= 0) {
+      int depth = 0;
+      int alternativeStart = open + 1;
+      for (int i = open + 1; i < pattern.length() && close == -1; ++i) {
+        final char c = pattern.charAt(i);
+        if (c == '\\') {
+          i += 1;
+        } else if (c == '{') {
+          depth += 1;
+        } else if (c == '}' && depth > 0) {
+          depth -= 1;
+        } else if (c == '}') {
+          alternatives.add(pattern.substring(alternativeStart, i));
+          close = i;
+        } else if (c == ',' && depth == 0) {
+          alternatives.add(pattern.substring(alternativeStart, i));
+          alternativeStart = i + 1;
+        }
+      }
+    }
+    if (close == -1) {
+      result.add(pattern);
+    } else {
+      final String prefix = pattern.substring(0, open);
+      final String suffix = pattern.substring(close + 1);
+      final Iterator<String> it = alternatives.iterator();
+      while (it.hasNext()) result.addAll(expandBraces(prefix + it.next() + suffix));
+    }
+    return result;
+  }
+}
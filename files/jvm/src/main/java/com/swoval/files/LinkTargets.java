@@ -0,0 +1,333 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.MoveObserver;
+import com.swoval.files.FileTreeViews.Updates;
+import com.swoval.functional.Filter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * The canonical cached subtrees of the targets of the symbolic links in a cache. When many links
+ * point to the same directory, each of them would otherwise be cached as a separate copy of the
+ * target directory, with the converter evaluated for every file once per link. Instead, the
+ * directory of each link is a view of a single subtree that is cached at the real path of the
+ * target, and the entries of the target are reported with the path of the link when a view is
+ * listed. The values are therefore computed from the paths in the target directory.
+ *
+ * The changes to a target are applied to its canonical subtree once and then reported at the path
+ * of each link to it. A link may itself be in the canonical subtree of another target, in which
+ * case the changes are reported at the path of each link to that target in turn. A subtree is kept
+ * as long as a view of it can still be reached from the registered directories. All of the methods
+ * are synchronized.
+ */
+final class LinkTargets<T> {
+  private static final int MAX_NESTING = 64;
+  private final Converter<T> converter;
+  private final Filter<? super TypedPath> filter;
+  private final boolean trackFileKeys;
+  private final RealPaths realPaths;
+  private final List<Target<T>> targets = new ArrayList<>();
+
+  LinkTargets(
+      final Converter<T> converter,
+      final Filter<? super TypedPath> filter,
+      final boolean trackFileKeys,
+      final RealPaths realPaths) {
+    this.converter = converter;
+    this.filter = filter;
+    this.trackFileKeys = trackFileKeys;
+    this.realPaths = realPaths;
+  }
+
+  /*
+   * Returns the canonical subtree of the target for a view at the link path, creating it if
+   * necessary. Returns null if the target can't be listed or if the view would complete a cycle of
+   * links, in which case the link has to be cached as a regular directory.
+   */
+  synchronized CachedDirectoryImpl<T> acquire(final Path link, final Path target, final int depth) {
+    Target<T> result = null;
+    final Iterator<Target<T>> it = targets.iterator();
+    while (it.hasNext() && result == null) {
+      final Target<T> candidate = it.next();
+      if (candidate.directory.getPath().equals(target) && candidate.depth == depth) {
+        result = candidate;
+      }
+    }
+    if (result == null) {
+      result =
+          new Target<>(
+              new CachedDirectoryImpl<>(
+                  TypedPaths.get(target),
+                  converter,
+                  depth,
+                  filter,
+                  true,
+                  FileTreeViews.getDefault(true),
+                  trackFileKeys,
+                  realPaths,
+                  this),
+              depth);
+      targets.add(result);
+      result.links.add(link);
+      try {
+        result.directory.init();
+      } catch (final IOException e) {
+        targets.remove(result);
+        return null;
+      }
+      return result.directory;
+    } else if (reaches(result, link, new HashSet<Target<T>>())) {
+      return null;
+    } else {
+      result.links.add(link);
+      return result.directory;
+    }
+  }
+
+  /*
+   * Adds a link to a canonical subtree that was already acquired for a different link, e.g. when
+   * the view of the other link is moved.
+   */
+  synchronized void link(final Path link, final CachedDirectoryImpl<T> directory) {
+    final Iterator<Target<T>> it = targets.iterator();
+    while (it.hasNext()) {
+      final Target<T> target = it.next();
+      if (target.directory == directory) target.links.add(link);
+    }
+  }
+
+  /*
+   * Applies the change to a path in the targets to every canonical subtree that contains it and
+   * reports the changes at the paths of the links that are in the registered directories. If the
+   * path is a target that was deleted, each link to it is updated instead, which removes the views
+   * of the target. Returns false if there is no canonical subtree that contains the path, in which
+   * case the change has to be handled at each of the link paths.
+   */
+  synchronized boolean update(
+      final TypedPath typedPath,
+      final boolean rescan,
+      final Collection<? extends CachedDirectory<T>> roots,
+      final MoveObserver<T> observer) {
+    final Path path = typedPath.getPath();
+    boolean handled = false;
+    final Iterator<Target<T>> it = new ArrayList<>(targets).iterator();
+    while (it.hasNext()) {
+      final Target<T> target = it.next();
+      final Path root = target.directory.getPath();
+      if (path.equals(root) && !typedPath.exists()) {
+        handled = true;
+        final Iterator<Path> links = new ArrayList<>(target.links).iterator();
+        while (links.hasNext()) {
+          final Path link = links.next();
+          final TypedPath linkTypedPath = TypedPaths.get(link);
+          final Iterator<? extends CachedDirectory<T>> rootIterator = roots.iterator();
+          while (rootIterator.hasNext()) {
+            final CachedDirectory<T> dir = rootIterator.next();
+            if (isView(link, target, dir)) update(dir, linkTypedPath, rescan).observe(observer);
+          }
+          final Iterator<Target<T>> owners = new ArrayList<>(targets).iterator();
+          while (owners.hasNext()) {
+            final Target<T> owner = owners.next();
+            if (isView(link, target, owner.directory)) {
+              fanOut(owner, update(owner.directory, linkTypedPath, rescan), roots, observer, 0);
+            }
+          }
+        }
+      } else if (path.startsWith(root)) {
+        handled = true;
+        fanOut(target, update(target.directory, typedPath, rescan), roots, observer, 0);
+      }
+    }
+    return handled;
+  }
+
+  /*
+   * Drops the canonical subtrees that no longer have a view that can be reached from the
+   * registered directories and the links whose views have been removed.
+   */
+  synchronized void retain(final Collection<? extends CachedDirectory<T>> roots) {
+    final Set<Target<T>> live = new HashSet<>();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      final Iterator<Target<T>> it = targets.iterator();
+      while (it.hasNext()) {
+        final Target<T> target = it.next();
+        if (!live.contains(target)) {
+          final Iterator<Path> links = target.links.iterator();
+          while (links.hasNext()) {
+            if (isView(links.next(), target, roots, live)) {
+              live.add(target);
+              changed = true;
+              break;
+            }
+          }
+        }
+      }
+    }
+    final Iterator<Target<T>> it = targets.iterator();
+    while (it.hasNext()) {
+      final Target<T> target = it.next();
+      if (live.contains(target)) {
+        final Iterator<Path> links = target.links.iterator();
+        while (links.hasNext()) {
+          if (!isView(links.next(), target, roots, live)) links.remove();
+        }
+      } else {
+        it.remove();
+        target.directory.close();
+      }
+    }
+  }
+
+  synchronized int size() {
+    return targets.size();
+  }
+
+  synchronized void clear() {
+    final Iterator<Target<T>> it = targets.iterator();
+    while (it.hasNext()) it.next().directory.close();
+    targets.clear();
+  }
+
+  static <T> Entry<T> rebase(final Entry<T> entry, final Path from, final Path to) {
+    final Path path = entry.getTypedPath().getPath();
+    return path.startsWith(from) ? Entries.alias(entry, to.resolve(from.relativize(path))) : entry;
+  }
+
+  static <T> Updates<T> rebase(final Updates<T> updates, final Path from, final Path to) {
+    final Updates<T> result = new Updates<>();
+    updates.observe(
+        new MoveObserver<T>() {
+          @Override
+          public void onCreate(final Entry<T> newEntry) {
+            result.onCreate(rebase(newEntry, from, to));
+          }
+
+          @Override
+          public void onDelete(final Entry<T> oldEntry) {
+            result.onDelete(rebase(oldEntry, from, to));
+          }
+
+          @Override
+          public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+            result.onUpdate(rebase(oldEntry, from, to), rebase(newEntry, from, to));
+          }
+
+          @Override
+          public void onMove(final Entry<T> oldEntry, final Entry<T> newEntry) {
+            result.onMove(rebase(oldEntry, from, to), rebase(newEntry, from, to));
+          }
+
+          @Override
+          public void onError(final IOException exception) {}
+        });
+    return result;
+  }
+
+  private static <T> Updates<T> update(
+      final CachedDirectory<T> directory, final TypedPath typedPath, final boolean rescan) {
+    try {
+      return directory.update(typedPath, rescan);
+    } catch (final IOException e) {
+      final Updates<T> result = new Updates<>();
+      final Iterator<Entry<T>> removed = directory.remove(typedPath.getPath()).iterator();
+      while (removed.hasNext()) result.onDelete(removed.next());
+      return result;
+    }
+  }
+
+  private void fanOut(
+      final Target<T> target,
+      final Updates<T> updates,
+      final Collection<? extends CachedDirectory<T>> roots,
+      final MoveObserver<T> observer,
+      final int nesting) {
+    if (nesting > MAX_NESTING) return;
+    final Path from = target.directory.getPath();
+    final Iterator<Path> links = new ArrayList<>(target.links).iterator();
+    while (links.hasNext()) {
+      final Path link = links.next();
+      final Updates<T> rebased = rebase(updates, from, link);
+      if (isView(link, target, roots)) rebased.observe(observer);
+      final Iterator<Target<T>> it = new ArrayList<>(targets).iterator();
+      while (it.hasNext()) {
+        final Target<T> owner = it.next();
+        if (isView(link, target, owner.directory)) {
+          fanOut(owner, rebased, roots, observer, nesting + 1);
+        }
+      }
+    }
+  }
+
+  /*
+   * Returns true if the link is in the canonical subtree of the target or in the canonical subtree
+   * of a target that has a link in it, etc.
+   */
+  private boolean reaches(final Target<T> target, final Path link, final Set<Target<T>> visited) {
+    if (!visited.add(target)) return false;
+    final Path root = target.directory.getPath();
+    if (link.startsWith(root)) return true;
+    final Iterator<Target<T>> it = targets.iterator();
+    while (it.hasNext()) {
+      final Target<T> other = it.next();
+      final Iterator<Path> links = other.links.iterator();
+      while (links.hasNext()) {
+        if (links.next().startsWith(root) && reaches(other, link, visited)) return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean isView(
+      final Path link,
+      final Target<T> target,
+      final Collection<? extends CachedDirectory<T>> roots,
+      final Set<Target<T>> owners) {
+    if (isView(link, target, roots)) return true;
+    final Iterator<Target<T>> it = owners.iterator();
+    while (it.hasNext()) {
+      if (isView(link, target, it.next().directory)) return true;
+    }
+    return false;
+  }
+
+  private boolean isView(
+      final Path link,
+      final Target<T> target,
+      final Collection<? extends CachedDirectory<T>> roots) {
+    final Iterator<? extends CachedDirectory<T>> it = roots.iterator();
+    while (it.hasNext()) {
+      if (isView(link, target, it.next())) return true;
+    }
+    return false;
+  }
+
+  /*
+   * Returns true if the directory contains a view of the target at the link path.
+   */
+  @SuppressWarnings("unchecked")
+  private boolean isView(final Path link, final Target<T> target, final CachedDirectory<T> dir) {
+    return dir instanceof CachedDirectoryImpl<?>
+        && ((CachedDirectoryImpl<T>) dir).canonicalAt(link) == target.directory;
+  }
+
+  private static final class Target<T> {
+    private final CachedDirectoryImpl<T> directory;
+    private final int depth;
+    private final Set<Path> links = new HashSet<>();
+
+    Target(final CachedDirectoryImpl<T> directory, final int depth) {
+      this.directory = directory;
+      this.depth = depth;
+    }
+  }
+}
@@ -0,0 +1,563 @@
+package com.swoval.files;
+
+import com.swoval.concurrent.ThreadFactory;
+import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.Snapshot;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A read only view of the contents of a {@link FileTreeRepository} that another process published
+ * to a memory mapped file with {@link MappedIndex#publish(FileTreeRepository, Path, long)}. Looking
+ * up a path, or listing a directory, reads the mapped file directly, so a process that only needs
+ * to know which files exist, and their sizes and last modified times, does not need a connection
+ * to the process that owns the cache. See {@link CacheDaemon} for a process that also needs to be
+ * notified of changes.
+ *
+ * <p>The file consists of a header followed by the records sorted by the utf-8 bytes of their
+ * paths and preceded by a table of their offsets. A lookup is a binary search of the table and
+ * the descendants of a directory are a contiguous range of the records. The publisher rewrites the
+ * records when the repository changes, at most once per delay, and it increments a sequence number
+ * in the header before and after each rewrite. A reader retries a lookup if the sequence number
+ * was odd, i.e. a rewrite was in progress, or if it changed during the lookup. Java 7 provides no
+ * memory fences for mapped buffers, so the publisher and the readers separate the accesses to the
+ * sequence number from the accesses to the records with a write followed by a read of a volatile
+ * field, which the jvm implements with a full fence. A reader also treats any offset that is out
+ * of bounds as an interrupted rewrite and retries. The header starts with a magic number and a
+ * format version, which are checked before an existing file is read or rewritten.
+ */
+public final class MappedIndex implements AutoCloseable {
+  private static final int MAGIC = 0x5357564c;
+  private static final int VERSION = 1;
+  private static final int SEQUENCE = 8;
+  private static final int COUNT = 16;
+  private static final int LENGTH = 20;
+  private static final int HEADER = 24;
+  // The length of the path and the kind, size and last modified time that follow it.
+  private static final int RECORD = 2 + 1 + 8 + 8;
+  private static final Comparator<byte[]> UNSIGNED =
+      new Comparator<byte[]>() {
+        @Override
+        public int compare(final byte[] left, final byte[] right) {
+          final int length = Math.min(left.length, right.length);
+          for (int i = 0; i < length; ++i) {
+            final int result = (left[i] & 0xff) - (right[i] & 0xff);
+            if (result != 0) return result;
+          }
+          return left.length - right.length;
+        }
+      };
+  private static volatile int fence = 0;
+
+  private final FileChannel channel;
+  private MappedByteBuffer buffer;
+
+  private MappedIndex(final FileChannel channel, final MappedByteBuffer buffer) {
+    this.channel = channel;
+    this.buffer = buffer;
+  }
+
+  /**
+   * Publishes the contents of a repository to a file. The file is written before this method
+   * returns and then rewritten whenever the repository changes, until the returned publication is
+   * closed. The file is not deleted when it is closed since other processes may still be reading
+   * it.
+   *
+   * @param repository the repository to publish
+   * @param file the file to write. It is created if it does not exist.
+   * @param delayMillis the time to wait after a change before the file is rewritten. Changes that
+   *     occur in the meantime are written together.
+   * @param <T> the value type of the cache entries
+   * @return the publication, which stops rewriting the file when it is closed.
+   * @throws IOException if the file can't be written.
+   */
+  public static <T> AutoCloseable publish(
+      final FileTreeRepository<T> repository, final Path file, final long delayMillis)
+      throws IOException {
+    final Writer<T> writer = new Writer<>(repository, file, delayMillis);
+    try {
+      writer.handle = repository.addCacheObserver(writer);
+      writer.flush();
+    } catch (final IOException e) {
+      writer.close();
+      throw e;
+    }
+    return writer;
+  }
+
+  /**
+   * Opens a file that was written by {@link MappedIndex#publish(FileTreeRepository, Path, long)}.
+   *
+   * @param file the published file
+   * @return the index.
+   * @throws IOException if the file can't be read or was not written by a publisher.
+   */
+  public static MappedIndex open(final Path file) throws IOException {
+    final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (!isIndex(buffer)) throw new IOException(file + " is not a published index");
+      return new MappedIndex(channel, buffer);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the number of times that the publisher has written the file.
+   *
+   * @return the version.
+   */
+  public synchronized long getVersion() {
+    while (true) {
+      final long sequence = buffer.getLong(SEQUENCE);
+      if ((sequence & 1) == 0) return sequence / 2;
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Returns the record for a path.
+   *
+   * @param path the path to look up
+   * @return the record or null if the path is not in the index.
+   * @throws IOException if the file grew and can't be mapped again.
+   */
+  public synchronized Record get(final Path path) throws IOException {
+    final byte[] key = bytes(path);
+    while (true) {
+      final long sequence = begin();
+      try {
+        final int index = search(key);
+        final Record result =
+            index < buffer.getInt(COUNT) && compare(key, index) == 0 ? record(index) : null;
+        fence();
+        if (buffer.getLong(SEQUENCE) == sequence) return result;
+      } catch (final IndexOutOfBoundsException | IllegalArgumentException e) {
+        // The records were rewritten while they were read.
+      }
+    }
+  }
+
+  /**
+   * Lists the records for the descendants of a directory.
+   *
+   * @param path the directory to list
+   * @param maxDepth the maximum depth of subdirectories to list. If it is <code>-1</code>, the
+   *     result only contains the record for the path itself.
+   * @return the records, in the order of the utf-8 bytes of their paths.
+   * @throws IOException if the file grew and can't be mapped again.
+   */
+  public synchronized List<Record> list(final Path path, final int maxDepth) throws IOException {
+    if (maxDepth < 0) {
+      final List<Record> result = new ArrayList<>();
+      final Record record = get(path);
+      if (record != null) result.add(record);
+      return result;
+    }
+    final byte[] separator = path.getFileSystem().getSeparator().getBytes(StandardCharsets.UTF_8);
+    final byte[] name = bytes(path);
+    final byte[] prefix;
+    if (endsWith(name, separator)) {
+      prefix = name;
+    } else {
+      prefix = new byte[name.length + separator.length];
+      System.arraycopy(name, 0, prefix, 0, name.length);
+      System.arraycopy(separator, 0, prefix, name.length, separator.length);
+    }
+    while (true) {
+      final long sequence = begin();
+      try {
+        final List<Record> result = new ArrayList<>();
+        final int count = buffer.getInt(COUNT);
+        for (int i = search(prefix); i < count && startsWith(i, prefix); ++i) {
+          if (depth(i, prefix.length, separator) <= maxDepth) result.add(record(i));
+        }
+        fence();
+        if (buffer.getLong(SEQUENCE) == sequence) return result;
+      } catch (final IndexOutOfBoundsException | IllegalArgumentException e) {
+        // The records were rewritten while they were read.
+      }
+    }
+  }
+
+  /** Unmaps the file. */
+  @Override
+  public synchronized void close() {
+    try {
+      channel.close();
+    } catch (final IOException e) {
+      // The index is closing anyway.
+    }
+  }
+
+  /*
+   * Waits until no rewrite is in progress and maps the file again if the publisher grew it.
+   */
+  private long begin() throws IOException {
+    while (true) {
+      final long sequence = buffer.getLong(SEQUENCE);
+      fence();
+      if ((sequence & 1) == 0) {
+        final long size = HEADER + (long) buffer.getInt(LENGTH);
+        if (size <= buffer.capacity()) return sequence;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } else {
+        Thread.yield();
+      }
+    }
+  }
+
+  /*
+   * Returns the index of the first record that is not less than the key.
+   */
+  private int search(final byte[] key) {
+    int low = 0;
+    int high = buffer.getInt(COUNT);
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (compare(key, mid) > 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private int offset(final int index) {
+    return HEADER + buffer.getInt(HEADER + 4 * index);
+  }
+
+  private int compare(final byte[] key, final int index) {
+    final int offset = offset(index);
+    final int length = buffer.getShort(offset) & 0xffff;
+    final int common = Math.min(key.length, length);
+    for (int i = 0; i < common; ++i) {
+      final int result = (key[i] & 0xff) - (buffer.get(offset + 2 + i) & 0xff);
+      if (result != 0) return result;
+    }
+    return key.length - length;
+  }
+
+  private boolean startsWith(final int index, final byte[] prefix) {
+    final int offset = offset(index);
+    if ((buffer.getShort(offset) & 0xffff) < prefix.length) return false;
+    for (int i = 0; i < prefix.length; ++i) {
+      if (buffer.get(offset + 2 + i) != prefix[i]) return false;
+    }
+    return true;
+  }
+
+  private int depth(final int index, final int start, final byte[] separator) {
+    final int offset = offset(index);
+    final int length = buffer.getShort(offset) & 0xffff;
+    int depth = 0;
+    for (int i = start; i + separator.length <= length; ++i) {
+      boolean matches = true;
+      for (int j = 0; j < separator.length && matches; ++j) {
+        matches = buffer.get(offset + 2 + i + j) == separator[j];
+      }
+      if (matches) depth += 1;
+    }
+    return depth;
+  }
+
+  private Record record(final int index) {
+    final int offset = offset(index);
+    final int length = buffer.getShort(offset) & 0xffff;
+    final byte[] bytes = new byte[length];
+    for (int i = 0; i < length; ++i) bytes[i] = buffer.get(offset + 2 + i);
+    final Path path = Paths.get(new String(bytes, StandardCharsets.UTF_8));
+    return new Record(
+        TypedPaths.get(path, buffer.get(offset + 2 + length)),
+        buffer.getLong(offset + 3 + length),
+        buffer.getLong(offset + 11 + length));
+  }
+
+  /*
+   * Prevents the accesses to the mapped buffers before the call from being reordered with the
+   * accesses after it, by either the compiler or the processor. A volatile write can't be moved
+   * before the accesses that precede it and a volatile read can't be moved after the accesses that
+   * follow it, and the jvm emits a full fence between the two.
+   */
+  private static int fence() {
+    fence = 0;
+    return fence;
+  }
+
+  private static boolean isIndex(final MappedByteBuffer buffer) {
+    return buffer.capacity() >= HEADER && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION;
+  }
+
+  private static byte[] bytes(final Path path) {
+    return path.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static boolean endsWith(final byte[] bytes, final byte[] suffix) {
+    if (bytes.length < suffix.length) return false;
+    for (int i = 0; i < suffix.length; ++i) {
+      if (bytes[bytes.length - suffix.length + i] != suffix[i]) return false;
+    }
+    return true;
+  }
+
+  /** A path in a {@link MappedIndex} along with its size and last modified time. */
+  public static final class Record {
+    private final TypedPath typedPath;
+    private final long size;
+    private final long lastModified;
+
+    Record(final TypedPath typedPath, final long size, final long lastModified) {
+      this.typedPath = typedPath;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns the path and its type at the time that the record was written.
+     *
+     * @return the typed path.
+     */
+    public TypedPath getTypedPath() {
+      return typedPath;
+    }
+
+    /**
+     * Returns the size of the file in bytes at the time that the record was written.
+     *
+     * @return the size.
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * Returns the last modified time of the file, in milliseconds since the epoch, at the time that
+     * the record was written.
+     *
+     * @return the last modified time.
+     */
+    public long getLastModified() {
+      return lastModified;
+    }
+
+    @Override
+    public String toString() {
+      return "Record("
+          + typedPath.getPath()
+          + ", size: "
+          + size
+          + ", lastModified: "
+          + lastModified
+          + ")";
+    }
+  }
+
+  /*
+   * Keeps the records sorted in memory and applies the differences between consecutive snapshots
+   * of the repository to them, so only the paths that changed are read from the file system. The
+   * whole file is rewritten from the records. The file only ever grows so that the mappings of the
+   * readers remain valid.
+   */
+  private static final class Writer<T> implements CacheObserver<T>, AutoCloseable {
+    private final FileTreeRepository<T> repository;
+    private final FileChannel channel;
+    private final long delayMillis;
+    private final ScheduledExecutorService executor =
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory("com.swoval.files.MappedIndex-writer"));
+    private final TreeMap<byte[], long[]> records = new TreeMap<>(UNSIGNED);
+    private final Logger logger = Loggers.getLogger();
+    private Snapshot<T> snapshot = Snapshots.concat(new ArrayList<Snapshot<T>>());
+    private MappedByteBuffer buffer;
+    private long sequence = 0;
+    private boolean scheduled = false;
+    private boolean closed = false;
+    private int handle = -1;
+
+    Writer(final FileTreeRepository<T> repository, final Path file, final long delayMillis)
+        throws IOException {
+      this.repository = repository;
+      this.delayMillis = delayMillis;
+      this.channel =
+          FileChannel.open(
+              file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      // Truncating a file that other processes have mapped would crash them. The sequence number
+      // of a previous publisher is continued instead so that their readers notice the rewrite. A
+      // file that was not written by a publisher is left alone rather than overwritten.
+      try {
+        if (channel.size() > 0) {
+          buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+          if (!isIndex(buffer)) throw new IOException(file + " is not a published index");
+          sequence = (buffer.getLong(SEQUENCE) + 1) & ~1L;
+        }
+      } catch (final IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public void onCreate(final Entry<T> newEntry) {
+      schedule();
+    }
+
+    @Override
+    public void onDelete(final Entry<T> oldEntry) {
+      schedule();
+    }
+
+    @Override
+    public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+      schedule();
+    }
+
+    @Override
+    public void onError(final IOException exception) {}
+
+    private synchronized void schedule() {
+      if (!scheduled && !closed) {
+        scheduled = true;
+        executor.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  flush();
+                } catch (final IOException e) {
+                  logger.error("MappedIndex failed to write the index: " + e);
+                }
+              }
+            },
+            delayMillis,
+            TimeUnit.MILLISECONDS);
+      }
+    }
+
+    synchronized void flush() throws IOException {
+      scheduled = false;
+      if (closed) return;
+      final Snapshot<T> current = repository.snapshot();
+      Snapshots.diff(
+          snapshot,
+          current,
+          new CacheObserver<T>() {
+            @Override
+            public void onCreate(final Entry<T> newEntry) {
+              put(newEntry.getTypedPath());
+            }
+
+            @Override
+            public void onDelete(final Entry<T> oldEntry) {
+              records.remove(bytes(oldEntry.getTypedPath().getPath()));
+            }
+
+            @Override
+            public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+              put(newEntry.getTypedPath());
+            }
+
+            @Override
+            public void onError(final IOException exception) {}
+          });
+      snapshot = current;
+      write();
+    }
+
+    private void put(final TypedPath typedPath) {
+      final byte[] key = bytes(typedPath.getPath());
+      if (key.length > 0xffff) return;
+      long size = 0;
+      long lastModified = 0;
+      if (typedPath.exists()) {
+        try {
+          final BasicFileAttributes attrs = NioWrappers.readAttributes(typedPath.getPath());
+          size = attrs.size();
+          lastModified = attrs.lastModifiedTime().toMillis();
+        } catch (final IOException e) {
+          // The path was deleted and the record will be removed by a later rewrite.
+        }
+      }
+      final long kind =
+          (typedPath.exists() ? 0 : Entries.NONEXISTENT)
+              | (typedPath.isFile() ? Entries.FILE : 0)
+              | (typedPath.isDirectory() ? Entries.DIRECTORY : 0)
+              | (typedPath.isSymbolicLink() ? Entries.LINK : 0);
+      records.put(key, new long[] {kind, size, lastModified});
+    }
+
+    private void write() throws IOException {
+      final int count = records.size();
+      long length = 4L * count;
+      final Iterator<byte[]> keys = records.keySet().iterator();
+      while (keys.hasNext()) length += RECORD + keys.next().length;
+      if (HEADER + length > Integer.MAX_VALUE) throw new IOException("The index is too large");
+      if (buffer == null || HEADER + length > buffer.capacity()) {
+        final long capacity =
+            Math.min(Integer.MAX_VALUE, Math.max(4096, 2 * (HEADER + length)));
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+      }
+      sequence += 1;
+      buffer.putLong(SEQUENCE, sequence);
+      fence();
+      buffer.putInt(COUNT, count);
+      buffer.putInt(LENGTH, (int) length);
+      int index = HEADER;
+      int offset = 4 * count;
+      final Iterator<Map.Entry<byte[], long[]>> it = records.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<byte[], long[]> record = it.next();
+        final byte[] key = record.getKey();
+        final long[] values = record.getValue();
+        buffer.putInt(index, offset);
+        index += 4;
+        buffer.putShort(HEADER + offset, (short) key.length);
+        for (int i = 0; i < key.length; ++i) buffer.put(HEADER + offset + 2 + i, key[i]);
+        buffer.put(HEADER + offset + 2 + key.length, (byte) values[0]);
+        buffer.putLong(HEADER + offset + 3 + key.length, values[1]);
+        buffer.putLong(HEADER + offset + 11 + key.length, values[2]);
+        offset += RECORD + key.length;
+      }
+      fence();
+      sequence += 1;
+      buffer.putLong(SEQUENCE, sequence);
+    }
+
+    @Override
+    public void close() {
+      synchronized (this) {
+        if (closed) return;
+        closed = true;
+      }
+      if (handle >= 0) repository.removeObserver(handle);
+      executor.shutdownNow();
+      try {
+        channel.close();
+      } catch (final IOException e) {
+        // The publication is closing anyway.
+      }
+    }
+  }
+}
@@ -37,7 +37,10 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
   private final Observers<PathWatchers.Event> observers = new Observers<>();
   private final RootDirectories rootDirectories = new RootDirectories();
   private final DirectoryRegistry directoryRegistry;
+  private final Filter<? super TypedPath> filter;
+  private final GitIgnoreFilter ignoreFilter;
   private final Converter<WatchedDirectory> converter;
+  private final EventRateLimiter rateLimiter;
   private final Logger logger;
 
   private CacheObserver<WatchedDirectory> updateCacheObserver(final List<Event> events) {
@@ -54,7 +57,8 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
                       new Filter<TypedPath>() {
                         @Override
                         public boolean accept(final TypedPath typedPath) {
-                          return directoryRegistry.accept(typedPath.getPath());
+                          return directoryRegistry.accept(typedPath.getPath())
+                              && include(typedPath);
                         }
                       })
                   .iterator();
@@ -95,8 +99,65 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
       final RegisterableWatchService watchService,
       final Logger logger)
       throws InterruptedException {
+    this(
+        directoryRegistry,
+        AllPass,
+        new NioWatchServiceMultiplexer(watchService, logger, false),
+        logger);
+  }
+
+  /*
+   * Creates a watcher that shares the process wide watch service with all of the other watchers
+   * that were created by this constructor. Directories inside of a registered directory that are
+   * rejected by the filter are neither listed nor watched and their events are ignored.
+   */
+  NioPathWatcher(
+      final DirectoryRegistry directoryRegistry,
+      final Filter<? super TypedPath> filter,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    this(directoryRegistry, filter, NioWatchServiceMultiplexer.acquire(), logger);
+  }
+
+  NioPathWatcher(
+      final DirectoryRegistry directoryRegistry,
+      final Filter<? super TypedPath> filter,
+      final RegisterableWatchService watchService,
+      final Logger logger)
+      throws InterruptedException {
+    this(
+        directoryRegistry,
+        filter,
+        new NioWatchServiceMultiplexer(watchService, logger, false),
+        logger);
+  }
+
+  private NioPathWatcher(
+      final DirectoryRegistry directoryRegistry,
+      final Filter<? super TypedPath> filter,
+      final NioWatchServiceMultiplexer multiplexer,
+      final Logger logger) {
     this.directoryRegistry = directoryRegistry;
+    this.filter = filter;
+    this.ignoreFilter = filter instanceof GitIgnoreFilter ? (GitIgnoreFilter) filter : null;
     this.logger = logger;
+    this.rateLimiter =
+        new EventRateLimiter(
+            new Consumer<Path>() {
+              @Override
+              public void accept(final Path path) {
+                final List<Event> events = new ArrayList<>();
+                events.add(new Event(TypedPaths.get(path), Kind.Throttle));
+                runCallbacks(events);
+              }
+            },
+            new Consumer<Path>() {
+              @Override
+              public void accept(final Path path) {
+                if (!closed.get()) handleOverflow(new Overflow(path));
+              }
+            },
+            logger);
     this.service =
         new NioPathWatcherService(
             new Consumer<Either<Overflow, Event>>() {
@@ -105,14 +166,14 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
                 if (!closed.get()) {
                   if (either.isRight()) {
                     final Event event = either.get();
-                    handleEvent(event);
+                    if (rateLimiter.accept(event.getTypedPath().getPath())) handleEvent(event);
                   } else {
                     handleOverflow(Either.leftProjection(either).getValue());
                   }
                 }
               }
             },
-            watchService,
+            multiplexer,
             logger);
     this.converter =
         new Converter<WatchedDirectory>() {
@@ -126,6 +187,16 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
         };
   }
 
+  /*
+   * Returns false for the paths inside of a registered directory that are rejected by the filter.
+   * The registered directories themselves and their ancestors are always included.
+   */
+  private boolean include(final TypedPath typedPath) {
+    if (filter == AllPass) return true;
+    final Path parent = typedPath.getPath().getParent();
+    return parent == null || !directoryRegistry.accept(parent) || filter.accept(typedPath);
+  }
+
   /**
    * Similar to register, but tracks all of the new files found in the directory. It polls the
    * directory until the contents stop changing to ensure that a callback is fired for each path in
@@ -307,7 +378,8 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
                         public boolean accept(final TypedPath typedPath) {
                           return typedPath.isDirectory()
                               && !typedPath.isSymbolicLink()
-                              && directoryRegistry.acceptPrefix(typedPath.getPath());
+                              && directoryRegistry.acceptPrefix(typedPath.getPath())
+                              && include(typedPath);
                         }
                       },
                       false)
@@ -378,6 +450,7 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
   @Override
   public void close() {
     if (closed.compareAndSet(false, true)) {
+      rateLimiter.close();
       service.close();
       rootDirectories.clear();
     }
@@ -425,7 +498,8 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
                           @Override
                           public boolean accept(TypedPath typedPath) {
                             return typedPath.isDirectory()
-                                && directoryRegistry.acceptPrefix(typedPath.getPath());
+                                && directoryRegistry.acceptPrefix(typedPath.getPath())
+                                && include(typedPath);
                           }
                         })
                     .iterator();
@@ -473,11 +547,20 @@ class NioPathWatcher implements PathWatcher<PathWatchers.Event>, AutoCloseable {
           final boolean isDelete = event.getKind() == Delete;
           final TypedPath typedPath = TypedPaths.get(event.getTypedPath().getPath());
           if (isDelete) remove(typedPath.getPath(), events);
-          if (typedPath.exists()) {
+          if (typedPath.exists() && !include(typedPath)) {
+            if (Loggers.shouldLog(logger, Level.DEBUG))
+              logger.debug(this + " ignoring event for excluded path " + typedPath.getPath());
+          } else if (typedPath.exists()) {
             if (typedPath.isDirectory() && !typedPath.isSymbolicLink()) add(typedPath, events);
             events.add(event);
           } else if (!isDelete) remove(typedPath.getPath(), events);
           else events.add(event);
+          if (ignoreFilter != null && ignoreFilter.isIgnoreFile(typedPath.getPath())) {
+            // Start watching the directories that are no longer ignored and stop watching the
+            // directories that are now ignored.
+            ignoreFilter.reload();
+            add(TypedPaths.get(typedPath.getPath().getParent()), events);
+          }
         }
       } finally {
         rootDirectories.unlock();
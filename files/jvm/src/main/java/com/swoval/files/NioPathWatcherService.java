@@ -22,8 +22,12 @@ import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
+import java.nio.file.Watchable;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -31,24 +35,85 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 class WatchedDirectoriesByPath extends LockableMap<Path, WatchedDirectory> {}
 
-class NioPathWatcherService implements AutoCloseable {
+/*
+ * Owns a watch service and the thread that takes keys from it. The events for each key are
+ * dispatched to every NioPathWatcherService that registered the directory for the key. A watch
+ * service returns the same key for every path to the same directory, e.g. a symbolic link to it,
+ * so the registrations are indexed by the watchable of the key, i.e. the path through which the
+ * directory was first registered, and each one keeps the paths through which each service
+ * registered the directory. The watchable is used rather than the key itself because a watch
+ * service may wrap the keys that it returns from take in new instances. The events are reported
+ * to each service relative to the path that it registered. The key is only cancelled once none of
+ * the paths for it are registered. The instance returned by acquire is shared by every
+ * NioPathWatcherService in the process that was not created with its own watch service. It is
+ * closed when the last of them is closed.
+ */
+class NioWatchServiceMultiplexer implements AutoCloseable {
+  private static final Object sharedLock = new Object();
+  private static NioWatchServiceMultiplexer shared = null;
+  private static int sharedReferences = 0;
+  private static final AtomicInteger threadId = new AtomicInteger(0);
+
   private final Thread loopThread;
   private final AtomicBoolean isStopped = new AtomicBoolean(false);
-  private static final AtomicInteger threadId = new AtomicInteger(0);
   private final AtomicBoolean isShutdown = new AtomicBoolean(false);
   private final CountDownLatch shutdownLatch = new CountDownLatch(1);
   private final RegisterableWatchService watchService;
-  private final WatchedDirectoriesByPath watchedDirectoriesByPath = new WatchedDirectoriesByPath();
+  private final LockableMap<Watchable, Registration> registrations = new LockableMap<>();
+  private final boolean isShared;
   private final int shutdownHookId;
   private final Logger logger;
 
-  NioPathWatcherService(
-      final Consumer<Either<Overflow, Event>> eventConsumer,
-      final RegisterableWatchService watchService,
-      final Logger logger)
+  /*
+   * The paths through which the services registered the directory of a watch key. Each pair of
+   * service and path is counted so that it is only removed once it has been unregistered as many
+   * times as it was registered.
+   */
+  private static final class Registration {
+    private final Map<Target, Integer> targets = new LinkedHashMap<>();
+  }
+
+  private static final class Target {
+    private final NioPathWatcherService service;
+    private final Path path;
+
+    Target(final NioPathWatcherService service, final Path path) {
+      this.service = service;
+      this.path = path;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Target
+          && ((Target) other).service == service
+          && ((Target) other).path.equals(path);
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(service) ^ path.hashCode();
+    }
+  }
+
+  static NioWatchServiceMultiplexer acquire() throws IOException, InterruptedException {
+    synchronized (sharedLock) {
+      if (shared == null) {
+        shared =
+            new NioWatchServiceMultiplexer(
+                RegisterableWatchServices.get(), Loggers.getLogger(), true);
+        sharedReferences = 0;
+      }
+      sharedReferences += 1;
+      return shared;
+    }
+  }
+
+  NioWatchServiceMultiplexer(
+      final RegisterableWatchService watchService, final Logger logger, final boolean isShared)
       throws InterruptedException {
     this.watchService = watchService;
     this.logger = logger;
+    this.isShared = isShared;
     this.shutdownHookId =
         ShutdownHooks.addHook(
             1,
@@ -61,7 +126,9 @@ class NioPathWatcherService implements AutoCloseable {
     final CountDownLatch latch = new CountDownLatch(1);
     final String prefix = this.toString();
     loopThread =
-        new Thread("NioPathWatcher-loop-thread-" + threadId.incrementAndGet()) {
+        new Thread(
+            "NioPathWatcher-" + (isShared ? "shared-" : "") + "loop-thread-"
+                + threadId.incrementAndGet()) {
           @Override
           public void run() {
             latch.countDown();
@@ -73,6 +140,7 @@ class NioPathWatcherService implements AutoCloseable {
                 if (!key.reset()) {
                   key.cancel();
                 }
+                final List<Target> targets = targetsFor(key);
                 final Iterator<WatchEvent<?>> it = events.iterator();
                 while (it.hasNext()) {
                   final WatchEvent<?> e = it.next();
@@ -80,19 +148,13 @@ class NioPathWatcherService implements AutoCloseable {
                   if (Loggers.shouldLog(logger, Level.DEBUG))
                     logger.debug(
                         prefix + " received event for path " + e.context() + " with kind " + k);
-                  if (OVERFLOW.equals(k)) {
-                    final Either<Overflow, Event> result =
-                        Either.left(new Overflow((Path) key.watchable()));
-                    eventConsumer.accept(result);
-                  } else if (k != null) {
-                    final Event.Kind kind =
-                        k.equals(ENTRY_DELETE) ? Delete : k.equals(ENTRY_CREATE) ? Create : Modify;
-                    final Path watchKey = (Path) key.watchable();
-                    final Path path =
-                        e.context() == null ? watchKey : watchKey.resolve((Path) e.context());
-                    final Either<Overflow, Event> result =
-                        Either.right(new Event(TypedPaths.get(path, UNKNOWN), kind));
-                    eventConsumer.accept(result);
+                  // The attributes that are read while the event is handled are shared by
+                  // all of the services that receive it.
+                  StatCache.begin();
+                  try {
+                    if (k != null) dispatch(targets, k, (Path) e.context());
+                  } finally {
+                    StatCache.end();
                   }
                 }
               } catch (final ClosedWatchServiceException | InterruptedException e) {
@@ -107,6 +169,154 @@ class NioPathWatcherService implements AutoCloseable {
     latch.await(5, TimeUnit.SECONDS);
   }
 
+  private List<Target> targetsFor(final WatchKey key) {
+    final List<Target> result = new ArrayList<>();
+    if (registrations.lock()) {
+      try {
+        final Registration registration = registrations.get(key.watchable());
+        if (registration != null) result.addAll(registration.targets.keySet());
+      } finally {
+        registrations.unlock();
+      }
+    }
+    return result;
+  }
+
+  private void dispatch(final List<Target> targets, final WatchEvent.Kind<?> k, final Path name) {
+    final Iterator<Target> it = targets.iterator();
+    while (it.hasNext()) {
+      final Target target = it.next();
+      final Either<Overflow, Event> either;
+      if (OVERFLOW.equals(k)) {
+        either = Either.left(new Overflow(target.path));
+      } else {
+        final Event.Kind kind =
+            k.equals(ENTRY_DELETE) ? Delete : k.equals(ENTRY_CREATE) ? Create : Modify;
+        final Path path = name == null ? target.path : target.path.resolve(name);
+        either = Either.right(new Event(TypedPaths.get(path, UNKNOWN), kind));
+      }
+      try {
+        target.service.accept(either);
+      } catch (final Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  WatchKey register(final Path path, final NioPathWatcherService service) throws IOException {
+    if (registrations.lock()) {
+      try {
+        final WatchKey key = watchService.register(path, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        Registration registration = registrations.get(key.watchable());
+        if (registration == null) {
+          registration = new Registration();
+          registrations.put(key.watchable(), registration);
+        }
+        final Target target = new Target(service, path);
+        final Integer count = registration.targets.get(target);
+        registration.targets.put(target, count == null ? 1 : count + 1);
+        return key;
+      } finally {
+        registrations.unlock();
+      }
+    } else {
+      throw new IOException("Unable to register " + path);
+    }
+  }
+
+  void unregister(final WatchKey key, final Path path, final NioPathWatcherService service) {
+    if (!isShutdown.get() && registrations.lock()) {
+      try {
+        final Registration registration = registrations.get(key.watchable());
+        final Target target = new Target(service, path);
+        final Integer count = registration == null ? null : registration.targets.get(target);
+        if (count != null) {
+          if (count > 1) {
+            registration.targets.put(target, count - 1);
+          } else {
+            registration.targets.remove(target);
+            if (registration.targets.isEmpty()) {
+              registrations.remove(key.watchable());
+              key.reset();
+              key.cancel();
+            }
+          }
+        }
+      } finally {
+        registrations.unlock();
+      }
+    }
+  }
+
+  /*
+   * Releases a reference to the multiplexer. A multiplexer that is not shared has exactly one
+   * reference.
+   */
+  void release() {
+    if (isShared) {
+      synchronized (sharedLock) {
+        sharedReferences -= 1;
+        if (sharedReferences == 0 && shared == this) {
+          shared = null;
+          close();
+        }
+      }
+    } else {
+      close();
+    }
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  @Override
+  public void close() {
+    if (isStopped.compareAndSet(false, true)) {
+      ShutdownHooks.removeHook(shutdownHookId);
+      loopThread.interrupt();
+      try {
+        isShutdown.set(true);
+        watchService.close();
+        registrations.clear();
+        shutdownLatch.await(5, TimeUnit.SECONDS);
+        loopThread.join(5000);
+      } catch (final InterruptedException | IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
+
+class NioPathWatcherService implements AutoCloseable {
+  private final AtomicBoolean isStopped = new AtomicBoolean(false);
+  private final AtomicBoolean isShutdown = new AtomicBoolean(false);
+  private final Consumer<Either<Overflow, Event>> eventConsumer;
+  private final NioWatchServiceMultiplexer multiplexer;
+  private final WatchedDirectoriesByPath watchedDirectoriesByPath = new WatchedDirectoriesByPath();
+  private final Logger logger;
+
+  /*
+   * Creates a service with its own loop thread for the provided watch service.
+   */
+  NioPathWatcherService(
+      final Consumer<Either<Overflow, Event>> eventConsumer,
+      final RegisterableWatchService watchService,
+      final Logger logger)
+      throws InterruptedException {
+    this(eventConsumer, new NioWatchServiceMultiplexer(watchService, logger, false), logger);
+  }
+
+  NioPathWatcherService(
+      final Consumer<Either<Overflow, Event>> eventConsumer,
+      final NioWatchServiceMultiplexer multiplexer,
+      final Logger logger) {
+    this.eventConsumer = eventConsumer;
+    this.multiplexer = multiplexer;
+    this.logger = logger;
+  }
+
+  void accept(final Either<Overflow, Event> either) {
+    if (!isStopped.get()) eventConsumer.accept(either);
+  }
+
   private final class CachedWatchDirectory implements WatchedDirectory {
     private final Path path;
     private final WatchKey key;
@@ -114,7 +324,7 @@ class NioPathWatcherService implements AutoCloseable {
 
     CachedWatchDirectory(final Path path) throws IOException {
       this.path = path;
-      this.key = watchService.register(path, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+      this.key = multiplexer.register(path, NioPathWatcherService.this);
     }
 
     @Override
@@ -122,8 +332,7 @@ class NioPathWatcherService implements AutoCloseable {
       if (!isShutdown.get() && closed.compareAndSet(false, true)) {
         if (Loggers.shouldLog(logger, Level.DEBUG)) logger.debug(this + " stopping watch");
         watchedDirectoriesByPath.remove(path);
-        key.reset();
-        key.cancel();
+        multiplexer.unregister(key, path, NioPathWatcherService.this);
       }
     }
 
@@ -170,24 +379,15 @@ class NioPathWatcherService implements AutoCloseable {
     return result;
   }
 
-  @SuppressWarnings("EmptyCatchBlock")
   @Override
   public void close() {
     if (isStopped.compareAndSet(false, true)) {
-      ShutdownHooks.removeHook(shutdownHookId);
-      loopThread.interrupt();
-      try {
-        final Iterator<WatchedDirectory> it = watchedDirectoriesByPath.values().iterator();
-        while (it.hasNext()) {
-          it.next().close();
-        }
-        isShutdown.set(true);
-        watchService.close();
-        shutdownLatch.await(5, TimeUnit.SECONDS);
-        loopThread.join(5000);
-      } catch (final InterruptedException | IOException e) {
-        throw new RuntimeException(e);
+      final Iterator<WatchedDirectory> it = watchedDirectoriesByPath.values().iterator();
+      while (it.hasNext()) {
+        it.next().close();
       }
+      isShutdown.set(true);
+      multiplexer.release();
     }
   }
 }
@@ -10,20 +10,25 @@ import java.nio.file.attribute.BasicFileAttributes;
  * Provide wrapper methods for java.nio.file apis that take enum varargs, e.g. {@link
  * java.nio.file.Files#readAttributes(Path, Class, LinkOption...)}. These methods cannot be
  * implemented on the jvm because of linking issues, so this adapter provides a source compatible
- * workaround.
+ * workaround. The attributes are read through {@link StatCache} so that they are only read once
+ * while an event is handled.
  */
 class NioWrappers {
   private NioWrappers() {}
 
   static BasicFileAttributes readAttributes(
       final Path path, final com.swoval.files.LinkOption... linkOptions) throws IOException {
-    final java.nio.file.LinkOption[] options = new java.nio.file.LinkOption[linkOptions.length];
-    for (int i = 0; i < options.length; ++i) {
-      options[i] =
-          linkOptions[i] == com.swoval.files.LinkOption.NOFOLLOW_LINKS
-              ? LinkOption.NOFOLLOW_LINKS
-              : null;
+    boolean followLinks = true;
+    for (int i = 0; i < linkOptions.length; ++i) {
+      if (linkOptions[i] == com.swoval.files.LinkOption.NOFOLLOW_LINKS) followLinks = false;
     }
-    return Files.<BasicFileAttributes>readAttributes(path, BasicFileAttributes.class, options);
+    return StatCache.readAttributes(path, followLinks);
+  }
+
+  static BasicFileAttributes read(final Path path, final boolean followLinks) throws IOException {
+    return followLinks
+        ? Files.<BasicFileAttributes>readAttributes(path, BasicFileAttributes.class)
+        : Files.<BasicFileAttributes>readAttributes(
+            path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
   }
 }
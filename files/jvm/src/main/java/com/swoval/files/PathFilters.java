@@ -0,0 +1,83 @@
+package com.swoval.files;
+
+import com.swoval.functional.Filter;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+/** Provides factory methods for instances of {@link Filter} for {@link TypedPath}. */
+public class PathFilters {
+  private PathFilters() {}
+
+  /**
+   * Returns a filter that accepts the paths inside of a base directory that match any of the
+   * provided globs. See {@link PathFilters#glob(Path, Iterable, Iterable)}.
+   *
+   * @param base the directory that the globs are relative to
+   * @param includes the globs for the paths to accept
+   * @return the filter.
+   */
+  public static Filter<TypedPath> glob(final Path base, final String... includes) {
+    return glob(base, Arrays.asList(includes), Collections.<String>emptyList());
+  }
+
+  /**
+   * Returns a filter that compiles a list of include and exclude globs into a single automaton
+   * over path segments. The cost of evaluating the filter depends on the depth of the path rather
+   * than the number of globs and, once the automaton has seen the segments of a path, no objects
+   * are allocated to evaluate it. It is intended to be passed to {@link
+   * FileTreeRepositories#get(FileTreeDataViews.Converter, Filter, boolean, boolean,
+   * com.swoval.logging.Logger)} where rejecting a directory prevents the repository from listing
+   * or monitoring any of its children.
+   *
+   * <p>The globs are relative to the base directory and use '/' as the separator. A segment may
+   * contain '*', which matches any number of characters, '?', which matches one character,
+   * character classes like "[a-z]" or "[!0-9]" and backslash escapes. A segment that is exactly
+   * "&#42;&#42;" matches any number of segments, including zero, except at the end of a glob
+   * where it matches at least one segment, i.e. "foo/&#42;&#42;" matches the children of foo but
+   * not foo itself. Brace alternatives like "&#42;.{java,scala}" may span segments. A glob that
+   * ends with '/' only matches directories. Globs are case sensitive.
+   *
+   * <p>The base directory is always accepted and paths outside of it are always rejected. A path
+   * is rejected if it, or any of its parents inside of the base directory, matches an exclude
+   * glob. Otherwise, if no include globs are provided, it is accepted. A regular file is accepted
+   * if it matches an include glob. A directory is accepted if it matches an include glob or if
+   * one of its children could match an include glob. For example, with the include glob
+   * "src/&#42;&#42;/&#42;.java" and the exclude glob "&#42;&#42;/generated", the directory
+   * "src/main" is accepted, the directories "docs" and "src/main/generated" are rejected and so
+   * is every path inside of them.
+   *
+   * @param base the directory that the globs are relative to
+   * @param includes the globs for the paths to accept. All paths are accepted if this is empty.
+   * @param excludes the globs for the paths to reject
+   * @return the filter.
+   */
+  public static Filter<TypedPath> glob(
+      final Path base, final Iterable<String> includes, final Iterable<String> excludes) {
+    return new GlobFilter(base, includes, excludes);
+  }
+
+  /**
+   * Returns a filter that rejects the paths inside of a base directory that are ignored by the
+   * .gitignore or .ignore files in the base directory and its subdirectories. The rules follow the
+   * gitignore format, including negated rules and rules that only match directories. The ignore
+   * files in a directory are read the first time that the filter evaluates one of its children, so
+   * the rules are parsed incrementally as the directory tree is traversed and the ignore files of
+   * an ignored directory are never read. The .git directory is always rejected and paths outside of
+   * the base directory are always accepted.
+   *
+   * <p>When this filter is passed to {@link FileTreeRepositories#get(FileTreeDataViews.Converter,
+   * Filter, boolean, boolean, com.swoval.logging.Logger)}, the repository neither lists nor
+   * monitors ignored directories. When an ignore file is created, modified or deleted, the rules
+   * are read again and the directory that contains the ignore file is rescanned so that newly
+   * ignored paths are removed from the cache and paths that are no longer ignored are added to
+   * it. It may also be passed to {@link FileTreeViews#list} to skip ignored directories.
+   *
+   * @param base the directory that contains the top level ignore file, typically the root of a git
+   *     repository
+   * @return the filter.
+   */
+  public static Filter<TypedPath> gitignore(final Path base) {
+    return new GitIgnoreFilter(base);
+  }
+}
@@ -15,6 +15,16 @@ import java.nio.file.Path;
  * for newly created files in newly created directories. On OSX, it is difficult to disambiguate
  * file creation and modify events, so the {@link Event.Kind} is best effort, but should not be
  * relied upon to accurately reflect the state of the file.
+ *
+ * <p>Observers should handle every {@link Event.Kind}, including the ones that don't describe a
+ * change to a single file. An {@link Event.Kind#Overflow} event means that the events for the
+ * directory may have been lost, so it should be rescanned. If the event rate limit is enabled with
+ * the swoval.event.rate.limit system property (see {@link PathWatchers#throttleStatistics()}), a
+ * {@link Event.Kind#Throttle} event means that the events for the directory and its
+ * subdirectories are being dropped because they arrived too quickly. No further events are
+ * reported for the subtree until it is quiet, at which point an {@link Event.Kind#Overflow} event
+ * is reported for the directory. Observers that don't need to react to the throttling can ignore
+ * the {@link Event.Kind#Throttle} event and wait for the overflow.
  */
 public interface PathWatcher<T> extends Observable<T>, AutoCloseable {
 
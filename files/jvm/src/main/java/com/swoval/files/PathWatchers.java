@@ -1,6 +1,8 @@
 package com.swoval.files;
 
 import com.swoval.files.FileTreeDataViews.Converter;
+import com.swoval.functional.Filter;
+import com.swoval.functional.Filters;
 import com.swoval.logging.Logger;
 import com.swoval.logging.Loggers;
 import com.swoval.runtime.Platform;
@@ -80,9 +82,34 @@ public class PathWatchers {
   static PathWatcher<Event> get(
       final boolean followLinks, final DirectoryRegistry registry, final Logger logger)
       throws InterruptedException, IOException {
+    return get(followLinks, registry, Filters.AllPass, logger);
+  }
+
+  /**
+   * Create a PathWatcher for the runtime platform that does not list or watch the directories
+   * inside of a registered directory that are rejected by a filter.
+   *
+   * @param followLinks toggles whether or not the targets of symbolic links should be monitored
+   * @param registry The registry of directories to monitor
+   * @param filter excludes paths inside of the registered directories. Events are not reported for
+   *     excluded paths or any of their children. The registered directories themselves are never
+   *     excluded. The filter is ignored on macOS, where the whole file tree is watched by a single
+   *     fsevents stream.
+   * @param logger the logger
+   * @return PathWatcher for the runtime platform
+   * @throws IOException when the underlying {@link java.nio.file.WatchService} cannot be
+   *     initialized
+   * @throws InterruptedException when the {@link PathWatcher} is interrupted during initialization
+   */
+  static PathWatcher<Event> get(
+      final boolean followLinks,
+      final DirectoryRegistry registry,
+      final Filter<? super TypedPath> filter,
+      final Logger logger)
+      throws InterruptedException, IOException {
     return Platform.isMac()
         ? ApplePathWatchers.get(followLinks, registry, logger)
-        : PlatformWatcher.make(followLinks, registry, logger);
+        : PlatformWatcher.make(followLinks, registry, filter, logger);
   }
 
   /**
@@ -116,6 +143,95 @@ public class PathWatchers {
     return PlatformWatcher.make(followLinks, service, registry, logger);
   }
 
+  /**
+   * Returns a snapshot of the process wide counters for the event rate circuit breaker of the path
+   * watchers that are backed by a {@link java.nio.file.WatchService}. The circuit breaker is
+   * disabled unless the swoval.event.rate.limit system property is set to a positive number when
+   * the watcher is created. When a directory then receives more events per second than the limit,
+   * the events for the directory and its subdirectories are dropped until none have been received
+   * for the period set by the swoval.event.rate.quiet.period system property (default 250
+   * milliseconds). The directory is then rescanned once. The watcher reports the switch with a
+   * {@link Event.Kind#Throttle} event for the directory and the rescan with a {@link
+   * Event.Kind#Overflow} event.
+   *
+   * @return the throttling statistics.
+   */
+  public static ThrottleStatistics throttleStatistics() {
+    return new ThrottleStatistics(
+        EventRateLimiter.totalTrips.get(),
+        EventRateLimiter.totalDroppedEvents.get(),
+        EventRateLimiter.totalRescans.get(),
+        EventRateLimiter.throttledDirectories.get());
+  }
+
+  /** The counters for the event rate circuit breaker. See {@link #throttleStatistics()}. */
+  public static final class ThrottleStatistics {
+    private final long trips;
+    private final long droppedEvents;
+    private final long rescans;
+    private final int throttledDirectories;
+
+    ThrottleStatistics(
+        final long trips,
+        final long droppedEvents,
+        final long rescans,
+        final int throttledDirectories) {
+      this.trips = trips;
+      this.droppedEvents = droppedEvents;
+      this.rescans = rescans;
+      this.throttledDirectories = throttledDirectories;
+    }
+
+    /**
+     * Returns the number of times that a directory has been throttled.
+     *
+     * @return the number of times that a directory has been throttled.
+     */
+    public long getTrips() {
+      return trips;
+    }
+
+    /**
+     * Returns the number of events that were dropped because they were for a throttled directory.
+     *
+     * @return the number of dropped events.
+     */
+    public long getDroppedEvents() {
+      return droppedEvents;
+    }
+
+    /**
+     * Returns the number of rescans of throttled directories.
+     *
+     * @return the number of rescans.
+     */
+    public long getRescans() {
+      return rescans;
+    }
+
+    /**
+     * Returns the number of directories that are currently throttled.
+     *
+     * @return the number of throttled directories.
+     */
+    public int getThrottledDirectories() {
+      return throttledDirectories;
+    }
+
+    @Override
+    public String toString() {
+      return "ThrottleStatistics(trips = "
+          + trips
+          + ", droppedEvents = "
+          + droppedEvents
+          + ", rescans = "
+          + rescans
+          + ", throttledDirectories = "
+          + throttledDirectories
+          + ")";
+    }
+  }
+
   static final class Overflow {
     private final Path path;
 
@@ -191,6 +307,12 @@ public class PathWatchers {
       public static final Kind Modify = new Kind("Modify");
       /** The watching service overflowed so it may be necessary to poll. */
       public static final Kind Overflow = new Kind("Overflow");
+      /**
+       * The directory is receiving events too quickly so they are being dropped until it is quiet,
+       * at which point an {@link Kind#Overflow} event is reported for it. It is only reported if
+       * the event rate limit is enabled. See {@link PathWatchers#throttleStatistics()}.
+       */
+      public static final Kind Throttle = new Kind("Throttle");
 
       private final String name;
 
@@ -1,26 +1,63 @@
 package com.swoval.files;
 
+import static com.swoval.functional.Filters.AllPass;
+
 import com.swoval.files.PathWatchers.Event;
+import com.swoval.functional.Filter;
 import com.swoval.logging.Logger;
 import java.io.IOException;
 
 class PlatformWatcher {
+  /*
+   * Unless the swoval.nio.shared.watch.service property is set to false, all of the watchers
+   * created by this method share a single watch service and event loop thread.
+   */
+  private static final boolean shareWatchService =
+      !System.getProperty("swoval.nio.shared.watch.service", "true").equals("false");
+
   static PathWatcher<Event> make(
       final boolean followLinks, final DirectoryRegistry directoryRegistry, final Logger logger)
       throws InterruptedException, IOException {
-    return make(followLinks, RegisterableWatchServices.get(), directoryRegistry, logger);
+    return make(followLinks, directoryRegistry, AllPass, logger);
   }
 
   static PathWatcher<Event> make(
       final boolean followLinks,
-      final RegisterableWatchService registerableWatchService,
       final DirectoryRegistry directoryRegistry,
+      final Filter<? super TypedPath> filter,
       final Logger logger)
       throws InterruptedException, IOException {
     final PathWatcher<Event> pathWatcher =
-        new NioPathWatcher(directoryRegistry, registerableWatchService, logger);
+        shareWatchService
+            ? new NioPathWatcher(directoryRegistry, filter, logger)
+            : new NioPathWatcher(
+                directoryRegistry, filter, RegisterableWatchServices.get(), logger);
+    return wrap(followLinks, pathWatcher, directoryRegistry, filter, logger);
+  }
+
+  static PathWatcher<Event> make(
+      final boolean followLinks,
+      final RegisterableWatchService registerableWatchService,
+      final DirectoryRegistry directoryRegistry,
+      final Logger logger)
+      throws InterruptedException, IOException {
+    return wrap(
+        followLinks,
+        new NioPathWatcher(directoryRegistry, registerableWatchService, logger),
+        directoryRegistry,
+        AllPass,
+        logger);
+  }
+
+  private static PathWatcher<Event> wrap(
+      final boolean followLinks,
+      final PathWatcher<Event> pathWatcher,
+      final DirectoryRegistry directoryRegistry,
+      final Filter<? super TypedPath> filter,
+      final Logger logger)
+      throws InterruptedException, IOException {
     return followLinks
-        ? new SymlinkFollowingPathWatcher(pathWatcher, directoryRegistry, logger)
+        ? new SymlinkFollowingPathWatcher(pathWatcher, directoryRegistry, filter, logger)
         : pathWatcher;
   }
 }
@@ -0,0 +1,131 @@
+package com.swoval.files;
+
+import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
+
+import com.swoval.concurrent.ThreadFactory;
+import com.swoval.files.FileTreeRepository.Priority;
+import com.swoval.files.PathWatchers.Event;
+import com.swoval.functional.Consumer;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/*
+ * Queues the events of a file tree repository by the priority of the registered directory that
+ * contains them and hands them to the handler on a single thread, always taking the next event
+ * from the highest priority queue that is not empty. The events with Interactive and Normal
+ * priority are handled in the order in which they were received. The pending Bulk events are
+ * coalesced by path so that a directory that is being flooded with events can not grow the queue
+ * without bound. A coalesced event keeps its position in the queue, so that it can not be starved
+ * by later events for other bulk paths, and an overflow is never replaced by a regular event since
+ * it requires a rescan.
+ */
+final class PriorityEventScheduler implements AutoCloseable {
+  private final Consumer<Event> handler;
+  private final Logger logger;
+  private final ArrayDeque<Event> interactive = new ArrayDeque<>();
+  private final ArrayDeque<Event> normal = new ArrayDeque<>();
+  private final LinkedHashMap<Path, Event> bulk = new LinkedHashMap<>();
+  private final ExecutorService executor =
+      Executors.newSingleThreadExecutor(new ThreadFactory("FileTreeRepository-event-scheduler"));
+  private final Runnable drain =
+      new Runnable() {
+        @Override
+        public void run() {
+          drain();
+        }
+      };
+  private boolean running = false;
+  private boolean closed = false;
+
+  PriorityEventScheduler(final Consumer<Event> handler, final Logger logger) {
+    this.handler = handler;
+    this.logger = logger;
+  }
+
+  void offer(final Event event, final Priority priority) {
+    synchronized (this) {
+      if (closed) return;
+      if (priority == Priority.Interactive) {
+        interactive.add(event);
+      } else if (priority == Priority.Bulk) {
+        final Path path = event.getTypedPath().getPath();
+        final Event previous = bulk.get(path);
+        if (previous != null && previous.getKind().equals(Overflow)) {
+          bulk.put(path, new Event(event.getTypedPath(), Overflow));
+        } else {
+          bulk.put(path, event);
+        }
+      } else {
+        normal.add(event);
+      }
+      if (running) return;
+      running = true;
+    }
+    try {
+      executor.execute(drain);
+    } catch (final RejectedExecutionException e) {
+      synchronized (this) {
+        running = false;
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      interactive.clear();
+      normal.clear();
+      bulk.clear();
+    }
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "PriorityEventScheduler@" + System.identityHashCode(this);
+  }
+
+  private void drain() {
+    while (true) {
+      final Event event;
+      synchronized (this) {
+        event = poll();
+        if (event == null) {
+          running = false;
+          return;
+        }
+      }
+      try {
+        handler.accept(event);
+      } catch (final Exception e) {
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " caught exception handling " + event + ": " + e);
+      }
+    }
+  }
+
+  /*
+   * Must be called while holding the lock on this scheduler.
+   */
+  private Event poll() {
+    if (closed) return null;
+    if (!interactive.isEmpty()) return interactive.poll();
+    if (!normal.isEmpty()) return normal.poll();
+    if (!bulk.isEmpty()) {
+      final Iterator<Event> it = bulk.values().iterator();
+      final Event event = it.next();
+      it.remove();
+      return event;
+    }
+    return null;
+  }
+}
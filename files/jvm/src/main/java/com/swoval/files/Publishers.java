@@ -0,0 +1,357 @@
+package com.swoval.files;
+
+import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
+
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeViews.Observable;
+import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.files.PathWatchers.Event;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides adapters that expose an {@link Observable}, e.g. a {@link FileTreeRepository} or a
+ * {@link PathWatcher}, as a {@link Publisher} with demand based flow control. An observer has to
+ * handle every event as soon as it is delivered, so a slow observer either blocks the thread that
+ * delivers the events or has to buffer them without limit. A subscriber instead requests the number
+ * of events that it is ready to handle and the events that arrive in the meantime are buffered for
+ * it.
+ *
+ * <p>The {@link Publisher}, {@link Subscriber} and {@link Subscription} interfaces have the same
+ * methods and contract as the corresponding interfaces in java.util.concurrent.Flow, which is not
+ * available on every jvm supported by this library, so they can be bridged to a reactive streams
+ * library with a trivial adapter.
+ */
+public class Publishers {
+  private Publishers() {}
+
+  /** The default maximum number of events that are buffered for a subscriber. */
+  public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+  /**
+   * A producer of events for the subscribers that have demanded them.
+   *
+   * @param <T> the type of the published events
+   */
+  public interface Publisher<T> {
+    /**
+     * Adds a subscriber. The subscriber receives the events that occur after this method returns,
+     * but only once it has requested them with {@link Subscription#request(long)}.
+     *
+     * @param subscriber the subscriber to add
+     */
+    void subscribe(final Subscriber<? super T> subscriber);
+  }
+
+  /**
+   * Receives the events of a {@link Publisher}. The methods are never invoked concurrently for the
+   * same subscription.
+   *
+   * @param <T> the type of the received events
+   */
+  public interface Subscriber<T> {
+    /**
+     * Invoked before any other method with the subscription that controls the flow of events.
+     *
+     * @param subscription the subscription for this subscriber
+     */
+    void onSubscribe(final Subscription subscription);
+
+    /**
+     * Invoked with the next event, at most as many times as the number of events requested.
+     *
+     * @param t the next event
+     */
+    void onNext(final T t);
+
+    /**
+     * Invoked if the subscription fails. No further methods are invoked after this one.
+     *
+     * @param throwable the cause of the failure
+     */
+    void onError(final Throwable throwable);
+
+    /** Invoked when there are no further events. No further methods are invoked after this one. */
+    void onComplete();
+  }
+
+  /** Controls the flow of events from a {@link Publisher} to a {@link Subscriber}. */
+  public interface Subscription {
+    /**
+     * Adds to the number of events that the subscriber is ready to receive. A request for
+     * Long.MAX_VALUE events removes the limit on the number of events.
+     *
+     * @param n the number of additional events. The subscription fails if it is not positive.
+     */
+    void request(final long n);
+
+    /** Stops the delivery of events and discards any events that are buffered. */
+    void cancel();
+  }
+
+  /**
+   * The error that a subscription fails with if the events that are buffered for its subscriber
+   * exceed the buffer size.
+   */
+  public static final class BufferOverflowException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    BufferOverflowException(final int bufferSize) {
+      super("More than " + bufferSize + " events were buffered for a subscriber");
+    }
+  }
+
+  /**
+   * Returns a publisher of the entries reported by a file tree cache, e.g. a {@link
+   * FileTreeRepository}. Up to {@link #DEFAULT_BUFFER_SIZE} entries are buffered for each
+   * subscriber and the buffered entries are conflated by path.
+   *
+   * @param observable the cache to observe
+   * @param <T> the data type of the entries
+   * @return the publisher.
+   */
+  public static <T> Publisher<Entry<T>> entries(final Observable<Entry<T>> observable) {
+    return entries(observable, DEFAULT_BUFFER_SIZE, true);
+  }
+
+  /**
+   * Returns a publisher of the entries reported by a file tree cache, e.g. a {@link
+   * FileTreeRepository}.
+   *
+   * @param observable the cache to observe
+   * @param bufferSize the maximum number of entries that are buffered for a subscriber that has not
+   *     requested them. The subscription fails with a {@link BufferOverflowException} if there are
+   *     more.
+   * @param conflate toggles whether or not a buffered entry is replaced by a later entry for the
+   *     same path. The later entry takes the place of the earlier one in the buffer.
+   * @param <T> the data type of the entries
+   * @return the publisher.
+   */
+  public static <T> Publisher<Entry<T>> entries(
+      final Observable<Entry<T>> observable, final int bufferSize, final boolean conflate) {
+    return new ObservablePublisher<Entry<T>>(observable, bufferSize, conflate) {
+      @Override
+      Path key(final Entry<T> entry) {
+        return entry.getTypedPath().getPath();
+      }
+    };
+  }
+
+  /**
+   * Returns a publisher of the events reported by a {@link PathWatcher}. Up to {@link
+   * #DEFAULT_BUFFER_SIZE} events are buffered for each subscriber and the buffered events are
+   * conflated by path.
+   *
+   * @param observable the path watcher to observe
+   * @return the publisher.
+   */
+  public static Publisher<Event> events(final Observable<Event> observable) {
+    return events(observable, DEFAULT_BUFFER_SIZE, true);
+  }
+
+  /**
+   * Returns a publisher of the events reported by a {@link PathWatcher}.
+   *
+   * @param observable the path watcher to observe
+   * @param bufferSize the maximum number of events that are buffered for a subscriber that has not
+   *     requested them. The subscription fails with a {@link BufferOverflowException} if there are
+   *     more.
+   * @param conflate toggles whether or not a buffered event is replaced by a later event for the
+   *     same path. The later event takes the place of the earlier one in the buffer. An overflow is
+   *     never replaced by a regular event since it requires the subscriber to rescan the path.
+   * @return the publisher.
+   */
+  public static Publisher<Event> events(
+      final Observable<Event> observable, final int bufferSize, final boolean conflate) {
+    return new ObservablePublisher<Event>(observable, bufferSize, conflate) {
+      @Override
+      Path key(final Event event) {
+        return event.getTypedPath().getPath();
+      }
+
+      @Override
+      Event merge(final Event previous, final Event next) {
+        return previous.getKind().equals(Overflow) && !next.getKind().equals(Overflow)
+            ? new Event(next.getTypedPath(), Overflow)
+            : next;
+      }
+    };
+  }
+
+  private abstract static class ObservablePublisher<T> implements Publisher<T> {
+    private final Observable<T> observable;
+    private final int bufferSize;
+    private final boolean conflate;
+
+    ObservablePublisher(
+        final Observable<T> observable, final int bufferSize, final boolean conflate) {
+      if (bufferSize <= 0) {
+        throw new IllegalArgumentException("The buffer size must be positive: " + bufferSize);
+      }
+      this.observable = observable;
+      this.bufferSize = bufferSize;
+      this.conflate = conflate;
+    }
+
+    abstract Path key(final T t);
+
+    T merge(final T previous, final T next) {
+      return next;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+      final BufferedSubscription<T> subscription = new BufferedSubscription<>(this, subscriber);
+      subscriber.onSubscribe(subscription);
+      subscription.start(observable);
+    }
+  }
+
+  /*
+   * Buffers the events of the observable until the subscriber requests them. The events are
+   * delivered by whichever thread finds that there are both buffered events and outstanding demand,
+   * i.e. either the thread that delivers the event to the observer or the thread that requests
+   * more events. The work in progress counter ensures that only one thread delivers events at a
+   * time and that an event or request that arrives while another thread is delivering is not
+   * missed. Without conflation, the buffer is keyed by a sequence number so that it is a plain
+   * queue.
+   */
+  private static final class BufferedSubscription<T> implements Subscription, Observer<T> {
+    private final ObservablePublisher<T> publisher;
+    private final Subscriber<? super T> subscriber;
+    private final LinkedHashMap<Object, T> buffer = new LinkedHashMap<>();
+    private final AtomicInteger workInProgress = new AtomicInteger(0);
+    private Observable<T> observable;
+    private int handle = -1;
+    private long demand = 0;
+    private long sequence = 0;
+    private Throwable error;
+    private boolean cancelled = false;
+
+    BufferedSubscription(
+        final ObservablePublisher<T> publisher, final Subscriber<? super T> subscriber) {
+      this.publisher = publisher;
+      this.subscriber = subscriber;
+    }
+
+    void start(final Observable<T> observable) {
+      synchronized (this) {
+        if (cancelled) return;
+        this.observable = observable;
+      }
+      final int newHandle = observable.addObserver(this);
+      final boolean remove;
+      synchronized (this) {
+        handle = newHandle;
+        remove = cancelled;
+      }
+      if (remove) observable.removeObserver(newHandle);
+    }
+
+    @Override
+    public void request(final long n) {
+      synchronized (this) {
+        if (cancelled) return;
+        if (n <= 0) {
+          fail(new IllegalArgumentException("The number of requested events must be positive"));
+        } else {
+          demand = demand > Long.MAX_VALUE - n ? Long.MAX_VALUE : demand + n;
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      final int oldHandle;
+      synchronized (this) {
+        if (cancelled) return;
+        cancelled = true;
+        buffer.clear();
+        oldHandle = handle;
+        handle = -1;
+      }
+      if (oldHandle >= 0) observable.removeObserver(oldHandle);
+    }
+
+    @Override
+    public void onNext(final T t) {
+      synchronized (this) {
+        if (cancelled || error != null) return;
+        if (publisher.conflate) {
+          final Path key = publisher.key(t);
+          final T previous = buffer.get(key);
+          if (previous != null) {
+            buffer.put(key, publisher.merge(previous, t));
+          } else if (buffer.size() < publisher.bufferSize) {
+            buffer.put(key, t);
+          } else {
+            fail(new BufferOverflowException(publisher.bufferSize));
+          }
+        } else if (buffer.size() < publisher.bufferSize) {
+          buffer.put(sequence++, t);
+        } else {
+          fail(new BufferOverflowException(publisher.bufferSize));
+        }
+      }
+      drain();
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      synchronized (this) {
+        if (!cancelled && error == null) fail(throwable);
+      }
+      drain();
+    }
+
+    /*
+     * Must be called while holding the lock on this subscription. The buffered events are
+     * discarded so that the error is delivered immediately, even if there is no outstanding demand.
+     */
+    private void fail(final Throwable throwable) {
+      error = throwable;
+      buffer.clear();
+    }
+
+    private void drain() {
+      if (workInProgress.getAndIncrement() != 0) return;
+      int missed = 1;
+      do {
+        while (true) {
+          final T next;
+          final Throwable failure;
+          synchronized (this) {
+            if (cancelled) return;
+            failure = error;
+            if (failure == null && (demand == 0 || buffer.isEmpty())) break;
+            if (failure == null) {
+              final Iterator<Map.Entry<Object, T>> it = buffer.entrySet().iterator();
+              next = it.next().getValue();
+              it.remove();
+              if (demand != Long.MAX_VALUE) demand -= 1;
+            } else {
+              next = null;
+            }
+          }
+          if (failure != null) {
+            cancel();
+            subscriber.onError(failure);
+            return;
+          }
+          try {
+            subscriber.onNext(next);
+          } catch (final RuntimeException e) {
+            // The subscriber violated the contract, so the subscription can not continue.
+            cancel();
+            throw e;
+          }
+        }
+        missed = workInProgress.addAndGet(-missed);
+      } while (missed != 0);
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.swoval.files;
+
+import com.swoval.functional.Filter;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Tracks the state of the event pipeline of a file tree repository so that callers can wait for
+ * a subtree to settle. The pipeline is busy while there are events that have been received from
+ * the path watcher but not yet applied to the cache, callbacks that have been queued but not yet
+ * run, or directories whose events are being throttled and that have not yet been rescanned. A
+ * subtree is quiet once the pipeline is idle and no event for a path in the subtree, or for one
+ * of its parents, has been received for the quiet period.
+ *
+ * The per-subtree activity is only recorded while there is a caller waiting for that subtree so
+ * that tracking is nearly free in the common case. Events received before a caller started
+ * waiting are accounted for by the time of the last event received for any path, which is always
+ * recorded.
+ */
+final class QuiescenceTracker {
+  private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private final AtomicInteger inFlight = new AtomicInteger(0);
+  private final CopyOnWriteArrayList<Waiter> waiters = new CopyOnWriteArrayList<>();
+  private final Set<Path> throttled = new HashSet<>();
+  private volatile long lastActivity = System.nanoTime();
+
+  private static final class Waiter {
+    private final Path root;
+    private volatile long lastActivity;
+
+    Waiter(final Path root, final long lastActivity) {
+      this.root = root;
+      this.lastActivity = lastActivity;
+    }
+  }
+
+  /*
+   * Records an event for the path without changing the number of tasks in flight.
+   */
+  void activity(final Path path) {
+    final long now = System.nanoTime();
+    lastActivity = now;
+    if (!waiters.isEmpty()) {
+      final Iterator<Waiter> it = waiters.iterator();
+      while (it.hasNext()) {
+        final Waiter waiter = it.next();
+        if (path.startsWith(waiter.root) || waiter.root.startsWith(path)) {
+          waiter.lastActivity = now;
+        }
+      }
+    }
+  }
+
+  /*
+   * Records that a task for the path has entered the pipeline. The path is null for tasks, such as
+   * callbacks, that do not correspond to a new event. Every call must be followed by a call to end.
+   */
+  void begin(final Path path) {
+    inFlight.incrementAndGet();
+    if (path != null) activity(path);
+  }
+
+  void end() {
+    if (inFlight.decrementAndGet() == 0 && !waiters.isEmpty()) {
+      synchronized (this) {
+        notifyAll();
+      }
+    }
+  }
+
+  void throttle(final Path path) {
+    synchronized (this) {
+      throttled.add(path);
+    }
+  }
+
+  /*
+   * Records that the throttled directory, if it is one, has been rescanned.
+   */
+  void rescanned(final Path path) {
+    synchronized (this) {
+      if (!throttled.isEmpty() && throttled.remove(path)) notifyAll();
+    }
+  }
+
+  /*
+   * Blocks until the pipeline is idle and no event has been received for the subtree of the root
+   * for the quiet period. The busy filter reports any other pending work for the root, e.g.
+   * directories that are still being scanned. Returns false if the timeout elapses first or if the
+   * closed filter accepts the root.
+   */
+  boolean await(
+      final Path root,
+      final long quietPeriodNanos,
+      final long timeoutNanos,
+      final Filter<Path> busy,
+      final Filter<Path> closed)
+      throws InterruptedException {
+    final long deadline = System.nanoTime() + timeoutNanos;
+    final Waiter waiter = new Waiter(root, lastActivity);
+    waiters.add(waiter);
+    try {
+      while (true) {
+        if (closed.accept(root)) return false;
+        final long now = System.nanoTime();
+        final boolean pending = isThrottled(root) || busy.accept(root);
+        if (pending) waiter.lastActivity = now;
+        final boolean isBusy = pending || inFlight.get() > 0;
+        final long remaining = waiter.lastActivity + quietPeriodNanos - now;
+        if (!isBusy && remaining <= 0) return true;
+        final long untilDeadline = deadline - now;
+        if (untilDeadline <= 0) return false;
+        final long wait = Math.min(isBusy ? POLL_NANOS : remaining, untilDeadline);
+        synchronized (this) {
+          TimeUnit.NANOSECONDS.timedWait(this, Math.max(wait, 1));
+        }
+      }
+    } finally {
+      waiters.remove(waiter);
+    }
+  }
+
+  /*
+   * Wakes up the waiting callers so that they can observe that the repository was closed.
+   */
+  void close() {
+    synchronized (this) {
+      throttled.clear();
+      notifyAll();
+    }
+  }
+
+  private boolean isThrottled(final Path root) {
+    synchronized (this) {
+      if (throttled.isEmpty()) return false;
+      final Iterator<Path> it = throttled.iterator();
+      while (it.hasNext()) {
+        final Path path = it.next();
+        if (path.startsWith(root) || root.startsWith(path)) return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.swoval.files;
+
+import static com.swoval.files.PathWatchers.Event.Kind.Overflow;
+
+import com.swoval.files.PathWatchers.Event;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Caches the real paths of the symbolic links in a file tree. Resolving a real path reads the
+ * attributes of every component of the path, which adds up when the same links are resolved for
+ * every event in a tree with many links. The owner of the cache invalidates a path whenever it
+ * receives an event for it that may change how paths are resolved, see invalidate(Event). That
+ * removes the cached real paths of the path and all of its descendants as well as the cached real
+ * paths that are the path or one of its descendants, so a change to a link, to one of its parent
+ * directories or to one of the parent directories of its target is never masked by the cache.
+ *
+ * A change to a link in the middle of a chain of links is not one of those paths, and it may not
+ * even be watched. The cached real paths therefore also expire after a maximum age, which is short
+ * enough that a burst of events for the same links still hits the cache, and they are resolved
+ * again after that. A stale real path, which e.g. the symlink watcher uses to detect loops, is
+ * thus never used for longer than the maximum age.
+ *
+ * Both maps are sorted by path so that the descendants of a path form a contiguous range. The
+ * cache is cleared if it grows beyond its maximum size. All of the methods are synchronized.
+ */
+final class RealPaths {
+  private static final int MAX_SIZE = 1 << 16;
+  static final long DEFAULT_MAX_AGE_MILLIS = 1000;
+  private final TreeMap<String, Resolved> realPaths = new TreeMap<>();
+  private final TreeMap<String, Set<String>> links = new TreeMap<>();
+  private final long maxAgeNanos;
+  private long hits = 0;
+  private long misses = 0;
+
+  RealPaths() {
+    this(DEFAULT_MAX_AGE_MILLIS);
+  }
+
+  RealPaths(final long maxAgeMillis) {
+    this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+  }
+
+  synchronized Path toRealPath(final Path path) throws IOException {
+    final String key = path.toString();
+    final long now = System.nanoTime();
+    final Resolved resolved = realPaths.get(key);
+    if (resolved != null && now - resolved.time <= maxAgeNanos) {
+      hits += 1;
+      return resolved.path;
+    } else {
+      if (resolved != null) remove(key);
+      misses += 1;
+      final Path result = path.toRealPath();
+      if (realPaths.size() >= MAX_SIZE) {
+        realPaths.clear();
+        links.clear();
+      }
+      realPaths.put(key, new Resolved(result, now));
+      final String realKey = result.toString();
+      Set<String> keys = links.get(realKey);
+      if (keys == null) {
+        keys = new HashSet<>();
+        links.put(realKey, keys);
+      }
+      keys.add(key);
+      return result;
+    }
+  }
+
+  /*
+   * Returns the real path of a typed path, or the path itself if it is not a link or if it can't
+   * be resolved, like TypedPaths.expanded.
+   */
+  Path expanded(final TypedPath typedPath) {
+    if (!typedPath.isSymbolicLink()) return typedPath.getPath();
+    try {
+      return toRealPath(typedPath.getPath());
+    } catch (final IOException e) {
+      return typedPath.getPath();
+    }
+  }
+
+  /*
+   * Invalidates the path of an event if the event may change the real path of a link. Only a change
+   * to a link or to a directory, or the deletion of a path, can change the real path of a link. An
+   * overflow may hide any of those.
+   */
+  void invalidate(final Event event) {
+    final TypedPath typedPath = event.getTypedPath();
+    if (event.getKind().equals(Overflow)
+        || !typedPath.exists()
+        || !typedPath.isFile()
+        || typedPath.isSymbolicLink()) {
+      invalidate(typedPath.getPath());
+    }
+  }
+
+  synchronized void invalidate(final Path path) {
+    final Iterator<String> keys = range(realPaths, path).iterator();
+    while (keys.hasNext()) remove(keys.next());
+    final Iterator<String> realKeys = range(links, path).iterator();
+    while (realKeys.hasNext()) {
+      final Set<String> linkKeys = links.get(realKeys.next());
+      if (linkKeys != null) {
+        final Iterator<String> it = new ArrayList<>(linkKeys).iterator();
+        while (it.hasNext()) remove(it.next());
+      }
+    }
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  private void remove(final String key) {
+    final Resolved resolved = realPaths.remove(key);
+    if (resolved != null) {
+      final String realKey = resolved.path.toString();
+      final Set<String> keys = links.get(realKey);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) links.remove(realKey);
+      }
+    }
+  }
+
+  /*
+   * Returns the keys of the map that are the path or one of its descendants.
+   */
+  private static List<String> range(final TreeMap<String, ?> map, final Path path) {
+    final List<String> result = new ArrayList<>();
+    final String key = path.toString();
+    if (map.containsKey(key)) result.add(key);
+    final String separator = path.getFileSystem().getSeparator();
+    final String prefix = key.endsWith(separator) ? key : key + separator;
+    final Iterator<String> it = map.tailMap(prefix, true).keySet().iterator();
+    while (it.hasNext()) {
+      final String descendant = it.next();
+      if (!descendant.startsWith(prefix)) break;
+      result.add(descendant);
+    }
+    return result;
+  }
+
+  private static final class Resolved {
+    private final Path path;
+    private final long time;
+
+    Resolved(final Path path, final long time) {
+      this.path = path;
+      this.time = time;
+    }
+  }
+}
@@ -0,0 +1,550 @@
+package com.swoval.files;
+
+import static com.swoval.functional.Filters.AllPass;
+
+import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Changes;
+import com.swoval.files.FileTreeDataViews.DirectorySummary;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.Snapshot;
+import com.swoval.files.FileTreeViews.Observer;
+import com.swoval.functional.Either;
+import com.swoval.functional.Filter;
+import com.swoval.logging.Logger;
+import com.swoval.logging.Loggers;
+import com.swoval.logging.Loggers.Level;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link FileTreeRepository} that splits the registered directories across a number of
+ * independent repositories. Each shard has its own directory tree, lock, pending file set, path
+ * watcher and callback executor so that events for paths in different shards do not contend with
+ * each other. Directories whose paths overlap, i.e. one is a parent of the other, are always
+ * assigned to the same shard so each shard sees exactly the registrations that the unsharded
+ * repository would see for those paths. Callbacks for paths in different shards may be invoked
+ * concurrently.
+ *
+ * @param <T> the type of data stored in the {@link Entry} instances for the cache
+ */
+class ShardedFileTreeRepository<T> implements FileTreeRepository<T> {
+  private static final long MIGRATION_TIMEOUT_MILLIS = 1000;
+  private final List<FileTreeRepository<T>> shards;
+  private final LockableMap<Path, Root> roots = new LockableMap<>();
+  private final LockableMap<Integer, int[]> handles = new LockableMap<>();
+  private final LockableMap<Integer, CacheObserver<T>> observers = new LockableMap<>();
+  private final AtomicInteger nextHandle = new AtomicInteger(0);
+  private final AtomicBoolean closed = new AtomicBoolean(false);
+  private final Logger logger;
+
+  private static final class Root {
+    private final int shard;
+    private final int maxDepth;
+    private final Priority priority;
+
+    Root(final int shard, final int maxDepth, final Priority priority) {
+      this.shard = shard;
+      this.maxDepth = maxDepth;
+      this.priority = priority;
+    }
+  }
+
+  /*
+   * A registered directory in one shard that needs to move to another shard because it overlaps a
+   * newly registered directory.
+   */
+  private static final class Migration {
+    private final Path path;
+    private final int from;
+    private final int maxDepth;
+    private final Priority priority;
+
+    Migration(final Path path, final int from, final int maxDepth, final Priority priority) {
+      this.path = path;
+      this.from = from;
+      this.maxDepth = maxDepth;
+      this.priority = priority;
+    }
+  }
+
+  ShardedFileTreeRepository(final List<FileTreeRepository<T>> shards, final Logger logger) {
+    this.shards = shards;
+    this.logger = logger;
+  }
+
+  ShardedFileTreeRepository(final List<FileTreeRepository<T>> shards) {
+    this(shards, Loggers.getLogger());
+  }
+
+  @Override
+  public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
+    return register(path, maxDepth, null);
+  }
+
+  /*
+   * The priority is null when the caller did not set one, in which case the shard keeps whatever
+   * priority the path already had.
+   */
+  @Override
+  public Either<IOException, Boolean> register(
+      final Path path, final int maxDepth, final Priority priority) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    final List<Migration> migrations = new ArrayList<>();
+    final int shard = route(absolutePath, maxDepth, priority, migrations);
+    final Iterator<Migration> it = migrations.iterator();
+    while (it.hasNext()) migrate(it.next(), shard);
+    return priority == null
+        ? shards.get(shard).register(absolutePath, maxDepth)
+        : shards.get(shard).register(absolutePath, maxDepth, priority);
+  }
+
+  @Override
+  public Future<Boolean> registerAsync(final Path path, final int maxDepth) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    final List<Migration> migrations = new ArrayList<>();
+    final int shard = route(absolutePath, maxDepth, null, migrations);
+    final Iterator<Migration> it = migrations.iterator();
+    while (it.hasNext()) migrate(it.next(), shard);
+    return shards.get(shard).registerAsync(absolutePath, maxDepth);
+  }
+
+  @Override
+  public void unregister(final Path path) {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    Root root = null;
+    if (roots.lock()) {
+      try {
+        root = roots.remove(absolutePath);
+        if (root == null) root = find(absolutePath);
+      } finally {
+        roots.unlock();
+      }
+    }
+    if (root != null) shards.get(root.shard).unregister(absolutePath);
+  }
+
+  /*
+   * The shards share a single change journal so any of them can answer for all of them.
+   */
+  @Override
+  public long getChangeToken() {
+    return shards.get(0).getChangeToken();
+  }
+
+  @Override
+  public Changes<T> changesSince(final long token) {
+    return shards.get(0).changesSince(token);
+  }
+
+  /*
+   * Each shard is snapshotted in turn, so the snapshot is consistent within each shard but not
+   * necessarily across shards.
+   */
+  @Override
+  public Snapshot<T> snapshot() {
+    final List<Snapshot<T>> snapshots = new ArrayList<>();
+    final Iterator<FileTreeRepository<T>> it = shards.iterator();
+    while (it.hasNext()) snapshots.add(it.next().snapshot());
+    return Snapshots.concat(snapshots);
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesNamed(final String fileName) {
+    final List<Entry<T>> result = new ArrayList<>();
+    final Iterator<FileTreeRepository<T>> it = shards.iterator();
+    while (it.hasNext()) result.addAll(it.next().listEntriesNamed(fileName));
+    return result;
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesWithExtension(final String extension) {
+    final List<Entry<T>> result = new ArrayList<>();
+    final Iterator<FileTreeRepository<T>> it = shards.iterator();
+    while (it.hasNext()) result.addAll(it.next().listEntriesWithExtension(extension));
+    return result;
+  }
+
+  @Override
+  public List<Entry<T>> listEntriesModifiedSince(final long lastModified) {
+    final List<Entry<T>> result = new ArrayList<>();
+    final Iterator<FileTreeRepository<T>> it = shards.iterator();
+    while (it.hasNext()) result.addAll(it.next().listEntriesModifiedSince(lastModified));
+    return result;
+  }
+
+  @Override
+  public DirectorySummary summarize(final Path path) {
+    final FileTreeRepository<T> shard = shardFor(path);
+    return shard == null ? null : shard.summarize(path);
+  }
+
+  /*
+   * Waits for each of the shards that contain the path, or a registered directory inside of it, in
+   * turn. A shard that has already settled returns immediately, so the total wait is bounded by
+   * the shard that takes the longest to settle rather than by the sum of the quiet periods.
+   */
+  @Override
+  public boolean awaitQuiescence(
+      final Path path, final long quietPeriod, final long timeout, final TimeUnit timeUnit)
+      throws InterruptedException {
+    final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
+    final Set<Integer> overlapping = new HashSet<>();
+    if (roots.lock()) {
+      try {
+        final Root root = find(absolutePath);
+        if (root != null) overlapping.add(root.shard);
+        final Iterator<Map.Entry<Path, Root>> it = roots.iterator();
+        while (it.hasNext()) {
+          final Map.Entry<Path, Root> entry = it.next();
+          if (entry.getKey().startsWith(absolutePath)) overlapping.add(entry.getValue().shard);
+        }
+      } finally {
+        roots.unlock();
+      }
+    }
+    final long deadline = System.nanoTime() + timeUnit.toNanos(timeout);
+    final Iterator<Integer> it = overlapping.iterator();
+    while (it.hasNext()) {
+      final long remaining = deadline - System.nanoTime();
+      final FileTreeRepository<T> shard = shards.get(it.next());
+      if (!shard.awaitQuiescence(
+          absolutePath,
+          timeUnit.toNanos(quietPeriod),
+          Math.max(remaining, 0),
+          TimeUnit.NANOSECONDS)) {
+        return false;
+      }
+    }
+    return !closed.get();
+  }
+
+  @Override
+  public List<Entry<T>> listEntries(
+      final Path path, final int maxDepth, final Filter<? super Entry<T>> filter)
+      throws IOException {
+    final FileTreeRepository<T> shard = shardFor(path);
+    return shard == null
+        ? Collections.<Entry<T>>emptyList()
+        : shard.listEntries(path, maxDepth, filter);
+  }
+
+  @Override
+  public List<TypedPath> list(
+      final Path path, final int maxDepth, final Filter<? super TypedPath> filter)
+      throws IOException {
+    final FileTreeRepository<T> shard = shardFor(path);
+    return shard == null
+        ? Collections.<TypedPath>emptyList()
+        : shard.list(path, maxDepth, filter);
+  }
+
+  @Override
+  public int addObserver(final Observer<? super Entry<T>> observer) {
+    return addCacheObserver(
+        new CacheObserver<T>() {
+          @Override
+          public void onCreate(final Entry<T> newEntry) {
+            observer.onNext(newEntry);
+          }
+
+          @Override
+          public void onDelete(final Entry<T> oldEntry) {
+            observer.onNext(oldEntry);
+          }
+
+          @Override
+          public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+            observer.onNext(newEntry);
+          }
+
+          @Override
+          public void onError(final IOException exception) {
+            observer.onError(exception);
+          }
+        });
+  }
+
+  @Override
+  public int addCacheObserver(final CacheObserver<T> observer) {
+    final int[] shardHandles = new int[shards.size()];
+    for (int i = 0; i < shardHandles.length; ++i) {
+      shardHandles[i] = shards.get(i).addCacheObserver(observer);
+    }
+    final int handle = nextHandle.getAndIncrement();
+    handles.put(handle, shardHandles);
+    observers.put(handle, observer);
+    return handle;
+  }
+
+  @Override
+  public void removeObserver(final int handle) {
+    observers.remove(handle);
+    final int[] shardHandles = handles.remove(handle);
+    if (shardHandles != null) {
+      for (int i = 0; i < shardHandles.length; ++i) {
+        shards.get(i).removeObserver(shardHandles[i]);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    if (closed.compareAndSet(false, true)) {
+      final Iterator<FileTreeRepository<T>> it = shards.iterator();
+      while (it.hasNext()) it.next().close();
+      roots.clear();
+      handles.clear();
+      observers.clear();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "ShardedFileTreeRepository(shards = " + shards.size() + ")";
+  }
+
+  /*
+   * Selects the shard for a newly registered path. If the path is inside of a registered directory
+   * it must go in the same shard as that directory. Otherwise, if it contains registered
+   * directories, it goes in the shard of one of them and the others are added to the migrations so
+   * that they can be moved into that shard. Unrelated paths are assigned by hash.
+   */
+  private int route(
+      final Path path,
+      final int maxDepth,
+      final Priority priority,
+      final List<Migration> migrations) {
+    if (roots.lock()) {
+      try {
+        final Root existing = roots.get(path);
+        final Root parent = existing != null ? existing : find(path);
+        final List<Map.Entry<Path, Root>> children = new ArrayList<>();
+        final Iterator<Map.Entry<Path, Root>> it = roots.iterator();
+        while (it.hasNext()) {
+          final Map.Entry<Path, Root> entry = it.next();
+          if (entry.getKey().startsWith(path) && !entry.getKey().equals(path)) {
+            children.add(entry);
+          }
+        }
+        final int shard =
+            parent != null
+                ? parent.shard
+                : !children.isEmpty()
+                    ? children.get(0).getValue().shard
+                    : (path.hashCode() & Integer.MAX_VALUE) % shards.size();
+        final Iterator<Map.Entry<Path, Root>> childIterator = children.iterator();
+        while (childIterator.hasNext()) {
+          final Map.Entry<Path, Root> child = childIterator.next();
+          final Root root = child.getValue();
+          if (root.shard != shard) {
+            migrations.add(
+                new Migration(child.getKey(), root.shard, root.maxDepth, root.priority));
+          }
+        }
+        final int depth = existing == null ? maxDepth : Math.max(existing.maxDepth, maxDepth);
+        final Priority rootPriority =
+            priority == null && existing != null ? existing.priority : priority;
+        roots.put(path, new Root(shard, depth, rootPriority));
+        if (Loggers.shouldLog(logger, Level.DEBUG))
+          logger.debug(this + " assigned " + path + " to shard " + shard);
+        return shard;
+      } finally {
+        roots.unlock();
+      }
+    } else {
+      return 0;
+    }
+  }
+
+  /*
+   * Moves a registered directory to another shard. The directory is unregistered from the old
+   * shard before it is registered in the new one so that no change is reported by both of them.
+   * The changes that happen while neither shard is watching the directory are found by comparing
+   * the entries that each shard had cached for it and are reported to the observers. The
+   * callbacks of each shard run asynchronously, so the changes that either shard reports while
+   * the directory moves are recorded and are not reported again. As with a rescan, a change to a
+   * file that does not change its value can't be detected this way.
+   */
+  private void migrate(final Migration migration, final int shard) {
+    final FileTreeRepository<T> from = shards.get(migration.from);
+    final FileTreeRepository<T> to = shards.get(shard);
+    final ChangeRecorder fromChanges = new ChangeRecorder(migration.path);
+    final ChangeRecorder toChanges = new ChangeRecorder(migration.path);
+    final Map<Path, Entry<T>> before;
+    final Map<Path, Entry<T>> after;
+    final int fromHandle = from.addCacheObserver(fromChanges);
+    final int toHandle = to.addCacheObserver(toChanges);
+    try {
+      before = entries(from, migration);
+      from.unregister(migration.path);
+      await(from, migration);
+      if (migration.priority == null) {
+        to.register(migration.path, migration.maxDepth);
+      } else {
+        to.register(migration.path, migration.maxDepth, migration.priority);
+      }
+      if (roots.lock()) {
+        try {
+          roots.put(migration.path, new Root(shard, migration.maxDepth, migration.priority));
+        } finally {
+          roots.unlock();
+        }
+      }
+      after = entries(to, migration);
+      await(to, migration);
+    } finally {
+      from.removeObserver(fromHandle);
+      to.removeObserver(toHandle);
+    }
+    // The old shard may have reported changes after its entries were listed.
+    final Iterator<Map.Entry<Path, Entry<T>>> fromIterator = fromChanges.changes().iterator();
+    while (fromIterator.hasNext()) {
+      final Map.Entry<Path, Entry<T>> change = fromIterator.next();
+      if (change.getValue() == null) {
+        before.remove(change.getKey());
+      } else {
+        before.put(change.getKey(), change.getValue());
+      }
+    }
+    // The new shard reports every change that it finds after it was registered.
+    final Iterator<Map.Entry<Path, Entry<T>>> toIterator = toChanges.changes().iterator();
+    while (toIterator.hasNext()) {
+      final Path path = toIterator.next().getKey();
+      before.remove(path);
+      after.remove(path);
+    }
+    final List<CacheObserver<T>> cacheObservers = observers.values();
+    final Iterator<Entry<T>> it = after.values().iterator();
+    while (it.hasNext()) {
+      final Entry<T> newEntry = it.next();
+      final Entry<T> oldEntry = before.remove(newEntry.getTypedPath().getPath());
+      final Iterator<CacheObserver<T>> observerIterator = cacheObservers.iterator();
+      while (observerIterator.hasNext()) {
+        final CacheObserver<T> observer = observerIterator.next();
+        if (oldEntry == null) {
+          observer.onCreate(newEntry);
+        } else if (!oldEntry.equals(newEntry)) {
+          observer.onUpdate(oldEntry, newEntry);
+        }
+      }
+    }
+    final Iterator<Entry<T>> removed = before.values().iterator();
+    while (removed.hasNext()) {
+      final Entry<T> oldEntry = Entries.setExists(removed.next(), false);
+      final Iterator<CacheObserver<T>> observerIterator = cacheObservers.iterator();
+      while (observerIterator.hasNext()) observerIterator.next().onDelete(oldEntry);
+    }
+    if (Loggers.shouldLog(logger, Level.DEBUG))
+      logger.debug(
+          this + " moved " + migration.path + " from shard " + migration.from + " to " + shard);
+  }
+
+  /*
+   * Waits for the shard to run the callbacks for the changes that it has already found.
+   */
+  private void await(final FileTreeRepository<T> shard, final Migration migration) {
+    try {
+      shard.awaitQuiescence(migration.path, 0, MIGRATION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /*
+   * Records the last change that a shard reports for each path in a directory. The entry for a
+   * deleted path is null.
+   */
+  private final class ChangeRecorder implements CacheObserver<T> {
+    private final Path path;
+    private final Map<Path, Entry<T>> changes = new HashMap<>();
+
+    ChangeRecorder(final Path path) {
+      this.path = path;
+    }
+
+    @Override
+    public void onCreate(final Entry<T> newEntry) {
+      record(newEntry.getTypedPath().getPath(), newEntry);
+    }
+
+    @Override
+    public void onDelete(final Entry<T> oldEntry) {
+      record(oldEntry.getTypedPath().getPath(), null);
+    }
+
+    @Override
+    public void onUpdate(final Entry<T> oldEntry, final Entry<T> newEntry) {
+      record(newEntry.getTypedPath().getPath(), newEntry);
+    }
+
+    @Override
+    public void onError(final IOException exception) {}
+
+    synchronized List<Map.Entry<Path, Entry<T>>> changes() {
+      return new ArrayList<>(changes.entrySet());
+    }
+
+    private synchronized void record(final Path entryPath, final Entry<T> entry) {
+      if (entryPath.startsWith(path) && !entryPath.equals(path)) changes.put(entryPath, entry);
+    }
+  }
+
+  private Map<Path, Entry<T>> entries(
+      final FileTreeRepository<T> repository, final Migration migration) {
+    final Map<Path, Entry<T>> result = new HashMap<>();
+    try {
+      final Iterator<Entry<T>> it =
+          repository.listEntries(migration.path, migration.maxDepth, AllPass).iterator();
+      while (it.hasNext()) {
+        final Entry<T> entry = it.next();
+        result.put(entry.getTypedPath().getPath(), entry);
+      }
+    } catch (final IOException e) {
+      // The directory was deleted, in which case both shards report it.
+    }
+    return result;
+  }
+
+  private FileTreeRepository<T> shardFor(final Path path) {
+    Root root = null;
+    if (roots.lock()) {
+      try {
+        root = find(path);
+      } finally {
+        roots.unlock();
+      }
+    }
+    return root == null ? null : shards.get(root.shard);
+  }
+
+  /*
+   * Returns the most specific registered directory that contains the path. Must be called with
+   * the roots lock held.
+   */
+  private Root find(final Path path) {
+    Path best = null;
+    Root result = null;
+    final Iterator<Map.Entry<Path, Root>> it = roots.iterator();
+    while (it.hasNext()) {
+      final Map.Entry<Path, Root> entry = it.next();
+      final Path root = entry.getKey();
+      if (path.startsWith(root) && (best == null || root.startsWith(best))) {
+        best = root;
+        result = entry.getValue();
+      }
+    }
+    return result;
+  }
+}
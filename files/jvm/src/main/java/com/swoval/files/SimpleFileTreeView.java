@@ -123,6 +123,11 @@ final class SimpleFileTreeView implements FileTreeView {
     final Filter<? super TypedPath> filter;
     final boolean followLinks;
     final boolean ignoreExceptions;
+    /*
+     * The glob and ignore file filters reject every child of a rejected directory so there is no
+     * need to list the directories that they reject.
+     */
+    final boolean prune;
 
     Lister(
         final Filter<? super TypedPath> filter,
@@ -133,6 +138,7 @@ final class SimpleFileTreeView implements FileTreeView {
       this.followLinks = followLinks;
       this.result = result;
       this.ignoreExceptions = ignoreExceptions;
+      this.prune = filter instanceof GlobFilter || filter instanceof GitIgnoreFilter;
     }
 
     void fillResults(final Path dir, final int maxDepth) throws IOException {
@@ -154,10 +160,11 @@ final class SimpleFileTreeView implements FileTreeView {
           if (!part.equals(".") && !part.equals("..")) {
             final Path path = Paths.get(dir + File.separator + part);
             final TypedPath file = TypedPaths.get(path, DIRECTORY);
-            if (filter.accept(file)) {
+            final boolean accepted = filter.accept(file);
+            if (accepted) {
               result.add(file);
             }
-            if (maxDepth > 0) {
+            if (maxDepth > 0 && (accepted || !prune)) {
               fillResults(path, decrement(maxDepth));
             }
           }
@@ -175,10 +182,11 @@ final class SimpleFileTreeView implements FileTreeView {
           final Path fileName = Paths.get(dir + File.separator + symlinkIt.next());
           final TypedPath typedPath =
               TypedPaths.get(fileName, getSymbolicLinkTargetKind(fileName, followLinks));
-          if (filter.accept(typedPath)) {
+          final boolean accepted = filter.accept(typedPath);
+          if (accepted) {
             result.add(typedPath);
           }
-          if (typedPath.isDirectory() && maxDepth > 0) {
+          if (typedPath.isDirectory() && maxDepth > 0 && (accepted || !prune)) {
             if (visited.add(typedPath.getPath().toRealPath())) {
               fillResults(fileName, decrement(maxDepth));
             } else {
@@ -0,0 +1,271 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.CacheObserver;
+import com.swoval.files.FileTreeDataViews.Entry;
+import com.swoval.files.FileTreeDataViews.Snapshot;
+import com.swoval.functional.Filter;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides methods to compare the {@link Snapshot} instances returned by {@link
+ * FileTreeRepository#snapshot()}.
+ */
+public class Snapshots {
+  private Snapshots() {}
+
+  /**
+   * Reports the differences between two snapshots of the same repository to the observer. An
+   * entry that is only in the first snapshot is reported as deleted, an entry that is only in the
+   * second snapshot is reported as created and an entry that was replaced in between is reported
+   * as updated. The snapshots share the subtrees that did not change, so the cost of the comparison
+   * is proportional to the number of changes rather than to the size of the snapshots. Snapshots
+   * that were not taken from the same repository can still be compared, but every entry of both
+   * snapshots has to be visited.
+   *
+   * @param oldSnapshot the earlier snapshot
+   * @param newSnapshot the later snapshot
+   * @param observer the observer that receives the differences
+   * @param <T> the data type of the entries
+   */
+  public static <T> void diff(
+      final Snapshot<T> oldSnapshot,
+      final Snapshot<T> newSnapshot,
+      final CacheObserver<T> observer) {
+    final SnapshotImpl<T> oldImpl = (SnapshotImpl<T>) oldSnapshot;
+    final SnapshotImpl<T> newImpl = (SnapshotImpl<T>) newSnapshot;
+    final Iterator<Node<T>> oldRoots = oldImpl.roots.iterator();
+    final Iterator<Node<T>> newRoots = newImpl.roots.iterator();
+    while (oldRoots.hasNext() || newRoots.hasNext()) {
+      final Node<T> oldRoot = oldRoots.hasNext() ? oldRoots.next() : null;
+      final Node<T> newRoot = newRoots.hasNext() ? newRoots.next() : null;
+      diff(oldRoot, oldImpl.filter, newRoot, newImpl.filter, observer);
+    }
+  }
+
+  /*
+   * Returns a snapshot with the same contents as the snapshot that only contains the entries whose
+   * paths are accepted by the filter. The filter must not change after it is applied.
+   */
+  static <T> Snapshot<T> filter(final Snapshot<T> snapshot, final Filter<Path> filter) {
+    return new SnapshotImpl<>(((SnapshotImpl<T>) snapshot).roots, filter);
+  }
+
+  /*
+   * Returns a snapshot that contains the contents of all of the snapshots, e.g. of the shards of a
+   * repository.
+   */
+  static <T> Snapshot<T> concat(final List<Snapshot<T>> snapshots) {
+    final List<Node<T>> roots = new ArrayList<>();
+    final Iterator<Snapshot<T>> it = snapshots.iterator();
+    while (it.hasNext()) roots.addAll(((SnapshotImpl<T>) it.next()).roots);
+    return new SnapshotImpl<>(roots, null);
+  }
+
+  private static <T> void diff(
+      final Node<T> oldNode,
+      final Filter<Path> oldFilter,
+      final Node<T> newNode,
+      final Filter<Path> newFilter,
+      final CacheObserver<T> observer) {
+    if (oldNode == newNode && oldFilter == newFilter) return;
+    final Entry<T> oldEntry = oldNode == null ? null : visible(oldNode.entry, oldFilter);
+    final Entry<T> newEntry = newNode == null ? null : visible(newNode.entry, newFilter);
+    if (oldEntry != null && newEntry != null) {
+      if (oldEntry != newEntry) observer.onUpdate(oldEntry, newEntry);
+    } else if (oldEntry != null) {
+      observer.onDelete(oldEntry);
+    } else if (newEntry != null) {
+      observer.onCreate(newEntry);
+    }
+    final Map<Path, Node<T>> oldChildren = oldNode == null ? null : oldNode.children;
+    final Map<Path, Node<T>> newChildren = newNode == null ? null : newNode.children;
+    if (oldChildren == newChildren && oldFilter == newFilter) return;
+    if (newChildren != null) {
+      final Iterator<Map.Entry<Path, Node<T>>> it = newChildren.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<Path, Node<T>> child = it.next();
+        final Node<T> oldChild = oldChildren == null ? null : oldChildren.get(child.getKey());
+        diff(oldChild, oldFilter, child.getValue(), newFilter, observer);
+      }
+    }
+    if (oldChildren != null) {
+      final Iterator<Map.Entry<Path, Node<T>>> it = oldChildren.entrySet().iterator();
+      while (it.hasNext()) {
+        final Map.Entry<Path, Node<T>> child = it.next();
+        if (newChildren == null || !newChildren.containsKey(child.getKey())) {
+          diff(child.getValue(), oldFilter, null, newFilter, observer);
+        }
+      }
+    }
+  }
+
+  private static <T> Entry<T> visible(final Entry<T> entry, final Filter<Path> filter) {
+    return entry == null || filter == null || filter.accept(entry.getTypedPath().getPath())
+        ? entry
+        : null;
+  }
+
+  /*
+   * A node of the persistent tree. The root node has a child for each file system root and every
+   * other node corresponds to a path element. The entry is null for the nodes of the parents of
+   * the registered directories, which are not themselves in the cache. A node is never modified
+   * once it is reachable from a snapshot.
+   */
+  private static final class Node<T> {
+    private final int generation;
+    private Entry<T> entry;
+    private Map<Path, Node<T>> children;
+
+    Node(final int generation, final Entry<T> entry, final Map<Path, Node<T>> children) {
+      this.generation = generation;
+      this.entry = entry;
+      this.children = children;
+    }
+  }
+
+  /*
+   * A persistent tree of the entries in a cache. Each snapshot starts a new generation. A node from
+   * an earlier generation may be shared with a snapshot, so it is copied, along with its parents,
+   * before it is modified, but a node from the current generation is modified in place. Taking a
+   * snapshot is therefore constant time and, after a snapshot is taken, each change copies at most
+   * the directories along its path that were not already copied since the snapshot. All access
+   * must be synchronized by the caller.
+   */
+  static final class Tree<T> {
+    private int generation = 0;
+    private Node<T> root = new Node<>(0, null, null);
+
+    Snapshot<T> snapshot() {
+      final Snapshot<T> result =
+          new SnapshotImpl<>(Collections.<Node<T>>singletonList(root), null);
+      generation += 1;
+      return result;
+    }
+
+    void put(final Entry<T> entry) {
+      final Path path = entry.getTypedPath().getPath();
+      Node<T> node = own(null, null, root);
+      final Iterator<Path> it = elements(path).iterator();
+      while (it.hasNext()) {
+        final Path key = it.next();
+        if (node.children == null) node.children = new HashMap<>();
+        final Node<T> child = node.children.get(key);
+        node = child == null ? add(node, key) : own(node, key, child);
+      }
+      node.entry = entry;
+    }
+
+    void remove(final Path path) {
+      Node<T> node = own(null, null, root);
+      final Iterator<Path> it = elements(path).iterator();
+      while (it.hasNext()) {
+        final Path key = it.next();
+        final Node<T> child = node.children == null ? null : node.children.get(key);
+        if (child == null) return;
+        if (!it.hasNext()) {
+          node.children.remove(key);
+        } else {
+          node = own(node, key, child);
+        }
+      }
+    }
+
+    private Node<T> add(final Node<T> parent, final Path key) {
+      final Node<T> node = new Node<>(generation, null, null);
+      parent.children.put(key, node);
+      return node;
+    }
+
+    /*
+     * Returns the node if it belongs to the current generation. Otherwise replaces it with a copy
+     * in its parent, which must already belong to the current generation.
+     */
+    private Node<T> own(final Node<T> parent, final Path key, final Node<T> node) {
+      if (node.generation == generation) return node;
+      final Node<T> copy =
+          new Node<>(
+              generation,
+              node.entry,
+              node.children == null ? null : new HashMap<>(node.children));
+      if (parent == null) {
+        root = copy;
+      } else {
+        parent.children.put(key, copy);
+      }
+      return copy;
+    }
+  }
+
+  private static List<Path> elements(final Path path) {
+    final List<Path> result = new ArrayList<>();
+    if (path.getRoot() != null) result.add(path.getRoot());
+    final Iterator<Path> it = path.iterator();
+    while (it.hasNext()) result.add(it.next());
+    return result;
+  }
+
+  private static final class SnapshotImpl<T> implements Snapshot<T> {
+    private final List<Node<T>> roots;
+    private final Filter<Path> filter;
+
+    SnapshotImpl(final List<Node<T>> roots, final Filter<Path> filter) {
+      this.roots = roots;
+      this.filter = filter;
+    }
+
+    @Override
+    public List<Entry<T>> listEntries(
+        final Path path, final int maxDepth, final Filter<? super Entry<T>> filter) {
+      final List<Entry<T>> result = new ArrayList<>();
+      final Iterator<Node<T>> it = roots.iterator();
+      while (it.hasNext()) {
+        Node<T> node = it.next();
+        final Iterator<Path> elements = elements(path).iterator();
+        while (node != null && elements.hasNext()) {
+          node = node.children == null ? null : node.children.get(elements.next());
+        }
+        if (node != null) {
+          final boolean isDirectory =
+              node.entry == null || node.entry.getTypedPath().isDirectory();
+          if (maxDepth < 0 || !isDirectory) {
+            if (node.entry != null) add(node.entry, filter, result);
+          } else if (node.children != null) {
+            addChildren(node, maxDepth, filter, result);
+          }
+        }
+      }
+      return result;
+    }
+
+    private void addChildren(
+        final Node<T> node,
+        final int maxDepth,
+        final Filter<? super Entry<T>> filter,
+        final List<Entry<T>> result) {
+      final Iterator<Node<T>> it = node.children.values().iterator();
+      while (it.hasNext()) {
+        final Node<T> child = it.next();
+        if (child.entry != null) add(child.entry, filter, result);
+        if (maxDepth > 0 && child.children != null) {
+          addChildren(child, maxDepth - 1, filter, result);
+        }
+      }
+    }
+
+    private void add(
+        final Entry<T> entry, final Filter<? super Entry<T>> filter, final List<Entry<T>> result) {
+      if (visible(entry, this.filter) != null && filter.accept(entry)) result.add(entry);
+    }
+
+    @Override
+    public String toString() {
+      return "Snapshot@" + System.identityHashCode(this);
+    }
+  }
+}
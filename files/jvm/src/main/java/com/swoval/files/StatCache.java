@@ -0,0 +1,87 @@
+package com.swoval.files;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Remembers the attributes of the paths that are read while a single file system event is
+ * handled. Handling an event reads the attributes of the same path several times: the path
+ * watcher reads them to decide whether the path still exists, again when it forwards the event
+ * and the cache reads them once more when it updates the entry and when it converts the path. All
+ * of those reads go through NioWrappers.readAttributes, which consults the generation of the
+ * current thread, if there is one, so that each path is only read once per event.
+ *
+ * A generation is started before an event is dispatched and discarded as soon as it has been
+ * handled. The attributes are never reused for a later event since the file may have changed in
+ * between, in which case the later event has to see the change. Generations can be nested, in
+ * which case the outermost one is used. The counters record the number of attribute reads that
+ * were made during a generation and the number that were saved by it.
+ */
+final class StatCache {
+  private static final ThreadLocal<StatCache> current = new ThreadLocal<>();
+  private static final AtomicLong performed = new AtomicLong(0);
+  private static final AtomicLong saved = new AtomicLong(0);
+  private final Map<Path, Object> followed = new HashMap<>();
+  private final Map<Path, Object> notFollowed = new HashMap<>();
+  private int depth = 0;
+
+  private StatCache() {}
+
+  static void begin() {
+    StatCache statCache = current.get();
+    if (statCache == null) {
+      statCache = new StatCache();
+      current.set(statCache);
+    }
+    statCache.depth += 1;
+  }
+
+  static void end() {
+    final StatCache statCache = current.get();
+    if (statCache != null) {
+      statCache.depth -= 1;
+      if (statCache.depth == 0) current.remove();
+    }
+  }
+
+  static BasicFileAttributes readAttributes(final Path path, final boolean followLinks)
+      throws IOException {
+    final StatCache statCache = current.get();
+    if (statCache == null) return NioWrappers.read(path, followLinks);
+    final Map<Path, Object> attributes = followLinks ? statCache.followed : statCache.notFollowed;
+    Object result = attributes.get(path);
+    if (result == null && followLinks) {
+      // Following a path that is not a symbolic link reads the same attributes.
+      final Object notFollowed = statCache.notFollowed.get(path);
+      if (notFollowed instanceof BasicFileAttributes
+          && !((BasicFileAttributes) notFollowed).isSymbolicLink()) {
+        result = notFollowed;
+      }
+    }
+    if (result == null) {
+      performed.incrementAndGet();
+      try {
+        result = NioWrappers.read(path, followLinks);
+      } catch (final IOException e) {
+        result = e;
+      }
+      attributes.put(path, result);
+    } else {
+      saved.incrementAndGet();
+    }
+    if (result instanceof IOException) throw (IOException) result;
+    return (BasicFileAttributes) result;
+  }
+
+  static long getPerformed() {
+    return performed.get();
+  }
+
+  static long getSaved() {
+    return saved.get();
+  }
+}
@@ -0,0 +1,247 @@
+package com.swoval.files;
+
+import com.swoval.files.FileTreeDataViews.DirectorySummary;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Maintains aggregate statistics for every directory in a cache. There is a node for each cached
+ * path and each node stores the totals for its descendants. When a path is added, updated or
+ * removed, the difference in its contribution is applied to each of its ancestors, so both updates
+ * and queries take time proportional to the depth of the path. The exception is the newest last
+ * modified time, which can not be subtracted: if the file that was the newest in a directory is
+ * removed or becomes older, the newest time of that directory is recomputed from its children.
+ * Only the files contribute to the newest time because the last modified time of a directory
+ * changes whenever its children do, without the cache necessarily updating the directory entry.
+ *
+ * The cache does not store the size or the last modified time of its files, so they are read when
+ * a file is added or updated. The cache updates the tree while holding its directories lock, so
+ * put and remove only queue the update. The attributes are read, and the updates applied in the
+ * order that they were queued, by flush, which the cache calls once it has released the lock.
+ * Queries flush the pending updates first. All of the methods are thread safe.
+ */
+final class SummaryTree {
+  private final Node root = new Node(null, null);
+  private final ArrayDeque<Update> pending = new ArrayDeque<>();
+
+  void put(final TypedPath typedPath) {
+    synchronized (pending) {
+      pending.add(new Update(typedPath.getPath(), typedPath));
+    }
+  }
+
+  /*
+   * Removes the path and all of its descendants.
+   */
+  void remove(final Path path) {
+    synchronized (pending) {
+      pending.add(new Update(path, null));
+    }
+  }
+
+  /*
+   * Applies the pending updates. It reads the attributes of the updated files, so it should not be
+   * called while holding the directories lock of the cache.
+   */
+  synchronized void flush() {
+    Update update;
+    while ((update = poll()) != null) {
+      if (update.typedPath == null) {
+        applyRemove(update.path);
+      } else {
+        applyPut(update.typedPath);
+      }
+    }
+  }
+
+  /*
+   * Returns the summary of the directory or null if it is not a cached directory.
+   */
+  synchronized DirectorySummary summarize(final Path path) {
+    flush();
+    final Node node = find(path);
+    return node != null && node.present && node.isDirectory
+        ? new DirectorySummary(
+            node.entries,
+            node.files,
+            node.totalSize,
+            node.newest == Long.MIN_VALUE ? 0 : node.newest)
+        : null;
+  }
+
+  private Update poll() {
+    synchronized (pending) {
+      return pending.poll();
+    }
+  }
+
+  @SuppressWarnings("EmptyCatchBlock")
+  private void applyPut(final TypedPath typedPath) {
+    Node node = root;
+    final Iterator<Path> it = elements(typedPath.getPath()).iterator();
+    while (it.hasNext()) {
+      final Path key = it.next();
+      if (node.children == null) node.children = new HashMap<>();
+      Node child = node.children.get(key);
+      if (child == null) {
+        child = new Node(node, key);
+        node.children.put(key, child);
+      }
+      node = child;
+    }
+    final int oldEntries = node.entryCount();
+    final int oldFiles = node.fileCount();
+    final long oldSize = node.totalSize();
+    final long oldNewest = node.newest();
+    if (!typedPath.isDirectory() && node.children != null) {
+      node.children = null;
+      node.entries = 0;
+      node.files = 0;
+      node.totalSize = 0;
+      node.newest = Long.MIN_VALUE;
+    }
+    node.present = true;
+    node.isFile = typedPath.isFile();
+    node.isDirectory = typedPath.isDirectory();
+    node.size = 0;
+    node.lastModified = Long.MIN_VALUE;
+    if (node.isFile) {
+      try {
+        final BasicFileAttributes attrs = NioWrappers.readAttributes(typedPath.getPath());
+        node.size = attrs.size();
+        node.lastModified = attrs.lastModifiedTime().toMillis();
+      } catch (final IOException e) {
+      }
+    }
+    propagate(
+        node.parent,
+        node.entryCount() - oldEntries,
+        node.fileCount() - oldFiles,
+        node.totalSize() - oldSize,
+        oldNewest,
+        node.newest());
+  }
+
+  private void applyRemove(final Path path) {
+    final Node node = find(path);
+    if (node != null && node.parent != null) {
+      node.parent.children.remove(node.key);
+      propagate(
+          node.parent,
+          -node.entryCount(),
+          -node.fileCount(),
+          -node.totalSize(),
+          node.newest(),
+          Long.MIN_VALUE);
+    }
+  }
+
+  private Node find(final Path path) {
+    Node node = root;
+    final Iterator<Path> it = elements(path).iterator();
+    while (node != null && it.hasNext()) {
+      node = node.children == null ? null : node.children.get(it.next());
+    }
+    return node;
+  }
+
+  private static void propagate(
+      final Node parent,
+      final int entries,
+      final int files,
+      final long size,
+      final long oldNewest,
+      final long newNewest) {
+    Node node = parent;
+    long previousNewest = oldNewest;
+    long currentNewest = newNewest;
+    while (node != null
+        && (entries != 0 || files != 0 || size != 0 || previousNewest != currentNewest)) {
+      final long before = node.newest();
+      node.entries += entries;
+      node.files += files;
+      node.totalSize += size;
+      if (currentNewest > node.newest) {
+        node.newest = currentNewest;
+      } else if (previousNewest == node.newest && currentNewest < previousNewest) {
+        node.newest = Long.MIN_VALUE;
+        if (node.children != null) {
+          final Iterator<Node> it = node.children.values().iterator();
+          while (it.hasNext()) node.newest = Math.max(node.newest, it.next().newest());
+        }
+      }
+      previousNewest = before;
+      currentNewest = node.newest();
+      node = node.parent;
+    }
+  }
+
+  private static List<Path> elements(final Path path) {
+    final List<Path> result = new ArrayList<>();
+    if (path.getRoot() != null) result.add(path.getRoot());
+    final Iterator<Path> it = path.iterator();
+    while (it.hasNext()) result.add(it.next());
+    return result;
+  }
+
+  private static final class Update {
+    private final Path path;
+    private final TypedPath typedPath;
+
+    /*
+     * The typed path is null for a removal.
+     */
+    Update(final Path path, final TypedPath typedPath) {
+      this.path = path;
+      this.typedPath = typedPath;
+    }
+  }
+
+  /*
+   * The parents of the registered directories are not themselves cached, so they have nodes that
+   * are not present. The totals of a node only include its descendants, while the methods return
+   * its contribution to the totals of its parent.
+   */
+  private static final class Node {
+    private final Node parent;
+    private final Path key;
+    private Map<Path, Node> children;
+    private boolean present = false;
+    private boolean isFile = false;
+    private boolean isDirectory = false;
+    private long size = 0;
+    private long lastModified = Long.MIN_VALUE;
+    private int entries = 0;
+    private int files = 0;
+    private long totalSize = 0;
+    private long newest = Long.MIN_VALUE;
+
+    Node(final Node parent, final Path key) {
+      this.parent = parent;
+      this.key = key;
+    }
+
+    int entryCount() {
+      return (present ? 1 : 0) + entries;
+    }
+
+    int fileCount() {
+      return (present && isFile ? 1 : 0) + files;
+    }
+
+    long totalSize() {
+      return (present && isFile ? size : 0) + totalSize;
+    }
+
+    long newest() {
+      return present && isFile ? Math.max(lastModified, newest) : newest;
+    }
+  }
+}
@@ -18,14 +18,29 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
   private final PathWatcher<PathWatchers.Event> pathWatcher;
   private final Observers<PathWatchers.Event> observers = new Observers<>();
   private final DirectoryRegistry pathWatcherDirectoryRegistry;
+  private final Filter<? super TypedPath> filter;
 
   SymlinkFollowingPathWatcher(
       final PathWatcher<PathWatchers.Event> pathWatcher,
       final DirectoryRegistry directoryRegistry,
       final Logger logger)
       throws InterruptedException, IOException {
+    this(pathWatcher, directoryRegistry, AllPass, logger);
+  }
+
+  /*
+   * Symbolic links inside of the directories rejected by the filter are not followed. The filter
+   * should be the same filter that was used to create the delegate path watcher.
+   */
+  SymlinkFollowingPathWatcher(
+      final PathWatcher<PathWatchers.Event> pathWatcher,
+      final DirectoryRegistry directoryRegistry,
+      final Filter<? super TypedPath> filter,
+      final Logger logger)
+      throws InterruptedException, IOException {
     this.pathWatcher = pathWatcher;
     this.pathWatcherDirectoryRegistry = directoryRegistry;
+    this.filter = filter;
     this.symlinkWatcher =
         new SymlinkWatcher(
             Platform.isMac()
@@ -42,7 +57,7 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
           @Override
           public void onNext(final Event event) {
             final TypedPath typedPath = event.getTypedPath();
-            if (typedPath.exists() && typedPath.isSymbolicLink()) {
+            if (typedPath.exists() && typedPath.isSymbolicLink() && filter.accept(typedPath)) {
               try {
                 final int maxDepth = directoryRegistry.maxDepthFor(typedPath.getPath());
                 symlinkWatcher.addSymlink(typedPath.getPath(), maxDepth);
@@ -74,19 +89,35 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
 
   private void handleNewDirectory(final Path path, final int maxDepth, final boolean trigger)
       throws IOException {
-    final Iterator<TypedPath> it = FileTreeViews.list(path, maxDepth, AllPass).iterator();
-    while (it.hasNext()) {
-      final TypedPath tp = it.next();
-      if (tp.isSymbolicLink()) {
-        final Path p = tp.getPath();
-        symlinkWatcher.addSymlink(p, pathWatcherDirectoryRegistry.maxDepthFor(p));
-      }
-      if (trigger) {
-        observers.onNext(new Event(tp, Kind.Create));
+    if (filter == AllPass) {
+      final Iterator<TypedPath> it = FileTreeViews.list(path, maxDepth, AllPass).iterator();
+      while (it.hasNext()) handleNewPath(it.next(), trigger);
+    } else {
+      // List one level at a time so that the excluded directories are never listed.
+      final Iterator<TypedPath> it =
+          FileTreeViews.list(path, maxDepth < 0 ? maxDepth : 0, filter).iterator();
+      while (it.hasNext()) {
+        final TypedPath tp = it.next();
+        handleNewPath(tp, trigger);
+        if (maxDepth > 0 && tp.isDirectory() && !tp.isSymbolicLink()) {
+          handleNewDirectory(
+              tp.getPath(), maxDepth == Integer.MAX_VALUE ? maxDepth : maxDepth - 1, trigger);
+        }
       }
     }
   }
 
+  private void handleNewPath(final TypedPath typedPath, final boolean trigger)
+      throws IOException {
+    if (typedPath.isSymbolicLink()) {
+      final Path p = typedPath.getPath();
+      symlinkWatcher.addSymlink(p, pathWatcherDirectoryRegistry.maxDepthFor(p));
+    }
+    if (trigger) {
+      observers.onNext(new Event(typedPath, Kind.Create));
+    }
+  }
+
   @Override
   public Either<IOException, Boolean> register(final Path path, final int maxDepth) {
     final Path absolutePath = path.isAbsolute() ? path : path.toAbsolutePath();
@@ -116,7 +147,7 @@ class SymlinkFollowingPathWatcher implements PathWatcher<PathWatchers.Event> {
                   new Filter<TypedPath>() {
                     @Override
                     public boolean accept(final TypedPath typedPath) {
-                      return typedPath.isSymbolicLink();
+                      return typedPath.isSymbolicLink() && filter.accept(typedPath);
                     }
                   })
               .iterator();
@@ -2,7 +2,6 @@ package com.swoval.files;
 
 import static com.swoval.functional.Either.getOrElse;
 import static com.swoval.functional.Either.leftProjection;
-import static java.util.Map.Entry;
 
 import com.swoval.files.FileTreeViews.Observable;
 import com.swoval.files.FileTreeViews.Observer;
@@ -22,14 +21,169 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
+/*
+ * The registered symlink targets. Along with the map from each target to its registration, it
+ * maintains a trie of the targets, with a node for each path component, and a map from each link
+ * to its target. The registration that contains a path is found by walking down the trie and
+ * the target of a link by a single lookup, so neither depends on the number of links.
+ */
 class RegisteredPaths extends LockableMap<Path, RegisteredPath> {
+  private final Node root = new Node();
+  private final Map<Path, Path> targets = new HashMap<>();
+
   RegisteredPaths(final ReentrantLock reentrantLock) {
     super(new HashMap<Path, RegisteredPath>(), reentrantLock);
   }
+
+  @Override
+  RegisteredPath put(final Path key, final RegisteredPath value) {
+    if (lock()) {
+      try {
+        Node node = root;
+        final Iterator<Path> it = elements(key).iterator();
+        while (it.hasNext()) {
+          final Path element = it.next();
+          if (node.children == null) node.children = new HashMap<>();
+          Node child = node.children.get(element);
+          if (child == null) {
+            child = new Node();
+            node.children.put(element, child);
+          }
+          node = child;
+        }
+        node.registeredPath = value;
+        final Iterator<Path> links = value.paths.iterator();
+        while (links.hasNext()) targets.put(links.next(), key);
+        return super.put(key, value);
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  RegisteredPath remove(final Path key) {
+    if (lock()) {
+      try {
+        final RegisteredPath result = super.remove(key);
+        if (result != null) {
+          final Iterator<Path> links = result.paths.iterator();
+          while (links.hasNext()) {
+            final Path link = links.next();
+            if (key.equals(targets.get(link))) targets.remove(link);
+          }
+          final List<Node> nodes = new ArrayList<>();
+          final List<Path> keys = elements(key);
+          Node node = root;
+          final Iterator<Path> it = keys.iterator();
+          while (node != null && it.hasNext()) {
+            nodes.add(node);
+            node = node.children == null ? null : node.children.get(it.next());
+          }
+          if (node != null) {
+            node.registeredPath = null;
+            // Prune the nodes that no longer lead to a registration.
+            for (int i = nodes.size() - 1; i >= 0; --i) {
+              if (node.registeredPath != null || node.children != null) break;
+              final Node parent = nodes.get(i);
+              parent.children.remove(keys.get(i));
+              if (parent.children.isEmpty()) parent.children = null;
+              node = parent;
+            }
+          }
+        }
+        return result;
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  void clear() {
+    if (lock()) {
+      try {
+        super.clear();
+        root.children = null;
+        targets.clear();
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  /*
+   * Returns the registration of the closest registered target that contains the path. Like the
+   * previous recursive lookup, a registration of the root directory itself is never matched.
+   */
+  RegisteredPath find(final Path path) {
+    if (lock()) {
+      try {
+        RegisteredPath result = null;
+        Node node = root;
+        final List<Path> elements = elements(path);
+        final int first = path.getRoot() == null ? 0 : 1;
+        for (int i = 0; node != null && i < elements.size(); ++i) {
+          node = node.children == null ? null : node.children.get(elements.get(i));
+          if (i >= first && node != null && node.registeredPath != null) {
+            result = node.registeredPath;
+          }
+        }
+        return result;
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  void addLink(final Path link, final Path target) {
+    if (lock()) {
+      try {
+        targets.put(link, target);
+      } finally {
+        unlock();
+      }
+    }
+  }
+
+  /*
+   * Returns the target of the link, or null if it isn't registered, and forgets it.
+   */
+  Path removeLink(final Path link) {
+    if (lock()) {
+      try {
+        return targets.remove(link);
+      } finally {
+        unlock();
+      }
+    } else {
+      return null;
+    }
+  }
+
+  private static List<Path> elements(final Path path) {
+    final List<Path> result = new ArrayList<>();
+    if (path.getRoot() != null) result.add(path.getRoot());
+    final Iterator<Path> it = path.iterator();
+    while (it.hasNext()) result.add(it.next());
+    return result;
+  }
+
+  private static final class Node {
+    private Map<Path, Node> children;
+    private RegisteredPath registeredPath;
+  }
 }
 /**
  * Monitors symlink targets. The {@link SymlinkWatcher} maintains a mapping of symlink targets to
@@ -62,55 +216,92 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
             if (Loggers.shouldLog(logger, Level.DEBUG))
               logger.debug(this + " received event " + event);
             if (!isClosed.get()) {
-              final List<Path> paths = new ArrayList<>();
-              final Path path = event.getTypedPath().getPath();
-              final Kind kind = event.getKind();
-              if (watchedSymlinksByTarget.lock()) {
-                try {
-                  final RegisteredPath registeredPath = find(path, watchedSymlinksByTarget);
-                  if (registeredPath != null) {
-                    final Path relativized = registeredPath.path.relativize(path);
-                    final Iterator<Path> it = registeredPath.paths.iterator();
-                    while (it.hasNext()) {
-                      final Path rawPath = it.next().resolve(relativized);
-                      if (!hasLoop(rawPath)) paths.add(rawPath);
-                    }
-                  }
-                } finally {
-                  watchedSymlinksByTarget.unlock();
-                }
-              }
-              if (!Files.exists(path)) {
-                if (watchedSymlinksByTarget.lock()) {
-                  try {
-                    final RegisteredPath registeredPath = watchedSymlinksByTarget.remove(path);
-                    if (registeredPath != null) {
-                      registeredPath.paths.remove(path);
-                      if (registeredPath.paths.isEmpty()) {
-                        watcher.unregister(path);
-                      }
-                    }
-                  } finally {
-                    watchedSymlinksByTarget.unlock();
-                  }
-                }
-              }
-
-              final Iterator<Path> it = paths.iterator();
-              while (it.hasNext()) {
-                final TypedPath typedPath = TypedPaths.get(it.next());
-                if (Loggers.shouldLog(logger, Level.DEBUG))
-                  logger.debug(
-                      "SymlinkWatcher evaluating callback for "
-                          + ("link " + typedPath + " to target " + path));
-                observers.onNext(new Event(typedPath, kind));
+              StatCache.begin();
+              try {
+                onTargetEvent(event);
+              } finally {
+                StatCache.end();
               }
             }
           }
         });
   }
 
+  private void onTargetEvent(final Event event) {
+    final List<Path> paths = new ArrayList<>();
+    final boolean fanOut = this.fanOut;
+    final Path path = event.getTypedPath().getPath();
+    final Kind kind = event.getKind();
+    realPaths.invalidate(event);
+    if (!fanOut) {
+      // The links to a deleted target have to be found before it is removed.
+      if (watchedSymlinksByTarget.find(path) != null) observers.onNext(event);
+    } else {
+      paths.addAll(linkPaths(path));
+    }
+    if (!Files.exists(path)) {
+      if (watchedSymlinksByTarget.lock()) {
+        try {
+          final RegisteredPath registeredPath = watchedSymlinksByTarget.remove(path);
+          if (registeredPath != null) {
+            registeredPath.paths.remove(path);
+            if (registeredPath.paths.isEmpty()) {
+              watcher.unregister(path);
+            }
+          }
+        } finally {
+          watchedSymlinksByTarget.unlock();
+        }
+      }
+    }
+
+    final Iterator<Path> it = paths.iterator();
+    while (it.hasNext()) {
+      final TypedPath typedPath = TypedPaths.get(it.next());
+      if (Loggers.shouldLog(logger, Level.DEBUG))
+        logger.debug(
+            "SymlinkWatcher evaluating callback for "
+                + ("link " + typedPath + " to target " + path));
+      observers.onNext(new Event(typedPath, kind));
+    }
+  }
+
   private final RegisteredPaths watchedSymlinksByTarget;
+  private final RealPaths realPaths = new RealPaths();
+  private volatile boolean fanOut = true;
+
+  /*
+   * By default, an event for a path in the target of a link is reported once for each link to the
+   * target with the path of the link. If fan out is disabled, the event is reported once with the
+   * path in the target and the observer is responsible for finding the link paths with linkPaths.
+   */
+  void setFanOut(final boolean fanOut) {
+    this.fanOut = fanOut;
+  }
+
+  /*
+   * Returns the paths of a path in the closest registered target through each of the links to
+   * that target.
+   */
+  List<Path> linkPaths(final Path path) {
+    final List<Path> result = new ArrayList<>();
+    if (watchedSymlinksByTarget.lock()) {
+      try {
+        final RegisteredPath registeredPath = watchedSymlinksByTarget.find(path);
+        if (registeredPath != null) {
+          final Path relativized = registeredPath.path.relativize(path);
+          final Iterator<Path> it = registeredPath.paths.iterator();
+          while (it.hasNext()) {
+            final Path rawPath = it.next().resolve(relativized);
+            if (!hasLoop(rawPath)) result.add(rawPath);
+          }
+        }
+      } finally {
+        watchedSymlinksByTarget.unlock();
+      }
+    }
+    return result;
+  }
 
   @Override
   public int addObserver(final Observer<? super Event> observer) {
@@ -137,29 +328,31 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
     }
   }
 
-  private RegisteredPath find(final Path path, final RegisteredPaths registeredPaths) {
-    final RegisteredPath result = registeredPaths.get(path);
-    if (result != null) return result;
-    else if (path == null || path.getNameCount() == 0) return null;
-    else {
-      final Path parent = path.getParent();
-      if (parent == null || parent.getNameCount() == 0) return null;
-      else return find(parent, registeredPaths);
-    }
-  }
-
   @SuppressWarnings("EmptyCatchBlock")
   private boolean hasLoop(final Path path) {
     boolean result = false;
     final Path parent = path.getParent();
     try {
-      final Path realPath = parent.toRealPath();
+      final Path realPath = realPaths.toRealPath(parent);
       result = parent.startsWith(realPath) && !parent.equals(realPath);
     } catch (final IOException e) {
     }
     return result;
   }
 
+  /*
+   * Removes the link from the links to the target. Must be called while holding the lock.
+   */
+  private void removeFromTarget(final Path link, final Path target) {
+    final RegisteredPath targetRegisteredPath = watchedSymlinksByTarget.get(target);
+    if (targetRegisteredPath != null) {
+      targetRegisteredPath.paths.remove(link);
+      if (targetRegisteredPath.paths.isEmpty()) {
+        watchedSymlinksByTarget.remove(target);
+      }
+    }
+  }
+
   /*
    * This declaration must go below the constructor for javascript codegen.
    */
@@ -191,7 +384,9 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
   @SuppressWarnings("EmptyCatchBlock")
   void addSymlink(final Path path, final int maxDepth) throws IOException {
     if (!isClosed.get()) {
-      final Path realPath = path.toRealPath();
+      // The link may have been replaced since its real path was cached.
+      realPaths.invalidate(path);
+      final Path realPath = realPaths.toRealPath(path);
       if (path.startsWith(realPath) && !path.equals(realPath)) {
         throw new FileSystemLoopException(path.toString());
       } else {
@@ -200,6 +395,10 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
               this + " SymlinkWatcher adding link " + path + " with max depth " + maxDepth);
         if (watchedSymlinksByTarget.lock()) {
           try {
+            final Path previousTarget = watchedSymlinksByTarget.removeLink(path);
+            if (previousTarget != null && !previousTarget.equals(realPath)) {
+              removeFromTarget(path, previousTarget);
+            }
             final RegisteredPath targetRegistrationPath = watchedSymlinksByTarget.get(realPath);
             if (targetRegistrationPath == null) {
               final Either<IOException, Boolean> result = watcher.register(realPath, maxDepth);
@@ -210,6 +409,7 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
               }
             } else {
               targetRegistrationPath.paths.add(path);
+              watchedSymlinksByTarget.addLink(path, realPath);
             }
           } finally {
             watchedSymlinksByTarget.unlock();
@@ -227,25 +427,11 @@ class SymlinkWatcher implements Observable<Event>, AutoCloseable {
    */
   void remove(final Path path) {
     if (!isClosed.get()) {
+      realPaths.invalidate(path);
       if (watchedSymlinksByTarget.lock()) {
         try {
-          Path target = null;
-          final Iterator<Entry<Path, RegisteredPath>> it = watchedSymlinksByTarget.iterator();
-          while (it.hasNext() && target == null) {
-            final Entry<Path, RegisteredPath> entry = it.next();
-            if (entry.getValue().paths.remove(path)) {
-              target = entry.getKey();
-            }
-          }
-          if (target != null) {
-            final RegisteredPath targetRegisteredPath = watchedSymlinksByTarget.get(target);
-            if (targetRegisteredPath != null) {
-              targetRegisteredPath.paths.remove(path);
-              if (targetRegisteredPath.paths.isEmpty()) {
-                watchedSymlinksByTarget.remove(target);
-              }
-            }
-          }
+          final Path target = watchedSymlinksByTarget.removeLink(path);
+          if (target != null) removeFromTarget(path, target);
           if (Loggers.shouldLog(logger, Level.DEBUG))
             logger.debug(this + " stopped monitoring link " + path);
         } finally {
@@ -67,7 +67,32 @@ object AllTests {
       test(NioPathWatcherOverflowTest),
       test(NioPathWatcherTest),
       test(DirectoryFileTreeViewTest),
-      test(ApplePathWatcherTest)
+      test(ApplePathWatcherTest),
+      test(ContentHashTest),
+      test(MoveDetectionTest),
+      test(SubtreeObserverTest),
+      test(RegisterAsyncTest),
+      test(ShardedRepositoryTest),
+      test(SharedWatchServiceTest),
+      test(SharedRepositoryTest),
+      test(WatchFilterTest),
+      test(GlobFilterTest),
+      test(GitIgnoreTest),
+      test(EventRateLimiterTest),
+      test(PriorityTest),
+      test(QuiescenceTest),
+      test(ChangeJournalTest),
+      test(PublishersTest),
+      test(SnapshotsTest),
+      test(EntryIndexTest),
+      test(SummaryTreeTest),
+      test(CacheDaemonTest),
+      test(MappedIndexTest),
+      test(LazyEntryTest),
+      test(StatCacheTest),
+      test(RealPathsTest),
+      test(RegisteredPathsTest),
+      test(LinkTargetsTest)
     )
     val queue = new ArrayBlockingQueue[(String, Try[HTree[String, Result]])](tests.size)
     val failure = new AtomicReference[Option[Throwable]](None)
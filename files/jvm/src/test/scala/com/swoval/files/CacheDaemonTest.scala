@@ -0,0 +1,138 @@
+package com
+package swoval
+package files
+
+import java.io.{ DataInputStream, DataOutputStream, IOException }
+import java.net.{ InetAddress, Socket }
+import java.nio.file.attribute.PosixFilePermission
+import java.nio.file.{ Files, Path }
+
+import com.swoval.files.FileTreeViews.Observer
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filters
+import com.swoval.runtime.Platform
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object CacheDaemonTest extends TestSuite {
+  def observer(path: Path, latch: CountDownLatch): Observer[Event] = new Observer[Event] {
+    override def onError(t: Throwable): Unit = {}
+    override def onNext(event: Event): Unit =
+      if (event.getTypedPath.getPath == path && event.getKind == Event.Kind.Create)
+        latch.countDown()
+  }
+
+  def shared: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    withTempDirectory { daemonDir =>
+      val subdir = Files.createDirectories(dir.resolve("subdir"))
+      val file = Files.createFile(dir.resolve("file"))
+      val created = subdir.resolve("created")
+      val latch = new CountDownLatch(2)
+      usingAsync(CacheDaemon.start(daemonDir, 0, false, logger)) { daemon =>
+        val first = CacheDaemon.connect(daemonDir, daemon.getPort)
+        val second = CacheDaemon.connect(daemonDir, daemon.getPort)
+        first.addObserver(observer(created, latch))
+        second.addObserver(observer(created, latch))
+        assert(first.register(dir, Integer.MAX_VALUE).get)
+        assert(second.register(subdir, Integer.MAX_VALUE).get)
+        first.list(dir, Integer.MAX_VALUE, Filters.AllPass).asScala.map(_.getPath).toSet ==>
+          Set(subdir, file)
+        second.list(subdir, Integer.MAX_VALUE, Filters.AllPass).asScala ==> Nil
+        Files.createFile(created)
+        latch.waitFor(DEFAULT_TIMEOUT) {
+          val typedPaths = second.list(subdir, Integer.MAX_VALUE, Filters.AllPass).asScala
+          typedPaths.map(_.getPath) ==> Seq(created)
+          assert(typedPaths.head.isFile)
+          second.close()
+          first.close()
+        }
+      }
+    }
+  }
+
+  def closed: Future[Unit] = withTempDirectorySync { dir =>
+    val daemon = CacheDaemon.start(dir, 0, false, new CachingLogger)
+    val client = CacheDaemon.connect(dir, daemon.getPort)
+    assert(client.register(dir, 0).get)
+    daemon.close()
+    assert(!Files.exists(dir.resolve("token")))
+    try {
+      client.list(dir, 0, Filters.AllPass)
+      throw new IllegalStateException("The list should fail once the daemon is closed")
+    } catch {
+      case _: IOException =>
+    }
+    assert(client.register(dir, 0).isLeft)
+  }
+
+  def token: Future[Unit] = withTempDirectorySync { dir =>
+    val daemonDir = dir.resolve("daemon")
+    val daemon = CacheDaemon.start(daemonDir, 0, false, new CachingLogger)
+    try {
+      if (!Platform.isWin) {
+        Files.getPosixFilePermissions(daemonDir.resolve("token")).asScala.toSet ==>
+          Set(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE)
+      }
+      val otherDir = Files.createDirectories(dir.resolve("other"))
+      Files.write(otherDir.resolve("token"), new Array[Byte](32))
+      try {
+        CacheDaemon.connect(otherDir, daemon.getPort).close()
+        throw new IllegalStateException("The daemon should reject the wrong token")
+      } catch {
+        case _: IOException =>
+      }
+      val client = CacheDaemon.connect(daemonDir, daemon.getPort)
+      try {
+        assert(client.register(dir, 0).get)
+      } finally client.close()
+    } finally daemon.close()
+  }
+
+  /*
+   * The client always sends absolute paths, so the requests are written directly to the socket.
+   */
+  def invalidPath: Future[Unit] = withTempDirectorySync { dir =>
+    val daemon = CacheDaemon.start(dir, 0, false, new CachingLogger)
+    val socket = new Socket(InetAddress.getByName(null), daemon.getPort)
+    try {
+      val out = new DataOutputStream(socket.getOutputStream)
+      val in = new DataInputStream(socket.getInputStream)
+      out.write(Files.readAllBytes(dir.resolve("token")))
+      out.flush()
+      in.readByte() ==> 0
+      def register(id: Int, path: String): Byte = {
+        out.writeInt(id)
+        out.writeByte(0)
+        out.writeUTF(path)
+        out.writeInt(0)
+        out.flush()
+        in.readByte() ==> 0
+        in.readInt() ==> id
+        val result = in.readByte()
+        if (result == 0) in.readBoolean() else in.readUTF()
+        result
+      }
+      register(0, "foo\u0000bar") ==> 1
+      register(1, "foo") ==> 1
+      // The connection survives the invalid requests.
+      register(2, dir.toString) ==> 0
+    } finally {
+      socket.close()
+      daemon.close()
+    }
+  }
+
+  val tests = Tests {
+    'shared - shared
+    'closed - closed
+    'token - token
+    'invalidPath - invalidPath
+  }
+}
@@ -0,0 +1,120 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path, Paths }
+import java.util.concurrent.TimeUnit
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object ChangeJournalTest extends TestSuite {
+  val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+  def entry(name: String, kind: Int): Entry[Path] = {
+    val typedPath = TypedPaths.get(Paths.get(name).toAbsolutePath, kind)
+    Entries.get(typedPath, converter, typedPath)
+  }
+  def paths(entries: java.util.List[Entry[Path]]): Seq[Path] =
+    entries.asScala.map(_.getTypedPath.getPath)
+  def abs(name: String): Path = Paths.get(name).toAbsolutePath
+
+  def repository: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    val nested = Files.createFile(subdir.resolve("nested"))
+    val file = Files.createFile(dir.resolve("file"))
+    val deleted = new CountDownLatch(1)
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = {}
+        override def onDelete(oldEntry: Entry[Path]): Unit =
+          if (oldEntry.getTypedPath.getPath == subdir) deleted.countDown()
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      val token = c.getChangeToken
+      val created = Files.createFile(dir.resolve("created"))
+      Files.write(file, "foo".getBytes)
+      Files.delete(nested)
+      Files.delete(subdir)
+      deleted.waitFor(DEFAULT_TIMEOUT) {
+        assert(c.awaitQuiescence(dir, 200, DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS))
+        val changes = c.changesSince(token)
+        assert(!changes.isResyncRequired)
+        paths(changes.getCreated) ==> Seq(created)
+        assert(paths(changes.getUpdated).contains(file))
+        assert(paths(changes.getDeleted).contains(subdir))
+        assert(!paths(changes.getUpdated).contains(subdir))
+        val next = changes.getToken
+        c.reg(Files.createDirectories(dir.resolve("other")))
+        assert(c.changesSince(next).isResyncRequired)
+      }
+    }
+  }
+
+  val tests = Tests {
+    'journal - {
+      'net - {
+        val journal = new ChangeJournal[Path](16)
+        val token = journal.token()
+        journal.created(entry("a", Entries.FILE))
+        journal.modified(entry("a", Entries.FILE))
+        journal.modified(entry("b", Entries.FILE))
+        journal.created(entry("c", Entries.FILE))
+        journal.deleted(entry("c", Entries.FILE | Entries.NONEXISTENT))
+        journal.deleted(entry("d", Entries.DIRECTORY | Entries.NONEXISTENT))
+        journal.deleted(entry("e", Entries.DIRECTORY | Entries.NONEXISTENT))
+        journal.created(entry("e", Entries.DIRECTORY))
+        val changes = journal.changesSince(token)
+        assert(!changes.isResyncRequired)
+        changes.getToken ==> journal.token()
+        paths(changes.getCreated) ==> Seq(abs("a"))
+        paths(changes.getUpdated) ==> Seq(abs("b"))
+        paths(changes.getDeleted) ==> Seq(abs("d"))
+        changes.getRescanned.asScala ==> Seq(abs("e"))
+        assert(journal.changesSince(journal.token()).getCreated.isEmpty)
+      }
+      'subtree - {
+        val journal = new ChangeJournal[Path](16)
+        val token = journal.token()
+        journal.created(entry("a/b", Entries.FILE))
+        journal.deleted(entry("a", Entries.DIRECTORY | Entries.NONEXISTENT))
+        val changes = journal.changesSince(token)
+        paths(changes.getDeleted) ==> Seq(abs("a"))
+        assert(changes.getCreated.isEmpty)
+      }
+      'overflow - {
+        val journal = new ChangeJournal[Path](4)
+        val token = journal.token()
+        (1 to 5).foreach(i => journal.modified(entry(s"$i", Entries.FILE)))
+        assert(journal.changesSince(token).isResyncRequired)
+        paths(journal.changesSince(token + 1).getUpdated) ==> (2 to 5).map(i => abs(s"$i"))
+      }
+      'invalidate - {
+        val journal = new ChangeJournal[Path](16)
+        val token = journal.token()
+        journal.invalidate()
+        assert(journal.changesSince(token).isResyncRequired)
+        assert(!journal.changesSince(journal.token()).isResyncRequired)
+      }
+      'disabled - {
+        val journal = new ChangeJournal[Path](0)
+        val token = journal.token()
+        assert(!journal.changesSince(token).isResyncRequired)
+        journal.created(entry("a", Entries.FILE))
+        assert(journal.changesSince(token).isResyncRequired)
+      }
+    }
+    'repository - repository
+  }
+}
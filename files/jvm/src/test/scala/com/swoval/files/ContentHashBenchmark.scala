@@ -0,0 +1,59 @@
+package com.swoval.files
+
+import java.nio.file.Files
+import java.security.MessageDigest
+
+import com.swoval.files.FileTreeDataViews.Converter
+import scala.util.Random
+
+/**
+ * Compares the built in content hash converters to a naive converter that reads each file with
+ * Files.readAllBytes, and the memory mapped reads to the buffered reads. JMH is not part of the
+ * build, so this is a plain main with a warm up. Run with
+ * test:runMain com.swoval.files.ContentHashBenchmark [files] [size].
+ */
+object ContentHashBenchmark {
+  private val naive: Converter[String] = (typedPath: TypedPath) => {
+    val digest = MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(typedPath.getPath))
+    digest.map("%02x".format(_)).mkString
+  }
+  private implicit class ConverterFunctionOps[T](val f: TypedPath => T) extends Converter[T] {
+    override def apply(path: TypedPath): T = f(path)
+  }
+  private def time(name: String, files: Seq[TypedPath], converter: Converter[_]): Unit = {
+    (1 to 3).foreach(_ => files.foreach(converter.apply))
+    val iterations = 10
+    val start = System.nanoTime
+    (1 to iterations).foreach(_ => files.foreach(converter.apply))
+    val elapsed = (System.nanoTime - start) / 1.0e6 / iterations
+    println(f"$name%-24s $elapsed%10.3f ms / iteration")
+  }
+  def main(args: Array[String]): Unit = {
+    val count = args.headOption.map(_.toInt).getOrElse(1000)
+    val size = args.drop(1).headOption.map(_.toInt).getOrElse(64 * 1024)
+    val dir = Files.createTempDirectory("content-hash-benchmark")
+    val random = new Random(0)
+    val files = (1 to count).map { i =>
+      val bytes = new Array[Byte](size)
+      random.nextBytes(bytes)
+      TypedPaths.get(Files.write(dir.resolve(s"file-$i"), bytes))
+    }
+    try {
+      time("naive SHA-256", files, naive)
+      // A new converter for each iteration so that the mtime + size short circuit is not used.
+      time("SHA-256", files, (tp: TypedPath) => FileTreeDataViews.sha256().apply(tp))
+      time("CRC32", files, (tp: TypedPath) => FileTreeDataViews.crc32().apply(tp))
+      time("xxHash64", files, (tp: TypedPath) => FileTreeDataViews.xxHash64().apply(tp))
+      time("xxHash64 (mapped)", files, (tp: TypedPath) => FileTreeDataViews.xxHash64(0).apply(tp))
+      time(
+        "xxHash64 (buffered)",
+        files,
+        (tp: TypedPath) => FileTreeDataViews.xxHash64(Long.MaxValue).apply(tp)
+      )
+      time("xxHash64 (unchanged)", files, FileTreeDataViews.xxHash64())
+    } finally {
+      files.foreach(f => Files.deleteIfExists(f.getPath))
+      Files.deleteIfExists(dir)
+    }
+  }
+}
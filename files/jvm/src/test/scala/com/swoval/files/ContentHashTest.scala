@@ -0,0 +1,102 @@
+package com.swoval
+package files
+
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.attribute.FileTime
+
+import com.swoval.files.FileTreeDataViews.ContentHash
+import com.swoval.files.test._
+import utest._
+
+import scala.concurrent.Future
+import scala.util.Random
+
+object ContentHashTest extends TestSuite {
+  private def bytes(size: Int): Array[Byte] = {
+    val result = new Array[Byte](size)
+    new Random(size).nextBytes(result)
+    result
+  }
+  def emptyFile: Future[Unit] = withTempFileSync { file =>
+    val hash = FileTreeDataViews.xxHash64().apply(TypedPaths.get(file))
+    hash.toString ==> "xxHash64:ef46db3751d8e999"
+    hash.getSize ==> 0L
+  }
+  /*
+   * The reference values for the 64 bit xxHash with a seed of zero. The longer inputs are read in
+   * multiple 32 byte stripes and the last one spans multiple reads of the 64KB read buffer.
+   */
+  private val pattern: Array[Byte] = Array.tabulate(200000)(i => ((i * 31) % 251).toByte)
+  private val xxHash64References: Seq[(Array[Byte], String)] = Seq(
+    "a".getBytes -> "d24ec4f1a98c6e5b",
+    "abc".getBytes -> "44bc2cf5ad770999",
+    "Nobody inspects the spammish repetition".getBytes -> "fbcea83c8a378bf1",
+    "The quick brown fox jumps over the lazy dog".getBytes -> "0b242d361fda71bc",
+    ((0 until 1024).map(_.toByte).toArray ++ "xyz".getBytes) -> "e146cb31b65bc21a",
+    pattern -> "85cbfb4b5d5ce98f"
+  )
+  def referenceVectors: Future[Unit] = withTempDirectorySync { dir =>
+    xxHash64References.zipWithIndex.foreach {
+      case ((bytes, expected), i) =>
+        val file = Files.write(dir.resolve(s"file-$i"), bytes)
+        FileTreeDataViews.xxHash64().apply(TypedPaths.get(file)).toString ==> s"xxHash64:$expected"
+    }
+  }
+  def chunked(): Unit = {
+    Seq(1, 7, 31, 32, 33, 4096).foreach { chunk =>
+      val hasher = new ContentHashConverter.XxHash64Hasher
+      pattern.grouped(chunk).foreach(c => hasher.update(ByteBuffer.wrap(c)))
+      "%016x".format(hasher.value()) ==> "85cbfb4b5d5ce98f"
+    }
+  }
+  def mapped: Future[Unit] = withTempDirectorySync { dir =>
+    val file = TypedPaths.get(Files.write(dir.resolve("file"), pattern))
+    FileTreeDataViews.xxHash64(0).apply(file).toString ==> "xxHash64:85cbfb4b5d5ce98f"
+    FileTreeDataViews.xxHash64(Long.MaxValue).apply(file).toString ==> "xxHash64:85cbfb4b5d5ce98f"
+    FileTreeDataViews.crc32(0).apply(file) ==> FileTreeDataViews.crc32(Long.MaxValue).apply(file)
+    FileTreeDataViews.sha256(0).apply(file) ==> FileTreeDataViews.sha256(Long.MaxValue).apply(file)
+  }
+  def bounded: Future[Unit] = withTempDirectorySync { dir =>
+    val converter = new ContentHashConverter(ContentHashConverter.CRC_32, 2)
+    (1 to 5).foreach { i =>
+      converter.apply(TypedPaths.get(Files.write(dir.resolve(s"file-$i"), bytes(i))))
+    }
+    converter.size ==> 2
+  }
+  def shortCircuit: Future[Unit] = withTempFileSync { file =>
+    Files.write(file, "foo".getBytes)
+    val lastModified = Files.getLastModifiedTime(file)
+    val converter = FileTreeDataViews.sha256()
+    val hash: ContentHash = converter.apply(TypedPaths.get(file))
+    Files.write(file, "bar".getBytes)
+    Files.setLastModifiedTime(file, lastModified)
+    assert(converter.apply(TypedPaths.get(file)) eq hash)
+    Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified.toMillis + 2000))
+    val updated = converter.apply(TypedPaths.get(file))
+    assert(updated != hash)
+    updated ==> FileTreeDataViews.sha256().apply(TypedPaths.get(file))
+  }
+  def touched: Future[Unit] = withTempFileSync { file =>
+    Files.write(file, "foo".getBytes)
+    val converter = FileTreeDataViews.crc32()
+    val hash = converter.apply(TypedPaths.get(file))
+    Files.setLastModifiedTime(file, FileTime.fromMillis(hash.getLastModified + 2000))
+    converter.apply(TypedPaths.get(file)) ==> hash
+  }
+  def directory: Future[Unit] = withTempDirectorySync { dir =>
+    FileTreeDataViews.xxHash64().apply(TypedPaths.get(dir)).getDigest.length ==> 0
+  }
+  val tests = Tests {
+    'xxHash64 - {
+      'empty - emptyFile
+      'references - referenceVectors
+      'chunked - chunked()
+    }
+    'mapped - mapped
+    'bounded - bounded
+    'shortCircuit - shortCircuit
+    'touched - touched
+    'directory - directory
+  }
+}
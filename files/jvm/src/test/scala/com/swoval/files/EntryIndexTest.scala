@@ -0,0 +1,85 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.attribute.FileTime
+import java.nio.file.{ Files, Path, Paths }
+import java.util.concurrent.TimeUnit
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object EntryIndexTest extends TestSuite {
+  val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+  def entry(name: String, kind: Int): Entry[Path] = {
+    val typedPath = TypedPaths.get(Paths.get(name).toAbsolutePath, kind)
+    Entries.get(typedPath, converter, typedPath)
+  }
+  def paths(entries: java.util.List[Entry[Path]]): Set[Path] =
+    entries.asScala.map(_.getTypedPath.getPath).toSet
+  def abs(name: String): Path = Paths.get(name).toAbsolutePath
+
+  def repository: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    val proto = Files.createFile(subdir.resolve("foo.proto"))
+    val build = Files.createFile(dir.resolve("BUILD"))
+    val latch = new CountDownLatch(2)
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = latch.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      paths(c.listEntriesWithExtension("proto")) ==> Set(proto)
+      paths(c.listEntriesNamed("BUILD")) ==> Set(build)
+      val start = System.currentTimeMillis
+      assert(c.listEntriesModifiedSince(start + 60000).isEmpty)
+      val nested = Files.createDirectories(dir.resolve("nested"))
+      val created = Files.createFile(nested.resolve("bar.proto"))
+      Files.setLastModifiedTime(created, FileTime.fromMillis(start + 60000))
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        assert(c.awaitQuiescence(dir, 200, DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS))
+        paths(c.listEntriesWithExtension("proto")) ==> Set(proto, created)
+        paths(c.listEntriesModifiedSince(start + 60000)) ==> Set(created)
+      }
+    }
+  }
+
+  val tests = Tests {
+    'index - {
+      'name - {
+        val index = new EntryIndex[Path](false)
+        index.put(entry("a/BUILD", Entries.FILE))
+        index.put(entry("b/BUILD", Entries.FILE))
+        index.put(entry("b/foo.proto", Entries.FILE))
+        index.put(entry("c/.proto", Entries.FILE))
+        paths(index.named("BUILD")) ==> Set(abs("a/BUILD"), abs("b/BUILD"))
+        paths(index.withExtension("proto")) ==> Set(abs("b/foo.proto"), abs("c/.proto"))
+        assert(index.named("missing").isEmpty)
+      }
+      'subtree - {
+        val index = new EntryIndex[Path](false)
+        index.put(entry("a", Entries.DIRECTORY))
+        index.put(entry("a/b/BUILD", Entries.FILE))
+        index.put(entry("a-b/BUILD", Entries.FILE))
+        index.put(entry("ab/BUILD", Entries.FILE))
+        index.remove(abs("a"))
+        paths(index.named("BUILD")) ==> Set(abs("a-b/BUILD"), abs("ab/BUILD"))
+        assert(index.named("a").isEmpty)
+      }
+    }
+    'repository - repository
+  }
+}
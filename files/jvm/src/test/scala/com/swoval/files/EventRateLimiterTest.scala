@@ -0,0 +1,75 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Path, Paths }
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.test._
+import com.swoval.functional.Consumer
+import com.swoval.logging.Loggers
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object EventRateLimiterTest extends TestSuite {
+  def throttle: Future[Unit] = {
+    val dir = Paths.get("/foo/hot").toAbsolutePath
+    val other = Paths.get("/foo/cold").toAbsolutePath
+    val throttled = new AtomicInteger(0)
+    val rescanned = new CountDownLatch(1)
+    val rescans = new AtomicInteger(0)
+    val trips = PathWatchers.throttleStatistics().getTrips
+    val limiter = new EventRateLimiter(
+      10,
+      50,
+      new Consumer[Path] {
+        override def accept(path: Path): Unit = if (path == dir) throttled.incrementAndGet()
+      },
+      new Consumer[Path] {
+        override def accept(path: Path): Unit = if (path == dir) {
+          rescans.incrementAndGet()
+          rescanned.countDown()
+        }
+      },
+      Loggers.getLogger
+    )
+    (1 to 10).foreach(i => assert(limiter.accept(dir.resolve(s"file-$i"))))
+    assert(!limiter.accept(dir.resolve("file-11")))
+    assert(!limiter.accept(dir.resolve("subdir").resolve("file")))
+    assert(limiter.accept(other.resolve("file")))
+    throttled.get ==> 1
+    assert(PathWatchers.throttleStatistics().getTrips > trips)
+    rescanned
+      .waitFor(DEFAULT_TIMEOUT) {
+        assert(limiter.accept(dir.resolve("file-12")))
+        rescans.get ==> 1
+      }
+      .andThen { case _ => limiter.close() }
+  }
+  def disabled(): Unit = {
+    val dir = Paths.get("/foo/hot").toAbsolutePath
+    val consumer = new Consumer[Path] {
+      override def accept(path: Path): Unit = throw new IllegalStateException(path.toString)
+    }
+    val limiter = new EventRateLimiter(0, 50, consumer, consumer, Loggers.getLogger)
+    (1 to 100).foreach(i => assert(limiter.accept(dir.resolve(s"file-$i"))))
+    limiter.close()
+  }
+  def disabledByDefault(): Unit = if (System.getProperty("swoval.event.rate.limit") == null) {
+    val dir = Paths.get("/foo/hot").toAbsolutePath
+    val consumer = new Consumer[Path] {
+      override def accept(path: Path): Unit = throw new IllegalStateException(path.toString)
+    }
+    val limiter = new EventRateLimiter(consumer, consumer, Loggers.getLogger)
+    (1 to 100000).foreach(i => assert(limiter.accept(dir.resolve(s"file-$i"))))
+    limiter.close()
+  }
+  val tests = Tests {
+    'throttle - throttle
+    'disabled - disabled()
+    'disabledByDefault - disabledByDefault()
+  }
+}
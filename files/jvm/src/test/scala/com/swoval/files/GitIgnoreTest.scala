@@ -0,0 +1,81 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object GitIgnoreTest extends TestSuite {
+  private def write(path: Path, lines: String*): Path =
+    Files.write(path, lines.mkString("", "\n", "\n").getBytes)
+  def rules: Future[Unit] = withTempDirectorySync { dir =>
+    val src = Files.createDirectories(dir.resolve("src"))
+    val gen = Files.createDirectories(src.resolve("gen"))
+    val build = Files.createDirectories(dir.resolve("build"))
+    val git = Files.createDirectories(dir.resolve(".git"))
+    val log = Files.createFile(src.resolve("debug.log"))
+    val keep = Files.createFile(src.resolve("keep.log"))
+    val javaFile = Files.createFile(src.resolve("Foo.java"))
+    val generated = Files.createFile(gen.resolve("Bar.java"))
+    val classFile = Files.createFile(build.resolve("Foo.class"))
+    Files.createFile(git.resolve("HEAD"))
+    write(dir.resolve(".gitignore"), "# comment", "*.log", "!keep.log", "build/")
+    write(src.resolve(".gitignore"), "/gen")
+    val filter = PathFilters.gitignore(dir)
+    val accepted = FileTreeViews.list(dir, Integer.MAX_VALUE, filter).asScala.map(_.getPath).toSet
+    accepted ==> Set(dir.resolve(".gitignore"), src, src.resolve(".gitignore"), keep, javaFile)
+    assert(!filter.accept(TypedPaths.get(log)))
+    assert(!filter.accept(TypedPaths.get(generated)))
+    assert(!filter.accept(TypedPaths.get(classFile)))
+    assert(filter.accept(TypedPaths.get(dir.getParent)))
+  }
+  def reload: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val build = Files.createDirectories(dir.resolve("build"))
+    val classFile = Files.createFile(build.resolve("Foo.class"))
+    val src = Files.createDirectories(dir.resolve("src"))
+    val javaFile = Files.createFile(src.resolve("Foo.java"))
+    val ignoreFile = write(dir.resolve(".gitignore"), "build")
+    val included = new CountDownLatch(1)
+    val ignored = new CountDownLatch(1)
+    val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+    val filter = PathFilters.gitignore(dir)
+    usingAsync(FileTreeRepositories.get(converter, filter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit =
+          if (newEntry.path == classFile) included.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit =
+          if (oldEntry.path == javaFile) ignored.countDown()
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      c.ls(dir).map(_.path).toSet ==> Set(ignoreFile, src, javaFile)
+      write(ignoreFile, "src")
+      included
+        .waitFor(DEFAULT_TIMEOUT) {
+          c.ls(dir).map(_.path).toSet.contains(classFile) ==> true
+        }
+        .flatMap { _ =>
+          ignored.waitFor(DEFAULT_TIMEOUT) {
+            c.ls(dir).map(_.path).toSet ==> Set(ignoreFile, build, classFile)
+          }
+        }
+    }
+  }
+  val tests = Tests {
+    'rules - rules
+    'reload - reload
+  }
+}
@@ -0,0 +1,118 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path, Paths }
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.Converter
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filter
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+
+object GlobFilterTest extends TestSuite {
+  private val base = Paths.get("/base").toAbsolutePath
+  private implicit class FilterOps(val filter: Filter[TypedPath]) extends AnyVal {
+    def file(path: String): Boolean =
+      filter.accept(TypedPaths.get(base.resolve(path), Entries.FILE))
+    def directory(path: String): Boolean =
+      filter.accept(TypedPaths.get(base.resolve(path), Entries.DIRECTORY))
+  }
+  private def glob(includes: Seq[String], excludes: Seq[String] = Nil): Filter[TypedPath] =
+    PathFilters.glob(base, includes.asJava, excludes.asJava)
+  val tests = Tests {
+    'files - {
+      'wildcards - {
+        val filter = glob(Seq("*.java", "src/?.scala", "lib/[a-c]*.jar", "bin/[!x]*"))
+        assert(filter.file("Foo.java"))
+        assert(!filter.file("src/Foo.java"))
+        assert(filter.file("src/a.scala"))
+        assert(!filter.file("src/ab.scala"))
+        assert(filter.file("lib/b-1.0.jar"))
+        assert(!filter.file("lib/d-1.0.jar"))
+        assert(filter.file("bin/run"))
+        assert(!filter.file("bin/xrun"))
+      }
+      'doubleStar - {
+        val filter = glob(Seq("**/*.java", "src/**/test/*.scala", "target/**"))
+        assert(filter.file("Foo.java"))
+        assert(filter.file("a/b/c/Foo.java"))
+        assert(filter.file("src/test/FooTest.scala"))
+        assert(filter.file("src/a/b/test/FooTest.scala"))
+        assert(!filter.file("src/a/b/FooTest.scala"))
+        assert(filter.file("target/a/b"))
+        assert(!filter.file("target"))
+      }
+      'braces - {
+        val filter = glob(Seq("*.{java,scala}", "{src,test}/{main,test}/*"))
+        assert(filter.file("Foo.java"))
+        assert(filter.file("Foo.scala"))
+        assert(!filter.file("Foo.class"))
+        assert(filter.file("test/main/Foo"))
+        assert(!filter.file("test/it/Foo"))
+      }
+      'excludes - {
+        val filter = glob(Seq("**/*.java"), Seq("**/generated", "*.tmp.java"))
+        assert(filter.file("src/Foo.java"))
+        assert(!filter.file("src/generated/Foo.java"))
+        assert(!filter.file("src/generated/a/Foo.java"))
+        assert(!filter.file("Foo.tmp.java"))
+        assert(filter.file("src/Foo.tmp.java"))
+      }
+      'noIncludes - {
+        val filter = glob(Nil, Seq("*.class"))
+        assert(filter.file("Foo.java"))
+        assert(!filter.file("Foo.class"))
+      }
+      'escapes - {
+        val filter = glob(Seq("\\*.txt", "a\\?"))
+        assert(filter.file("*.txt"))
+        assert(!filter.file("foo.txt"))
+        assert(filter.file("a?"))
+        assert(!filter.file("ab"))
+      }
+      'outside - {
+        val filter = glob(Seq("**"))
+        assert(filter.directory(""))
+        assert(!filter.accept(TypedPaths.get(base.resolveSibling("other").resolve("a"))))
+      }
+    }
+    'directories - {
+      'pruning - {
+        val filter = glob(Seq("src/**/*.java"), Seq("**/generated", "build/"))
+        assert(filter.directory("src"))
+        assert(filter.directory("src/main/java"))
+        assert(!filter.directory("docs"))
+        assert(!filter.directory("src/generated"))
+        assert(!filter.directory("build"))
+        assert(!filter.file("build"))
+      }
+      'directoryOnly - {
+        val filter = glob(Seq("out/"))
+        assert(filter.directory("out"))
+        assert(!filter.file("out"))
+      }
+    }
+    'repository - withTempDirectory { dir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val src = Files.createDirectories(dir.resolve("src"))
+      val java = Files.createFile(src.resolve("Foo.java"))
+      Files.createFile(src.resolve("Foo.class"))
+      val generated = Files.createDirectories(src.resolve("generated"))
+      Files.createFile(generated.resolve("Bar.java"))
+      val docs = Files.createDirectories(dir.resolve("docs"))
+      Files.createFile(docs.resolve("index.java"))
+      val filter = PathFilters.glob(dir, Seq("src/**/*.java").asJava, Seq("**/generated").asJava)
+      val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+      using(FileTreeRepositories.get(converter, filter, false, false, logger)) { c =>
+        c.reg(dir)
+        c.ls(dir).map(_.path).toSet ==> Set(src, java)
+      }
+    }
+  }
+}
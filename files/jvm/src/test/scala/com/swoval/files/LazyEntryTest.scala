@@ -0,0 +1,82 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.lang.{ Long => JLong }
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filters.AllPass
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object LazyEntryTest extends TestSuite {
+  class CountingConverter extends Converter[JLong] {
+    val count = new AtomicInteger(0)
+    override def apply(typedPath: TypedPath): JLong = {
+      count.incrementAndGet()
+      Files.size(typedPath.getPath)
+    }
+  }
+
+  def directory: Future[Unit] = withTempDirectorySync { dir =>
+    val files = (1 to 5).map(i => Files.write(dir.resolve(s"file$i"), new Array[Byte](i)))
+    val converter = new CountingConverter
+    val view = FileTreeDataViews.cached(dir, FileTreeDataViews.lazily(converter), 0, false)
+    converter.count.get ==> 0
+    val entries = view.listEntries(0, AllPass).asScala
+    entries.map(_.getTypedPath.getPath).toSet ==> files.toSet
+    converter.count.get ==> 0
+    val entry = entries.find(_.getTypedPath.getPath == files(2)).get
+    val threads = (1 to 4).map(_ => new Thread { override def run(): Unit = entry.getValue })
+    threads.foreach(_.start())
+    threads.foreach(_.join())
+    entry.getValue.get ==> 3L
+    converter.count.get ==> 1
+  }
+
+  def updates: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val materialized = Files.write(dir.resolve("materialized"), new Array[Byte](1))
+    val unmaterialized = Files.write(dir.resolve("unmaterialized"), new Array[Byte](1))
+    val converter = new CountingConverter
+    val latch = new CountDownLatch(1)
+    val updated = new java.util.concurrent.ConcurrentHashMap[Path, Entry[JLong]]
+    val lazyConverter = FileTreeDataViews.lazily(converter)
+    usingAsync(FileTreeRepositories.get(lazyConverter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[JLong] {
+        override def onCreate(newEntry: Entry[JLong]): Unit = {}
+        override def onDelete(oldEntry: Entry[JLong]): Unit = {}
+        override def onUpdate(oldEntry: Entry[JLong], newEntry: Entry[JLong]): Unit = {
+          updated.put(newEntry.getTypedPath.getPath, newEntry)
+          if (updated.size == 2) latch.countDown()
+        }
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      c.ls(dir).find(_.getTypedPath.getPath == materialized).get.getValue.get ==> 1L
+      converter.count.get ==> 1
+      Files.write(materialized, new Array[Byte](2))
+      Files.write(unmaterialized, new Array[Byte](2))
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        assert(Entries.isMaterialized(updated.get(materialized)))
+        assert(!Entries.isMaterialized(updated.get(unmaterialized)))
+        updated.get(unmaterialized).getValue.get ==> 2L
+      }
+    }
+  }
+
+  val tests = Tests {
+    'directory - directory
+    'updates - updates
+  }
+}
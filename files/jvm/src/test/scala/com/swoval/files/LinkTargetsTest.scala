@@ -0,0 +1,151 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object LinkTargetsTest extends TestSuite {
+  class CountingConverter extends Converter[Path] {
+    val count = new AtomicInteger(0)
+    override def apply(typedPath: TypedPath): Path = {
+      count.incrementAndGet()
+      typedPath.getPath
+    }
+  }
+
+  def listing: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val target = Files.createDirectories(dir.resolve("target"))
+    val files = (1 to 3).map(i => Files.createFile(target.resolve(s"file$i")))
+    val links = Files.createDirectories(dir.resolve("links"))
+    val linkPaths = (1 to 5).map(i => Files.createSymbolicLink(links.resolve(s"link$i"), target))
+    val converter = new CountingConverter
+    usingAsync(FileTreeRepositories.getWithSharedLinkTargets(converter, null, false, logger)) {
+      c =>
+        c.reg(links)
+        linkPaths.foreach { link =>
+          val entries = c.ls(link)
+          val expected = files.map(f => link.resolve(f.getFileName)).toSet
+          entries.map(_.getTypedPath.getPath).toSet ==> expected
+          entries.map(_.getValue.get).toSet ==> files.map(_.toRealPath()).toSet
+        }
+        // The registered directory, each link, the target and each file in the target.
+        converter.count.get ==> 1 + linkPaths.size + 1 + files.size
+        Future.successful(())
+    }
+  }
+
+  def events: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val target = Files.createDirectories(dir.resolve("target"))
+    val links = Files.createDirectories(dir.resolve("links"))
+    val linkPaths = (1 to 5).map(i => Files.createSymbolicLink(links.resolve(s"link$i"), target))
+    val file = target.resolve("file")
+    val created = Collections.synchronizedSet(new util.HashSet[Path])
+    val latch = new CountDownLatch(1)
+    val converter = new CountingConverter
+    usingAsync(FileTreeRepositories.getWithSharedLinkTargets(converter, null, false, logger)) {
+      c =>
+        c.addCacheObserver(new CacheObserver[Path] {
+          override def onCreate(newEntry: Entry[Path]): Unit = {
+            if (newEntry.getTypedPath.getPath.getFileName == file.getFileName) {
+              created.add(newEntry.getTypedPath.getPath)
+              if (created.size == linkPaths.size) latch.countDown()
+            }
+          }
+          override def onDelete(oldEntry: Entry[Path]): Unit = {}
+          override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+          override def onError(exception: IOException): Unit = {}
+        })
+        c.reg(links)
+        val initial = converter.count.get
+        Files.createFile(file)
+        latch.waitFor(DEFAULT_TIMEOUT) {
+          created.size ==> linkPaths.size
+          linkPaths.foreach { link =>
+            c.ls(link).map(_.getTypedPath.getPath) ==> Seq(link.resolve("file"))
+          }
+          converter.count.get ==> initial + 1
+        }
+    }
+  }
+
+  def aliases: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val target = Files.createDirectories(dir.resolve("target"))
+    val subdir = Files.createDirectories(target.resolve("subdir"))
+    val file = Files.createFile(subdir.resolve("file"))
+    val links = Files.createDirectories(dir.resolve("links"))
+    val deleted = Files.createSymbolicLink(links.resolve("deleted"), target)
+    val moved = Files.createSymbolicLink(links.resolve("moved"), target)
+    val live = Files.createSymbolicLink(links.resolve("live"), target)
+    val renamed = links.resolve("renamed")
+    val created = subdir.resolve("created")
+    val deletions = Collections.synchronizedSet(new util.HashSet[Path])
+    val creations = Collections.synchronizedSet(new util.HashSet[Path])
+    val removed = new CountDownLatch(2)
+    val added = new CountDownLatch(2)
+    def listing(link: Path): Set[Path] =
+      Set(link.resolve("subdir"), link.resolve("subdir").resolve("file"))
+    usingAsync(
+      FileTreeRepositories.getWithSharedLinkTargets(new CountingConverter, null, false, logger)
+    ) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = {
+          creations.add(newEntry.path)
+          if (newEntry.path.getFileName == created.getFileName) added.countDown()
+        }
+        override def onDelete(oldEntry: Entry[Path]): Unit = {
+          deletions.add(oldEntry.path)
+          if (oldEntry.path == deleted || oldEntry.path == moved) removed.countDown()
+        }
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(links)
+      Files.delete(deleted)
+      Files.move(moved, renamed)
+      removed
+        .waitFor(DEFAULT_TIMEOUT) {
+          // Removing the views of the other links must not remove the shared entries.
+          c.ls(live).map(_.path).toSet ==> listing(live)
+          assert(!deletions.asScala.exists(_.startsWith(live)))
+          c.ls(deleted) ==> Nil
+          Files.createFile(created)
+        }
+        .flatMap { _ =>
+          added.waitFor(DEFAULT_TIMEOUT) {
+            creations.asScala.filter(_.getFileName == created.getFileName) ==> Set(
+              live.resolve("subdir").resolve("created"),
+              renamed.resolve("subdir").resolve("created")
+            )
+            c.ls(live).map(_.path).toSet ==> listing(live) + live.resolve("subdir/created")
+            c.ls(renamed).map(_.path).toSet ==>
+              listing(renamed) + renamed.resolve("subdir/created")
+            assert(Files.exists(file))
+          }
+        }
+    }
+  }
+
+  val tests = Tests {
+    'listing - listing
+    'events - events
+    'aliases - aliases
+  }
+}
@@ -0,0 +1,110 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object MappedIndexTest extends TestSuite {
+  val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+
+  def lookup: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    val nested = Files.write(subdir.resolve("nested"), new Array[Byte](10))
+    val file = Files.write(dir.resolve("file"), new Array[Byte](5))
+    val index = dir.getParent.resolve(s"${dir.getFileName}.index")
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.reg(dir)
+      val publication = MappedIndex.publish(c, index, 0)
+      using(MappedIndex.open(index)) { mapped =>
+        val record = mapped.get(nested)
+        record.getTypedPath.getPath ==> nested
+        assert(record.getTypedPath.isFile)
+        record.getSize ==> 10L
+        record.getLastModified ==> Files.getLastModifiedTime(nested).toMillis
+        assert(mapped.get(dir.resolve("foo")) == null)
+        mapped.list(dir, 0).asScala.map(_.getTypedPath.getPath) ==> Seq(file, subdir)
+        mapped.list(dir, Integer.MAX_VALUE).asScala.map(_.getTypedPath.getPath).toSet ==>
+          Set(file, subdir, nested)
+        mapped.list(subdir, -1).asScala.map(_.getTypedPath.getPath) ==> Seq(subdir)
+      }.andThen {
+        case _ =>
+          publication.close()
+          Files.deleteIfExists(index)
+      }
+    }
+  }
+
+  def updates: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val file = dir.resolve("file")
+    val index = dir.getParent.resolve(s"${dir.getFileName}.index")
+    val latch = new CountDownLatch(1)
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.reg(dir)
+      val publication = MappedIndex.publish(c, index, 0)
+      val mapped = MappedIndex.open(index)
+      val version = mapped.getVersion
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit =
+          if (newEntry.getTypedPath.getPath == file) latch.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      Files.createFile(file)
+      latch
+        .waitFor(DEFAULT_TIMEOUT) {
+          val deadline = DEFAULT_TIMEOUT.fromNow
+          while (mapped.get(file) == null && !deadline.isOverdue) Thread.sleep(10)
+          assert(mapped.getVersion > version)
+          mapped.get(file).getTypedPath.getPath ==> file
+        }
+        .andThen {
+          case _ =>
+            mapped.close()
+            publication.close()
+            Files.deleteIfExists(index)
+        }
+    }
+  }
+
+  def foreignFile: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val file = Files.write(dir.resolve("file"), (0 until 100).map(_.toByte).toArray)
+    using(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.reg(dir)
+      try {
+        MappedIndex.publish(c, file, 0).close()
+        throw new IllegalStateException("A file that isn't an index should not be overwritten")
+      } catch {
+        case _: IOException =>
+      }
+      try {
+        MappedIndex.open(file).close()
+        throw new IllegalStateException("A file that isn't an index should not be opened")
+      } catch {
+        case _: IOException =>
+      }
+      Files.readAllBytes(file).toSeq ==> (0 until 100).map(_.toByte)
+    }
+  }
+
+  val tests = Tests {
+    'lookup - lookup
+    'updates - updates
+    'foreignFile - foreignFile
+  }
+}
@@ -0,0 +1,130 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ Converter, Entry, MoveObserver }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filters.AllPass
+import com.swoval.runtime.Platform
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object MoveDetectionTest extends TestSuite {
+  private val window = 1000L
+  private class Observer(onMoveImpl: (Entry[Path], Entry[Path]) => Unit)
+      extends MoveObserver[Path] {
+    val deletions: java.util.Set[Path] =
+      Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+    val creations: java.util.Set[Path] =
+      Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+    override def onMove(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit =
+      onMoveImpl(oldEntry, newEntry)
+    override def onCreate(newEntry: Entry[Path]): Unit = creations.add(newEntry.path)
+    override def onDelete(oldEntry: Entry[Path]): Unit = deletions.add(oldEntry.path)
+    override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+    override def onError(exception: IOException): Unit = {}
+  }
+  private def repository(conversions: AtomicInteger, observer: Observer)(
+      implicit testLogger: TestLogger
+  ): FileTreeRepository[Path] = {
+    val converter: Converter[Path] = (typedPath: TypedPath) => {
+      conversions.incrementAndGet()
+      typedPath.getPath
+    }
+    val res = FileTreeRepositories.get(converter, null, false, false, window, testLogger)
+    res.addCacheObserver(observer)
+    res
+  }
+  def rename: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val source = Files.createDirectories(dir.resolve("source"))
+    val subdir = Files.createDirectories(source.resolve("subdir"))
+    val file = Files.createFile(subdir.resolve("file"))
+    val target = dir.resolve("target")
+    val moves = new ConcurrentHashMap[Path, Entry[Path]]
+    val latch = new CountDownLatch(3)
+    val conversions = new AtomicInteger(0)
+    val observer = new Observer((oldEntry, newEntry) => {
+      if (moves.put(oldEntry.path, newEntry) == null) latch.countDown()
+    })
+    usingAsync(repository(conversions, observer)) { c =>
+      c.reg(dir)
+      conversions.set(0)
+      Files.move(source, target)
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        moves.asScala.toMap.mapValues(_.path) ==> Map(
+          source -> target,
+          subdir -> target.resolve("subdir"),
+          file -> target.resolve("subdir").resolve("file")
+        )
+        // The values are moved with the entries rather than recomputed.
+        moves.get(file).value ==> file
+        conversions.get ==> 0
+        c.ls(target).map(_.path).toSet ==> Set(
+          target.resolve("subdir"),
+          target.resolve("subdir").resolve("file")
+        )
+        c.ls(source) ==> Nil
+        observer.deletions.asScala ==> Set.empty[Path]
+        observer.creations.asScala ==> Set.empty[Path]
+      }
+    }
+  }
+  def delete: Future[Unit] = withTempDirectory { dir =>
+    withTempDirectory { otherDir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val source = Files.createDirectories(dir.resolve("source"))
+      val file = Files.createFile(source.resolve("file"))
+      val latch = new CountDownLatch(2)
+      val observer = new Observer((_, _) => {})
+      usingAsync(repository(new AtomicInteger(0), observer)) { c =>
+        c.reg(dir)
+        // The callbacks run in path order, so wait for the last deletion to reach the observers.
+        c.addCacheObserver(new Observer((_, _) => {}) {
+          override def onDelete(oldEntry: Entry[Path]): Unit =
+            if (oldEntry.path == source || oldEntry.path == file) latch.countDown()
+        })
+        Files.move(source, otherDir.resolve("source"))
+        latch.waitFor(DEFAULT_TIMEOUT) {
+          observer.deletions.asScala ==> Set(source, file)
+          c.ls(dir) ==> Nil
+        }
+      }
+    }
+  }
+  def reusedFileKey: Future[Unit] = withTempDirectorySync { dir =>
+    val source = Files.createDirectories(dir.resolve("source"))
+    Files.createFile(source.resolve("file"))
+    val cache = CachedFileTreeViewTest.newCachedView(dir)
+    val detached = cache.detach(source)
+    // A directory that was assigned the file key of the detached directory after it was deleted.
+    val other = Files.createDirectories(dir.resolve("other"))
+    Files.createFile(other.resolve("foo"))
+    cache.attach(TypedPaths.get(other), detached) ==> null
+    val target = Files.move(source, dir.resolve("target"))
+    val extra = Files.createFile(target.resolve("extra"))
+    assert(cache.attach(TypedPaths.get(target), detached) != null)
+    cache.listEntries(target, Int.MaxValue, AllPass).asScala.map(_.path).toSet ==>
+      Set(target.resolve("file"), extra)
+  }
+  val tests = if (!Platform.isWin) Tests {
+    'rename - rename
+    'delete - delete
+    'reusedFileKey - reusedFileKey
+  } else
+    Tests('ignore - {
+      if (swoval.test.verbose) println("Not running MoveDetectionTest on windows")
+    })
+}
@@ -0,0 +1,92 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path, Paths }
+import java.util.concurrent.{ ConcurrentLinkedQueue, CountDownLatch => JCountDownLatch }
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.FileTreeRepository.Priority
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Consumer
+import com.swoval.logging.Loggers
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object PriorityTest extends TestSuite {
+  def scheduler: Future[Unit] = {
+    val base = Paths.get("/foo").toAbsolutePath
+    val started = new JCountDownLatch(1)
+    val release = new JCountDownLatch(1)
+    val done = new CountDownLatch(5)
+    val handled = new ConcurrentLinkedQueue[(String, Kind)]
+    val scheduler = new PriorityEventScheduler(new Consumer[Event] {
+      override def accept(event: Event): Unit = {
+        handled.add(event.getTypedPath.getPath.getFileName.toString -> event.getKind)
+        started.countDown()
+        release.await()
+        done.countDown()
+      }
+    }, Loggers.getLogger)
+    def offer(name: String, kind: Kind, priority: Priority): Unit =
+      scheduler.offer(new Event(TypedPaths.get(base.resolve(name)), kind), priority)
+    offer("first", Kind.Create, Priority.Normal)
+    started.await()
+    offer("bulk", Kind.Overflow, Priority.Bulk)
+    offer("bulk", Kind.Modify, Priority.Bulk)
+    offer("other-bulk", Kind.Create, Priority.Bulk)
+    offer("other-bulk", Kind.Modify, Priority.Bulk)
+    offer("normal", Kind.Create, Priority.Normal)
+    offer("interactive", Kind.Create, Priority.Interactive)
+    release.countDown()
+    done
+      .waitFor(DEFAULT_TIMEOUT) {
+        handled.asScala.toSeq ==> Seq(
+          "first" -> Kind.Create,
+          "interactive" -> Kind.Create,
+          "normal" -> Kind.Create,
+          "bulk" -> Kind.Overflow,
+          "other-bulk" -> Kind.Modify
+        )
+      }
+      .andThen { case _ => scheduler.close() }
+  }
+  def repository: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val bulk = Files.createDirectories(dir.resolve("bulk"))
+    val interactive = Files.createDirectories(dir.resolve("interactive"))
+    val file = interactive.resolve("file")
+    val count = 100
+    val created = new CountDownLatch(count + 1)
+    val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = created.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.register(bulk, Integer.MAX_VALUE, Priority.Bulk)
+      c.register(interactive, Integer.MAX_VALUE, Priority.Interactive)
+      val files = (1 to count).map(i => Files.createFile(bulk.resolve(s"file-$i")))
+      Files.createFile(file)
+      created.waitFor(DEFAULT_TIMEOUT) {
+        c.ls(bulk).map(_.path).toSet ==> files.toSet
+        c.ls(interactive).map(_.path) ==> Seq(file)
+      }
+    }
+  }
+  val tests = Tests {
+    'scheduler - scheduler
+    'repository - repository
+  }
+}
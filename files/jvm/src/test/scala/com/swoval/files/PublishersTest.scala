@@ -0,0 +1,88 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Path, Paths }
+
+import com.swoval.files.FileTreeViews.{ Observable, Observer }
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.PathWatchers.Event.Kind
+import com.swoval.files.Publishers.{ BufferOverflowException, Subscriber, Subscription }
+import utest._
+
+import scala.collection.mutable
+
+object PublishersTest extends TestSuite {
+  class TestObservable extends Observable[Event] {
+    val observers = new Observers[Event]
+    var count = 0
+    override def addObserver(observer: Observer[_ >: Event]): Int = {
+      count += 1
+      observers.addObserver(observer)
+    }
+    override def removeObserver(handle: Int): Unit = {
+      count -= 1
+      observers.removeObserver(handle)
+    }
+    def fire(name: String, kind: Kind): Unit =
+      observers.onNext(new Event(TypedPaths.get(Paths.get(name).toAbsolutePath), kind))
+  }
+  class TestSubscriber extends Subscriber[Event] {
+    var subscription: Subscription = _
+    val events = mutable.Buffer.empty[(Path, Kind)]
+    var error: Option[Throwable] = None
+    override def onSubscribe(s: Subscription): Unit = subscription = s
+    override def onNext(event: Event): Unit =
+      events += event.getTypedPath.getPath.getFileName -> event.getKind
+    override def onError(throwable: Throwable): Unit = error = Some(throwable)
+    override def onComplete(): Unit = {}
+  }
+  def subscribe(bufferSize: Int, conflate: Boolean): (TestObservable, TestSubscriber) = {
+    val observable = new TestObservable
+    val subscriber = new TestSubscriber
+    Publishers.events(observable, bufferSize, conflate).subscribe(subscriber)
+    (observable, subscriber)
+  }
+  val tests = Tests {
+    'demand - {
+      val (observable, subscriber) = subscribe(16, conflate = false)
+      observable.fire("a", Kind.Create)
+      observable.fire("b", Kind.Create)
+      assert(subscriber.events.isEmpty)
+      subscriber.subscription.request(1)
+      subscriber.events ==> Seq(Paths.get("a") -> Kind.Create)
+      subscriber.subscription.request(2)
+      subscriber.events.map(_._1) ==> Seq(Paths.get("a"), Paths.get("b"))
+      observable.fire("c", Kind.Modify)
+      subscriber.events.map(_._1) ==> Seq("a", "b", "c").map(Paths.get(_))
+      subscriber.subscription.cancel()
+      observable.count ==> 0
+    }
+    'conflate - {
+      val (observable, subscriber) = subscribe(2, conflate = true)
+      observable.fire("a", Kind.Create)
+      observable.fire("b", Kind.Create)
+      observable.fire("a", Kind.Modify)
+      observable.fire("b", Kind.Overflow)
+      observable.fire("b", Kind.Modify)
+      subscriber.subscription.request(Long.MaxValue)
+      subscriber.events ==> Seq(Paths.get("a") -> Kind.Modify, Paths.get("b") -> Kind.Overflow)
+      assert(subscriber.error.isEmpty)
+    }
+    'overflow - {
+      val (observable, subscriber) = subscribe(2, conflate = false)
+      observable.fire("a", Kind.Create)
+      observable.fire("a", Kind.Modify)
+      observable.fire("a", Kind.Delete)
+      assert(subscriber.error.exists(_.isInstanceOf[BufferOverflowException]))
+      assert(subscriber.events.isEmpty)
+      observable.count ==> 0
+    }
+    'invalid - {
+      val (observable, subscriber) = subscribe(2, conflate = true)
+      subscriber.subscription.request(0)
+      assert(subscriber.error.exists(_.isInstanceOf[IllegalArgumentException]))
+      observable.count ==> 0
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object QuiescenceTest extends TestSuite {
+  def burst: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+    val first = new CountDownLatch(1)
+    val created = new AtomicInteger(0)
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = {
+          created.incrementAndGet()
+          first.countDown()
+        }
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      val paths = (1 to 5).flatMap { i =>
+        val subdir = Files.createDirectories(dir.resolve(s"subdir-$i"))
+        subdir +: (1 to 20).map(j => Files.createFile(subdir.resolve(s"file-$j")))
+      }
+      first.waitFor(DEFAULT_TIMEOUT) {
+        assert(c.awaitQuiescence(dir, 200, DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS))
+        c.ls(dir).map(_.path).toSet ==> paths.toSet
+        created.get ==> paths.size
+      }
+    }
+  }
+  def timeout: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+    val repository = FileTreeRepositories.get(converter, false, false, logger)
+    using(repository) { c =>
+      c.reg(dir)
+      assert(!c.awaitQuiescence(dir, 10, 0, TimeUnit.SECONDS))
+      assert(c.awaitQuiescence(dir, 10, 5000, TimeUnit.MILLISECONDS))
+    }.map { _ =>
+      // The future returned by using only completes once the repository has been closed.
+      assert(!repository.awaitQuiescence(dir, 10, 5000, TimeUnit.MILLISECONDS))
+    }
+  }
+  val tests = Tests {
+    'burst - burst
+    'timeout - timeout
+  }
+}
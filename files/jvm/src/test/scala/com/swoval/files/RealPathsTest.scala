@@ -0,0 +1,94 @@
+package com
+package swoval
+package files
+
+import java.nio.file.Files
+
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object RealPathsTest extends TestSuite {
+  def invalidation: Future[Unit] = withTempDirectorySync { dir =>
+    val first = Files.createDirectories(dir.resolve("targets").resolve("first"))
+    val second = Files.createDirectories(dir.resolve("second"))
+    val link = Files.createSymbolicLink(dir.resolve("link"), first)
+    val realPaths = new RealPaths
+    realPaths.toRealPath(link) ==> first.toRealPath()
+    realPaths.toRealPath(link) ==> first.toRealPath()
+    realPaths.getHits ==> 1L
+    realPaths.getMisses ==> 1L
+    realPaths.toRealPath(link.resolve("subdir").getParent) ==> first.toRealPath()
+
+    Files.delete(link)
+    Files.createSymbolicLink(link, second)
+    realPaths.invalidate(link)
+    realPaths.toRealPath(link) ==> second.toRealPath()
+
+    Files.delete(link)
+    Files.createSymbolicLink(link, first)
+    realPaths.invalidate(dir.resolve("targets"))
+    realPaths.toRealPath(link) ==> second.toRealPath()
+    realPaths.invalidate(dir)
+    realPaths.toRealPath(link) ==> first.toRealPath()
+  }
+
+  def expanded: Future[Unit] = withTempDirectorySync { dir =>
+    val target = Files.createDirectories(dir.resolve("target"))
+    val link = Files.createSymbolicLink(dir.resolve("link"), target)
+    val realPaths = new RealPaths
+    realPaths.expanded(TypedPaths.get(link)) ==> target.toRealPath()
+    realPaths.expanded(TypedPaths.get(target)) ==> target
+    realPaths.expanded(TypedPaths.get(dir.resolve("missing"))) ==> dir.resolve("missing")
+    realPaths.getMisses ==> 1L
+  }
+
+  def events: Future[Unit] = withTempDirectorySync { dir =>
+    val first = Files.createDirectories(dir.resolve("first"))
+    val second = Files.createDirectories(dir.resolve("second"))
+    val file = Files.createFile(dir.resolve("file"))
+    val link = Files.createSymbolicLink(dir.resolve("link"), first)
+    val realPaths = new RealPaths
+    realPaths.toRealPath(link) ==> first.toRealPath()
+    Files.delete(link)
+    Files.createSymbolicLink(link, second)
+    // A change to a regular file can not change the real path of the link.
+    realPaths.invalidate(new Event(TypedPaths.get(file), Event.Kind.Modify))
+    realPaths.invalidate(new Event(TypedPaths.get(link.resolve("file")), Event.Kind.Create))
+    realPaths.toRealPath(link) ==> first.toRealPath()
+    realPaths.invalidate(new Event(TypedPaths.get(link), Event.Kind.Modify))
+    realPaths.toRealPath(link) ==> second.toRealPath()
+    Files.delete(link)
+    Files.createSymbolicLink(link, first)
+    realPaths.invalidate(new Event(TypedPaths.get(dir), Event.Kind.Overflow))
+    realPaths.toRealPath(link) ==> first.toRealPath()
+  }
+
+  def expiration: Future[Unit] = withTempDirectorySync { dir =>
+    val first = Files.createDirectories(dir.resolve("first"))
+    val second = Files.createDirectories(dir.resolve("second"))
+    val middle = Files.createDirectories(dir.resolve("links")).resolve("middle")
+    Files.createSymbolicLink(middle, first)
+    val link = Files.createSymbolicLink(dir.resolve("link"), middle)
+    val realPaths = new RealPaths(100)
+    realPaths.toRealPath(link) ==> first.toRealPath()
+    // The link in the middle of the chain is not invalidated.
+    Files.delete(middle)
+    Files.createSymbolicLink(middle, second)
+    val deadline = DEFAULT_TIMEOUT.fromNow
+    while (realPaths.toRealPath(link) != second.toRealPath() && !deadline.isOverdue)
+      Thread.sleep(10)
+    realPaths.toRealPath(link) ==> second.toRealPath()
+  }
+
+  val tests = Tests {
+    'invalidation - invalidation
+    'expanded - expanded
+    'events - events
+    'expiration - expiration
+  }
+}
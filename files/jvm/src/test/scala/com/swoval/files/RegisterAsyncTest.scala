@@ -0,0 +1,63 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.TimeUnit
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.Converter
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filters
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object RegisterAsyncTest extends TestSuite {
+  private val identity: Converter[Path] = (_: TypedPath).getPath
+  private def listFiles(dir: Path): Set[Path] =
+    FileTreeViews.list(dir, Integer.MAX_VALUE, Filters.AllPass).asScala.map(_.getPath).toSet
+  private def createTree(dir: Path, count: Int): Seq[Path] = (1 to count).map { i =>
+    val subdir = Files.createDirectories(dir.resolve(s"subdir-$i").resolve("nested"))
+    (1 to 10).foreach(j => Files.createFile(subdir.resolve(s"file-$j")))
+    subdir
+  }
+  def initial: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    createTree(dir, 10)
+    using(FileTreeRepositories.get(identity, false, false, logger)) { c =>
+      val future = c.registerAsync(dir, Integer.MAX_VALUE)
+      future.get(DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS).booleanValue ==> true
+      c.ls(dir).map(_.path).toSet ==> listFiles(dir)
+      c.registerAsync(dir, Integer.MAX_VALUE)
+        .get(DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS)
+        .booleanValue ==> false
+    }
+  }
+  def concurrentUpdates: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdirs = createTree(dir, 100)
+    using(FileTreeRepositories.get(identity, false, false, logger)) { c =>
+      val future = c.registerAsync(dir, Integer.MAX_VALUE)
+      // Modify the tree while it is being scanned. The cache must reflect these changes once
+      // the registration is complete.
+      subdirs.foreach { subdir =>
+        Files.createFile(subdir.resolve("new-file"))
+        Files.delete(subdir.resolve("file-1"))
+      }
+      future.get(DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS).booleanValue ==> true
+      val expected = listFiles(dir)
+      val deadline = DEFAULT_TIMEOUT.fromNow
+      while (c.ls(dir).map(_.path).toSet != expected && deadline.hasTimeLeft) Thread.sleep(10)
+      c.ls(dir).map(_.path).toSet ==> expected
+    }
+  }
+  val tests = Tests {
+    'initial - initial
+    'concurrentUpdates - concurrentUpdates
+  }
+}
@@ -0,0 +1,51 @@
+package com
+package swoval
+package files
+
+import java.util.concurrent.locks.ReentrantLock
+
+import com.swoval.files.SymlinkWatcher.RegisteredPath
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object RegisteredPathsTest extends TestSuite {
+  def find: Future[Unit] = withTempDirectorySync { dir =>
+    val registeredPaths = new RegisteredPaths(new ReentrantLock())
+    val outer = dir.resolve("outer")
+    val inner = outer.resolve("subdir").resolve("inner")
+    registeredPaths.put(outer, new RegisteredPath(outer, dir.resolve("outer-link")))
+    registeredPaths.put(inner, new RegisteredPath(inner, dir.resolve("inner-link")))
+    registeredPaths.find(outer.resolve("file")).path ==> outer
+    registeredPaths.find(inner.resolve("file")).path ==> inner
+    registeredPaths.find(inner.getParent).path ==> outer
+    assert(registeredPaths.find(dir) == null)
+    assert(registeredPaths.find(dir.resolve("outer-sibling")) == null)
+
+    registeredPaths.remove(inner)
+    registeredPaths.find(inner.resolve("file")).path ==> outer
+    registeredPaths.remove(outer)
+    assert(registeredPaths.find(outer.resolve("file")) == null)
+  }
+
+  def links: Future[Unit] = withTempDirectorySync { dir =>
+    val registeredPaths = new RegisteredPaths(new ReentrantLock())
+    val target = dir.resolve("target")
+    val registeredPath = new RegisteredPath(target, dir.resolve("link"))
+    registeredPaths.put(target, registeredPath)
+    registeredPath.paths.add(dir.resolve("other-link"))
+    registeredPaths.addLink(dir.resolve("other-link"), target)
+    registeredPaths.removeLink(dir.resolve("link")) ==> target
+
+    registeredPaths.remove(target)
+    assert(registeredPaths.removeLink(dir.resolve("other-link")) == null)
+  }
+
+  val tests = Tests {
+    'find - find
+    'links - links
+  }
+}
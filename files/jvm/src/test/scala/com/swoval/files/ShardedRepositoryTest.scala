@@ -0,0 +1,132 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{ AtomicBoolean, AtomicInteger }
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object ShardedRepositoryTest extends TestSuite {
+  private val identity: Converter[Path] = (_: TypedPath).getPath
+  private def sharded(implicit testLogger: TestLogger): FileTreeRepository[Path] =
+    FileTreeRepositories.get(identity, null, false, false, 0, 4, testLogger)
+  def independentRoots: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val roots = (1 to 8).map(i => Files.createDirectories(dir.resolve(s"root-$i")))
+    val files = roots.map(root => Files.createFile(root.resolve("file")))
+    val created = Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+    val latch = new CountDownLatch(roots.size)
+    usingAsync(sharded) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit =
+          if (created.add(newEntry.path)) latch.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      roots.foreach(c.reg(_))
+      roots.foreach(root => c.ls(root).map(_.path).toSet ==> Set(root.resolve("file")))
+      c.ls(dir) ==> Nil
+      val newFiles = roots.map(root => Files.createFile(root.resolve("new-file")))
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        created.asScala ==> newFiles.toSet
+        files.foreach(file => c.ls(file.getParent).size ==> 2)
+      }
+    }
+  }
+  def overlappingRoots: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val nested = (1 to 8).map(i => Files.createDirectories(dir.resolve("parent").resolve(s"$i")))
+    nested.foreach(subdir => Files.createFile(subdir.resolve("file")))
+    val parent = dir.resolve("parent")
+    val latch = new CountDownLatch(1)
+    val newFile = nested.head.resolve("new-file")
+    usingAsync(sharded) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit =
+          if (newEntry.path == newFile) latch.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      nested.foreach(c.reg(_))
+      // The nested directories are spread across the shards. Registering the parent moves them
+      // into the parent's shard so that the events for the parent are only reported once.
+      c.reg(parent)
+      c.ls(parent).size ==> 16
+      Files.createFile(newFile)
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        c.ls(parent).size ==> 17
+        c.ls(nested.head).map(_.path).toSet ==> Set(nested.head.resolve("file"), newFile)
+      }
+    }
+  }
+  def eventsDuringMigration: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val parent = dir.resolve("parent")
+    val nested = (1 to 8).map(i => Files.createDirectories(parent.resolve(s"$i")))
+    val creations = new ConcurrentHashMap[Path, AtomicInteger]
+    val created = Collections.synchronizedList(new java.util.ArrayList[Path])
+    usingAsync(sharded) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = {
+          creations.putIfAbsent(newEntry.path, new AtomicInteger(0))
+          creations.get(newEntry.path).incrementAndGet()
+        }
+        override def onDelete(oldEntry: Entry[Path]): Unit = {}
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      nested.foreach(c.reg(_))
+      val done = new AtomicBoolean(false)
+      val thread = new Thread("create-files") {
+        override def run(): Unit = {
+          var i = 0
+          while (!done.get) {
+            created.add(Files.createFile(nested(i % nested.size).resolve(s"file-$i")))
+            i += 1
+            if (i % nested.size == 0) Thread.sleep(1)
+          }
+        }
+      }
+      thread.start()
+      try {
+        Thread.sleep(20)
+        // Moves each of the nested directories into the shard of the parent.
+        c.reg(parent)
+        Thread.sleep(20)
+      } finally {
+        done.set(true)
+        thread.join()
+      }
+      val files = created.asScala.toSet
+      Future {
+        val deadline = DEFAULT_TIMEOUT.fromNow
+        while (!deadline.isOverdue && !files.subsetOf(c.ls(parent).map(_.path).toSet))
+          Thread.sleep(10)
+        files.filterNot(c.ls(parent).map(_.path).toSet) ==> Set.empty[Path]
+        // A creation may be found by the registration scan rather than reported, but no creation
+        // may be reported by both the old and the new shard of a directory.
+        creations.asScala.filter(_._2.get > 1).keySet ==> Set.empty[Path]
+      }
+    }
+  }
+  val tests = Tests {
+    'independentRoots - independentRoots
+    'overlappingRoots - overlappingRoots
+    'eventsDuringMigration - eventsDuringMigration
+  }
+}
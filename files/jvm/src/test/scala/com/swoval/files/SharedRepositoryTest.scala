@@ -0,0 +1,80 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object SharedRepositoryTest extends TestSuite {
+  private def observer(path: Path, latch: CountDownLatch): CacheObserver[Path] =
+    new CacheObserver[Path] {
+      override def onCreate(newEntry: Entry[Path]): Unit =
+        if (newEntry.path == path) latch.countDown()
+      override def onDelete(oldEntry: Entry[Path]): Unit = {}
+      override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+      override def onError(exception: IOException): Unit = {}
+    }
+  def sharedCache: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val files = (1 to 10).map(i => Files.createFile(dir.resolve(s"file-$i")))
+    val conversions = new AtomicInteger(0)
+    val converter: Converter[Path] = (typedPath: TypedPath) => {
+      conversions.incrementAndGet()
+      typedPath.getPath
+    }
+    usingAsync(FileTreeRepositories.getShared(converter, false)) { first =>
+      using(FileTreeRepositories.getShared(converter, false)) { second =>
+        first.reg(dir)
+        val count = conversions.get
+        second.reg(dir)
+        conversions.get ==> count
+        second.ls(dir).map(_.path).toSet ==> files.toSet
+      }
+    }
+  }
+  def separateViews: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    val file = Files.createFile(dir.resolve("file"))
+    val subdirFile = Files.createFile(subdir.resolve("file"))
+    val converter: Converter[Path] = (_: TypedPath).getPath
+    val first = FileTreeRepositories.getShared(converter, false)
+    val newFile = subdir.resolve("new-file")
+    val latch = new CountDownLatch(1)
+    val secondLatch = new CountDownLatch(1)
+    usingAsync(FileTreeRepositories.getShared(converter, false)) { second =>
+      val otherFile = dir.resolve("other-file")
+      second.addCacheObserver(observer(otherFile, latch))
+      second.addCacheObserver(observer(newFile, secondLatch))
+      first.reg(dir)
+      second.reg(subdir)
+      first.ls(dir).map(_.path).toSet ==> Set(subdir, file, subdirFile)
+      second.ls(subdir).map(_.path).toSet ==> Set(subdirFile)
+      second.ls(dir).map(_.path).toSet ==> Set(subdir, subdirFile)
+      // The second view did not register dir so it must not be notified about other-file.
+      Files.createFile(otherFile)
+      // Closing the first view must not remove the subdirectory from the shared cache.
+      first.close()
+      Files.createFile(newFile)
+      secondLatch.waitFor(DEFAULT_TIMEOUT) {
+        latch.getCount ==> 1
+        second.ls(subdir).map(_.path).toSet ==> Set(subdirFile, newFile)
+      }
+    }
+  }
+  val tests = Tests {
+    'sharedCache - sharedCache
+    'separateViews - separateViews
+  }
+}
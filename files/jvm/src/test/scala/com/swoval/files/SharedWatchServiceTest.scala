@@ -0,0 +1,91 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object SharedWatchServiceTest extends TestSuite {
+  private val identity: Converter[Path] = (_: TypedPath).getPath
+  private def observer(path: Path, latch: CountDownLatch): CacheObserver[Path] =
+    new CacheObserver[Path] {
+      override def onCreate(newEntry: Entry[Path]): Unit =
+        if (newEntry.path == path) latch.countDown()
+      override def onDelete(oldEntry: Entry[Path]): Unit = {}
+      override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+      override def onError(exception: IOException): Unit = {}
+    }
+  def sameDirectory: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val file = dir.resolve("file")
+    val otherFile = dir.resolve("other-file")
+    val latch = new CountDownLatch(2)
+    val otherLatch = new CountDownLatch(1)
+    val first = FileTreeRepositories.get(identity, false, false, logger)
+    usingAsync(FileTreeRepositories.get(identity, false, false, logger)) { second =>
+      first.addCacheObserver(observer(file, latch))
+      second.addCacheObserver(observer(file, latch))
+      second.addCacheObserver(observer(otherFile, otherLatch))
+      first.reg(dir)
+      second.reg(dir)
+      Files.createFile(file)
+      latch
+        .waitFor(DEFAULT_TIMEOUT) {
+          // Closing the first repository must not stop the second from monitoring the directory
+          // even though they may share the same watch key.
+          first.close()
+          Files.createFile(otherFile)
+        }
+        .flatMap { _ =>
+          otherLatch.waitFor(DEFAULT_TIMEOUT) {
+            second.ls(dir).map(_.path).toSet ==> Set(file, otherFile)
+          }
+        }
+    }
+  }
+  def symlink: Future[Unit] = withTempDirectory { root =>
+    implicit val logger: TestLogger = new CachingLogger
+    val dir = Files.createDirectories(root.resolve("dir"))
+    // The watch service returns the same watch key for the directory and the path through the
+    // link, but each repository must see the events with the path that it registered.
+    val alias = Files.createSymbolicLink(root.resolve("link"), root).resolve("dir")
+    val latch = new CountDownLatch(2)
+    val otherLatch = new CountDownLatch(1)
+    val first = FileTreeRepositories.get(identity, false, false, logger)
+    usingAsync(FileTreeRepositories.get(identity, false, false, logger)) { second =>
+      first.addCacheObserver(observer(dir.resolve("file"), latch))
+      second.addCacheObserver(observer(alias.resolve("file"), latch))
+      second.addCacheObserver(observer(alias.resolve("other-file"), otherLatch))
+      first.reg(dir)
+      second.reg(alias)
+      Files.createFile(dir.resolve("file"))
+      latch
+        .waitFor(DEFAULT_TIMEOUT) {
+          // Unregistering the directory in the first repository must not cancel the watch key
+          // that the second repository still uses for the alias.
+          first.close()
+          Files.createFile(dir.resolve("other-file"))
+        }
+        .flatMap { _ =>
+          otherLatch.waitFor(DEFAULT_TIMEOUT) {
+            second.ls(alias).map(_.path).toSet ==>
+              Set(alias.resolve("file"), alias.resolve("other-file"))
+          }
+        }
+    }
+  }
+  val tests = Tests {
+    'sameDirectory - sameDirectory
+    'symlink - symlink
+  }
+}
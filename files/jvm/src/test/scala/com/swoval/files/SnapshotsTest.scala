@@ -0,0 +1,76 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.TimeUnit
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filters.AllPass
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import scala.concurrent.Future
+
+object SnapshotsTest extends TestSuite {
+  val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+  class DiffObserver extends CacheObserver[Path] {
+    val created = mutable.Buffer.empty[Path]
+    val updated = mutable.Buffer.empty[Path]
+    val deleted = mutable.Buffer.empty[Path]
+    override def onCreate(newEntry: Entry[Path]): Unit = created += newEntry.getTypedPath.getPath
+    override def onDelete(oldEntry: Entry[Path]): Unit = deleted += oldEntry.getTypedPath.getPath
+    override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit =
+      updated += newEntry.getTypedPath.getPath
+    override def onError(exception: IOException): Unit = {}
+  }
+  def paths(entries: java.util.List[Entry[Path]]): Set[Path] =
+    entries.asScala.map(_.getTypedPath.getPath).toSet
+
+  def diff: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    val nested = Files.createFile(subdir.resolve("nested"))
+    val file = Files.createFile(dir.resolve("file"))
+    val latch = new CountDownLatch(2)
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = latch.countDown()
+        override def onDelete(oldEntry: Entry[Path]): Unit = latch.countDown()
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      val before = c.snapshot()
+      paths(before.listEntries(dir, Integer.MAX_VALUE, AllPass)) ==> Set(subdir, nested, file)
+      val unchanged = new DiffObserver
+      Snapshots.diff(before, c.snapshot(), unchanged)
+      assert(unchanged.created.isEmpty && unchanged.updated.isEmpty && unchanged.deleted.isEmpty)
+      val created = Files.createFile(subdir.resolve("created"))
+      Files.delete(file)
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        assert(c.awaitQuiescence(dir, 200, DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS))
+        val after = c.snapshot()
+        val observer = new DiffObserver
+        Snapshots.diff(before, after, observer)
+        observer.created ==> Seq(created)
+        observer.deleted ==> Seq(file)
+        paths(before.listEntries(dir, Integer.MAX_VALUE, AllPass)) ==> Set(subdir, nested, file)
+        paths(after.listEntries(dir, Integer.MAX_VALUE, AllPass)) ==>
+          paths(c.listEntries(dir, Integer.MAX_VALUE, AllPass))
+        paths(after.listEntries(subdir, -1, AllPass)) ==> Set(subdir)
+      }
+    }
+  }
+
+  val tests = Tests {
+    'diff - diff
+  }
+}
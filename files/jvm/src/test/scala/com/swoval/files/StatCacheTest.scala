@@ -0,0 +1,61 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, NoSuchFileException }
+
+import com.swoval.files.LinkOption.NOFOLLOW_LINKS
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object StatCacheTest extends TestSuite {
+  def generation: Future[Unit] = withTempDirectorySync { dir =>
+    val file = Files.write(dir.resolve("file"), new Array[Byte](3))
+    val saved = FileTreeRepositories.statCacheStatistics().getSaved
+    StatCache.begin()
+    try {
+      NioWrappers.readAttributes(file, NOFOLLOW_LINKS).size ==> 3L
+      Files.delete(file)
+      NioWrappers.readAttributes(file, NOFOLLOW_LINKS).size ==> 3L
+      NioWrappers.readAttributes(file).size ==> 3L
+      TypedPaths.get(file).exists ==> true
+      assert(FileTreeRepositories.statCacheStatistics().getSaved - saved >= 3)
+    } finally {
+      StatCache.end()
+    }
+    TypedPaths.get(file).exists ==> false
+    try {
+      NioWrappers.readAttributes(file)
+      throw new IllegalStateException("The attributes of a deleted file should not be cached")
+    } catch {
+      case _: NoSuchFileException =>
+    }
+  }
+
+  def nested: Future[Unit] = withTempDirectorySync { dir =>
+    val file = dir.resolve("file")
+    StatCache.begin()
+    try {
+      StatCache.begin()
+      try {
+        TypedPaths.get(file).exists ==> false
+      } finally {
+        StatCache.end()
+      }
+      Files.createFile(file)
+      TypedPaths.get(file).exists ==> false
+    } finally {
+      StatCache.end()
+    }
+    TypedPaths.get(file).exists ==> true
+  }
+
+  val tests = Tests {
+    'generation - generation
+    'nested - nested
+  }
+}
@@ -0,0 +1,82 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.{ Files, Path }
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ Converter, Entry, SubtreeObserver }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object SubtreeObserverTest extends TestSuite {
+  private val identity: Converter[Path] = (_: TypedPath).getPath
+  def moveOut: Future[Unit] = withTempDirectory { dir =>
+    withTempDirectory { otherDir =>
+      implicit val logger: TestLogger = new CachingLogger
+      val target = Files.createDirectories(dir.resolve("target"))
+      val subdir = Files.createDirectories(target.resolve("subdir"))
+      val files = (1 to 5).map(i => Files.createFile(subdir.resolve(s"file-$i")))
+      val removed = Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+      val deletions = Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+      val legacyDeletions =
+        Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+      val notifications = new AtomicInteger(0)
+      val latch = new CountDownLatch(1)
+      val legacyLatch = new CountDownLatch(1)
+      val expected = (files :+ subdir :+ target).toSet
+      val observer = new SubtreeObserver[Path] {
+        override def onSubtreeDelete(
+            oldEntry: Entry[Path],
+            oldEntries: java.util.Iterator[Entry[Path]]
+        ): Unit = {
+          assert(!oldEntry.getTypedPath.exists)
+          notifications.incrementAndGet()
+          oldEntries.asScala.foreach { e =>
+            assert(!e.getTypedPath.exists)
+            removed.add(e.path)
+          }
+          if (oldEntry.path == target) latch.countDown()
+        }
+        override def onCreate(newEntry: Entry[Path]): Unit = {}
+        override def onDelete(oldEntry: Entry[Path]): Unit = deletions.add(oldEntry.path)
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      }
+      usingAsync(FileCacheTest.getCached(false, identity, observer)) { c =>
+        // Observers that don't implement SubtreeObserver still see every deletion.
+        c.addCacheObserver(new CacheObserverFunctionOps[Path]((e: Entry[Path]) => {
+          if (!e.getTypedPath.exists && legacyDeletions.add(e.path)) {
+            if (legacyDeletions.size == expected.size) legacyLatch.countDown()
+          }
+        }))
+        c.reg(dir)
+        Files.move(target, otherDir.resolve("target"))
+        latch.waitFor(DEFAULT_TIMEOUT) {
+          // The subdirectory is removed with its parent rather than on its own.
+          notifications.get ==> 1
+          removed.asScala ==> (files :+ subdir).toSet
+          deletions.asScala ==> Set.empty[Path]
+          c.ls(dir) ==> Nil
+        }.flatMap { _ =>
+          legacyLatch.waitFor(DEFAULT_TIMEOUT) {
+            legacyDeletions.asScala ==> expected
+          }
+        }
+      }
+    }
+  }
+  val tests = Tests {
+    'moveOut - moveOut
+  }
+}
@@ -0,0 +1,82 @@
+package com
+package swoval
+package files
+
+import java.io.IOException
+import java.nio.file.attribute.FileTime
+import java.nio.file.{ Files, Path }
+import java.util.concurrent.TimeUnit
+
+import com.swoval.files.FileCacheTest.FileCacheOps
+import com.swoval.files.FileTreeDataViews.{ CacheObserver, Converter, DirectorySummary, Entry }
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.concurrent.Future
+
+object SummaryTreeTest extends TestSuite {
+  val converter: Converter[Path] = (typedPath: TypedPath) => typedPath.getPath
+  def check(summary: DirectorySummary, entries: Int, files: Int, size: Long, time: Long): Unit = {
+    summary.getEntryCount ==> entries
+    summary.getFileCount ==> files
+    summary.getTotalSize ==> size
+    summary.getLastModified ==> time
+  }
+  def write(path: Path, size: Int, time: Long): Path = {
+    Files.write(path, new Array[Byte](size))
+    Files.setLastModifiedTime(path, FileTime.fromMillis(time))
+    path
+  }
+
+  def tree: Future[Unit] = withTempDirectorySync { dir =>
+    val tree = new SummaryTree
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    val nested = write(subdir.resolve("nested"), 10, 3000)
+    val file = write(dir.resolve("file"), 5, 2000)
+    Seq(dir, subdir, nested, file).foreach(p => tree.put(TypedPaths.get(p)))
+    check(tree.summarize(dir), 3, 2, 15, 3000)
+    check(tree.summarize(subdir), 1, 1, 10, 3000)
+    assert(tree.summarize(file) == null)
+    assert(tree.summarize(dir.getParent) == null)
+    tree.put(TypedPaths.get(write(nested, 20, 1000)))
+    check(tree.summarize(dir), 3, 2, 25, 2000)
+    tree.remove(subdir)
+    check(tree.summarize(dir), 1, 1, 5, 2000)
+    tree.remove(file)
+    check(tree.summarize(dir), 0, 0, 0, 0)
+  }
+
+  def repository: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val subdir = Files.createDirectories(dir.resolve("subdir"))
+    write(subdir.resolve("nested"), 10, 3000)
+    write(dir.resolve("file"), 5, 2000)
+    val latch = new CountDownLatch(1)
+    usingAsync(FileTreeRepositories.get(converter, false, false, logger)) { c =>
+      c.addCacheObserver(new CacheObserver[Path] {
+        override def onCreate(newEntry: Entry[Path]): Unit = {}
+        override def onDelete(oldEntry: Entry[Path]): Unit =
+          if (oldEntry.getTypedPath.getPath == subdir) latch.countDown()
+        override def onUpdate(oldEntry: Entry[Path], newEntry: Entry[Path]): Unit = {}
+        override def onError(exception: IOException): Unit = {}
+      })
+      c.reg(dir)
+      check(c.summarize(dir), 3, 2, 15, 3000)
+      Files.delete(subdir.resolve("nested"))
+      Files.delete(subdir)
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        assert(c.awaitQuiescence(dir, 200, DEFAULT_TIMEOUT.toMillis, TimeUnit.MILLISECONDS))
+        check(c.summarize(dir), 1, 1, 5, 2000)
+        assert(c.summarize(subdir) == null)
+      }
+    }
+  }
+
+  val tests = Tests {
+    'tree - tree
+    'repository - repository
+  }
+}
@@ -0,0 +1,64 @@
+package com
+package swoval
+package files
+
+import java.nio.file.{ Files, Path, WatchEvent, WatchKey }
+import java.util.Collections
+import java.util.concurrent.{ ConcurrentHashMap, TimeUnit }
+
+import com.swoval.files.PathWatchers.Event
+import com.swoval.files.TestHelpers._
+import com.swoval.files.test._
+import com.swoval.functional.Filter
+import com.swoval.test.Implicits.executionContext
+import com.swoval.test._
+import utest._
+
+import scala.collection.JavaConverters._
+import scala.concurrent.Future
+
+object WatchFilterTest extends TestSuite {
+  private class RecordingWatchService(underlying: RegisterableWatchService)
+      extends RegisterableWatchService {
+    val registered = Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+    override def register(path: Path, kinds: WatchEvent.Kind[_]*): WatchKey = {
+      registered.add(path)
+      underlying.register(path, kinds: _*)
+    }
+    override def poll(): WatchKey = underlying.poll()
+    override def poll(timeout: Long, unit: TimeUnit): WatchKey = underlying.poll(timeout, unit)
+    override def take(): WatchKey = underlying.take()
+    override def close(): Unit = underlying.close()
+  }
+  private val filter: Filter[TypedPath] = (typedPath: TypedPath) =>
+    typedPath.getPath.getFileName.toString != "excluded"
+  def excludedDirectories: Future[Unit] = withTempDirectory { dir =>
+    implicit val logger: TestLogger = new CachingLogger
+    val excluded = Files.createDirectories(dir.resolve("excluded"))
+    val nested = Files.createDirectories(excluded.resolve("nested"))
+    val included = Files.createDirectories(dir.resolve("included"))
+    val service = new RecordingWatchService(RegisterableWatchServices.get())
+    val excludedEvents = Collections.newSetFromMap(new ConcurrentHashMap[Path, java.lang.Boolean])
+    val latch = new CountDownLatch(1)
+    val file = included.resolve("file")
+    usingAsync(new NioPathWatcher(new DirectoryRegistryImpl(), filter, service, logger)) { w =>
+      w.addObserver((e: Event) => {
+        if (e.path.startsWith(excluded)) excludedEvents.add(e.path)
+        if (e.path == file) latch.countDown()
+      })
+      w.register(dir, Integer.MAX_VALUE)
+      service.registered.asScala.toSet ==> Set(dir.getParent, dir, included)
+      Files.createFile(nested.resolve("file"))
+      Files.createDirectories(included.resolve("excluded").resolve("subdir"))
+      Files.createFile(file)
+      latch.waitFor(DEFAULT_TIMEOUT) {
+        excludedEvents.asScala.toSet ==> Set.empty[Path]
+        service.registered.asScala.exists(_.startsWith(excluded)) ==> false
+        service.registered.asScala.exists(_.endsWith("subdir")) ==> false
+      }
+    }
+  }
+  val tests = Tests {
+    'excludedDirectories - excludedDirectories
+  }
+}